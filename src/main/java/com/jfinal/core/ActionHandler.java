@@ -16,6 +16,7 @@
 
 package com.jfinal.core;
 
+import java.sql.SQLTransientConnectionException;
 import java.util.function.BiFunction;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -144,6 +145,10 @@ public class ActionHandler extends Handler {
 			handleActionException(target, request, response, action, e);
 		}
 		catch (Exception e) {
+			if (isOverload(e)) {
+				handleOverload(target, request, response, action, e);
+				return ;
+			}
 			if (log.isErrorEnabled()) {
 				String qs = request.getQueryString();
 				String targetInfo = (qs == null ? target : target + "?" + qs);
@@ -156,6 +161,31 @@ public class ActionHandler extends Handler {
 		}
 	}
 	
+	/**
+	 * 数据库连接池过载，包括 ActiveRecordPlugin.setMaxPendingConnections(...) 触发的快速失败
+	 * 以及连接池获取连接超时，均为 SQLTransientConnectionException
+	 */
+	protected boolean isOverload(Throwable e) {
+		for (int i = 0; e != null && i < 8; i++, e = e.getCause()) {
+			if (e instanceof SQLTransientConnectionException) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * 过载时响应 503，通知客户端与负载均衡稍后重试，避免请求继续堆积
+	 */
+	protected void handleOverload(String target, HttpServletRequest request, HttpServletResponse response, Action action, Exception e) {
+		if (log.isWarnEnabled()) {
+			String qs = request.getQueryString();
+			log.warn("503 Service Unavailable: " + (qs == null ? target : target + "?" + qs) + "\n" + e.getMessage());
+		}
+		response.setHeader("Retry-After", "1");
+		renderManager.getRenderFactory().getErrorRender(503).setContext(request, response, action.getViewPath()).render();
+	}
+	
 	/**
 	 * 抽取出该方法是为了缩短 handle 方法中的代码量，确保获得 JIT 优化，
 	 * 方法长度超过 8000 个字节码时，将不会被 JIT 编译成二进制码
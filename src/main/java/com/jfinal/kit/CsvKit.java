@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.kit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * CsvKit 以流的方式生成、解析 csv，用于 DbPro.bulkInsert(...) 等批量导入场景
+ *
+ * <pre>
+ * csv 格式：
+ * 1：字段以逗号分隔，行以 \n 结尾，解析时兼容 \r\n
+ * 2：字符串使用双引号包围，其中的双引号转义为两个双引号
+ * 3：未使用双引号包围的 NULL 表示 null 值，"NULL" 表示字符串 NULL
+ * 4：数值不加引号，Boolean 输出为 1、0，java.util.Date 输出为 yyyy-MM-dd HH:mm:ss.f 格式
+ *
+ * 该格式可以被 postgresql 的 copy ... with (format csv, null 'NULL') 以及 mysql 的
+ * load data ... fields terminated by ',' optionally enclosed by '"' escaped by '' 直接导入
+ * </pre>
+ */
+public class CsvKit {
+
+	public static final String NULL = "NULL";
+
+	/**
+	 * 将 rows 转换成 csv 格式的 Reader，每次只转换当前读取到的一行，不会将所有数据载入内存
+	 */
+	public static Reader toReader(Iterator<? extends Object[]> rows) {
+		return new RowReader(rows);
+	}
+
+	/**
+	 * 将一行数据转换为 csv，结尾包含 \n
+	 */
+	public static String toLine(Object[] row) {
+		StringBuilder ret = new StringBuilder(row.length * 16);
+		for (int i = 0; i < row.length; i++) {
+			if (i > 0) {
+				ret.append(',');
+			}
+			appendValue(ret, row[i]);
+		}
+		return ret.append('\n').toString();
+	}
+
+	private static void appendValue(StringBuilder ret, Object value) {
+		if (value == null) {
+			ret.append(NULL);
+		} else if (value instanceof BigDecimal) {
+			ret.append(((BigDecimal)value).toPlainString());
+		} else if (value instanceof Number) {
+			ret.append(value);
+		} else if (value instanceof Boolean) {
+			ret.append((Boolean)value ? '1' : '0');
+		} else if (value instanceof byte[]) {
+			throw new IllegalArgumentException("byte[] can not be converted to csv");
+		} else {
+			if (value instanceof java.util.Date && !(value instanceof java.sql.Timestamp || value instanceof java.sql.Date || value instanceof java.sql.Time)) {
+				value = new java.sql.Timestamp(((java.util.Date)value).getTime());
+			}
+			String s = value.toString();
+			ret.append('"');
+			for (int i = 0, n = s.length(); i < n; i++) {
+				char c = s.charAt(i);
+				if (c == '"') {
+					ret.append('"');
+				}
+				ret.append(c);
+			}
+			ret.append('"');
+		}
+	}
+
+	/**
+	 * 逐行解析 csv，每次调用 next() 时才从 reader 中读取下一行
+	 */
+	public static Iterator<String[]> parse(Reader reader) {
+		return new RowIterator(reader);
+	}
+
+	/**
+	 * 将 Reader 以 charset 编码为 InputStream，用于只接收 InputStream 的 jdbc 驱动，例如 mysql 的 load data local infile
+	 */
+	public static InputStream toInputStream(Reader reader, Charset charset) {
+		return new ReaderInputStream(reader, charset);
+	}
+
+	// ---------
+
+	private static class RowReader extends Reader {
+
+		private final Iterator<? extends Object[]> rows;
+		private String line = "";
+		private int pos = 0;
+
+		RowReader(Iterator<? extends Object[]> rows) {
+			this.rows = rows;
+		}
+
+		public int read(char[] cbuf, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			while (pos >= line.length()) {
+				if (!rows.hasNext()) {
+					return -1;
+				}
+				line = toLine(rows.next());
+				pos = 0;
+			}
+			int n = Math.min(len, line.length() - pos);
+			line.getChars(pos, pos + n, cbuf, off);
+			pos += n;
+			return n;
+		}
+
+		public void close() {
+		}
+	}
+
+	private static class RowIterator implements Iterator<String[]> {
+
+		private final Reader reader;
+		private final char[] buf = new char[8192];
+		private int pos = 0;
+		private int limit = 0;
+		private String[] next;
+		private boolean eof = false;
+
+		RowIterator(Reader reader) {
+			this.reader = reader;
+		}
+
+		public boolean hasNext() {
+			if (next == null && !eof) {
+				try {
+					next = readRow();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			return next != null;
+		}
+
+		public String[] next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			String[] ret = next;
+			next = null;
+			return ret;
+		}
+
+		private int read() throws IOException {
+			if (pos >= limit) {
+				limit = reader.read(buf, 0, buf.length);
+				pos = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return -1;
+				}
+			}
+			return buf[pos++];
+		}
+
+		private String[] readRow() throws IOException {
+			List<String> ret = new ArrayList<>();
+			StringBuilder field = new StringBuilder();
+			boolean quoted = false;
+			int c = read();
+			if (c == -1) {
+				eof = true;
+				return null;
+			}
+
+			while (true) {
+				if (c == '"' && field.length() == 0 && !quoted) {
+					quoted = true;
+					while (true) {
+						c = read();
+						if (c == -1) {
+							throw new IllegalArgumentException("Unclosed quote in csv");
+						}
+						if (c == '"') {
+							c = read();
+							if (c != '"') {
+								break;
+							}
+						}
+						field.append((char)c);
+					}
+					continue ;
+				}
+
+				if (c == ',' || c == '\n' || c == '\r' || c == -1) {
+					String value = field.toString();
+					ret.add(!quoted && NULL.equals(value) ? null : value);
+					field.setLength(0);
+					quoted = false;
+
+					if (c == ',') {
+						c = read();
+						continue ;
+					}
+					if (c == '\r') {
+						c = read();
+						if (c != '\n' && c != -1) {
+							pos--;		// 单独的 \r 作为行结尾
+						}
+					}
+					if (c == -1) {
+						eof = true;
+					}
+					return ret.toArray(new String[ret.size()]);
+				}
+
+				field.append((char)c);
+				c = read();
+			}
+		}
+	}
+
+	private static class ReaderInputStream extends InputStream {
+
+		private final Reader reader;
+		private final CharsetEncoder encoder;
+		private final CharBuffer chars = CharBuffer.allocate(4096);
+		private final ByteBuffer bytes = ByteBuffer.allocate(8192);
+		private boolean eof = false;
+
+		ReaderInputStream(Reader reader, Charset charset) {
+			this.reader = reader;
+			this.encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			chars.flip();
+			bytes.flip();
+		}
+
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (!bytes.hasRemaining()) {
+				if (!fill()) {
+					return -1;
+				}
+			}
+			int n = Math.min(len, bytes.remaining());
+			bytes.get(b, off, n);
+			return n;
+		}
+
+		/**
+		 * 编码下一批字符，返回 false 表示已经没有数据
+		 */
+		private boolean fill() throws IOException {
+			if (eof && !chars.hasRemaining()) {
+				return false;
+			}
+
+			if (!eof) {
+				chars.compact();
+				int n = reader.read(chars);
+				chars.flip();
+				if (n == -1) {
+					eof = true;
+				}
+			}
+
+			bytes.clear();
+			CoderResult cr = encoder.encode(chars, bytes, eof);
+			if (cr.isError()) {
+				cr.throwException();
+			}
+			if (eof && !chars.hasRemaining()) {
+				encoder.flush(bytes);
+			}
+			bytes.flip();
+			return bytes.hasRemaining() || !eof || chars.hasRemaining();
+		}
+
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+}
@@ -19,6 +19,7 @@ package com.jfinal.plugin.activerecord;
 import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 import javax.sql.DataSource;
 import com.jfinal.kit.StrKit;
 import com.jfinal.plugin.IPlugin;
@@ -46,6 +47,11 @@ public class ActiveRecordPlugin implements IPlugin {
 
 	protected boolean autoConfigDialect = false;
 
+	protected List<Class<? extends Model<?>>> entityCacheModelList = null;
+
+	protected List<IDataSourceProvider> replicaProviderList = null;
+	protected List<Integer> replicaWeightList = null;
+
 	public ActiveRecordPlugin(String configName, DataSource dataSource, int transactionLevel) {
 		if (StrKit.isBlank(configName)) {
 			throw new IllegalArgumentException("configName can not be blank");
@@ -108,6 +114,27 @@ public class ActiveRecordPlugin implements IPlugin {
 		return this;
 	}
 
+	/**
+	 * 添加映射并指定 Model 的创建函数，ModelBuilder 等使用该函数代替反射创建对象
+	 * <pre>
+	 * 例子：
+	 * arp.addMapping("blog", "id", Blog.class, Blog::new);
+	 * </pre>
+	 */
+	public <M extends Model<?>> ActiveRecordPlugin addMapping(String tableName, String primaryKey, Class<M> modelClass, Supplier<M> modelFactory) {
+		Table table = new Table(tableName, primaryKey, modelClass);
+		table.setModelFactory(modelFactory);
+		tableList.add(table);
+		return this;
+	}
+
+	public <M extends Model<?>> ActiveRecordPlugin addMapping(String tableName, Class<M> modelClass, Supplier<M> modelFactory) {
+		Table table = new Table(tableName, modelClass);
+		table.setModelFactory(modelFactory);
+		tableList.add(table);
+		return this;
+	}
+
 	public ActiveRecordPlugin addSqlTemplate(String sqlTemplate) {
 		config.sqlKit.addSqlTemplate(sqlTemplate);
 		return this;
@@ -148,6 +175,166 @@ public class ActiveRecordPlugin implements IPlugin {
 		return this;
 	}
 
+	/**
+	 * 对 Model 开启按主键缓存的二级缓存 EntityCache，findById 优先从缓存获取，
+	 * update、delete 等操作自动失效缓存
+	 * <pre>
+	 * 例子：
+	 * arp.addMapping("user", User.class);
+	 * arp.addEntityCache(User.class);
+	 * </pre>
+	 */
+	@SafeVarargs
+	public final ActiveRecordPlugin addEntityCache(Class<? extends Model<?>>... modelClasses) {
+		if (entityCacheModelList == null) {
+			entityCacheModelList = new ArrayList<>();
+		}
+		for (Class<? extends Model<?>> c : modelClasses) {
+			entityCacheModelList.add(c);
+		}
+		if (config.entityCache == null) {
+			config.entityCache = new EntityCache();
+		}
+		return this;
+	}
+
+	/**
+	 * 配置 EntityCache 所使用的 ICache，默认使用进程内有界缓存 LruCache
+	 */
+	public ActiveRecordPlugin setEntityCache(ICache cache) {
+		config.entityCache = new EntityCache(cache);
+		return this;
+	}
+
+	/**
+	 * 开启 SqlCache，缓存 Model、Db 单行 save、update、findById、deleteById 等方法
+	 * 由 Dialect 生成的 sql
+	 */
+	public ActiveRecordPlugin setSqlCache(boolean enable) {
+		config.sqlCache = enable ? new SqlCache() : null;
+		return this;
+	}
+
+	public ActiveRecordPlugin setSqlCache(SqlCache sqlCache) {
+		config.sqlCache = sqlCache;
+		return this;
+	}
+
+	/**
+	 * 配置事务中每个 Connection 缓存的 PreparedStatement 数量上限，用于 SqlCache 生成的 sql，
+	 * 默认值 0 表示不缓存。非事务场景建议使用连接池自身的 PreparedStatement 缓存
+	 */
+	public ActiveRecordPlugin setStatementCacheSize(int statementCacheSize) {
+		if (statementCacheSize < 0) {
+			throw new IllegalArgumentException("statementCacheSize can not be less than 0");
+		}
+		config.statementCacheSize = statementCacheSize;
+		return this;
+	}
+
+	/**
+	 * 开启 snapshot 模式，Model 字段第一次被 set 时记录其原值，update() 只更新值真正发生变化的字段，
+	 * 所有字段均未变化时不访问数据库并返回 false
+	 */
+	public ActiveRecordPlugin setSnapshotMode(boolean snapshotMode) {
+		config.snapshotMode = snapshotMode;
+		return this;
+	}
+
+	/**
+	 * 开启准入控制，等待获取 Connection 的线程数超过 maxPendingConnections 时直接抛出
+	 * ConnectionOverloadException，而不是在连接池中排队直至超时，ActionHandler 将其响应为 503。
+	 * 数据源提供 PoolMetrics 时只统计连接池已无空闲连接时真正排队的线程，否则统计所有正在获取 Connection 的线程。
+	 * 一般配置为连接池最大连接数的 1 到 2 倍，默认值 0 表示不限制
+	 */
+	public ActiveRecordPlugin setMaxPendingConnections(int maxPendingConnections) {
+		if (maxPendingConnections < 0) {
+			throw new IllegalArgumentException("maxPendingConnections can not be less than 0");
+		}
+		config.maxPendingConnections = maxPendingConnections;
+		return this;
+	}
+
+	/**
+	 * 开启 TableTagCache，findByCache、findFirstByCache、paginateByCache 的缓存结果关联其查询的表，
+	 * 通过 Model、Db 修改这些表之后缓存自动失效
+	 */
+	public ActiveRecordPlugin setTableTagCache(boolean enable) {
+		config.tableTagCache = enable ? new TableTagCache() : null;
+		return this;
+	}
+
+	/**
+	 * 配置 SqlMonitor，统计 sql 执行耗时、行数、批量大小以及获取 Connection 的等待时间，
+	 * 并输出慢 sql 日志
+	 */
+	public ActiveRecordPlugin setSqlMonitor(SqlMonitor sqlMonitor) {
+		if (sqlMonitor != null) {
+			sqlMonitor.configName = config.name;
+		}
+		config.sqlMonitor = sqlMonitor;
+		return this;
+	}
+
+	/**
+	 * 添加从库，开启读写分离。DbPro、Model 中的只读查询将按 ReplicaRouter 的规则路由到从库
+	 * <pre>
+	 * 例子：
+	 * DruidPlugin primary = new DruidPlugin(...);
+	 * DruidPlugin replica = new DruidPlugin(...);
+	 * ActiveRecordPlugin arp = new ActiveRecordPlugin(primary);
+	 * arp.addReplica(replica);
+	 * arp.setReplicaPolicy(ReplicaRouter.Policy.LEAST_IN_FLIGHT);
+	 * </pre>
+	 * @param weight 权重，用于 ReplicaRouter.Policy.WEIGHTED 策略
+	 */
+	public ActiveRecordPlugin addReplica(DataSource dataSource, int weight) {
+		getReplicaRouter().addReplica(dataSource, weight);
+		return this;
+	}
+
+	public ActiveRecordPlugin addReplica(DataSource dataSource) {
+		return addReplica(dataSource, 1);
+	}
+
+	/**
+	 * 添加从库，DataSource 在 start() 时从 IDataSourceProvider 中获取
+	 */
+	public ActiveRecordPlugin addReplica(IDataSourceProvider dataSourceProvider, int weight) {
+		if (dataSourceProvider == null) {
+			throw new IllegalArgumentException("dataSourceProvider can not be null");
+		}
+		if (weight < 1) {
+			throw new IllegalArgumentException("weight must more than 0");
+		}
+		if (replicaProviderList == null) {
+			replicaProviderList = new ArrayList<>();
+			replicaWeightList = new ArrayList<>();
+		}
+		replicaProviderList.add(dataSourceProvider);
+		replicaWeightList.add(weight);
+		return this;
+	}
+
+	public ActiveRecordPlugin addReplica(IDataSourceProvider dataSourceProvider) {
+		return addReplica(dataSourceProvider, 1);
+	}
+
+	public ActiveRecordPlugin setReplicaPolicy(ReplicaRouter.Policy policy) {
+		getReplicaRouter().setPolicy(policy);
+		return this;
+	}
+
+	/**
+	 * 获取 ReplicaRouter，用于进一步配置 stickyMillis、LagChecker 等
+	 */
+	public ReplicaRouter getReplicaRouter() {
+		if (config.replicaRouter == null) {
+			config.replicaRouter = new ReplicaRouter();
+		}
+		return config.replicaRouter;
+	}
+
 	public ActiveRecordPlugin setShowSql(boolean showSql) {
 		config.showSql = showSql;
 		return this;
@@ -168,6 +355,9 @@ public class ActiveRecordPlugin implements IPlugin {
 			throw new IllegalArgumentException("dialect can not be null");
 		}
 		config.dialect = dialect;
+		if (config.sqlCache != null) {
+			config.sqlCache.clear();
+		}
 		if (config.transactionLevel == Connection.TRANSACTION_REPEATABLE_READ && dialect.isOracle()) {
 			// Oracle 不支持 Connection.TRANSACTION_REPEATABLE_READ
 			config.transactionLevel = Connection.TRANSACTION_READ_COMMITTED;
@@ -221,6 +411,9 @@ public class ActiveRecordPlugin implements IPlugin {
 		if (config.dataSource == null && dataSourceProvider != null) {
 			config.dataSource = dataSourceProvider.getDataSource();
 		}
+		if (config.poolMetrics == null && dataSourceProvider != null) {
+			config.poolMetrics = dataSourceProvider.getPoolMetrics();
+		}
 		if (config.dataSource == null) {
 			throw new RuntimeException("ActiveRecord start error: ActiveRecordPlugin need DataSource or DataSourceProvider");
 		}
@@ -232,9 +425,31 @@ public class ActiveRecordPlugin implements IPlugin {
 			autoConfigDialect(dataSourceProvider.getJdbcUrl());
 		}
 
+		if (replicaProviderList != null) {
+			for (int i=0; i<replicaProviderList.size(); i++) {
+				DataSource ds = replicaProviderList.get(i).getDataSource();
+				if (ds == null) {
+					throw new RuntimeException("ActiveRecord start error: replica DataSourceProvider return null DataSource");
+				}
+				getReplicaRouter().addReplica(ds, replicaWeightList.get(i));
+			}
+			replicaProviderList = null;
+			replicaWeightList = null;
+		}
+
 		config.sqlKit.parseSqlTemplate();
 
 		tableBuilder.build(tableList, config);
+		if (entityCacheModelList != null) {
+			if (config.entityCache == null) {
+				config.entityCache = new EntityCache();
+			}
+			for (Table table : tableList) {
+				if (entityCacheModelList.contains(table.getModelClass())) {
+					config.entityCache.addTable(table);
+				}
+			}
+		}
 		DbKit.addConfig(config);
 		isStarted = true;
 		return true;
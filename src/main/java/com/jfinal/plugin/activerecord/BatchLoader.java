@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * BatchLoader 通过 where column in (...) 一次性加载一组 Model、Record 的关联数据，消除 N + 1 查询
+ *
+ * <pre>
+ * 1：关联值去重，并按 min(chunkSize, Dialect.getMaxParaCount()) 分块查询
+ * 2：关联数据通过 put(attachAttr, ...) 挂载到每个对象上，在模板中可直接使用
+ * 3：Integer、Long、BigInteger 以及整数值的 BigDecimal 关联值统一按 Long 比对，
+ *    避免外键与主键的 java 类型不一致时匹配失败，例如 mysql 的 bigint unsigned、oracle 的 NUMBER
+ *
+ * 例子：
+ * List<Blog> blogs = Blog.dao.find("select * from blog limit 20");
+ *
+ * // blog.user_id -> user.id，为每个 blog 挂载 User 对象：blog.get("author")
+ * User.dao.loadBelongsTo(blogs, "user_id", "author");
+ *
+ * // comment.blog_id -> blog.id，为每个 blog 挂载 List<Comment>：blog.get("comments")
+ * Comment.dao.loadHasMany(blogs, "blog_id", "comments");
+ *
+ * // Record 用法
+ * Db.loadBelongsTo(records, "user_id", "user", "id", "author");
+ * Db.loadHasMany(records, "id", "comment", "blog_id", "comments");
+ * </pre>
+ */
+public class BatchLoader {
+
+	private static int chunkSize = 1000;
+
+	private BatchLoader() {}
+
+	/**
+	 * 每条 in (...) 查询的参数个数上限，默认值 1000，实际使用值不超过 Dialect.getMaxParaCount()
+	 */
+	public static void setChunkSize(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must more than 0");
+		}
+		BatchLoader.chunkSize = chunkSize;
+	}
+
+	/**
+	 * 整数值统一转为 Long，超出 Long 范围时转为 BigInteger，用于关联值以及主键的比对
+	 */
+	static Object key(Object value) {
+		if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return ((Number)value).longValue();
+		}
+		if (value instanceof BigInteger) {
+			BigInteger bi = (BigInteger)value;
+			return bi.bitLength() < 64 ? (Object)bi.longValue() : bi;
+		}
+		if (value instanceof BigDecimal) {
+			BigDecimal bd = ((BigDecimal)value).stripTrailingZeros();
+			return bd.scale() <= 0 ? key(bd.toBigInteger()) : bd;
+		}
+		return value;
+	}
+
+	/**
+	 * 分块执行 select * from tableName where column in (?, ?, ...)
+	 */
+	static <T> List<T> findIn(Config config, String tableName, String column, Collection<?> values, BiFunction<String, Object[], List<T>> finder) {
+		if (values.isEmpty()) {
+			return new ArrayList<T>(0);
+		}
+
+		int size = Math.max(1, Math.min(chunkSize, config.dialect.getMaxParaCount()));
+		List<T> ret = null;
+		Iterator<?> it = values.iterator();
+		int remain = values.size();
+		while (remain > 0) {
+			int n = Math.min(size, remain);
+			Object[] paras = new Object[n];
+			StringBuilder sql = new StringBuilder(tableName.length() + column.length() + 32 + n * 3);
+			sql.append("select * from ").append(tableName).append(" where ").append(column).append(" in (");
+			for (int i = 0; i < n; i++) {
+				paras[i] = it.next();
+				sql.append(i == 0 ? "?" : ", ?");
+			}
+			sql.append(')');
+			remain -= n;
+
+			List<T> list = finder.apply(sql.toString(), paras);
+			if (ret == null) {
+				ret = list;
+			} else {
+				ret.addAll(list);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * 多对一：以 list 中每个对象的外键值查询目标对象，为每个对象挂载一个目标对象，不存在时挂载 null
+	 */
+	static <S, T> void belongsTo(List<S> list, Function<S, Object> fkGetter, BiConsumer<S, T> attacher, Function<Collection<Object>, List<T>> finder, Function<T, Object> pkGetter) {
+		Map<Object, T> map = new HashMap<>();
+		for (T t : finder.apply(distinctValues(list, fkGetter))) {
+			map.put(key(pkGetter.apply(t)), t);
+		}
+		for (S s : list) {
+			Object value = fkGetter.apply(s);
+			attacher.accept(s, value != null ? map.get(key(value)) : null);
+		}
+	}
+
+	/**
+	 * 一对多：以 list 中每个对象的主键值查询目标对象，为每个对象挂载目标对象列表，不存在时挂载空列表
+	 */
+	static <S, T> void hasMany(List<S> list, Function<S, Object> pkGetter, BiConsumer<S, List<T>> attacher, Function<Collection<Object>, List<T>> finder, Function<T, Object> fkGetter) {
+		Map<Object, List<T>> map = new HashMap<>();
+		for (T t : finder.apply(distinctValues(list, pkGetter))) {
+			map.computeIfAbsent(key(fkGetter.apply(t)), k -> new ArrayList<>()).add(t);
+		}
+		for (S s : list) {
+			Object value = pkGetter.apply(s);
+			List<T> ret = value != null ? map.get(key(value)) : null;
+			attacher.accept(s, ret != null ? ret : new ArrayList<>(0));
+		}
+	}
+
+	private static <S> Collection<Object> distinctValues(List<S> list, Function<S, Object> getter) {
+		Map<Object, Object> ret = new LinkedHashMap<>();
+		for (S s : list) {
+			Object value = getter.apply(s);
+			if (value != null) {
+				ret.putIfAbsent(key(value), value);
+			}
+		}
+		return ret.values();
+	}
+
+	static String singlePrimaryKey(Table table) {
+		String[] pKeys = table.getPrimaryKey();
+		if (pKeys.length != 1) {
+			throw new ActiveRecordException("Batch loading does not support composite primary key, table: " + table.getName());
+		}
+		return pKeys[0];
+	}
+}
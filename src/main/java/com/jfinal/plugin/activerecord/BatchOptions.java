@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import java.util.concurrent.Executor;
+
+/**
+ * BatchOptions 配置 DbPro.batch(..., BatchOptions) 的分块、提交与流水线方式
+ *
+ * <pre>
+ * 1：pipelined 为 true 时，在当前分块执行 executeBatch() 的同时，由 executor 中的线程准备
+ *    下一个分块的参数数组（从 Model、Record 中取值、日期类型转换），参数绑定与执行仍在当前线程
+ *
+ * 2：CommitPolicy.PER_CHUNK 每个分块提交一次，与 batch(sql, paras, batchSize) 行为一致；
+ *    出现异常时回滚出错的分块；CommitPolicy.AT_END 全部分块执行完以后提交一次，出现异常时全部回滚。
+ *    处于事务之中时由事务统一提交
+ *
+ * 3：ChunkListener 可获取每个分块的耗时，用于观察准备参数与执行 sql 哪一边是瓶颈
+ *
+ * 4：continueOnError 为 true 时，分块执行出错不中断，该分块的结果取自 BatchUpdateException.getUpdateCounts()，
+ *    驱动未给出结果的行为 Statement.EXECUTE_FAILED，已执行的行照常提交
+ *
+ * 例子：
+ * BatchOptions options = new BatchOptions(1000)
+ *     .setPipelined(true)
+ *     .setCommitPolicy(BatchOptions.CommitPolicy.AT_END)
+ *     .setChunkListener((index, rows, prepareNanos, waitNanos, executeNanos) -> log.info(...));
+ * Db.batch(sql, "name, cash", recordList, options);
+ * </pre>
+ */
+public class BatchOptions {
+
+	public enum CommitPolicy {
+		PER_CHUNK,	// 每个分块提交一次
+		AT_END		// 全部完成后提交一次
+	}
+
+	/**
+	 * 分块执行完成时回调
+	 */
+	@FunctionalInterface
+	public interface ChunkListener {
+		/**
+		 * @param chunkIndex 分块序号，从 0 开始
+		 * @param rows 分块中的行数
+		 * @param prepareNanos 准备参数数组的耗时，流水线模式下与上一分块的执行重叠
+		 * @param waitNanos 等待参数数组准备完成的耗时，流水线模式下该值越大说明准备参数越慢
+		 * @param executeNanos 绑定参数、executeBatch() 以及提交的耗时
+		 */
+		void onChunk(int chunkIndex, int rows, long prepareNanos, long waitNanos, long executeNanos);
+	}
+
+	int batchSize;
+	boolean pipelined = false;
+	CommitPolicy commitPolicy = CommitPolicy.PER_CHUNK;
+	boolean continueOnError = false;
+	ChunkListener chunkListener;
+	Executor executor;
+
+	public BatchOptions(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("The batchSize must more than 0.");
+		}
+		this.batchSize = batchSize;
+	}
+
+	public BatchOptions setPipelined(boolean pipelined) {
+		this.pipelined = pipelined;
+		return this;
+	}
+
+	public BatchOptions setCommitPolicy(CommitPolicy commitPolicy) {
+		if (commitPolicy == null) {
+			throw new IllegalArgumentException("commitPolicy can not be null");
+		}
+		this.commitPolicy = commitPolicy;
+		return this;
+	}
+
+	/**
+	 * 分块执行出错时是否继续执行后续分块，默认值 false
+	 */
+	public BatchOptions setContinueOnError(boolean continueOnError) {
+		this.continueOnError = continueOnError;
+		return this;
+	}
+
+	public BatchOptions setChunkListener(ChunkListener chunkListener) {
+		this.chunkListener = chunkListener;
+		return this;
+	}
+
+	/**
+	 * 流水线模式下准备参数数组使用的线程池，默认使用 DbAsync.getExecutor()
+	 */
+	public BatchOptions setExecutor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public boolean isPipelined() {
+		return pipelined;
+	}
+
+	public CommitPolicy getCommitPolicy() {
+		return commitPolicy;
+	}
+
+	public boolean isContinueOnError() {
+		return continueOnError;
+	}
+
+	Executor getExecutor() {
+		return executor != null ? executor : DbAsync.getExecutor();
+	}
+}
@@ -36,6 +36,13 @@ public class CaseInsensitiveContainerFactory implements IContainerFactory {
 		this.toLowerCase = toLowerCase;
 	}
 
+	/**
+	 * 字段名的大小写转换方式，null 表示保持原样
+	 */
+	public Boolean getToLowerCase() {
+		return toLowerCase;
+	}
+
 	public Map<String, Object> getAttrsMap() {
 		return new CaseInsensitiveMap<Object>();
 	}
@@ -94,6 +101,10 @@ public class CaseInsensitiveContainerFactory implements IContainerFactory {
 			super(String.CASE_INSENSITIVE_ORDER);
 		}
 
+		public CaseInsensitiveContainerFactory getContainerFactory() {
+			return CaseInsensitiveContainerFactory.this;
+		}
+
 		public V put(String key, V value) {
 			return super.put(convertCase(key), value);
 		}
@@ -17,11 +17,15 @@
 package com.jfinal.plugin.activerecord;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import javax.sql.DataSource;
 import com.jfinal.kit.LogKit;
 import com.jfinal.kit.StrKit;
@@ -37,6 +41,7 @@ public class Config {
 
 	private final ThreadLocal<Transaction<?>> transactionTL = new ThreadLocal<>();
 	private final ThreadLocal<Runnable> callbackAfterTxCommitTL = new ThreadLocal<>();
+	private final ThreadLocal<StatementCache> statementCacheTL = new ThreadLocal<>();
 	// 事务抛出异常时的默认处理函数
 	private Function<Exception, ?> onTransactionException;
 	// 事务提交之前处理函数。默认实现兼容老版本通过 return false 回滚事务
@@ -59,6 +64,28 @@ public class Config {
 
 	SqlKit sqlKit;
 
+	// 缓存 Dialect 生成的 CRUD sql，为 null 时不缓存
+	SqlCache sqlCache;
+	// 事务中每个 Connection 缓存的 PreparedStatement 数量上限，为 0 时不缓存
+	int statementCacheSize = 0;
+	// 读写分离，为 null 时所有操作使用 dataSource
+	ReplicaRouter replicaRouter;
+	// 按主键缓存 Model 的二级缓存，为 null 时不缓存
+	EntityCache entityCache;
+	// sql 执行统计，为 null 时不统计
+	SqlMonitor sqlMonitor;
+	// Model.update() 只更新值真正发生变化的字段
+	boolean snapshotMode = false;
+	// 表被修改后自动失效相关的 findByCache 等缓存，为 null 时不启用
+	TableTagCache tableTagCache;
+
+	PoolMetrics poolMetrics;
+	// 在连接池中排队等待 Connection 的线程数，超过 maxPendingConnections 时快速失败，0 表示不限制
+	final AtomicInteger pendingConnections = new AtomicInteger();
+	int maxPendingConnections = 0;
+	final SqlMonitor.Stat connectionWaitStat = new SqlMonitor.Stat("_CONNECTION_WAIT_");
+	final SqlMonitor.Stat connectionWaitFailStat = new SqlMonitor.Stat("_CONNECTION_WAIT_FAIL_");
+
 	// For ActiveRecordPlugin only, dataSource can be null
 	public Config(String name, DataSource dataSource, int transactionLevel) {
 		init(name, dataSource, new MysqlDialect(), false, false, transactionLevel, IContainerFactory.defaultContainerFactory, new EhCache());
@@ -194,6 +221,91 @@ public class Config {
 		return devMode;
 	}
 
+	public SqlCache getSqlCache() {
+		return sqlCache;
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	public ReplicaRouter getReplicaRouter() {
+		return replicaRouter;
+	}
+
+	public EntityCache getEntityCache() {
+		return entityCache;
+	}
+
+	public SqlMonitor getSqlMonitor() {
+		return sqlMonitor;
+	}
+
+	public boolean isSnapshotMode() {
+		return snapshotMode;
+	}
+
+	public TableTagCache getTableTagCache() {
+		return tableTagCache;
+	}
+
+	/**
+	 * 连接池运行状态，IDataSourceProvider 不支持时返回 null
+	 */
+	public PoolMetrics getPoolMetrics() {
+		return poolMetrics;
+	}
+
+	/**
+	 * 当前在连接池中排队等待 Connection 的线程数，判断方式参考 PoolMetrics
+	 */
+	public int getPendingConnections() {
+		return pendingConnections.get();
+	}
+
+	public int getMaxPendingConnections() {
+		return maxPendingConnections;
+	}
+
+	/**
+	 * 获取 Connection 耗时的统计，包含直方图，获取失败（准入拒绝、连接池超时）的耗时同样计入
+	 */
+	public SqlMonitor.Stat getConnectionWaitStat() {
+		return connectionWaitStat;
+	}
+
+	/**
+	 * 获取 Connection 失败的统计，包含直方图
+	 */
+	public SqlMonitor.Stat getConnectionWaitFailStat() {
+		return connectionWaitFailStat;
+	}
+
+	/**
+	 * findByCache、paginateByCache 等方法的缓存入口，启用 TableTagCache 时关联 sql 所查询的表
+	 */
+	<T> T getByCache(String cacheName, Object key, String sql, Supplier<T> loader) {
+		if (tableTagCache != null) {
+			return tableTagCache.get(cache, cacheName, key, sql, loader);
+		}
+		return cache.get(cacheName, key, loader);
+	}
+
+	/**
+	 * 通知 TableTagCache 表已被修改
+	 */
+	void onTableModified(String tableName) {
+		if (tableTagCache != null) {
+			tableTagCache.bump(this, tableName);
+		}
+	}
+
+	void onSqlExecuted(String sql) {
+		if (tableTagCache != null) {
+			tableTagCache.bumpSql(this, sql);
+		}
+	}
+
 	// --------
 
 	/**
@@ -204,6 +316,7 @@ public class Config {
 	}
 
 	public void removeThreadLocalConnection() {
+		closeStatementCache();
 		threadLocal.remove();
 	}
 
@@ -214,7 +327,69 @@ public class Config {
 		Connection conn = threadLocal.get();
 		if (conn != null)
 			return conn;
-		return showSql ? new SqlReporter(dataSource.getConnection()).getConnection() : dataSource.getConnection();
+		if (replicaRouter != null)
+			replicaRouter.markWrite();
+		return openConnection();
+	}
+
+	/**
+	 * Get Connection for read only query. 配置了从库时按 ReplicaRouter 的规则路由到从库，
+	 * 事务之中以及无可用从库时与 getConnection() 相同
+	 */
+	public Connection getReadConnection() throws SQLException {
+		Connection conn = threadLocal.get();
+		if (conn != null)
+			return conn;
+		if (replicaRouter != null) {
+			conn = replicaRouter.getConnection(this);
+			if (conn != null)
+				return conn;
+		}
+		return openConnection();
+	}
+
+	private Connection openConnection() throws SQLException {
+		long start = System.nanoTime();
+		Connection conn;
+		try {
+			if (mustWaitForConnection()) {
+				int pending = pendingConnections.incrementAndGet();
+				try {
+					if (maxPendingConnections > 0 && pending > maxPendingConnections) {
+						throw new ConnectionOverloadException(name, pending - 1, maxPendingConnections);
+					}
+					conn = dataSource.getConnection();
+				} finally {
+					pendingConnections.decrementAndGet();
+				}
+			} else {
+				conn = dataSource.getConnection();
+			}
+		} catch (SQLException | RuntimeException e) {
+			// 拒绝与超时同样计入等待耗时统计，另外单独计数
+			connectionWaitFailStat.add(System.nanoTime() - start, 0, 0);
+			recordConnectionWait(start);
+			throw e;
+		}
+
+		recordConnectionWait(start);
+		return showSql ? new SqlReporter(conn).getConnection() : conn;
+	}
+
+	/**
+	 * 连接池有空闲连接或者尚未达到最大连接数时无需排队，不计入等待线程数。
+	 * 连接池未提供 PoolMetrics 时无法判断，所有获取 Connection 的线程均计入
+	 */
+	private boolean mustWaitForConnection() {
+		PoolMetrics pm = poolMetrics;
+		return pm == null || (pm.getIdle() <= 0 && pm.getActive() >= pm.getMax());
+	}
+
+	private void recordConnectionWait(long start) {
+		connectionWaitStat.add(System.nanoTime() - start, 0, 0);
+		SqlMonitor monitor = sqlMonitor;
+		if (monitor != null)
+			monitor.recordConnectionWait(start);
 	}
 
 	/**
@@ -225,6 +400,22 @@ public class Config {
 		return threadLocal.get();
 	}
 
+	/**
+	 * 暂时移除当前线程的事务 Connection 并执行 supplier，使 supplier 中的操作获取独立的 Connection
+	 */
+	<T> T callWithoutTransaction(Supplier<T> supplier) {
+		Connection conn = threadLocal.get();
+		if (conn == null)
+			return supplier.get();
+
+		threadLocal.remove();
+		try {
+			return supplier.get();
+		} finally {
+			threadLocal.set(conn);
+		}
+	}
+
 	/**
 	 * Return true if current thread in transaction.
 	 */
@@ -241,6 +432,7 @@ public class Config {
 		if (st != null) {try {st.close();} catch (SQLException e) {LogKit.error(e.getMessage(), e);}}
 
 		if (threadLocal.get() == null) {	// in transaction if conn in threadlocal
+			if (replicaRouter != null) replicaRouter.release(conn);
 			if (conn != null) {try {conn.close();}
 			catch (SQLException e) {throw new ActiveRecordException(e);}}
 		}
@@ -250,21 +442,168 @@ public class Config {
 		if (st != null) {try {st.close();} catch (SQLException e) {LogKit.error(e.getMessage(), e);}}
 
 		if (threadLocal.get() == null) {	// in transaction if conn in threadlocal
+			if (replicaRouter != null) replicaRouter.release(conn);
 			if (conn != null) {try {conn.close();}
 			catch (SQLException e) {throw new ActiveRecordException(e);}}
 		}
 	}
 
 	public void close(Connection conn) {
-		if (threadLocal.get() == null)		// in transaction if conn in threadlocal
+		if (threadLocal.get() == null) {	// in transaction if conn in threadlocal
+			if (replicaRouter != null) replicaRouter.release(conn);
 			if (conn != null)
 				try {conn.close();} catch (SQLException e) {throw new ActiveRecordException(e);}
+		}
+	}
+
+	/**
+	 * 为 Dialect 生成的 CRUD sql 创建 PreparedStatement
+	 *
+	 * 配置了 statementCacheSize 且当前处于事务之中时，复用当前事务 Connection 上已创建的
+	 * PreparedStatement。使用完以后必须调用 closeStatement(...) 而非 pst.close()
+	 *
+	 * @param generatedKeys 为 null 时创建普通 PreparedStatement，否则创建可获取自增主键的 PreparedStatement
+	 */
+	PreparedStatement prepareStatement(Connection conn, String sql, String[] generatedKeys) throws SQLException {
+		StatementCache sc = getStatementCache(conn);
+		if (sc != null) {
+			PreparedStatement pst = sc.get(sql);
+			if (pst != null) {
+				return pst;
+			}
+		}
+
+		PreparedStatement pst;
+		if (generatedKeys == null) {
+			pst = conn.prepareStatement(sql);
+		} else if (dialect.isOracle()) {
+			pst = conn.prepareStatement(sql, generatedKeys);
+		} else {
+			pst = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+		}
+
+		if (sc != null) {
+			sc.put(sql, pst);
+		}
+		return pst;
+	}
+
+	/**
+	 * 关闭由 prepareStatement(...) 创建的 PreparedStatement，被缓存的 PreparedStatement 在事务结束时关闭
+	 */
+	void closeStatement(PreparedStatement pst) {
+		if (pst == null) {
+			return ;
+		}
+		StatementCache sc = statementCacheTL.get();
+		if (sc != null && sc.contains(pst)) {
+			return ;
+		}
+		try {pst.close();} catch (SQLException e) {LogKit.error(e.getMessage(), e);}
+	}
+
+	// -------- 执行 sql 并交由 SqlMonitor 记录，DbPro、Model 中所有 sql 的执行均经由以下方法
+
+	/**
+	 * 读取 ResultSet 生成结果，用于 executeQuery(...)
+	 */
+	@FunctionalInterface
+	interface ResultSetHandler<T, E extends Exception> {
+		List<T> handle(ResultSet rs) throws SQLException, E;
+	}
+
+	/**
+	 * 执行查询，记录的耗时包含 handler 读取 ResultSet 的时间
+	 */
+	<T, E extends Exception> List<T> executeQuery(PreparedStatement pst, String sql, Object[] paras, ResultSetHandler<T, E> handler) throws SQLException, E {
+		SqlMonitor monitor = sqlMonitor;
+		long start = monitor != null ? System.nanoTime() : 0;
+		ResultSet rs = pst.executeQuery();
+		List<T> ret;
+		try {
+			ret = handler.handle(rs);
+		} finally {
+			DbKit.close(rs);
+		}
+		if (monitor != null)
+			monitor.record(sql, paras, start, ret.size());
+		return ret;
+	}
+
+	int executeUpdate(PreparedStatement pst, String sql, Object[] paras) throws SQLException {
+		SqlMonitor monitor = sqlMonitor;
+		long start = monitor != null ? System.nanoTime() : 0;
+		int ret = pst.executeUpdate();
+		if (monitor != null)
+			monitor.record(sql, paras, start, ret);
+		return ret;
+	}
+
+	int[] executeBatch(Statement st, String sql) throws SQLException {
+		SqlMonitor monitor = sqlMonitor;
+		long start = monitor != null ? System.nanoTime() : 0;
+		int[] ret = st.executeBatch();
+		if (monitor != null)
+			monitor.recordBatch(sql, start, ret);
+		return ret;
+	}
+
+	private StatementCache getStatementCache(Connection conn) {
+		if (statementCacheSize <= 0 || conn != threadLocal.get()) {
+			return null;
+		}
+		StatementCache sc = statementCacheTL.get();
+		if (sc == null || sc.conn != conn) {
+			if (sc != null) {
+				sc.close();
+			}
+			sc = new StatementCache(conn, statementCacheSize);
+			statementCacheTL.set(sc);
+		}
+		return sc;
+	}
+
+	/**
+	 * 关闭当前线程事务 Connection 上缓存的 PreparedStatement，须在关闭事务 Connection 之前调用
+	 */
+	public void closeStatementCache() {
+		StatementCache sc = statementCacheTL.get();
+		if (sc != null) {
+			statementCacheTL.remove();
+			sc.close();
+		}
 	}
 
 	public void setCallbackAfterTxCommit(Runnable callback) {
 		callbackAfterTxCommitTL.set(callback);
 	}
 
+	/**
+	 * 添加事务提交后的回调，与已存在的回调依次执行，而 setCallbackAfterTxCommit(...) 会覆盖已存在的回调。
+	 * 处于新版本事务方法 transaction(...) 之中时，转为 Transaction.onAfterCommit(...)
+	 */
+	public void addCallbackAfterTxCommit(Runnable callback) {
+		Transaction<?> tx = transactionTL.get();
+		if (tx != null) {
+			tx.onAfterCommit(callback);
+			return ;
+		}
+
+		Runnable prev = callbackAfterTxCommitTL.get();
+		if (prev == null) {
+			callbackAfterTxCommitTL.set(callback);
+		} else {
+			callbackAfterTxCommitTL.set(() -> {
+				try {
+					prev.run();
+				} catch (Exception e) {
+					com.jfinal.log.Log.getLog(Config.class).error(e.getMessage(), e);
+				}
+				callback.run();
+			});
+		}
+	}
+
 	public void removeCallbackAfterTxCommit() {
 		callbackAfterTxCommitTL.remove();
 	}
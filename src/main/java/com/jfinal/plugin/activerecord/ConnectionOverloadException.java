@@ -0,0 +1,32 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * 等待获取 Connection 的线程数超过 ActiveRecordPlugin.setMaxPendingConnections(...) 时抛出，
+ * 使请求快速失败而不是在连接池中排队直至超时。ActionHandler 将其响应为 503
+ */
+public class ConnectionOverloadException extends SQLTransientConnectionException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ConnectionOverloadException(String configName, int pending, int maxPending) {
+		super("Too many threads waiting for connection of config \"" + configName + "\": " + pending + ", max pending: " + maxPending);
+	}
+}
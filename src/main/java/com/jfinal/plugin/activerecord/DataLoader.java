@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * DataLoader 在一次请求之内合并 Model.findById(...) 查询
+ *
+ * <pre>
+ * 1：在 DataLoader 作用域内（配置 DataLoaderInterceptor，或者 DataLoader.call(...)），
+ *    findById(id) 的结果在作用域内被记住，重复查询同一 id 不再访问数据库
+ *
+ * 2：先通过 DataLoader.load(dao, id) 登记需要查询的 id，首次调用返回的 Supplier.get()
+ *    或者 findById(...) 时，所有已登记的 id 合并为一条 where id in (...) 查询
+ *
+ * 3：loadBelongsTo(...) 批量加载的对象同样被记住，后续 findById(...) 直接命中
+ *
+ * 4：作用域内通过 Model 的 save、update、delete 修改数据时，清除该 Model 被记住的对象，
+ *    通过 Db.update(...) 等方式修改数据后需调用 DataLoader.clear()
+ *
+ * 5：仅作用于单主键、"*" 列、不在事务中的 findById，作用域内同一 id 返回同一对象
+ *
+ * 例子：
+ * List<Supplier<User>> authors = new ArrayList<>();
+ * for (Blog blog : blogs) {
+ *     authors.add(DataLoader.load(User.dao, blog.getUserId()));
+ * }
+ * for (Supplier<User> author : authors) {
+ *     author.get();		// 首次 get() 时一次性查询所有 User
+ * }
+ * </pre>
+ */
+public class DataLoader {
+
+	private static final ThreadLocal<DataLoader> TL = new ThreadLocal<>();
+
+	// key 为 configName + "." + Model 类名
+	private final Map<String, Map<Object, Model<?>>> loadedMap = new HashMap<>();
+	private final Map<String, Map<Object, Object>> pendingMap = new HashMap<>();
+
+	private DataLoader() {}
+
+	/**
+	 * 在 DataLoader 作用域内执行 supplier，已处于作用域内时沿用外层作用域
+	 */
+	public static <T> T call(Supplier<T> supplier) {
+		if (TL.get() != null) {
+			return supplier.get();
+		}
+
+		TL.set(new DataLoader());
+		try {
+			return supplier.get();
+		} finally {
+			TL.remove();
+		}
+	}
+
+	public static void run(Runnable runnable) {
+		call(() -> {
+			runnable.run();
+			return null;
+		});
+	}
+
+	static DataLoader current() {
+		return TL.get();
+	}
+
+	/**
+	 * 清除当前作用域内记住的所有对象
+	 */
+	public static void clear() {
+		DataLoader dl = TL.get();
+		if (dl != null) {
+			dl.loadedMap.clear();
+			dl.pendingMap.clear();
+		}
+	}
+
+	/**
+	 * 登记需要查询的 id，返回的 Supplier.get() 等价于 dao.findById(id)。
+	 * 不在作用域内时不做登记
+	 */
+	public static <M extends Model<M>> Supplier<M> load(M dao, Object id) {
+		DataLoader dl = TL.get();
+		if (dl != null && id != null && dao._getTable().getPrimaryKey().length == 1) {
+			String name = nameOf(dao._getConfig(), dao);
+			Object key = BatchLoader.key(id);
+			Map<Object, Model<?>> loaded = dl.loadedMap.get(name);
+			if (loaded == null || !loaded.containsKey(key)) {
+				dl.pendingMap.computeIfAbsent(name, k -> new LinkedHashMap<>()).putIfAbsent(key, id);
+			}
+		}
+		return () -> dao.findById(id);
+	}
+
+	private static String nameOf(Config config, Model<?> model) {
+		return config.getName() + "." + model._getUsefulClass().getName();
+	}
+
+	// --------
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	<M> M findById(Model dao, Config config, Table table, Object id) {
+		String name = nameOf(config, dao);
+		Map<Object, Model<?>> loaded = loadedMap.computeIfAbsent(name, k -> new HashMap<>());
+		Object key = BatchLoader.key(id);
+		Model<?> ret = loaded.get(key);
+		if (ret != null || loaded.containsKey(key)) {
+			return (M)ret;
+		}
+
+		Map<Object, Object> ids = pendingMap.remove(name);
+		if (ids == null) {
+			ids = new LinkedHashMap<>();
+		}
+		ids.putIfAbsent(key, id);
+
+		// 开启 EntityCache 时先批量获取缓存，只查询未命中的 id
+		EntityCache ec = config.entityCache;
+		boolean useEntityCache = ec != null && ec.isCached(table);
+		Object version = null;
+		if (useEntityCache) {
+			List<Model> cached = ec.getAll(table, new ArrayList<>(ids.values()), dao._getUsefulClass());
+			Iterator<Object> it = ids.keySet().iterator();
+			for (Model m : cached) {
+				Object k = it.next();
+				if (m != null) {
+					loaded.put(k, m);
+					it.remove();
+				}
+			}
+			version = ec.version(table);
+		}
+
+		String pKey = table.getPrimaryKey()[0];
+		if (!ids.isEmpty()) {
+			// 用于填充缓存的查询使用主库，明确指定从库时不写入缓存
+			boolean fillCache = useEntityCache && !EntityCache.isReplicaRead(config);
+			Collection<Object> values = ids.values();
+			List<Model> list = fillCache ? EntityCache.loadFromPrimary(config, () -> dao.findByColumnIn(pKey, values)) : dao.findByColumnIn(pKey, values);
+			for (Model m : list) {
+				Object pk = m.get(pKey);
+				loaded.put(BatchLoader.key(pk), m);
+				if (fillCache) {
+					ec.put(table, new Object[]{pk}, m._getAttrs(), version);
+				}
+			}
+		}
+		for (Object k : ids.keySet()) {
+			loaded.putIfAbsent(k, null);		// 记住不存在的 id
+		}
+		return (M)loaded.get(key);
+	}
+
+	void prime(Config config, Model<?> dao, Object id, Model<?> model) {
+		loadedMap.computeIfAbsent(nameOf(config, dao), k -> new HashMap<>()).put(BatchLoader.key(id), model);
+	}
+
+	/**
+	 * Model 的 save、update、delete 成功后调用
+	 */
+	static void remove(Config config, Model<?> model) {
+		DataLoader dl = TL.get();
+		if (dl != null) {
+			String name = nameOf(config, model);
+			dl.loadedMap.remove(name);
+			dl.pendingMap.remove(name);
+		}
+	}
+}
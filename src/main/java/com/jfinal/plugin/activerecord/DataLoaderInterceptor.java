@@ -0,0 +1,37 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import com.jfinal.aop.Interceptor;
+import com.jfinal.aop.Invocation;
+
+/**
+ * DataLoaderInterceptor 为每次 action 调用开启 DataLoader 作用域，
+ * 合并同一次请求之内的 Model.findById(...) 查询
+ *
+ * <pre>
+ * public void configInterceptor(Interceptors me) {
+ *     me.add(new DataLoaderInterceptor());
+ * }
+ * </pre>
+ */
+public class DataLoaderInterceptor implements Interceptor {
+
+	public void intercept(Invocation inv) {
+		DataLoader.run(inv::invoke);
+	}
+}
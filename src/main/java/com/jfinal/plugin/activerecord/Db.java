@@ -16,15 +16,20 @@
 
 package com.jfinal.plugin.activerecord;
 
+import java.io.Reader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import com.jfinal.kit.SyncWriteMap;
 
 /**
@@ -665,6 +670,20 @@ public class Db {
     	return MAIN.batch(sqlList, batchSize);
     }
 
+    /**
+	 * @see DbPro#batch(String, Object[][], BatchOptions)
+     */
+    public static int[] batch(String sql, Object[][] paras, BatchOptions options) {
+    	return MAIN.batch(sql, paras, options);
+    }
+
+    /**
+	 * @see DbPro#batch(String, String, List, BatchOptions)
+     */
+    public static int[] batch(String sql, String columns, List modelOrRecordList, BatchOptions options) {
+    	return MAIN.batch(sql, columns, modelOrRecordList, options);
+    }
+
     /**
 	 * @see DbPro#batchSave(List, int)
      */
@@ -679,6 +698,27 @@ public class Db {
     	return MAIN.batchSave(tableName, recordList, batchSize);
     }
 
+    /**
+	 * @see DbPro#bulkInsert(String, List)
+     */
+    public static long bulkInsert(String tableName, List<? extends Record> recordList) {
+    	return MAIN.bulkInsert(tableName, recordList);
+    }
+
+    /**
+	 * @see DbPro#bulkInsert(String, Iterator)
+     */
+    public static long bulkInsert(String tableName, Iterator<? extends Record> records) {
+    	return MAIN.bulkInsert(tableName, records);
+    }
+
+    /**
+	 * @see DbPro#bulkInsertCsv(String, String, Reader)
+     */
+    public static long bulkInsertCsv(String tableName, String columns, Reader csv) {
+    	return MAIN.bulkInsertCsv(tableName, columns, csv);
+    }
+
     /**
 	 * @see DbPro#batchUpdate(List, int)
      */
@@ -866,7 +906,75 @@ public class Db {
 	public static <R> R transaction(int transactionLevel, TransactionAtom<R> atom) {
 		return MAIN.transaction(transactionLevel, atom);
 	}
-}
 
+	/**
+	 * 读写分离时指定 supplier 中的查询使用主库
+	 */
+	public static <T> T usePrimary(Supplier<T> supplier) {
+		return MAIN.usePrimary(supplier);
+	}
+
+	/**
+	 * 读写分离时指定 supplier 中的查询使用从库
+	 */
+	public static <T> T useReplica(Supplier<T> supplier) {
+		return MAIN.useReplica(supplier);
+	}
+
+	// ---------
+
+	/**
+	 * @see DbPro#findByColumnIn(String, String, Collection)
+	 */
+	public static List<Record> findByColumnIn(String tableName, String column, Collection<?> values) {
+		return MAIN.findByColumnIn(tableName, column, values);
+	}
+
+	/**
+	 * 多对一批量加载
+	 * @see DbPro#loadBelongsTo(List, String, String, String, String)
+	 */
+	public static List<Record> loadBelongsTo(List<Record> list, String fkColumn, String tableName, String primaryKey, String attachAttr) {
+		return MAIN.loadBelongsTo(list, fkColumn, tableName, primaryKey, attachAttr);
+	}
+
+	/**
+	 * 一对多批量加载
+	 * @see DbPro#loadHasMany(List, String, String, String, String)
+	 */
+	public static List<Record> loadHasMany(List<Record> list, String pkColumn, String tableName, String fkColumn, String attachAttr) {
+		return MAIN.loadHasMany(list, pkColumn, tableName, fkColumn, attachAttr);
+	}
+
+	// ---------
 
+	/**
+	 * 异步查询
+	 * @see DbPro#findAsync(String, Object...)
+	 * @see DbAsync
+	 */
+	public static CompletableFuture<List<Record>> findAsync(String sql, Object... paras) {
+		return MAIN.findAsync(sql, paras);
+	}
+
+	public static CompletableFuture<List<Record>> findAsync(SqlPara sqlPara) {
+		return MAIN.findAsync(sqlPara);
+	}
+
+	public static CompletableFuture<Record> findFirstAsync(String sql, Object... paras) {
+		return MAIN.findFirstAsync(sql, paras);
+	}
+
+	public static <T> CompletableFuture<List<T>> queryAsync(String sql, Object... paras) {
+		return MAIN.queryAsync(sql, paras);
+	}
+
+	public static CompletableFuture<Page<Record>> paginateAsync(int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		return MAIN.paginateAsync(pageNumber, pageSize, select, sqlExceptSelect, paras);
+	}
+
+	public static CompletableFuture<Page<Record>> paginateAsync(int pageNumber, int pageSize, SqlPara sqlPara) {
+		return MAIN.paginateAsync(pageNumber, pageSize, sqlPara);
+	}
+}
 
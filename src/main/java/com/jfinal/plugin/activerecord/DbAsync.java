@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import com.jfinal.kit.ThreadPoolKit;
+
+/**
+ * DbAsync 支持 DbPro、Model 中的异步查询，并发执行多个互不依赖的查询
+ *
+ * <pre>
+ * 1：默认在 JDK 21+ 中使用虚拟线程，否则使用 ThreadPoolKit.getExecutor()，
+ *    可通过 setExecutor(...) 指定。并发度最终受连接池大小限制
+ *
+ * 2：每个异步任务都从连接池获取自己的 Connection，不会使用调用方线程的事务 Connection，
+ *    所以异步查询看不到调用方事务中尚未提交的数据
+ *
+ * 3：读写分离中通过 Db.usePrimary(...)、Db.useReplica(...) 指定的路由会传递给异步任务
+ *
+ * 例子：
+ * CompletableFuture<List<Record>> news = Db.findAsync("select * from news limit 10");
+ * CompletableFuture<Page<Record>> users = DbAsync.timeout(Db.paginateAsync(1, 10, "select *", "from user"), 500);
+ * CompletableFuture<Long> total = DbAsync.supply(() -> Db.queryLong("select count(*) from orders"), 300);
+ *
+ * DbAsync.awaitAll(news, users, total);	// 总耗时为最慢的查询，而非所有查询之和
+ * render(Kv.of("news", news.join()).set("users", users.join()).set("total", total.join()));
+ * </pre>
+ */
+public class DbAsync {
+
+	private static volatile Executor executor = null;
+	private static volatile ScheduledExecutorService scheduler = null;
+
+	private DbAsync() {}
+
+	/**
+	 * 配置异步查询使用的线程池
+	 */
+	public static void setExecutor(Executor executor) {
+		DbAsync.executor = executor;
+	}
+
+	public static Executor getExecutor() {
+		Executor ret = executor;
+		if (ret == null) {
+			synchronized (DbAsync.class) {
+				ret = executor;
+				if (ret == null) {
+					ret = createDefaultExecutor();
+					executor = ret;
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * JDK 21+ 使用 Executors.newVirtualThreadPerTaskExecutor()，jfinal 需兼容 JDK 8 所以通过反射调用
+	 */
+	private static Executor createDefaultExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (Executor)method.invoke(null);
+		} catch (Exception e) {
+			return ThreadPoolKit.getExecutor();
+		}
+	}
+
+	private static ScheduledExecutorService getScheduler() {
+		ScheduledExecutorService ret = scheduler;
+		if (ret == null) {
+			synchronized (DbAsync.class) {
+				ret = scheduler;
+				if (ret == null) {
+					ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(1, r -> {
+						Thread t = new Thread(r, "jfinal-db-async-timeout");
+						t.setDaemon(true);
+						return t;
+					});
+					stpe.setRemoveOnCancelPolicy(true);
+					ret = stpe;
+					scheduler = ret;
+				}
+			}
+		}
+		return ret;
+	}
+
+	// --------
+
+	/**
+	 * 异步执行 task，task 中可以调用 Db、Model 的任意查询方法
+	 */
+	public static <T> CompletableFuture<T> supply(Supplier<T> task) {
+		return supply(null, task);
+	}
+
+	/**
+	 * 异步执行 task，超过 timeoutMillis 毫秒未完成时返回的 CompletableFuture 以 TimeoutException 结束
+	 */
+	public static <T> CompletableFuture<T> supply(Supplier<T> task, long timeoutMillis) {
+		return timeout(supply(null, task), timeoutMillis);
+	}
+
+	/**
+	 * @param config 不为 null 时，若线程池在当前线程中直接执行 task（例如 CallerRunsPolicy），
+	 *        task 执行期间暂时移除该 config 的事务 Connection，确保 task 使用独立的 Connection
+	 */
+	static <T> CompletableFuture<T> supply(Config config, Supplier<T> task) {
+		ReplicaRouter.Route route = ReplicaRouter.getRoute();
+		Supplier<T> s = config != null ? () -> config.callWithoutTransaction(task) : task;
+		return CompletableFuture.supplyAsync(route != null ? () -> ReplicaRouter.call(route, s) : s, getExecutor());
+	}
+
+	/**
+	 * 为 future 设置超时，超时后 future 以 TimeoutException 结束。
+	 * 注意：超时不会中断正在执行的 sql，其占用的 Connection 在 sql 执行完成后归还
+	 */
+	public static <T> CompletableFuture<T> timeout(CompletableFuture<T> future, long timeoutMillis) {
+		if (timeoutMillis <= 0) {
+			throw new IllegalArgumentException("timeoutMillis must more than 0");
+		}
+		if (future.isDone()) {
+			return future;
+		}
+
+		ScheduledFuture<?> sf = getScheduler().schedule(() -> {
+			future.completeExceptionally(new TimeoutException("Async query timeout after " + timeoutMillis + " ms"));
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+		future.whenComplete((ret, e) -> sf.cancel(false));
+		return future;
+	}
+
+	/**
+	 * 等待所有 future 结束，任意一个异常结束时抛出其异常。
+	 * 所有 future 都已开始执行，所以总耗时为其中最慢者
+	 */
+	public static void awaitAll(CompletableFuture<?>... futures) {
+		try {
+			CompletableFuture.allOf(futures).join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			throw new ActiveRecordException(cause);
+		}
+	}
+
+	/**
+	 * 等待所有 future 结束，最多等待 timeoutMillis 毫秒，超时抛出 ActiveRecordException
+	 */
+	public static void awaitAll(long timeoutMillis, CompletableFuture<?>... futures) {
+		awaitAll(timeout(CompletableFuture.allOf(futures), timeoutMillis));
+	}
+}
@@ -16,28 +16,40 @@
 
 package com.jfinal.plugin.activerecord;
 
+import java.io.Reader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.temporal.Temporal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import com.jfinal.kit.CsvKit;
 import com.jfinal.kit.LogKit;
 import com.jfinal.kit.StrKit;
 import com.jfinal.kit.TimeKit;
-import com.jfinal.plugin.activerecord.cache.ICache;
 import static com.jfinal.plugin.activerecord.DbKit.NULL_PARA_ARRAY;
 
 /**
@@ -67,27 +79,27 @@ public class DbPro {
     }
 
     protected <T> List<T> query(Config config, Connection conn, String sql, Object... paras) throws SQLException {
-        List result = new ArrayList();
         try (PreparedStatement pst = conn.prepareStatement(sql)) {
             config.dialect.fillStatement(pst, paras);
-            ResultSet rs = pst.executeQuery();
-            int colAmount = rs.getMetaData().getColumnCount();
-            if (colAmount > 1) {
-                while (rs.next()) {
-                    Object[] temp = new Object[colAmount];
-                    for (int i=0; i<colAmount; i++) {
-                        temp[i] = rs.getObject(i + 1);
+            return config.executeQuery(pst, sql, paras, rs -> {
+                List result = new ArrayList();
+                int colAmount = rs.getMetaData().getColumnCount();
+                if (colAmount > 1) {
+                    while (rs.next()) {
+                        Object[] temp = new Object[colAmount];
+                        for (int i=0; i<colAmount; i++) {
+                            temp[i] = rs.getObject(i + 1);
+                        }
+                        result.add(temp);
                     }
-                    result.add(temp);
                 }
-            }
-            else if(colAmount == 1) {
-                while (rs.next()) {
-                    result.add(rs.getObject(1));
+                else if(colAmount == 1) {
+                    while (rs.next()) {
+                        result.add(rs.getObject(1));
+                    }
                 }
-            }
-            DbKit.close(rs);
-            return result;
+                return result;
+            });
         }
     }
 
@@ -97,7 +109,7 @@ public class DbPro {
     public <T> List<T> query(String sql, Object... paras) {
         Connection conn = null;
         try {
-            conn = config.getConnection();
+            conn = config.getReadConnection();
             return query(config, conn, sql, paras);
         } catch (Exception e) {
             throw new ActiveRecordException(e);
@@ -342,10 +354,14 @@ public class DbPro {
      * Execute sql update
      */
     protected int update(Config config, Connection conn, String sql, Object... paras) throws SQLException {
-        try (PreparedStatement pst = conn.prepareStatement(sql)) {
+        PreparedStatement pst = config.prepareStatement(conn, sql, null);
+        try {
             config.dialect.fillStatement(pst, paras);
-            int result = pst.executeUpdate();
+            int result = config.executeUpdate(pst, sql, paras);
+            config.onSqlExecuted(sql);
             return result;
+        } finally {
+            config.closeStatement(pst);
         }
     }
 
@@ -378,12 +394,12 @@ public class DbPro {
     }
 
     protected List<Record> find(Config config, Connection conn, String sql, Object... paras) throws SQLException {
-        try (PreparedStatement pst = conn.prepareStatement(sql)) {
+        PreparedStatement pst = config.prepareStatement(conn, sql, null);
+        try {
             config.dialect.fillStatement(pst, paras);
-            ResultSet rs = pst.executeQuery();
-            List<Record> result = config.dialect.buildRecordList(config, rs);	// RecordBuilder.build(config, rs);
-            DbKit.close(rs);
-            return result;
+            return config.executeQuery(pst, sql, paras, rs -> config.dialect.buildRecordList(config, rs));	// RecordBuilder.build(config, rs);
+        } finally {
+            config.closeStatement(pst);
         }
     }
 
@@ -393,7 +409,7 @@ public class DbPro {
     public List<Record> find(String sql, Object... paras) {
         Connection conn = null;
         try {
-            conn = config.getConnection();
+            conn = config.getReadConnection();
             return find(config, conn, sql, paras);
         } catch (Exception e) {
             throw new ActiveRecordException(e);
@@ -467,7 +483,8 @@ public class DbPro {
         if (pKeys.length != idValues.length)
             throw new IllegalArgumentException("primary key number must equals id value number");
 
-        String sql = config.dialect.forDbFindById(tableName, pKeys);
+        // 无论是否开启 SqlCache 均经由 find(config, conn, ...)，使子类的覆盖继续生效
+        String sql = config.sqlCache != null ? config.sqlCache.forDbFindById(config, tableName, primaryKey) : config.dialect.forDbFindById(tableName, pKeys);
         List<Record> result = find(sql, idValues);
         return result.size() > 0 ? result.get(0) : null;
     }
@@ -507,8 +524,25 @@ public class DbPro {
         if (pKeys.length != idValues.length)
             throw new IllegalArgumentException("primary key number must equals id value number");
 
-        String sql = config.dialect.forDbDeleteById(tableName, pKeys);
-        return update(sql, idValues) >= 1;
+        // 无论是否开启 SqlCache 均经由 update(config, conn, ...)，使子类的覆盖继续生效
+        String sql = config.sqlCache != null ? config.sqlCache.forDbDeleteById(config, tableName, primaryKey) : config.dialect.forDbDeleteById(tableName, pKeys);
+        Connection conn = null;
+        try {
+            conn = config.getConnection();
+            int result = update(config, conn, sql, idValues);
+            boolean ret = result >= 1;
+            if (ret && config.entityCache != null) {
+                config.entityCache.remove(config, tableName, pKeys, idValues);
+            }
+            if (ret) {
+                config.onTableModified(tableName);
+            }
+            return ret;
+        } catch (Exception e) {
+            throw new ActiveRecordException(e);
+        } finally {
+            config.close(conn);
+        }
     }
 
     /**
@@ -598,7 +632,7 @@ public class DbPro {
     protected Page<Record> doPaginate(int pageNumber, int pageSize, Boolean isGroupBySql, String select, String sqlExceptSelect, Object... paras) {
         Connection conn = null;
         try {
-            conn = config.getConnection();
+            conn = config.getReadConnection();
             String totalRowSql = config.dialect.forPaginateTotalRow(select, sqlExceptSelect, null);
             StringBuilder findSql = new StringBuilder();
             findSql.append(select).append(' ').append(sqlExceptSelect);
@@ -659,7 +693,7 @@ public class DbPro {
     protected Page<Record> doPaginateByFullSql(int pageNumber, int pageSize, Boolean isGroupBySql, String totalRowSql, String findSql, Object... paras) {
         Connection conn = null;
         try {
-            conn = config.getConnection();
+            conn = config.getReadConnection();
             StringBuilder findSqlBuf = new StringBuilder().append(findSql);
             return doPaginateByFullSql(config, conn, pageNumber, pageSize, isGroupBySql, totalRowSql, findSqlBuf, paras);
         } catch (Exception e) {
@@ -679,19 +713,31 @@ public class DbPro {
 
     protected boolean save(Config config, Connection conn, String tableName, String primaryKey, Record record) throws SQLException {
         String[] pKeys = primaryKey.split(",");
-        List<Object> paras = new ArrayList<Object>();
-        StringBuilder sql = new StringBuilder();
-        config.dialect.forDbSave(tableName, pKeys, record, sql, paras);
+        String sql;
+        Object[] paras;
+        SqlCache.SqlInfo sqlInfo = config.sqlCache != null ? config.sqlCache.forDbSave(config, tableName, pKeys, record) : null;
+        if (sqlInfo != null) {
+            config.dialect.trimPrimaryKeys(pKeys);
+            sql = sqlInfo.getSql();
+            paras = sqlInfo.getParas(record.getColumns());
+        } else {
+            List<Object> paraList = new ArrayList<Object>();
+            StringBuilder sqlBuf = new StringBuilder();
+            config.dialect.forDbSave(tableName, pKeys, record, sqlBuf, paraList);
+            sql = sqlBuf.toString();
+            paras = paraList.toArray();
+        }
 
-        try (PreparedStatement pst =
-                config.dialect.isOracle() ?
-                conn.prepareStatement(sql.toString(), pKeys) :
-                conn.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS)) {
+        PreparedStatement pst = config.prepareStatement(conn, sql, pKeys);
+        try {
             config.dialect.fillStatement(pst, paras);
-            int result = pst.executeUpdate();
+            int result = config.executeUpdate(pst, sql, paras);
             config.dialect.getRecordGeneratedKey(pst, record, pKeys);
             record.clearModifyFlag();
+            config.onTableModified(tableName);
             return result >= 1;
+        } finally {
+            config.closeStatement(pst);
         }
     }
 
@@ -740,17 +786,31 @@ public class DbPro {
                 throw new ActiveRecordException("You can't update record without Primary Key, " + pKeys[i] + " can not be null.");
         }
 
-        StringBuilder sql = new StringBuilder();
-        List<Object> paras = new ArrayList<Object>();
-        config.dialect.forDbUpdate(tableName, pKeys, ids, record, sql, paras);
+        String sql;
+        Object[] paras;
+        SqlCache.SqlInfo sqlInfo = config.sqlCache != null ? config.sqlCache.forDbUpdate(config, tableName, pKeys, record) : null;
+        if (sqlInfo != null) {
+            sql = sqlInfo.getSql();
+            paras = sqlInfo.getParas(record.getColumns());
+        } else {
+            StringBuilder sqlBuf = new StringBuilder();
+            List<Object> paraList = new ArrayList<Object>();
+            config.dialect.forDbUpdate(tableName, pKeys, ids, record, sqlBuf, paraList);
+            sql = sqlBuf.toString();
+            paras = paraList.toArray();
+        }
 
-        if (paras.size() <= 1) {	// 参数个数为 1 的情况表明只有主键，也无需更新
+        if (paras.length <= 1) {	// 参数个数为 1 的情况表明只有主键，也无需更新
             return false;
         }
 
-        int result = update(config, conn, sql.toString(), paras.toArray());
+        int result = update(config, conn, sql, paras);
         if (result >= 1) {
             record.clearModifyFlag();
+            config.onTableModified(tableName);
+            if (config.entityCache != null) {
+                config.entityCache.remove(config, tableName, pKeys, ids);
+            }
             return true;
         }
         return false;
@@ -863,6 +923,7 @@ public class DbPro {
         } finally {
             try {
                 if (conn != null) {
+                    config.closeStatementCache();
                     if (autoCommit != null)
                         conn.setAutoCommit(autoCommit);
                     conn.close();
@@ -924,13 +985,7 @@ public class DbPro {
      * @return the list of Record
      */
     public List<Record> findByCache(String cacheName, Object key, String sql, Object... paras) {
-        ICache cache = config.getCache();
-        List<Record> result = cache.get(cacheName, key);
-        if (result == null) {
-            result = find(sql, paras);
-            cache.put(cacheName, key, result);
-        }
-        return result;
+        return config.getByCache(cacheName, key, sql, () -> find(sql, paras));
     }
 
     /**
@@ -950,13 +1005,7 @@ public class DbPro {
      * @return the Record object
      */
     public Record findFirstByCache(String cacheName, Object key, String sql, Object... paras) {
-        ICache cache = config.getCache();
-        Record result = cache.get(cacheName, key);
-        if (result == null) {
-            result = findFirst(sql, paras);
-            cache.put(cacheName, key, result);
-        }
-        return result;
+        return config.getByCache(cacheName, key, sql, () -> findFirst(sql, paras));
     }
 
     /**
@@ -987,13 +1036,7 @@ public class DbPro {
     }
 
     protected Page<Record> doPaginateByCache(String cacheName, Object key, int pageNumber, int pageSize, Boolean isGroupBySql, String select, String sqlExceptSelect, Object... paras) {
-        ICache cache = config.getCache();
-        Page<Record> result = cache.get(cacheName, key);
-        if (result == null) {
-            result = doPaginate(pageNumber, pageSize, isGroupBySql, select, sqlExceptSelect, paras);
-            cache.put(cacheName, key, result);
-        }
-        return result;
+        return config.getByCache(cacheName, key, select + " " + sqlExceptSelect, () -> doPaginate(pageNumber, pageSize, isGroupBySql, select, sqlExceptSelect, paras));
     }
 
     protected int[] batch(Config config, Connection conn, String sql, Object[][] paras, int batchSize) throws SQLException {
@@ -1028,7 +1071,7 @@ public class DbPro {
                 pst.addBatch();
                 if (++counter >= batchSize) {
                     counter = 0;
-                    int[] r = pst.executeBatch();
+                    int[] r = config.executeBatch(pst, sql);
                     if (isInTransaction == false)
                         conn.commit();
                     for (int k=0; k<r.length; k++)
@@ -1036,12 +1079,13 @@ public class DbPro {
                 }
             }
             if (counter != 0) {
-                int[] r = pst.executeBatch();
+                int[] r = config.executeBatch(pst, sql);
                 if (isInTransaction == false)
                     conn.commit();
                 for (int k = 0; k < r.length; k++)
                     result[pointer++] = r[k];
             }
+            config.onSqlExecuted(sql);
 
             return result;
         }
@@ -1117,7 +1161,7 @@ public class DbPro {
                 pst.addBatch();
                 if (++counter >= batchSize) {
                     counter = 0;
-                    int[] r = pst.executeBatch();
+                    int[] r = config.executeBatch(pst, sql);
                     if (isInTransaction == false)
                         conn.commit();
                     for (int k=0; k<r.length; k++)
@@ -1125,12 +1169,13 @@ public class DbPro {
                 }
             }
             if (counter != 0) {
-                int[] r = pst.executeBatch();
+                int[] r = config.executeBatch(pst, sql);
                 if (isInTransaction == false)
                     conn.commit();
                 for (int k = 0; k < r.length; k++)
                     result[pointer++] = r[k];
             }
+            config.onSqlExecuted(sql);
 
             return result;
         }
@@ -1182,7 +1227,7 @@ public class DbPro {
                 st.addBatch(sqlList.get(i));
                 if (++counter >= batchSize) {
                     counter = 0;
-                    int[] r = st.executeBatch();
+                    int[] r = config.executeBatch(st, SqlMonitor.SQL_LIST_BATCH);
                     if (isInTransaction == false)
                         conn.commit();
                     for (int k=0; k<r.length; k++)
@@ -1190,12 +1235,16 @@ public class DbPro {
                 }
             }
             if (counter != 0) {
-                int[] r = st.executeBatch();
+                int[] r = config.executeBatch(st, SqlMonitor.SQL_LIST_BATCH);
                 if (isInTransaction == false)
                     conn.commit();
                 for (int k = 0; k < r.length; k++)
                     result[pointer++] = r[k];
             }
+            if (config.tableTagCache != null) {
+                for (String sql : sqlList)
+                    config.tableTagCache.bumpSql(config, sql);
+            }
 
             return result;
         }
@@ -1228,6 +1277,181 @@ public class DbPro {
         }
     }
 
+    /**
+     * 按 BatchOptions 配置的分块、提交策略与流水线方式执行批量操作
+     * <pre>
+     * Example:
+     * int[] result = Db.use().batch(sql, paras, new BatchOptions(1000).setPipelined(true));
+     * </pre>
+     */
+    public int[] batch(String sql, Object[][] paras, BatchOptions options) {
+        if (paras == null || paras.length == 0)
+            return new int[0];
+        return batch(sql, paras.length, i -> paras[i], options);
+    }
+
+    /**
+     * @see #batch(String, String, List, int)
+     * @see #batch(String, Object[][], BatchOptions)
+     */
+    public int[] batch(String sql, String columns, List modelOrRecordList, BatchOptions options) {
+        if (modelOrRecordList == null || modelOrRecordList.size() == 0)
+            return new int[0];
+        Object element = modelOrRecordList.get(0);
+        if (!(element instanceof Record) && !(element instanceof Model))
+            throw new IllegalArgumentException("The element in list must be Model or Record.");
+
+        boolean isModel = element instanceof Model;
+        String[] columnArray = columns.split(",");
+        for (int i=0; i<columnArray.length; i++)
+            columnArray[i] = columnArray[i].trim();
+
+        return batch(sql, modelOrRecordList.size(), i -> {
+            Map map = isModel ? ((Model)modelOrRecordList.get(i))._getAttrs() : ((Record)modelOrRecordList.get(i)).getColumns();
+            Object[] ret = new Object[columnArray.length];
+            for (int j=0; j<columnArray.length; j++)
+                ret[j] = map.get(columnArray[j]);
+            return ret;
+        }, options);
+    }
+
+    protected int[] batch(String sql, int rowCount, IntFunction<Object[]> rowFunc, BatchOptions options) {
+        Connection conn = null;
+        Boolean autoCommit = null;
+        try {
+            conn = config.getConnection();
+            autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            return batch(config, conn, sql, rowCount, rowFunc, options);
+        } catch (Exception e) {
+            throw new ActiveRecordException(e);
+        } finally {
+            if (autoCommit != null)
+                try {conn.setAutoCommit(autoCommit);} catch (Exception e) {LogKit.error(e.getMessage(), e);}
+            config.close(conn);
+        }
+    }
+
+    /**
+     * 分块执行 batch，rowFunc 返回第 i 行的参数。流水线模式下 rowFunc 在 options 指定的线程池中调用
+     */
+    protected int[] batch(Config config, Connection conn, String sql, int rowCount, IntFunction<Object[]> rowFunc, BatchOptions options) throws SQLException {
+        boolean isInTransaction = config.isInTransaction();
+        boolean commitPerChunk = !isInTransaction && options.commitPolicy == BatchOptions.CommitPolicy.PER_CHUNK;
+        boolean commitAtEnd = !isInTransaction && options.commitPolicy == BatchOptions.CommitPolicy.AT_END;
+        BatchOptions.ChunkListener listener = options.chunkListener;
+        int batchSize = options.batchSize;
+        int[] result = new int[rowCount];
+
+        try (PreparedStatement pst = conn.prepareStatement(sql)) {
+            long[] prepareNanos = new long[1];
+            Object[][] chunk = prepareBatchChunk(rowFunc, 0, Math.min(batchSize, rowCount), prepareNanos);
+            for (int from=0, chunkIndex=0; from<rowCount; from+=batchSize, chunkIndex++) {
+                int next = from + batchSize;
+                long chunkPrepareNanos = prepareNanos[0];
+                long[] nextPrepareNanos = new long[1];
+                CompletableFuture<Object[][]> nextChunk = null;
+                if (options.pipelined && next < rowCount) {
+                    nextChunk = CompletableFuture.supplyAsync(() -> prepareBatchChunk(rowFunc, next, Math.min(next + batchSize, rowCount), nextPrepareNanos), options.getExecutor());
+                }
+
+                long start = System.nanoTime();
+                for (Object[] row : chunk) {
+                    for (int j=0; j<row.length; j++) {
+                        Object value = row[j];
+                        if (value instanceof java.sql.Date)
+                            pst.setDate(j + 1, (java.sql.Date)value);
+                        else if (value instanceof java.sql.Timestamp)
+                            pst.setTimestamp(j + 1, (java.sql.Timestamp)value);
+                        else
+                            pst.setObject(j + 1, value);
+                    }
+                    pst.addBatch();
+                }
+                int[] r;
+                try {
+                    r = config.executeBatch(pst, sql);
+                } catch (SQLException e) {
+                    if (!options.continueOnError)
+                        throw e;
+                    r = getFailedBatchCounts(e, chunk.length);
+                    pst.clearBatch();
+                    LogKit.warn("Batch chunk " + chunkIndex + " failed: " + e.getMessage());
+                }
+                if (commitPerChunk)
+                    conn.commit();
+                System.arraycopy(r, 0, result, from, Math.min(r.length, rowCount - from));
+                long executeNanos = System.nanoTime() - start;
+
+                long waitNanos = 0;
+                if (next < rowCount) {
+                    long waitStart = System.nanoTime();
+                    if (nextChunk != null) {
+                        try {
+                            chunk = nextChunk.join();
+                        } catch (CompletionException e) {
+                            throw e.getCause() instanceof RuntimeException ? (RuntimeException)e.getCause() : e;
+                        }
+                    } else {
+                        chunk = prepareBatchChunk(rowFunc, next, Math.min(next + batchSize, rowCount), nextPrepareNanos);
+                    }
+                    waitNanos = System.nanoTime() - waitStart;
+                    prepareNanos = nextPrepareNanos;
+                }
+
+                if (listener != null)
+                    listener.onChunk(chunkIndex, r.length, chunkPrepareNanos, waitNanos, executeNanos);
+            }
+
+            if (commitAtEnd)
+                conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            // 回滚尚未提交的部分，避免恢复 autoCommit 时提交出错分块中已执行的行
+            if (!isInTransaction)
+                try {conn.rollback();} catch (Exception ex) {LogKit.error(ex.getMessage(), ex);}
+            throw e;
+        }
+        config.onSqlExecuted(sql);
+        return result;
+    }
+
+    /**
+     * 出错分块中各行的结果，驱动未给出结果的行为 Statement.EXECUTE_FAILED
+     */
+    private static int[] getFailedBatchCounts(SQLException e, int rows) {
+        int[] ret = new int[rows];
+        Arrays.fill(ret, Statement.EXECUTE_FAILED);
+        if (e instanceof BatchUpdateException) {
+            int[] counts = ((BatchUpdateException)e).getUpdateCounts();
+            if (counts != null)
+                System.arraycopy(counts, 0, ret, 0, Math.min(counts.length, rows));
+        }
+        return ret;
+    }
+
+    /**
+     * 准备 [from, to) 行的参数数组，java.util.Date 转换为 java.sql.Timestamp
+     */
+    private static Object[][] prepareBatchChunk(IntFunction<Object[]> rowFunc, int from, int to, long[] nanos) {
+        long start = System.nanoTime();
+        Object[][] ret = new Object[to - from][];
+        for (int i=from; i<to; i++) {
+            Object[] row = rowFunc.apply(i);
+            Object[] paras = new Object[row.length];
+            for (int j=0; j<row.length; j++) {
+                Object value = row[j];
+                if (value instanceof java.util.Date && !(value instanceof java.sql.Date) && !(value instanceof java.sql.Timestamp)) {
+                    // Oracle、SqlServer 中的 TIMESTAMP、DATE 支持 new Date() 给值
+                    value = new java.sql.Timestamp(((java.util.Date)value).getTime());
+                }
+                paras[j] = value;
+            }
+            ret[i - from] = paras;
+        }
+        nanos[0] = System.nanoTime() - start;
+        return ret;
+    }
+
     /**
      * Batch save models using the "insert into ..." sql generated by the first model in modelList.
      * Ensure all the models can use the same sql as the first model.
@@ -1296,6 +1520,221 @@ public class DbPro {
         return batch(sql.toString(), columns.toString(), recordList, batchSize);
     }
 
+    /**
+     * 批量导入，postgresql 使用 copy，mysql 使用 load data local infile，其它数据库以及缺少相应
+     * jdbc 驱动时使用多行 insert。字段名取自第一个 Record，所有 Record 需要拥有相同的字段
+     * <pre>
+     * Example:
+     * long rows = Db.bulkInsert("user", recordList);
+     * </pre>
+     * @return 导入的行数
+     */
+    public long bulkInsert(String tableName, List<? extends Record> recordList) {
+        if (recordList == null || recordList.size() == 0)
+            return 0;
+        return bulkInsert(tableName, recordList.iterator());
+    }
+
+    /**
+     * 以流的方式批量导入，导入过程中逐个从 records 中读取 Record，不会将数据全部载入内存，
+     * 适合配合 Db.each(...)、文件解析等数据源导入大量数据
+     * @see #bulkInsert(String, List)
+     */
+    public long bulkInsert(String tableName, Iterator<? extends Record> records) {
+        if (!records.hasNext())
+            return 0;
+
+        Record first = records.next();
+        String[] columns = first.getColumnNames();
+        Iterator<Object[]> rows = new Iterator<Object[]>() {
+            Record pending = first;
+            public boolean hasNext() {
+                return pending != null || records.hasNext();
+            }
+            public Object[] next() {
+                Record record = pending != null ? pending : records.next();
+                pending = null;
+                Object[] ret = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++)
+                    ret[i] = record.get(columns[i]);
+                return ret;
+            }
+        };
+        return bulkInsert(tableName, columns, rows, null);
+    }
+
+    /**
+     * 以流的方式导入 csv 格式的数据，csv 格式见 CsvKit，不包含标题行
+     * <pre>
+     * Example:
+     * try (Reader reader = Files.newBufferedReader(path)) {
+     *     Db.bulkInsertCsv("user", "id, name, age", reader);
+     * }
+     * </pre>
+     * @param columns 与 csv 各列对应的字段名，用逗号分隔
+     */
+    public long bulkInsertCsv(String tableName, String columns, Reader csv) {
+        if (StrKit.isBlank(columns))
+            throw new IllegalArgumentException("columns can not be blank");
+        return bulkInsert(tableName, columns.split(","), null, csv);
+    }
+
+    /**
+     * rows 与 csv 只能有一个不为 null
+     */
+    protected long bulkInsert(String tableName, String[] columns, Iterator<? extends Object[]> rows, Reader csv) {
+        if (columns.length == 0)
+            throw new IllegalArgumentException("columns can not be blank");
+
+        Connection conn = null;
+        try {
+            conn = config.getConnection();
+            return bulkInsert(config, conn, tableName, columns, rows, csv);
+        } catch (Exception e) {
+            throw new ActiveRecordException(e);
+        } finally {
+            config.close(conn);
+        }
+    }
+
+    protected long bulkInsert(Config config, Connection conn, String tableName, String[] columns, Iterator<? extends Object[]> rows, Reader csv) throws SQLException {
+        SqlMonitor monitor = config.sqlMonitor;
+        long start = monitor != null ? System.nanoTime() : 0;
+        long result = config.dialect.bulkLoad(conn, tableName, columns, csv != null ? csv : CsvKit.toReader(rows));
+        if (result >= 0) {
+            if (monitor != null)
+                monitor.record("bulk load " + tableName, null, start, (int)Math.min(result, Integer.MAX_VALUE));
+        } else {
+            result = multiRowInsert(config, conn, tableName, columns, rows != null ? rows : convertCsv(config, conn, tableName, columns, CsvKit.parse(csv)));
+        }
+        config.onTableModified(tableName);
+        return result;
+    }
+
+    /**
+     * csv 中的值均为 String，多行 insert 之前按字段的 jdbc 类型转换，避免数值、日期等字段绑定 String 参数
+     */
+    protected Iterator<Object[]> convertCsv(Config config, Connection conn, String tableName, String[] columns, Iterator<String[]> csv) throws SQLException {
+        Map<String, Integer> typeMap = new HashMap<String, Integer>();
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(config.dialect.forTableBuilderDoBuild(tableName))) {
+            ResultSetMetaData rsmd = rs.getMetaData();
+            for (int i = 1; i <= rsmd.getColumnCount(); i++)
+                typeMap.put(rsmd.getColumnName(i).toLowerCase(), rsmd.getColumnType(i));
+        }
+
+        int[] types = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Integer type = typeMap.get(columns[i].trim().toLowerCase());
+            types[i] = type != null ? type : Types.VARCHAR;
+        }
+        return new Iterator<Object[]>() {
+            public boolean hasNext() {
+                return csv.hasNext();
+            }
+            public Object[] next() {
+                String[] row = csv.next();
+                Object[] ret = new Object[row.length];
+                for (int i = 0; i < row.length; i++)
+                    ret[i] = i < types.length ? convertCsvValue(types[i], row[i]) : row[i];
+                return ret;
+            }
+        };
+    }
+
+    private static Object convertCsvValue(int type, String value) {
+        if (value == null)
+            return null;
+
+        switch (type) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+        case Types.BIT:
+        case Types.BOOLEAN:
+        case Types.DATE:
+        case Types.TIME:
+        case Types.TIMESTAMP:
+            value = value.trim();
+            if (value.isEmpty())
+                return null;
+            break;
+        default:
+            return value;
+        }
+
+        switch (type) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+            return Integer.valueOf(value);
+        case Types.BIGINT:
+            return Long.valueOf(value);
+        case Types.REAL:
+            return Float.valueOf(value);
+        case Types.FLOAT:
+        case Types.DOUBLE:
+            return Double.valueOf(value);
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+            return new BigDecimal(value);
+        case Types.BIT:
+        case Types.BOOLEAN:
+            return "1".equals(value) || "true".equalsIgnoreCase(value);
+        case Types.DATE:
+            return java.sql.Date.valueOf(value);
+        case Types.TIME:
+            return java.sql.Time.valueOf(value);
+        default:	// TIMESTAMP，兼容 LocalDateTime.toString() 输出的 "2023-01-01T10:00"
+            value = value.replace('T', ' ');
+            return java.sql.Timestamp.valueOf(value.length() == 16 ? value + ":00" : value);
+        }
+    }
+
+    /**
+     * 不支持原生批量导入时使用多行 insert，每条 insert 的行数受 Dialect.getMaxRowsPerInsert()
+     * 以及 Dialect.getMaxParaCount() 限制
+     */
+    protected long multiRowInsert(Config config, Connection conn, String tableName, String[] columns, Iterator<? extends Object[]> rows) throws SQLException {
+        int rowsPerInsert = Math.max(1, Math.min(config.dialect.getMaxRowsPerInsert(), config.dialect.getMaxParaCount() / columns.length));
+        Object[] paras = new Object[rowsPerInsert * columns.length];
+        String sql = config.dialect.forMultiRowInsert(tableName, columns, rowsPerInsert);
+        long result = 0;
+        int counter = 0;
+        try (PreparedStatement pst = conn.prepareStatement(sql)) {
+            while (rows.hasNext()) {
+                Object[] row = rows.next();
+                if (row.length != columns.length)
+                    throw new IllegalArgumentException("The row length " + row.length + " does not match the columns length " + columns.length);
+
+                System.arraycopy(row, 0, paras, counter * columns.length, columns.length);
+                if (++counter >= rowsPerInsert) {
+                    counter = 0;
+                    result += executeMultiRowInsert(config, pst, sql, paras);
+                }
+            }
+        }
+
+        if (counter != 0) {
+            sql = config.dialect.forMultiRowInsert(tableName, columns, counter);
+            try (PreparedStatement pst = conn.prepareStatement(sql)) {
+                result += executeMultiRowInsert(config, pst, sql, Arrays.copyOf(paras, counter * columns.length));
+            }
+        }
+        return result;
+    }
+
+    private int executeMultiRowInsert(Config config, PreparedStatement pst, String sql, Object[] paras) throws SQLException {
+        config.dialect.fillStatement(pst, paras);
+        int ret = config.executeUpdate(pst, sql, null);
+        return ret;
+    }
+
     /**
      * Batch update models using the attrs names of the first model in modelList.
      * Ensure all the models can use the same sql as the first model.
@@ -1332,7 +1771,16 @@ public class DbPro {
         StringBuilder sql = new StringBuilder();
         List<Object> parasNoUse = new ArrayList<Object>();
         config.dialect.forModelUpdate(TableMapping.me().getTable(model.getClass()), attrs, modifyFlag, sql, parasNoUse);
-        return batch(sql.toString(), columns, modelList, batchSize);
+        try {
+            return batch(sql.toString(), columns, modelList, batchSize);
+        } finally {
+            // 分批提交时部分数据可能已更新，无论成功与否均失效缓存
+            if (config.entityCache != null && config.entityCache.isCached(table)) {
+                for (Model m : modelList) {
+                    config.entityCache.remove(config, table, m._getIdValues(table));
+                }
+            }
+        }
     }
 
     /**
@@ -1372,7 +1820,19 @@ public class DbPro {
         StringBuilder sql = new StringBuilder();
         List<Object> parasNoUse = new ArrayList<Object>();
         config.dialect.forDbUpdate(tableName, pKeys, idsNoUse, record, sql, parasNoUse);
-        return batch(sql.toString(), columns, recordList, batchSize);
+        try {
+            return batch(sql.toString(), columns, recordList, batchSize);
+        } finally {
+            if (config.entityCache != null && config.entityCache.hasTable(tableName)) {
+                for (Record r : recordList) {
+                    Object[] ids = new Object[pKeys.length];
+                    for (int i=0; i<pKeys.length; i++) {
+                        ids[i] = r.get(pKeys[i]);
+                    }
+                    config.entityCache.remove(config, tableName, pKeys, ids);
+                }
+            }
+        }
     }
 
     /**
@@ -1456,7 +1916,7 @@ public class DbPro {
     public void each(Function<Record, Boolean> func, String sql, Object... paras) {
         Connection conn = null;
         try {
-            conn = config.getConnection();
+            conn = config.getReadConnection();
 
             try (PreparedStatement pst = conn.prepareStatement(sql)) {
                 config.dialect.fillStatement(pst, paras);
@@ -1531,7 +1991,109 @@ public class DbPro {
     public <R> R transaction(int transactionLevel, TransactionAtom<R> atom) {
         return new TransactionExecutor().execute(config, transactionLevel, atom);
     }
-}
 
+    /**
+     * 读写分离时指定 supplier 中的查询使用主库，例如刚写入的数据需要立即读取
+     * <pre>
+     * 例子：
+     * Record user = Db.usePrimary(() -> Db.findById("user", 123));
+     * </pre>
+     */
+    public <T> T usePrimary(Supplier<T> supplier) {
+        return ReplicaRouter.call(ReplicaRouter.Route.PRIMARY, supplier);
+    }
+
+    /**
+     * 读写分离时指定 supplier 中的查询使用从库，忽略此前写操作的影响。事务之中仍然使用主库
+     */
+    public <T> T useReplica(Supplier<T> supplier) {
+        return ReplicaRouter.call(ReplicaRouter.Route.REPLICA, supplier);
+    }
+
+    // ---------
 
+    /**
+     * 查询 column 的值在 values 之中的所有 Record，按 Dialect 参数个数上限分块查询
+     * <pre>
+     * 例子：
+     * List<Record> users = Db.findByColumnIn("user", "id", idList);
+     * </pre>
+     */
+    public List<Record> findByColumnIn(String tableName, String column, Collection<?> values) {
+        return BatchLoader.findIn(config, tableName, column, values, this::find);
+    }
 
+    /**
+     * 多对一批量加载，一条 in 查询为 list 中每个 Record 挂载关联 Record，消除 N + 1 查询
+     * <pre>
+     * 例子：
+     * // blog.user_id 关联 user.id，通过 blog.get("author") 获取关联的 Record
+     * Db.loadBelongsTo(blogs, "user_id", "user", "id", "author");
+     * </pre>
+     * @param list 需要挂载关联 Record 的列表
+     * @param fkColumn list 中 Record 的外键字段
+     * @param tableName 关联表
+     * @param primaryKey 关联表中与 fkColumn 对应的字段，一般为主键
+     * @param attachAttr 挂载关联 Record 使用的属性名，关联 Record 不存在时挂载 null
+     * @see BatchLoader
+     */
+    public List<Record> loadBelongsTo(List<Record> list, String fkColumn, String tableName, String primaryKey, String attachAttr) {
+        BatchLoader.<Record, Record>belongsTo(list, r -> r.get(fkColumn), (r, t) -> r.put(attachAttr, t), values -> findByColumnIn(tableName, primaryKey, values), t -> t.get(primaryKey));
+        return list;
+    }
+
+    /**
+     * 一对多批量加载，一条 in 查询为 list 中每个 Record 挂载关联 Record 列表，消除 N + 1 查询
+     * <pre>
+     * 例子：
+     * // comment.blog_id 关联 blog.id，通过 blog.get("comments") 获取 List<Record>
+     * Db.loadHasMany(blogs, "id", "comment", "blog_id", "comments");
+     * </pre>
+     * @param list 需要挂载关联 Record 列表的列表
+     * @param pkColumn list 中 Record 被关联的字段，一般为主键
+     * @param tableName 关联表
+     * @param fkColumn 关联表中与 pkColumn 对应的外键字段
+     * @param attachAttr 挂载关联 Record 列表使用的属性名，没有关联 Record 时挂载空列表
+     * @see BatchLoader
+     */
+    public List<Record> loadHasMany(List<Record> list, String pkColumn, String tableName, String fkColumn, String attachAttr) {
+        BatchLoader.<Record, Record>hasMany(list, r -> r.get(pkColumn), (r, ts) -> r.put(attachAttr, ts), values -> findByColumnIn(tableName, fkColumn, values), t -> t.get(fkColumn));
+        return list;
+    }
+
+    // ---------
+
+    /**
+     * 异步查询，在 DbAsync.getExecutor() 中使用独立的 Connection 执行
+     * <pre>
+     * 例子：
+     * CompletableFuture<List<Record>> a = Db.findAsync("select * from news where type = ?", 1);
+     * CompletableFuture<Page<Record>> b = Db.paginateAsync(1, 10, "select *", "from user");
+     * DbAsync.awaitAll(a, b);
+     * </pre>
+     * @see DbAsync
+     */
+    public CompletableFuture<List<Record>> findAsync(String sql, Object... paras) {
+        return DbAsync.supply(config, () -> find(sql, paras));
+    }
+
+    public CompletableFuture<List<Record>> findAsync(SqlPara sqlPara) {
+        return DbAsync.supply(config, () -> find(sqlPara));
+    }
+
+    public CompletableFuture<Record> findFirstAsync(String sql, Object... paras) {
+        return DbAsync.supply(config, () -> findFirst(sql, paras));
+    }
+
+    public <T> CompletableFuture<List<T>> queryAsync(String sql, Object... paras) {
+        return DbAsync.supply(config, () -> query(sql, paras));
+    }
+
+    public CompletableFuture<Page<Record>> paginateAsync(int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+        return DbAsync.supply(config, () -> paginate(pageNumber, pageSize, select, sqlExceptSelect, paras));
+    }
+
+    public CompletableFuture<Page<Record>> paginateAsync(int pageNumber, int pageSize, SqlPara sqlPara) {
+        return DbAsync.supply(config, () -> paginate(pageNumber, pageSize, sqlPara));
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import com.jfinal.plugin.activerecord.cache.ICache;
+import com.jfinal.plugin.activerecord.cache.LruCache;
+
+/**
+ * EntityCache 按主键缓存 Model 的二级缓存
+ *
+ * <pre>
+ * 1：通过 ActiveRecordPlugin.addEntityCache(User.class, ...) 针对 Model 开启，
+ *    Model.findById、findByIds 优先从缓存中获取，事务之中不使用缓存
+ *
+ * 2：Model.update()、delete()、deleteById(...)，以及 Db 中 update、delete、deleteById、batchUpdate
+ *    操作已开启缓存的表时自动失效缓存，处于事务之中时延迟到事务提交之后失效
+ *
+ * 3：缓存的是按 Table 字段序号存放的 Object[] 行数据，而非 Model 对象
+ *
+ * 4：Db.update(sql, ...)、Db.delete(sql, ...) 等无法识别主键的操作不会失效缓存，
+ *    需要调用 removeAll(tableName) 手动失效
+ *
+ * 5：DataLoader 合并查询时通过 ICache.getAll(...) 批量获取，只查询缓存未命中的 id，
+ *    使用 RedisCache 时为一次 MGET
+ *
+ * 6：配置了从库时，缓存未命中的查询使用主库，避免复制延迟期间的旧数据被长期缓存。
+ *    通过 Db.useReplica(...) 明确指定从库时，查询结果不写入缓存
+ *
+ * 7：失效时在缓存中写入该表新的版本标记，查询前后版本标记不一致时放弃写入，
+ *    使用 RedisCache 等共享缓存时，其它进程并发查询到的旧数据同样不会被写入缓存
+ * </pre>
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class EntityCache {
+	
+	public static final String CACHE_NAME_PREFIX = "_entity_.";
+	public static final int DEFAULT_MAX_SIZE = 10000;
+	// 表的版本标记在缓存中的 key
+	static final String VERSION_KEY = "_entity_version_";
+	
+	private final ICache cache;
+	private final Map<String, Table> tableMap = new HashMap<String, Table>();	// 表名小写 -> Table
+	// 每次失效时递增，用于避免并发的查询将失效之前读到的旧数据放入缓存
+	private final AtomicLong version = new AtomicLong();
+	
+	public EntityCache(ICache cache) {
+		if (cache == null) {
+			throw new IllegalArgumentException("cache can not be null");
+		}
+		this.cache = cache;
+	}
+	
+	/**
+	 * 使用进程内有界缓存 LruCache，每个表最多缓存 DEFAULT_MAX_SIZE 条数据
+	 */
+	public EntityCache() {
+		this(new LruCache(DEFAULT_MAX_SIZE));
+	}
+	
+	public ICache getCache() {
+		return cache;
+	}
+	
+	void addTable(Table table) {
+		tableMap.put(table.getName().toLowerCase(), table);
+	}
+	
+	boolean isCached(Table table) {
+		return tableMap.get(table.getName().toLowerCase()) == table;
+	}
+	
+	/**
+	 * 失效整个表的缓存
+	 */
+	public void removeAll(String tableName) {
+		version.incrementAndGet();
+		cache.removeAll(CACHE_NAME_PREFIX + tableName.toLowerCase());
+	}
+	
+	// --------
+	
+	/**
+	 * 查询之前获取版本，由本进程的失效计数与缓存中该表的版本标记组成
+	 */
+	Object version(Table table) {
+		return Arrays.asList(version.get(), cache.get(cacheName(table), VERSION_KEY));
+	}
+	
+	<M extends Model> M get(Table table, Object[] idValues, Class<? extends Model> modelClass) {
+		Object[] row = cache.get(cacheName(table), key(idValues));
+		return toModel(table, row, modelClass);
+	}
+	
+	/**
+	 * 单主键批量获取，返回值与 ids 一一对应，未命中的 id 对应 null
+	 */
+	<M extends Model> List<M> getAll(Table table, List<Object> ids, Class<? extends Model> modelClass) {
+		List<Object> keys = new ArrayList<Object>(ids.size());
+		for (Object id : ids) {
+			keys.add(normalize(id));
+		}
+		
+		List<Object[]> rows = cache.getAll(cacheName(table), keys);
+		List<M> ret = new ArrayList<M>(rows.size());
+		for (Object[] row : rows) {
+			ret.add(toModel(table, row, modelClass));
+		}
+		return ret;
+	}
+	
+	private static <M extends Model> M toModel(Table table, Object[] row, Class<? extends Model> modelClass) {
+		if (row == null || row.length != table.getColumnCount()) {
+			return null;
+		}
+		
+		M ret = (M)ModelFactory.create(modelClass);
+		Map<String, Object> attrs = ret._getAttrs();
+		for (int i=0; i<row.length; i++) {
+			attrs.put(table.getColumnLabel(i), row[i]);
+		}
+		return ret;
+	}
+	
+	/**
+	 * @param version 查询之前通过 version() 获取的值，查询期间发生过失效时放弃写入
+	 */
+	void put(Table table, Object[] idValues, Map<String, Object> attrs, Object version) {
+		int n = table.getColumnCount();
+		if (attrs.size() != n) {
+			return ;
+		}
+		
+		Object[] row = new Object[n];
+		for (Entry<String, Object> e : attrs.entrySet()) {
+			int index = table.getColumnIndex(e.getKey());
+			if (index < 0) {
+				return ;
+			}
+			row[index] = e.getValue();
+		}
+		
+		if (!version.equals(version(table))) {
+			return ;
+		}
+		String cacheName = cacheName(table);
+		Object key = key(idValues);
+		cache.put(cacheName, key, row);
+		// 检查与写入之间发生了失效时移除刚写入的数据，失效先更新版本再移除缓存，所以不会遗漏
+		if (!version.equals(version(table))) {
+			cache.remove(cacheName, key);
+		}
+	}
+	
+	/**
+	 * 当前调用通过 Db.useReplica(...) 明确指定了从库，查询结果不可写入缓存
+	 */
+	static boolean isReplicaRead(Config config) {
+		return config.replicaRouter != null && ReplicaRouter.getRoute() == ReplicaRouter.Route.REPLICA;
+	}
+	
+	/**
+	 * 使用主库执行用于填充缓存的查询
+	 */
+	static <T> T loadFromPrimary(Config config, Supplier<T> supplier) {
+		return config.replicaRouter != null ? ReplicaRouter.call(ReplicaRouter.Route.PRIMARY, supplier) : supplier.get();
+	}
+	
+	/**
+	 * 失效 Model 对应的缓存
+	 */
+	void remove(Config config, Table table, Object... idValues) {
+		if (isCached(table)) {
+			Object key = key(idValues);
+			afterTxCommit(config, table, () -> cache.remove(cacheName(table), key));
+		}
+	}
+	
+	/**
+	 * 失效 Db + Record 模式下对应的缓存，pKeys 次序与 Table 主键不一致时失效整个表
+	 */
+	void remove(Config config, String tableName, String[] pKeys, Object... idValues) {
+		Table table = tableMap.get(tableName.trim().toLowerCase());
+		if (table == null) {
+			return ;
+		}
+		
+		if (isSamePrimaryKey(table.getPrimaryKey(), pKeys)) {
+			remove(config, table, idValues);
+		} else {
+			afterTxCommit(config, table, () -> cache.removeAll(cacheName(table)));
+		}
+	}
+	
+	boolean hasTable(String tableName) {
+		return tableMap.containsKey(tableName.trim().toLowerCase());
+	}
+	
+	private void afterTxCommit(Config config, Table table, Runnable task) {
+		Runnable r = () -> {
+			version.incrementAndGet();
+			cache.put(cacheName(table), VERSION_KEY, ThreadLocalRandom.current().nextLong());
+			task.run();
+		};
+		if (config.isInTransaction()) {
+			config.addCallbackAfterTxCommit(r);
+		} else {
+			r.run();
+		}
+	}
+	
+	private static boolean isSamePrimaryKey(String[] tablePKeys, String[] pKeys) {
+		if (tablePKeys.length != pKeys.length) {
+			return false;
+		}
+		for (int i=0; i<pKeys.length; i++) {
+			if (!tablePKeys[i].equalsIgnoreCase(pKeys[i].trim())) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static String cacheName(Table table) {
+		return CACHE_NAME_PREFIX + table.getName().toLowerCase();
+	}
+	
+	/**
+	 * 整数值统一转换为 Long，使 findById(123) 与数据库返回的 Long、BigInteger、BigDecimal 类型主键得到相同的 key
+	 */
+	private static Object key(Object[] idValues) {
+		if (idValues.length == 1) {
+			return normalize(idValues[0]);
+		}
+		Object[] ret = new Object[idValues.length];
+		for (int i=0; i<idValues.length; i++) {
+			ret[i] = normalize(idValues[i]);
+		}
+		return Arrays.asList(ret);
+	}
+	
+	private static Object normalize(Object id) {
+		return BatchLoader.key(id);
+	}
+}
+
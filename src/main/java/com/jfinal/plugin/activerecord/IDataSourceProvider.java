@@ -30,6 +30,13 @@ public interface IDataSourceProvider {
 	default String getJdbcUrl() {
 		return null;
 	}
+
+	/**
+	 * 连接池运行状态，不支持时返回 null
+	 */
+	default PoolMetrics getPoolMetrics() {
+		return null;
+	}
 }
 
 
@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+/**
+ * IShardRouter 根据分片键的值确定数据所在分片的 configName
+ *
+ * <pre>
+ * 例子：按租户 id 范围分片
+ * new ShardTable("orders", "tenant_id", "shard_0", "shard_1")
+ *     .setRouter((value, configNames) -> ((Number)value).longValue() < 10000 ? configNames[0] : configNames[1]);
+ * </pre>
+ */
+@FunctionalInterface
+public interface IShardRouter {
+	
+	/**
+	 * @param shardKeyValue 分片键的值，不会为 null
+	 * @param configNames ShardTable 中配置的全部分片 configName
+	 * @return 分片的 configName
+	 */
+	String route(Object shardKeyValue, String[] configNames);
+	
+	/**
+	 * 默认路由：整数类型按数值取模，其它类型按 hashCode() 取模
+	 */
+	static final IShardRouter defaultShardRouter = new IShardRouter() {
+		public String route(Object shardKeyValue, String[] configNames) {
+			int n = configNames.length;
+			if (shardKeyValue instanceof Number) {
+				return configNames[(int)Math.floorMod(((Number)shardKeyValue).longValue(), (long)n)];
+			}
+			return configNames[Math.floorMod(shardKeyValue.hashCode(), n)];
+		}
+	};
+}
+
@@ -22,19 +22,20 @@ import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.Statement;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import com.jfinal.kit.TypeKit;
-import com.jfinal.plugin.activerecord.cache.ICache;
 import static com.jfinal.plugin.activerecord.DbKit.NULL_PARA_ARRAY;
 
 /**
@@ -65,7 +66,7 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 	private Map<String, Object> attrs = createAttrsMap();	// getConfig().containerFactory.getAttrsMap();	// new HashMap<String, Object>();
 
 	private Map<String, Object> createAttrsMap() {
-		Config config = _getConfig();
+		Config config = getContainerConfig();
 		if (config == null) {
 			return DbKit.brokenConfig.containerFactory.getAttrsMap();
 		}
@@ -175,16 +176,25 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 
 	protected Set<String> _getModifyFlag() {
 		if (modifyFlag == null) {
-			Config config = _getConfig();
-			if (config == null) {
-				modifyFlag = DbKit.brokenConfig.containerFactory.getModifyFlagSet();
-			} else {
-				modifyFlag = config.containerFactory.getModifyFlagSet();
-			}
+			modifyFlag = createModifyFlag(getContainerConfig());
 		}
 		return modifyFlag;
 	}
 
+	/**
+	 * 已完成映射的 Model 使用 ModifyFlagSet 按字段序号以位图记录修改标记
+	 */
+	private Set<String> createModifyFlag(Config config) {
+		if (config == null) {
+			return DbKit.brokenConfig.containerFactory.getModifyFlagSet();
+		}
+		Table table = _getTable();
+		if (table != null && table.getColumnCount() > 0) {
+			return new ModifyFlagSet(table, config.snapshotMode);
+		}
+		return config.containerFactory.getModifyFlagSet();
+	}
+
 	void clearModifyFlag() {
 		if (modifyFlag != null) {
 			modifyFlag.clear();
@@ -195,9 +205,22 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 		if (configName != null) {
 			return DbKit.getConfig(configName);
 		}
+		if (ShardKit.hasModelShard) {
+			Config config = ShardKit.getConfig(this);
+			if (config != null) {
+				return config;
+			}
+		}
 		return DbKit.getConfig(_getUsefulClass());
 	}
 
+	/**
+	 * 仅用于创建 attrs、modifyFlag 容器，分片 Model 在分片键赋值之前也可调用
+	 */
+	private Config getContainerConfig() {
+		return configName != null ? DbKit.getConfig(configName) : DbKit.getConfig(_getUsefulClass());
+	}
+
 	/*
 	private Config getConfig() {
 		return DbKit.getConfig(getUsefulClass());
@@ -242,8 +265,12 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 			throw new ActiveRecordException("The attribute name does not exist: \"" + attr + "\"");
 		}
 
+		Set<String> flag = _getModifyFlag();
+		if (flag instanceof ModifyFlagSet) {
+			((ModifyFlagSet)flag).snapshot(attr, attrs);
+		}
 		attrs.put(attr, value);
-		_getModifyFlag().add(attr);	// Add modify flag, update() need this flag.
+		flag.add(attr);	// Add modify flag, update() need this flag.
 		return (M)this;
 	}
 
@@ -270,7 +297,11 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 	public M setOrPut(String attrOrNot, Object value) {
 		Table table = _getTable();
 		if (table != null && table.hasColumnLabel(attrOrNot)) {
-			_getModifyFlag().add(attrOrNot);	// Add modify flag, update() need this flag.
+			Set<String> flag = _getModifyFlag();
+			if (flag instanceof ModifyFlagSet) {
+				((ModifyFlagSet)flag).snapshot(attrOrNot, attrs);
+			}
+			flag.add(attrOrNot);	// Add modify flag, update() need this flag.
 		}
 
 		attrs.put(attrOrNot, value);
@@ -530,7 +561,7 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 		Config config = _getConfig();
 		Connection conn = null;
 		try {
-			conn = config.getConnection();
+			conn = config.getReadConnection();
 			String totalRowSql = config.dialect.forPaginateTotalRow(select, sqlExceptSelect, this);
 			StringBuilder findSql = new StringBuilder();
 			findSql.append(select).append(' ').append(sqlExceptSelect);
@@ -585,7 +616,7 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 		Config config = _getConfig();
 		Connection conn = null;
 		try {
-			conn = config.getConnection();
+			conn = config.getReadConnection();
 			StringBuilder findSqlBuf = new StringBuilder().append(findSql);
 			return doPaginateByFullSql(config, conn, pageNumber, pageSize, isGroupBySql, totalRowSql, findSqlBuf, paras);
 		} catch (Exception e) {
@@ -613,10 +644,20 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 		Table table = _getTable();
 
 		// 不必判断 attrs 中的字段个数是否为 0，因为以下 sql 合法：insert into table_name() values()
-		StringBuilder sql = new StringBuilder();
-		List<Object> paras = new ArrayList<Object>();
-		config.dialect.forModelSave(table, attrs, sql, paras);
-		// if (paras.size() == 0)	return false;	// The sql "insert into tableName() values()" works fine, so delete this line
+		String sql;
+		Object[] paras;
+		SqlCache.SqlInfo sqlInfo = config.sqlCache != null ? config.sqlCache.forModelSave(config, table, attrs) : null;
+		if (sqlInfo != null) {
+			sql = sqlInfo.getSql();
+			paras = sqlInfo.getParas(attrs);
+		} else {
+			StringBuilder sqlBuf = new StringBuilder();
+			List<Object> paraList = new ArrayList<Object>();
+			config.dialect.forModelSave(table, attrs, sqlBuf, paraList);
+			// if (paras.size() == 0)	return false;	// The sql "insert into tableName() values()" works fine, so delete this line
+			sql = sqlBuf.toString();
+			paras = paraList.toArray();
+		}
 
 		// --------
 		Connection conn = null;
@@ -624,20 +665,21 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 		int result = 0;
 		try {
 			conn = config.getConnection();
-			if (config.dialect.isOracle()) {
-				pst = conn.prepareStatement(sql.toString(), table.getPrimaryKey());
-			} else {
-				pst = conn.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
-			}
+			pst = config.prepareStatement(conn, sql, table.getPrimaryKey());
 			config.dialect.fillStatement(pst, paras);
-			result = pst.executeUpdate();
+			result = config.executeUpdate(pst, sql, paras);
 			config.dialect.getModelGeneratedKey(this, pst, table);
 			clearModifyFlag();
+			if (result >= 1) {
+				DataLoader.remove(config, this);
+				config.onTableModified(table.getName());
+			}
 			return result >= 1;
 		} catch (Exception e) {
 			throw new ActiveRecordException(e);
 		} finally {
-			config.close(pst, conn);
+			config.closeStatement(pst);
+			config.close(conn);
 		}
 	}
 
@@ -690,11 +732,21 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 
 	protected boolean deleteById(Table table, Object... idValues) {
 		Config config = _getConfig();
+		// 无论是否开启 SqlCache 均经由 DbPro.update(config, conn, ...)
+		String sql = config.sqlCache != null ? config.sqlCache.forModelDeleteById(config, table) : config.dialect.forModelDeleteById(table);
 		Connection conn = null;
 		try {
 			conn = config.getConnection();
-			String sql = config.dialect.forModelDeleteById(table);
-			return Db.update(config, conn, sql, idValues) >= 1;
+			int result = Db.update(config, conn, sql, idValues);
+			boolean ret = result >= 1;
+			if (ret && config.entityCache != null) {
+				config.entityCache.remove(config, table, idValues);
+			}
+			if (ret) {
+				DataLoader.remove(config, this);
+				config.onTableModified(table.getName());
+			}
+			return ret;
 		} catch (Exception e) {
 			throw new ActiveRecordException(e);
 		} finally {
@@ -708,6 +760,10 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 	public boolean update() {
 		filter(FILTER_BY_UPDATE);
 
+		// snapshot 模式下移除值未变化的字段，全部未变化时无需访问数据库
+		if (modifyFlag instanceof ModifyFlagSet) {
+			((ModifyFlagSet)modifyFlag).removeUnchanged(attrs);
+		}
 		if (modifyFlag == null || modifyFlag.isEmpty()) {
 			return false;
 		}
@@ -722,11 +778,21 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 		}
 
 		Config config = _getConfig();
-		StringBuilder sql = new StringBuilder();
-		List<Object> paras = new ArrayList<Object>();
-		config.dialect.forModelUpdate(table, attrs, _getModifyFlag(), sql, paras);
+		String sql;
+		Object[] paras;
+		SqlCache.SqlInfo sqlInfo = config.sqlCache != null ? config.sqlCache.forModelUpdate(config, table, attrs, _getModifyFlag()) : null;
+		if (sqlInfo != null) {
+			sql = sqlInfo.getSql();
+			paras = sqlInfo.getParas(attrs);
+		} else {
+			StringBuilder sqlBuf = new StringBuilder();
+			List<Object> paraList = new ArrayList<Object>();
+			config.dialect.forModelUpdate(table, attrs, _getModifyFlag(), sqlBuf, paraList);
+			sql = sqlBuf.toString();
+			paras = paraList.toArray();
+		}
 
-		if (paras.size() <= 1) {	// 参数个数为 1 的情况表明只有主键，也无需更新
+		if (paras.length <= 1) {	// 参数个数为 1 的情况表明只有主键，也无需更新
 			return false;
 		}
 
@@ -734,9 +800,14 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 		Connection conn = null;
 		try {
 			conn = config.getConnection();
-			int result = Db.update(config, conn, sql.toString(), paras.toArray());
+			int result = Db.update(config, conn, sql, paras);
 			if (result >= 1) {
 				clearModifyFlag();
+				if (config.entityCache != null) {
+					config.entityCache.remove(config, table, _getIdValues(table));
+				}
+				DataLoader.remove(config, this);
+				config.onTableModified(table.getName());
 				return true;
 			}
 			return false;
@@ -747,6 +818,15 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 		}
 	}
 
+	Object[] _getIdValues(Table table) {
+		String[] pKeys = table.getPrimaryKey();
+		Object[] ret = new Object[pKeys.length];
+		for (int i=0; i<pKeys.length; i++) {
+			ret[i] = attrs.get(pKeys[i]);
+		}
+		return ret;
+	}
+
 	/**
 	 * Find model.
 	 *
@@ -754,19 +834,19 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 	 *      关闭掉，否则将出现 Connection 资源不能及时回收的问题
 	 */
 	protected List<M> find(Config config, Connection conn, String sql, Object... paras) throws Exception {
-		try (PreparedStatement pst = conn.prepareStatement(sql)) {
+		PreparedStatement pst = config.prepareStatement(conn, sql, null);
+		try {
 			config.dialect.fillStatement(pst, paras);
-			ResultSet rs = pst.executeQuery();
-			List<M> result = config.dialect.buildModelList(rs, _getUsefulClass());	// ModelBuilder.build(rs, getUsefulClass());
-			DbKit.close(rs);
-			return result;
+			return config.executeQuery(pst, sql, paras, rs -> config.dialect.buildModelList(rs, _getUsefulClass()));	// ModelBuilder.build(rs, getUsefulClass());
+		} finally {
+			config.closeStatement(pst);
 		}
 	}
 
 	protected List<M> find(Config config, String sql, Object... paras) {
 		Connection conn = null;
 		try {
-			conn = config.getConnection();
+			conn = config.getReadConnection();
 			return find(config, conn, sql, paras);
 		} catch (Exception e) {
 			throw new ActiveRecordException(e);
@@ -869,9 +949,40 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 			throw new IllegalArgumentException("id values error, need " + table.getPrimaryKey().length + " id value");
 		}
 		Config config = _getConfig();
-		String sql = config.dialect.forModelFindById(table, columns);
-		List<M> result = find(config, sql, idValues);
-		return result.size() > 0 ? result.get(0) : null;
+
+		// DataLoader 作用域内合并查询，参考 DataLoader
+		DataLoader dl = DataLoader.current();
+		if (dl != null && idValues.length == 1 && idValues[0] != null && "*".equals(columns) && !config.isInTransaction()) {
+			return dl.findById(this, config, table, idValues[0]);
+		}
+
+		// 事务之中不使用 EntityCache，以便读到当前事务中的修改
+		EntityCache ec = config.entityCache;
+		boolean useEntityCache = ec != null && "*".equals(columns) && !config.isInTransaction() && ec.isCached(table);
+		Object version = null;
+		if (useEntityCache) {
+			M ret = ec.get(table, idValues, _getUsefulClass());
+			if (ret != null) {
+				return ret;
+			}
+			version = ec.version(table);
+		}
+
+		// 无论是否开启 SqlCache 均经由 find(config, conn, ...)，使子类的覆盖继续生效
+		String sql = config.sqlCache != null ? config.sqlCache.forModelFindById(config, table, columns) : config.dialect.forModelFindById(table, columns);
+		Supplier<List<M>> query = () -> find(config, sql, idValues);
+
+		// 用于填充缓存的查询使用主库
+		boolean fillCache = useEntityCache && !EntityCache.isReplicaRead(config);
+		List<M> result = fillCache ? EntityCache.loadFromPrimary(config, query) : query.get();
+		if (result.size() == 0) {
+			return null;
+		}
+		M ret = result.get(0);
+		if (fillCache) {
+			ec.put(table, idValues, ret._getAttrs(), version);
+		}
+		return ret;
 	}
 
 	/**
@@ -927,7 +1038,7 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 				config = DbKit.brokenConfig;
 			}
 			Map<String, Object> newAttrs = config.containerFactory.getAttrsMap();	// new HashMap<String, Object>(attrs.length);
-			Set<String> newModifyFlag = config.containerFactory.getModifyFlagSet();	// new HashSet<String>();
+			Set<String> newModifyFlag = createModifyFlag(config);	// new HashSet<String>();
 			for (String a : attrs) {
 				if (this.attrs.containsKey(a))	// prevent put null value to the newColumns
 					newAttrs.put(a, this.attrs.get(a));
@@ -1044,13 +1155,7 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 	 */
 	public List<M> findByCache(String cacheName, Object key, String sql, Object... paras) {
 		Config config = _getConfig();
-		ICache cache = config.getCache();
-		List<M> result = cache.get(cacheName, key);
-		if (result == null) {
-			result = find(config, sql, paras);
-			cache.put(cacheName, key, result);
-		}
-		return result;
+		return config.getByCache(cacheName, key, sql, () -> find(config, sql, paras));
 	}
 
 	/**
@@ -1069,13 +1174,7 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 	 * @param paras the parameters of sql
 	 */
 	public M findFirstByCache(String cacheName, Object key, String sql, Object... paras) {
-		ICache cache = _getConfig().getCache();
-		M result = cache.get(cacheName, key);
-		if (result == null) {
-			result = findFirst(sql, paras);
-			cache.put(cacheName, key, result);
-		}
-		return result;
+		return _getConfig().getByCache(cacheName, key, sql, () -> findFirst(sql, paras));
 	}
 
 	/**
@@ -1108,13 +1207,7 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 	}
 
 	protected Page<M> doPaginateByCache(String cacheName, Object key, int pageNumber, int pageSize, Boolean isGroupBySql, String select, String sqlExceptSelect, Object... paras) {
-		ICache cache = _getConfig().getCache();
-		Page<M> result = cache.get(cacheName, key);
-		if (result == null) {
-			result = doPaginate(pageNumber, pageSize, isGroupBySql, select, sqlExceptSelect, paras);
-			cache.put(cacheName, key, result);
-		}
-		return result;
+		return _getConfig().getByCache(cacheName, key, select + " " + sqlExceptSelect, () -> doPaginate(pageNumber, pageSize, isGroupBySql, select, sqlExceptSelect, paras));
 	}
 
 	/**
@@ -1199,7 +1292,7 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 		Config config = _getConfig();
 		Connection conn = null;
 		try {
-			conn = config.getConnection();
+			conn = config.getReadConnection();
 
 			try (PreparedStatement pst = conn.prepareStatement(sql)) {
 				config.dialect.fillStatement(pst, paras);
@@ -1279,6 +1372,101 @@ public abstract class Model<M extends Model> implements IRow<M>, Serializable {
 		return templateByString(content, model.attrs);
 	}
 
+	// ---------
+
+	/**
+	 * 查询 column 的值在 values 之中的所有 Model，按 Dialect 参数个数上限分块查询
+	 * <pre>
+	 * 例子：
+	 * List<User> users = User.dao.findByColumnIn("id", idList);
+	 * </pre>
+	 */
+	public List<M> findByColumnIn(String column, Collection<?> values) {
+		return BatchLoader.findIn(_getConfig(), _getTable().getName(), column, values, this::find);
+	}
+
+	/**
+	 * 多对一批量加载，一条 in 查询为 list 中每个对象挂载关联对象，消除 N + 1 查询
+	 * <pre>
+	 * 例子：
+	 * // blog.user_id 关联 user 表主键，通过 blog.get("author") 获取 User
+	 * User.dao.loadBelongsTo(blogs, "user_id", "author");
+	 * </pre>
+	 * @param list 需要挂载关联对象的 Model 列表
+	 * @param fkAttr list 中对象的外键属性名，其值对应当前 Model 的主键
+	 * @param attachAttr 挂载关联对象使用的属性名，关联对象不存在时挂载 null
+	 * @see BatchLoader
+	 */
+	public <T extends Model> List<T> loadBelongsTo(List<T> list, String fkAttr, String attachAttr) {
+		Config config = _getConfig();
+		String pKey = BatchLoader.singlePrimaryKey(_getTable());
+		BatchLoader.<T, M>belongsTo(list, t -> t.get(fkAttr), (t, m) -> t.put(attachAttr, m), values -> findByColumnIn(pKey, values), m -> m.get(pKey));
+
+		DataLoader dl = DataLoader.current();
+		if (dl != null && !config.isInTransaction()) {
+			for (T t : list) {
+				Model<?> m = (Model<?>)t.get(attachAttr);
+				if (m != null) {
+					dl.prime(config, this, m.get(pKey), m);
+				}
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * 一对多批量加载，一条 in 查询为 list 中每个对象挂载关联对象列表，消除 N + 1 查询
+	 * <pre>
+	 * 例子：
+	 * // comment.blog_id 关联 blog 表主键，通过 blog.get("comments") 获取 List<Comment>
+	 * Comment.dao.loadHasMany(blogs, "blog_id", "comments");
+	 * </pre>
+	 * @param list 需要挂载关联对象列表的 Model 列表，使用其主键值进行关联
+	 * @param fkColumn 当前 Model 中关联 list 对象主键的外键字段
+	 * @param attachAttr 挂载关联对象列表使用的属性名，没有关联对象时挂载空列表
+	 * @see BatchLoader
+	 */
+	public <T extends Model> List<T> loadHasMany(List<T> list, String fkColumn, String attachAttr) {
+		if (list.isEmpty()) {
+			return list;
+		}
+		String pKey = BatchLoader.singlePrimaryKey(list.get(0)._getTable());
+		BatchLoader.<T, M>hasMany(list, t -> t.get(pKey), (t, ms) -> t.put(attachAttr, ms), values -> findByColumnIn(fkColumn, values), m -> m.get(fkColumn));
+		return list;
+	}
+
+	// ---------
+
+	/**
+	 * 异步查询，在 DbAsync.getExecutor() 中使用独立的 Connection 执行
+	 * <pre>
+	 * 例子：
+	 * CompletableFuture<List<Blog>> blogs = Blog.dao.findAsync("select * from blog limit 10");
+	 * CompletableFuture<Page<User>> users = User.dao.paginateAsync(1, 10, "select *", "from user");
+	 * DbAsync.awaitAll(blogs, users);
+	 * </pre>
+	 * @see DbAsync
+	 */
+	public CompletableFuture<List<M>> findAsync(String sql, Object... paras) {
+		return DbAsync.supply(_getConfig(), () -> find(sql, paras));
+	}
+
+	public CompletableFuture<List<M>> findAsync(SqlPara sqlPara) {
+		return DbAsync.supply(_getConfig(), () -> find(sqlPara));
+	}
+
+	public CompletableFuture<M> findFirstAsync(String sql, Object... paras) {
+		return DbAsync.supply(_getConfig(), () -> findFirst(sql, paras));
+	}
+
+	public CompletableFuture<Page<M>> paginateAsync(int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		return DbAsync.supply(_getConfig(), () -> paginate(pageNumber, pageSize, select, sqlExceptSelect, paras));
+	}
+
+	public CompletableFuture<Page<M>> paginateAsync(int pageNumber, int pageSize, SqlPara sqlPara) {
+		return DbAsync.supply(_getConfig(), () -> paginate(pageNumber, pageSize, sqlPara));
+	}
+
 	@Override
 	public Map<String, Object> toMap() {
 		return attrs;
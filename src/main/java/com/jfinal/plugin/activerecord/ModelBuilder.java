@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * ModelBuilder.
@@ -50,8 +51,9 @@ public class ModelBuilder {
 		String[] labelNames = new String[columnCount + 1];
 		int[] types = new int[columnCount + 1];
 		buildLabelNamesAndTypes(rsmd, labelNames, types);
+		Supplier<? extends Model> factory = ModelFactory.get(modelClass);
 		while (rs.next()) {
-			Model<?> ar = modelClass.newInstance();
+			Model<?> ar = factory.get();
 			Map<String, Object> attrs = ar._getAttrs();
 			for (int i=1; i<=columnCount; i++) {
 				Object value;
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.function.Supplier;
+
+/**
+ * ModelFactory 为 ModelBuilder 等需要大量创建 Model 对象的地方提供免反射的创建方式
+ *
+ * <pre>
+ * 1：优先使用 addMapping(...) 时传入的 Supplier，例如 arp.addMapping("blog", "id", Blog.class, Blog::new)，
+ *    Generator.setGenerateModelFactory(true) 可让生成的 MappingKit 自动传入
+ *
+ * 2：未传入时使用缓存的无参构造方法 MethodHandle，每个 Model 类只查找一次构造方法
+ * </pre>
+ */
+public class ModelFactory {
+
+	private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(void.class);
+	private static final MethodType INVOKE_TYPE = MethodType.methodType(Object.class);
+
+	private static final ClassValue<Supplier<?>> suppliers = new ClassValue<Supplier<?>>() {
+		protected Supplier<?> computeValue(Class<?> modelClass) {
+			return createSupplier(modelClass);
+		}
+	};
+
+	/**
+	 * 获取 modelClass 的创建函数，在循环之外获取一次，循环之中调用 get() 创建对象
+	 */
+	@SuppressWarnings("unchecked")
+	public static <M> Supplier<M> get(Class<M> modelClass) {
+		@SuppressWarnings("rawtypes")
+		Table table = TableMapping.me().getTable((Class<? extends Model>)modelClass);
+		if (table != null && table.getModelFactory() != null) {
+			return (Supplier<M>)table.getModelFactory();
+		}
+		return (Supplier<M>)suppliers.get(modelClass);
+	}
+
+	public static <M> M create(Class<M> modelClass) {
+		return get(modelClass).get();
+	}
+
+	private static Supplier<?> createSupplier(Class<?> modelClass) {
+		MethodHandle mh;
+		try {
+			mh = MethodHandles.publicLookup().findConstructor(modelClass, CONSTRUCTOR_TYPE).asType(INVOKE_TYPE);
+		} catch (ReflectiveOperationException e) {
+			// 非 public 的 Model 类或构造方法
+			return createReflectSupplier(modelClass);
+		}
+
+		MethodHandle constructor = mh;
+		return () -> {
+			try {
+				return (Object)constructor.invokeExact();
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new ActiveRecordException(e);
+			}
+		};
+	}
+
+	private static Supplier<?> createReflectSupplier(Class<?> modelClass) {
+		Constructor<?> constructor;
+		try {
+			constructor = modelClass.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			throw new ActiveRecordException("Can not find the no-args constructor of " + modelClass.getName(), e);
+		}
+		return () -> {
+			try {
+				return constructor.newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new ActiveRecordException(e);
+			}
+		};
+	}
+}
@@ -0,0 +1,303 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * ModifyFlagSet 是 Model 的 modifyFlag 的默认实现，按 Table 中字段的序号以位图记录被修改的字段
+ *
+ * <pre>
+ * 1：contains、add、remove 只需一次 Table.getColumnIndex(...) 查找与位运算，
+ *    大小写规则与 Table 一致，不存在于 Table 中的字段名存放在 extra 之中
+ *
+ * 2：snapshot 模式下，字段第一次被 set 时记录其原值，Model.update() 之前通过
+ *    removeUnchanged(...) 移除值未发生变化的字段，只 update 真正被修改的字段，
+ *    所有字段均未变化时 update() 不再访问数据库
+ *
+ * 3：序列化时只写入字段名、Model 类型以及大小写规则，原值不参与序列化。反序列化时 Model 已完成映射
+ *    则重建为 ModifyFlagSet，否则重建为大小写规则相同的 TreeSet 或 HashSet
+ * </pre>
+ */
+class ModifyFlagSet extends AbstractSet<String> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient Table table;
+	private final transient boolean snapshot;
+
+	private long[] bits;
+	private int count;
+	private Set<String> extra;
+
+	// snapshot 模式下字段的原值，originalBits 标记原值是否存在
+	private Object[] originals;
+	private long[] originalBits;
+
+	ModifyFlagSet(Table table, boolean snapshot) {
+		this.table = table;
+		this.snapshot = snapshot;
+		this.bits = new long[(table.getColumnCount() + 63) >>> 6];
+	}
+
+	private static boolean getBit(long[] bits, int index) {
+		int i = index >>> 6;
+		return i < bits.length && (bits[i] & (1L << index)) != 0;
+	}
+
+	private static long[] setBit(long[] bits, int index) {
+		int i = index >>> 6;
+		if (i >= bits.length) {
+			bits = Arrays.copyOf(bits, i + 1);
+		}
+		bits[i] |= 1L << index;
+		return bits;
+	}
+
+	private static void clearBit(long[] bits, int index) {
+		int i = index >>> 6;
+		if (i < bits.length) {
+			bits[i] &= ~(1L << index);
+		}
+	}
+
+	private int indexOf(Object o) {
+		return o instanceof String ? table.getColumnIndex((String)o) : -1;
+	}
+
+	public boolean contains(Object o) {
+		int index = indexOf(o);
+		if (index >= 0) {
+			return getBit(bits, index);
+		}
+		return extra != null && extra.contains(o);
+	}
+
+	public boolean add(String attr) {
+		int index = indexOf(attr);
+		if (index >= 0) {
+			if (getBit(bits, index)) {
+				return false;
+			}
+			bits = setBit(bits, index);
+			count++;
+			return true;
+		}
+		if (extra == null) {
+			extra = new HashSet<String>();
+		}
+		return extra.add(attr);
+	}
+
+	public boolean remove(Object o) {
+		int index = indexOf(o);
+		if (index >= 0) {
+			if (!getBit(bits, index)) {
+				return false;
+			}
+			clearBit(bits, index);
+			count--;
+			if (originalBits != null) {
+				clearBit(originalBits, index);
+				originals[index] = null;
+			}
+			return true;
+		}
+		return extra != null && extra.remove(o);
+	}
+
+	public int size() {
+		return count + (extra != null ? extra.size() : 0);
+	}
+
+	public void clear() {
+		Arrays.fill(bits, 0L);
+		count = 0;
+		extra = null;
+		originals = null;
+		originalBits = null;
+	}
+
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			int next = nextIndex(0);
+			int last = -1;
+			Iterator<String> extraIt = null;
+
+			int nextIndex(int from) {
+				int max = bits.length << 6;
+				for (int i = from; i < max; i++) {
+					if (getBit(bits, i)) {
+						return i;
+					}
+				}
+				return -1;
+			}
+
+			public boolean hasNext() {
+				if (next >= 0) {
+					return true;
+				}
+				if (extraIt == null) {
+					if (extra == null) {
+						return false;
+					}
+					extraIt = extra.iterator();
+				}
+				return extraIt.hasNext();
+			}
+
+			public String next() {
+				if (next >= 0) {
+					last = next;
+					next = nextIndex(next + 1);
+					return table.getColumnLabel(last);
+				}
+				if (hasNext()) {
+					last = -1;
+					return extraIt.next();
+				}
+				throw new NoSuchElementException();
+			}
+
+			public void remove() {
+				if (last >= 0) {
+					ModifyFlagSet.this.remove(table.getColumnLabel(last));
+					last = -1;
+				} else if (extraIt != null) {
+					extraIt.remove();
+				} else {
+					throw new IllegalStateException();
+				}
+			}
+		};
+	}
+
+	// ---------
+
+	/**
+	 * 在 Model.set(...) 写入新值之前调用，字段第一次被标记时记录其原值
+	 */
+	void snapshot(String attr, Map<String, Object> attrs) {
+		if (!snapshot) {
+			return ;
+		}
+		int index = indexOf(attr);
+		if (index < 0 || getBit(bits, index)) {
+			return ;
+		}
+
+		if (attrs.containsKey(attr)) {
+			if (originals == null) {
+				originals = new Object[table.getColumnCount()];
+				originalBits = new long[bits.length];
+			} else if (index >= originals.length) {
+				originals = Arrays.copyOf(originals, table.getColumnCount());
+			}
+			originals[index] = attrs.get(attr);
+			originalBits = setBit(originalBits, index);
+		} else if (originalBits != null) {
+			clearBit(originalBits, index);		// 新增的属性没有原值，始终参与 update
+			originals[index] = null;
+		}
+	}
+
+	/**
+	 * 移除当前值与原值相同的字段标记
+	 */
+	void removeUnchanged(Map<String, Object> attrs) {
+		if (originalBits == null) {
+			return ;
+		}
+		for (int i = 0, max = originalBits.length << 6; i < max; i++) {
+			if (getBit(originalBits, i) && getBit(bits, i)) {
+				String attr = table.getColumnLabel(i);
+				if (attrs.containsKey(attr) && isEquals(originals[i], attrs.get(attr))) {
+					remove(attr);
+				}
+			}
+		}
+	}
+
+	static boolean isEquals(Object a, Object b) {
+		if (a == b) {
+			return true;
+		}
+		if (a == null || b == null) {
+			return false;
+		}
+		if (a instanceof BigDecimal && b instanceof BigDecimal) {
+			return ((BigDecimal)a).compareTo((BigDecimal)b) == 0;
+		}
+		if (a instanceof byte[] && b instanceof byte[]) {
+			return Arrays.equals((byte[])a, (byte[])b);
+		}
+		// 类型不同时视为已修改，例如 Integer 与 Long，交由数据库处理
+		return a.getClass() == b.getClass() && a.equals(b);
+	}
+
+	private Object writeReplace() {
+		return new SerializedForm(this);
+	}
+
+	/**
+	 * ModifyFlagSet 的序列化形式，Table 不参与序列化
+	 */
+	private static class SerializedForm implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Class<? extends Model<?>> modelClass;
+		private final boolean snapshot;
+		private final Comparator<? super String> comparator;
+		private final String[] attrs;
+
+		SerializedForm(ModifyFlagSet set) {
+			this.modelClass = set.table.getModelClass();
+			this.snapshot = set.snapshot;
+			Comparator<? super String> c = set.table.getColumnComparator();
+			// 无法序列化的自定义比较规则以忽略大小写代替
+			this.comparator = c == null || c instanceof Serializable ? c : String.CASE_INSENSITIVE_ORDER;
+			this.attrs = set.toArray(new String[set.size()]);
+		}
+
+		private Object readResolve() {
+			Table table = modelClass != null ? TableMapping.me().getTable(modelClass) : null;
+			Set<String> ret;
+			if (table != null && table.getColumnCount() > 0) {
+				ret = new ModifyFlagSet(table, snapshot);
+			} else if (comparator != null) {
+				ret = new TreeSet<String>(comparator);
+			} else {
+				ret = new HashSet<String>();
+			}
+			Collections.addAll(ret, attrs);
+			return ret;
+		}
+	}
+}
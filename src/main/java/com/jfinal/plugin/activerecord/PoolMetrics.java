@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+/**
+ * PoolMetrics 统一 Druid、HikariCP 等连接池的运行状态，由 IDataSourceProvider.getPoolMetrics() 提供
+ *
+ * <pre>
+ * 例子：
+ * PoolMetrics pm = DbKit.getConfig().getPoolMetrics();
+ * if (pm != null) {
+ *     log.info("active: " + pm.getActive() + ", idle: " + pm.getIdle() + ", pending: " + pm.getPending());
+ * }
+ * </pre>
+ */
+public interface PoolMetrics {
+
+	/**
+	 * 正在被使用的连接数
+	 */
+	int getActive();
+
+	/**
+	 * 池中空闲的连接数
+	 */
+	int getIdle();
+
+	/**
+	 * 在连接池中等待获取连接的线程数
+	 */
+	int getPending();
+
+	/**
+	 * 连接池允许的最大连接数
+	 */
+	int getMax();
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import com.jfinal.aop.Interceptor;
+import com.jfinal.aop.Invocation;
+
+/**
+ * ReplicaInterceptor 将读写分离的写后读主库限定在一次请求之内
+ *
+ * <pre>
+ * 以一次请求为 ReplicaRouter.runInScope(...) 的作用域：请求之内发生写操作以后，
+ * 直至请求结束读操作均使用主库；请求开始与结束时清除当前线程的写操作标记，
+ * 避免线程池中的线程将上一次请求的写操作标记带入下一次请求。一般配置为全局拦截器：
+ *
+ * public void configInterceptor(Interceptors me) {
+ *     me.add(new ReplicaInterceptor());
+ * }
+ * </pre>
+ */
+public class ReplicaInterceptor implements Interceptor {
+
+	public void intercept(Invocation inv) {
+		ReplicaRouter.runInScope(inv::invoke);
+	}
+}
+
@@ -0,0 +1,459 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.sql.DataSource;
+import com.jfinal.kit.LogKit;
+
+/**
+ * ReplicaRouter 实现读写分离，将 DbPro、Model 中的只读查询路由到从库
+ *
+ * <pre>
+ * 路由规则：
+ * 1：事务之中的所有操作使用事务 Connection，即主库
+ * 2：当前线程获取过主库 Connection（写操作）以后，读操作继续使用主库，避免读到复制延迟之前的旧数据。
+ *    在 runInScope(...) 作用域之内该状态持续到作用域结束，ReplicaInterceptor 以一次请求为作用域；
+ *    作用域之外该状态持续 stickyMillis 时间或者直至 clearSticky() 被调用
+ * 3：通过 Db.usePrimary(...)、Db.useReplica(...) 对单次调用指定路由
+ * 4：配置 LagChecker 以后，复制延迟超过 maxLagMillis 或者检测失败的从库将被跳过，
+ *    从库全部不可用时回退到主库。延迟检测在后台线程中执行，不阻塞查询
+ *
+ * 例子：
+ * ActiveRecordPlugin arp = new ActiveRecordPlugin(primaryDataSource);
+ * arp.addReplica(replicaDataSource1);
+ * arp.addReplica(replicaDataSource2, 2);
+ * arp.getReplicaRouter().setPolicy(ReplicaRouter.Policy.WEIGHTED);
+ *
+ * // mysql 从库延迟检测
+ * arp.getReplicaRouter().setLagChecker(conn -> {
+ *     try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("show slave status")) {
+ *         return rs.next() ? rs.getLong("Seconds_Behind_Master") * 1000 : 0;
+ *     }
+ * }, 3000, 5000);
+ * </pre>
+ */
+public class ReplicaRouter {
+
+	/**
+	 * 从库选择策略
+	 */
+	public enum Policy {
+		ROUND_ROBIN,		// 轮询
+		LEAST_IN_FLIGHT,	// 选择正在执行查询最少的从库
+		WEIGHTED			// 按权重随机
+	}
+
+	/**
+	 * 单次调用的路由方式
+	 */
+	public enum Route {
+		PRIMARY,
+		REPLICA
+	}
+
+	/**
+	 * 检测从库复制延迟，返回延迟毫秒数
+	 */
+	@FunctionalInterface
+	public interface LagChecker {
+		long getLagMillis(Connection conn) throws SQLException;
+	}
+
+	private static final ThreadLocal<Route> routeTL = new ThreadLocal<>();
+	private static final ThreadLocal<Integer> scopeTL = new ThreadLocal<>();
+	private static volatile Executor defaultCheckExecutor;
+
+	private final ThreadLocal<Long> stickyTL = new ThreadLocal<>();
+	private final Map<Connection, Replica> inFlightMap = new ConcurrentHashMap<>();
+	private final AtomicInteger counter = new AtomicInteger();
+
+	private volatile Replica[] replicas = new Replica[0];
+	private Policy policy = Policy.ROUND_ROBIN;
+	private long stickyMillis = 1000;
+
+	private LagChecker lagChecker;
+	private long maxLagMillis = Long.MAX_VALUE;
+	// 从库延迟检测以及不可用从库重试的时间间隔
+	private long checkIntervalMillis = 5000;
+	private Executor checkExecutor;
+
+	public synchronized ReplicaRouter addReplica(DataSource dataSource, int weight) {
+		if (dataSource == null) {
+			throw new IllegalArgumentException("dataSource can not be null");
+		}
+		if (weight < 1) {
+			throw new IllegalArgumentException("weight must more than 0");
+		}
+		Replica[] ret = new Replica[replicas.length + 1];
+		System.arraycopy(replicas, 0, ret, 0, replicas.length);
+		ret[replicas.length] = new Replica(dataSource, weight);
+		replicas = ret;
+		return this;
+	}
+
+	public ReplicaRouter addReplica(DataSource dataSource) {
+		return addReplica(dataSource, 1);
+	}
+
+	public ReplicaRouter setPolicy(Policy policy) {
+		if (policy == null) {
+			throw new IllegalArgumentException("policy can not be null");
+		}
+		this.policy = policy;
+		return this;
+	}
+
+	/**
+	 * runInScope(...) 作用域之外，写操作以后读操作继续使用主库的时长，默认值 1000 毫秒。
+	 * 配置为 0 时作用域之外仅在事务之中使用主库
+	 */
+	public ReplicaRouter setStickyMillis(long stickyMillis) {
+		if (stickyMillis < 0) {
+			throw new IllegalArgumentException("stickyMillis can not be less than 0");
+		}
+		this.stickyMillis = stickyMillis;
+		return this;
+	}
+
+	/**
+	 * 配置从库延迟检测
+	 * @param lagChecker 延迟检测函数，抛出异常时从库被视为不可用
+	 * @param maxLagMillis 允许的最大延迟，超过后该从库不参与路由
+	 * @param checkIntervalMillis 检测间隔，检测在路由时惰性触发，同一时刻只有一个线程执行检测
+	 */
+	public ReplicaRouter setLagChecker(LagChecker lagChecker, long maxLagMillis, long checkIntervalMillis) {
+		if (maxLagMillis < 0 || checkIntervalMillis < 0) {
+			throw new IllegalArgumentException("maxLagMillis and checkIntervalMillis can not be less than 0");
+		}
+		this.lagChecker = lagChecker;
+		this.maxLagMillis = maxLagMillis;
+		this.checkIntervalMillis = checkIntervalMillis;
+		return this;
+	}
+
+	/**
+	 * 配置执行延迟检测的线程池，默认使用一个共享的后台线程
+	 */
+	public ReplicaRouter setCheckExecutor(Executor checkExecutor) {
+		this.checkExecutor = checkExecutor;
+		return this;
+	}
+
+	public boolean hasReplica() {
+		return replicas.length > 0;
+	}
+
+	public List<Replica> getReplicas() {
+		List<Replica> ret = new ArrayList<>(replicas.length);
+		Collections.addAll(ret, replicas);
+		return ret;
+	}
+
+	// --------
+
+	/**
+	 * 指定 supplier 中所有查询的路由方式
+	 */
+	public static <T> T call(Route route, Supplier<T> supplier) {
+		Route old = routeTL.get();
+		routeTL.set(route);
+		try {
+			return supplier.get();
+		} finally {
+			if (old != null) {
+				routeTL.set(old);
+			} else {
+				routeTL.remove();
+			}
+		}
+	}
+
+	static Route getRoute() {
+		return routeTL.get();
+	}
+
+	/**
+	 * 在作用域之内执行 runnable，作用域之内发生写操作以后直至作用域结束，读操作均使用主库，
+	 * 作用域开始与结束时清除写操作标记。作用域可以嵌套，仅最外层作用域清除标记
+	 */
+	public static void runInScope(Runnable runnable) {
+		Integer depth = scopeTL.get();
+		if (depth == null) {
+			clearSticky();
+			scopeTL.set(1);
+		} else {
+			scopeTL.set(depth + 1);
+		}
+		try {
+			runnable.run();
+		} finally {
+			if (depth == null) {
+				scopeTL.remove();
+				clearSticky();
+			} else {
+				scopeTL.set(depth);
+			}
+		}
+	}
+
+	/**
+	 * 清除所有 Config 中当前线程的写操作标记，使后续读操作重新路由到从库
+	 */
+	public static void clearSticky() {
+		for (Map.Entry<String, Config> e : DbKit.getConfigSet()) {
+			ReplicaRouter router = e.getValue().replicaRouter;
+			if (router != null) {
+				router.stickyTL.remove();
+			}
+		}
+	}
+
+	/**
+	 * 标记当前线程获取了主库 Connection
+	 */
+	void markWrite() {
+		if (stickyMillis > 0 || scopeTL.get() != null) {
+			stickyTL.set(System.currentTimeMillis());
+		}
+	}
+
+	private boolean isSticky() {
+		Long time = stickyTL.get();
+		if (time == null) {
+			return false;
+		}
+		if (scopeTL.get() != null || System.currentTimeMillis() - time < stickyMillis) {
+			return true;
+		}
+		stickyTL.remove();
+		return false;
+	}
+
+	/**
+	 * 获取从库 Connection，返回 null 表示应当使用主库
+	 */
+	Connection getConnection(Config config) throws SQLException {
+		Route route = routeTL.get();
+		if (route == Route.PRIMARY || (route == null && isSticky())) {
+			return null;
+		}
+
+		Replica replica = select();
+		if (replica == null) {
+			return null;
+		}
+
+		Connection conn;
+		SqlMonitor monitor = config.sqlMonitor;
+		long start = monitor != null ? System.nanoTime() : 0;
+		try {
+			conn = replica.dataSource.getConnection();
+		} catch (SQLException e) {
+			LogKit.error("Can not get connection from replica, fall back to primary: " + e.getMessage(), e);
+			replica.markUnavailable();
+			return null;
+		}
+		if (monitor != null) {
+			monitor.recordConnectionWait(start);
+		}
+
+		if (config.showSql) {
+			conn = new SqlReporter(conn).getConnection();
+		}
+		replica.inFlight.incrementAndGet();
+		inFlightMap.put(conn, replica);
+		return conn;
+	}
+
+	/**
+	 * 在 Config.close(...) 中调用，conn 不是从库 Connection 时直接忽略
+	 */
+	void release(Connection conn) {
+		if (conn != null) {
+			Replica replica = inFlightMap.remove(conn);
+			if (replica != null) {
+				replica.inFlight.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * 先取得可用从库的快照，再按策略从快照中选择，避免选择过程中可用状态发生变化
+	 */
+	private Replica select() {
+		Replica[] rs = replicas;
+		if (rs.length == 0) {
+			return null;
+		}
+
+		long now = System.currentTimeMillis();
+		Replica[] available = new Replica[rs.length];
+		int n = 0;
+		int total = 0;
+		for (Replica r : rs) {
+			if (isAvailable(r, now)) {
+				available[n++] = r;
+				total += r.weight;
+			}
+		}
+		if (n == 0) {
+			return null;
+		}
+
+		switch (policy) {
+			case LEAST_IN_FLIGHT: {
+				Replica ret = available[0];
+				for (int i = 1; i < n; i++) {
+					if (available[i].inFlight.get() < ret.inFlight.get()) {
+						ret = available[i];
+					}
+				}
+				return ret;
+			}
+			case WEIGHTED: {
+				int x = ThreadLocalRandom.current().nextInt(total);
+				for (int i = 0; i < n; i++) {
+					x -= available[i].weight;
+					if (x < 0) {
+						return available[i];
+					}
+				}
+				return available[n - 1];
+			}
+			default:
+				return available[(counter.getAndIncrement() & Integer.MAX_VALUE) % n];
+		}
+	}
+
+	/**
+	 * 到达检测间隔时提交一次延迟检测到后台线程，查询线程使用上一次的检测结果
+	 */
+	private boolean isAvailable(Replica r, long now) {
+		long last = r.lastCheckTime.get();
+		if ((lagChecker != null || !r.available) && now - last >= checkIntervalMillis && r.lastCheckTime.compareAndSet(last, now)) {
+			if (lagChecker == null) {
+				r.available = true;		// 没有延迟检测时，不可用的从库在检测间隔之后重新参与路由
+			} else {
+				submitCheck(r);
+			}
+		}
+		return r.available;
+	}
+
+	private void submitCheck(Replica r) {
+		try {
+			getCheckExecutor().execute(() -> check(r));
+		} catch (Exception e) {
+			LogKit.error("Can not submit replica lag check: " + e.getMessage(), e);
+		}
+	}
+
+	private void check(Replica r) {
+		try (Connection conn = r.dataSource.getConnection()) {
+			long lag = lagChecker.getLagMillis(conn);
+			r.lagMillis = lag;
+			r.available = lag <= maxLagMillis;
+		} catch (Exception e) {
+			LogKit.error("Replica lag check failed: " + e.getMessage(), e);
+			r.lagMillis = -1;
+			r.available = false;
+		}
+	}
+
+	private Executor getCheckExecutor() {
+		if (checkExecutor != null) {
+			return checkExecutor;
+		}
+		Executor ret = defaultCheckExecutor;
+		if (ret == null) {
+			synchronized (ReplicaRouter.class) {
+				ret = defaultCheckExecutor;
+				if (ret == null) {
+					ret = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+						Thread t = new Thread(r, "jfinal-replica-check");
+						t.setDaemon(true);
+						return t;
+					});
+					defaultCheckExecutor = ret;
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * 从库
+	 */
+	public static class Replica {
+
+		final DataSource dataSource;
+		final int weight;
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicLong lastCheckTime = new AtomicLong();
+		volatile boolean available = true;
+		volatile long lagMillis = 0;
+
+		Replica(DataSource dataSource, int weight) {
+			this.dataSource = dataSource;
+			this.weight = weight;
+		}
+
+		void markUnavailable() {
+			available = false;
+			lastCheckTime.set(System.currentTimeMillis());
+		}
+
+		public DataSource getDataSource() {
+			return dataSource;
+		}
+
+		public int getWeight() {
+			return weight;
+		}
+
+		public int getInFlight() {
+			return inFlight.get();
+		}
+
+		public boolean isAvailable() {
+			return available;
+		}
+
+		/**
+		 * 最近一次检测到的复制延迟，检测失败时为 -1
+		 */
+		public long getLagMillis() {
+			return lagMillis;
+		}
+	}
+}
+
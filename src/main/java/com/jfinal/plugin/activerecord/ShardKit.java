@@ -0,0 +1,510 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * ShardKit 水平分片
+ *
+ * <pre>
+ * 1：Model 的 save()、update()、delete() 根据 model 中分片键的值自动路由到对应分片，
+ *    例如：new Orders().set("tenant_id", 3).set("amount", 100).save();
+ *
+ * 2：已知分片键时，通过 use(...) 得到绑定分片的 Model 或 DbPro，可使用全部原有 API：
+ *    ShardKit.use(Orders.dao, tenantId).findById(123);
+ *    ShardKit.use("orders", tenantId).find("select * from orders where tenant_id = ?", tenantId);
+ *
+ * 3：按主键操作时，分片键是主键的组成部分则直接路由，否则并行查询全部分片：
+ *    ShardKit.findById(Orders.dao, 123);
+ *
+ * 4：不含分片键的查询并行发往全部分片并合并结果，分页需要传入与 order by 一致的 Comparator：
+ *    ShardKit.paginate(Orders.dao, Comparator.comparing(Orders::getId).reversed(),
+ *          pageNumber, pageSize, "select *", "from orders order by id desc");
+ *
+ *    跨分片分页需要每个分片查询前 pageNumber * pageSize 条数据再归并，页码越大开销越大
+ *
+ * 5：当前线程处于某个分片的事务之中时，跨分片查询在当前线程中依次执行，
+ *    以便事务中的分片使用事务 Connection
+ *
+ * 6：跨分片查询默认使用独立的线程池，不与 ThreadPoolKit 共用，在分片查询任务中再次发起的
+ *    跨分片查询在当前线程中依次执行，避免线程池耗尽时相互等待造成死锁
+ * </pre>
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class ShardKit {
+	
+	private static final Map<Class<? extends Model>, ShardTable> modelToShardTable = new HashMap<Class<? extends Model>, ShardTable>(32, 0.5F);
+	private static final Map<String, ShardTable> tableNameToShardTable = new HashMap<String, ShardTable>(32, 0.5F);
+	
+	// 用于 Model._getConfig() 快速判断，未配置 Model 分片时无额外开销
+	static volatile boolean hasModelShard = false;
+	
+	private static volatile ExecutorService executor = null;
+	
+	// 标记当前线程正在执行跨分片查询任务
+	private static final ThreadLocal<Boolean> inFanOut = new ThreadLocal<Boolean>();
+	
+	private ShardKit() {}
+	
+	/**
+	 * 添加用于 Db + Record 模式的分片表
+	 */
+	public static void addShardTable(ShardTable shardTable) {
+		if (shardTable == null) {
+			throw new IllegalArgumentException("shardTable can not be null");
+		}
+		tableNameToShardTable.put(shardTable.getTableName().toLowerCase(), shardTable);
+	}
+	
+	/**
+	 * 添加用于 Model 模式的分片表，同时可用于 Db + Record 模式
+	 */
+	public static void addShardTable(Class<? extends Model> modelClass, ShardTable shardTable) {
+		if (modelClass == null) {
+			throw new IllegalArgumentException("modelClass can not be null");
+		}
+		addShardTable(shardTable);
+		modelToShardTable.put(modelClass, shardTable);
+		hasModelShard = true;
+	}
+	
+	public static ShardTable getShardTable(Class<? extends Model> modelClass) {
+		return modelToShardTable.get(modelClass);
+	}
+	
+	public static ShardTable getShardTable(String tableName) {
+		return tableNameToShardTable.get(tableName.trim().toLowerCase());
+	}
+	
+	/**
+	 * 配置跨分片并行查询使用的线程池，默认使用独立的线程池，线程数随并发按需创建，
+	 * 空闲 60 秒后回收，实际并发度受各分片连接池大小限制
+	 */
+	public static void setExecutor(ExecutorService executor) {
+		ShardKit.executor = executor;
+	}
+	
+	private static ExecutorService getExecutor() {
+		ExecutorService ret = executor;
+		if (ret == null) {
+			synchronized (ShardKit.class) {
+				ret = executor;
+				if (ret == null) {
+					AtomicInteger counter = new AtomicInteger();
+					ret = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), r -> {
+						Thread t = new Thread(r, "jfinal-shard-fan-out-" + counter.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					});
+					executor = ret;
+				}
+			}
+		}
+		return ret;
+	}
+	
+	private static ShardTable shardTable(Model dao) {
+		ShardTable ret = modelToShardTable.get(dao._getUsefulClass());
+		if (ret == null) {
+			throw new ActiveRecordException("ShardTable not found by model class: " + dao._getUsefulClass().getName());
+		}
+		return ret;
+	}
+	
+	private static ShardTable shardTable(String tableName) {
+		ShardTable ret = getShardTable(tableName);
+		if (ret == null) {
+			throw new ActiveRecordException("ShardTable not found by table name: " + tableName);
+		}
+		return ret;
+	}
+	
+	/**
+	 * 被 Model._getConfig() 调用，返回 model 中分片键的值所对应分片的 Config，非分片 Model 返回 null。
+	 * 未绑定分片的 dao 对象以及分片键的值为 null 时抛出异常，避免误操作其它分片
+	 */
+	static Config getConfig(Model<?> model) {
+		ShardTable st = modelToShardTable.get(model._getUsefulClass());
+		if (st == null) {
+			return null;
+		}
+		Map<String, Object> attrs = model._getAttrs();
+		if (attrs == null) {	// model 构造过程中
+			return null;
+		}
+		if (attrs == DaoContainerFactory.daoMap) {
+			throw new ActiveRecordException("The dao of sharded model can not resolve the shard, model: " + model._getUsefulClass().getName()
+					+ ", use ShardKit.use(dao, shardKeyValue) or ShardKit.findById(dao, idValue) instead");
+		}
+		Object value = attrs.get(st.getShardKey());
+		if (value == null) {
+			throw new ActiveRecordException("The value of shard key \"" + st.getShardKey() + "\" can not be null, model: " + model._getUsefulClass().getName()
+					+ ", set the shard key or use ShardKit.use(dao, shardKeyValue) to specify the shard");
+		}
+		return st.getConfig(value);
+	}
+	
+	// ---------- Model ----------
+	
+	/**
+	 * 返回绑定到分片键所在分片的 Model 对象，可调用其 find、paginate、deleteById 等全部方法
+	 */
+	public static <M extends Model> M use(M dao, Object shardKeyValue) {
+		return bind(dao, shardTable(dao).route(shardKeyValue));
+	}
+	
+	public static <M extends Model> M findById(M dao, Object idValue) {
+		return findByIds(dao, idValue);
+	}
+	
+	public static <M extends Model> M findByIds(M dao, Object... idValues) {
+		ShardTable st = shardTable(dao);
+		int index = indexOfShardKey(st, dao._getTable().getPrimaryKey(), idValues);
+		if (index >= 0) {
+			String configName = st.route(idValues[index]);
+			return attach((M)bind(dao, configName).findByIds(idValues), configName);
+		}
+		
+		Config[] configs = st.getConfigs();
+		List<M> list = fanOut(configs, c -> (M)bind(dao, c.getName()).findByIds(idValues));
+		for (int i=0; i<configs.length; i++) {
+			if (list.get(i) != null) {
+				return attach(list.get(i), configs[i].getName());
+			}
+		}
+		return null;
+	}
+	
+	public static boolean deleteById(Model dao, Object idValue) {
+		return deleteByIds(dao, idValue);
+	}
+	
+	public static boolean deleteByIds(Model dao, Object... idValues) {
+		ShardTable st = shardTable(dao);
+		int index = indexOfShardKey(st, dao._getTable().getPrimaryKey(), idValues);
+		if (index >= 0) {
+			return bind(dao, st.route(idValues[index])).deleteByIds(idValues);
+		}
+		return anyTrue(fanOut(st.getConfigs(), c -> bind(dao, c.getName()).deleteByIds(idValues)));
+	}
+	
+	/**
+	 * 在全部分片上执行查询，结果按分片次序拼接
+	 */
+	public static <M extends Model> List<M> find(M dao, String sql, Object... paras) {
+		return find(dao, null, sql, paras);
+	}
+	
+	/**
+	 * 在全部分片上执行查询，各分片结果按 comparator 归并，comparator 须与 sql 中的 order by 一致
+	 */
+	public static <M extends Model> List<M> find(M dao, Comparator<? super M> comparator, String sql, Object... paras) {
+		Config[] configs = shardTable(dao).getConfigs();
+		List<List<M>> lists = fanOut(configs, c -> (List<M>)bind(dao, c.getName()).find(sql, paras));
+		for (int i=0; i<configs.length; i++) {
+			attach(lists.get(i), configs[i].getName());
+		}
+		return merge(lists, comparator, 0, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * 跨分片分页，comparator 须与 sqlExceptSelect 中的 order by 一致
+	 */
+	public static <M extends Model> Page<M> paginate(M dao, Comparator<? super M> comparator, int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		int limit = checkPaginate(pageNumber, pageSize);
+		Config[] configs = shardTable(dao).getConfigs();
+		List<Page<M>> pages = fanOut(configs, c -> (Page<M>)bind(dao, c.getName()).paginate(1, limit, select, sqlExceptSelect, paras));
+		for (int i=0; i<configs.length; i++) {
+			attach(pages.get(i).getList(), configs[i].getName());
+		}
+		return mergePage(pages, comparator, pageNumber, pageSize);
+	}
+	
+	private static <M extends Model> M bind(M dao, String configName) {
+		M ret = (M)ModelFactory.create(dao._getUsefulClass());
+		ret.configName = configName;
+		return ret;
+	}
+	
+	/**
+	 * 记录 model 所在分片，后续 update()、delete() 无需分片键即可路由
+	 */
+	private static <M extends Model> M attach(M model, String configName) {
+		if (model != null) {
+			model.configName = configName;
+		}
+		return model;
+	}
+	
+	private static <M extends Model> void attach(List<M> list, String configName) {
+		for (M m : list) {
+			m.configName = configName;
+		}
+	}
+	
+	// ---------- Db + Record ----------
+	
+	/**
+	 * 返回分片键所在分片的 DbPro 对象
+	 */
+	public static DbPro use(String tableName, Object shardKeyValue) {
+		return Db.use(shardTable(tableName).route(shardKeyValue));
+	}
+	
+	public static Record findById(String tableName, Object idValue) {
+		return findByIds(tableName, idValue);
+	}
+	
+	public static Record findByIds(String tableName, Object... idValues) {
+		ShardTable st = shardTable(tableName);
+		Config[] configs = st.getConfigs();
+		String primaryKey = primaryKey(st, configs[0]);
+		int index = indexOfShardKey(st, primaryKey.split(","), idValues);
+		if (index >= 0) {
+			return Db.use(st.route(idValues[index])).findByIds(tableName, primaryKey, idValues);
+		}
+		
+		for (Record r : fanOut(configs, c -> Db.use(c.getName()).findByIds(tableName, primaryKey, idValues))) {
+			if (r != null) {
+				return r;
+			}
+		}
+		return null;
+	}
+	
+	public static boolean deleteById(String tableName, Object idValue) {
+		return deleteByIds(tableName, idValue);
+	}
+	
+	public static boolean deleteByIds(String tableName, Object... idValues) {
+		ShardTable st = shardTable(tableName);
+		Config[] configs = st.getConfigs();
+		String primaryKey = primaryKey(st, configs[0]);
+		int index = indexOfShardKey(st, primaryKey.split(","), idValues);
+		if (index >= 0) {
+			return Db.use(st.route(idValues[index])).deleteByIds(tableName, primaryKey, idValues);
+		}
+		return anyTrue(fanOut(configs, c -> Db.use(c.getName()).deleteByIds(tableName, primaryKey, idValues)));
+	}
+	
+	public static boolean save(String tableName, Record record) {
+		ShardTable st = shardTable(tableName);
+		Config config = st.getConfig(record.get(st.getShardKey()));
+		return Db.use(config.getName()).save(tableName, primaryKey(st, config), record);
+	}
+	
+	public static boolean update(String tableName, Record record) {
+		ShardTable st = shardTable(tableName);
+		Config config = st.getConfig(record.get(st.getShardKey()));
+		return Db.use(config.getName()).update(tableName, primaryKey(st, config), record);
+	}
+	
+	public static boolean delete(String tableName, Record record) {
+		ShardTable st = shardTable(tableName);
+		Config config = st.getConfig(record.get(st.getShardKey()));
+		return Db.use(config.getName()).delete(tableName, primaryKey(st, config), record);
+	}
+	
+	public static List<Record> find(String tableName, String sql, Object... paras) {
+		return find(tableName, null, sql, paras);
+	}
+	
+	public static List<Record> find(String tableName, Comparator<? super Record> comparator, String sql, Object... paras) {
+		List<List<Record>> lists = fanOut(shardTable(tableName).getConfigs(), c -> Db.use(c.getName()).find(sql, paras));
+		return merge(lists, comparator, 0, Integer.MAX_VALUE);
+	}
+	
+	public static Page<Record> paginate(String tableName, Comparator<? super Record> comparator, int pageNumber, int pageSize, String select, String sqlExceptSelect, Object... paras) {
+		int limit = checkPaginate(pageNumber, pageSize);
+		List<Page<Record>> pages = fanOut(shardTable(tableName).getConfigs(), c -> Db.use(c.getName()).paginate(1, limit, select, sqlExceptSelect, paras));
+		return mergePage(pages, comparator, pageNumber, pageSize);
+	}
+	
+	private static String primaryKey(ShardTable st, Config config) {
+		return st.getPrimaryKey() != null ? st.getPrimaryKey() : config.dialect.getDefaultPrimaryKey();
+	}
+	
+	// ---------- fan out & merge ----------
+	
+	private static int indexOfShardKey(ShardTable st, String[] pKeys, Object[] idValues) {
+		if (idValues == null || idValues.length != pKeys.length) {
+			throw new IllegalArgumentException("Primary key nubmer must equals id value number and can not be null");
+		}
+		return st.indexOfShardKey(pKeys);
+	}
+	
+	private static int checkPaginate(int pageNumber, int pageSize) {
+		if (pageNumber < 1 || pageSize < 1) {
+			throw new ActiveRecordException("pageNumber and pageSize must more than 0");
+		}
+		long limit = (long)pageNumber * pageSize;
+		if (limit > Integer.MAX_VALUE) {
+			throw new ActiveRecordException("pageNumber * pageSize is too large for shard paginate");
+		}
+		return (int)limit;
+	}
+	
+	private static boolean anyTrue(List<Boolean> list) {
+		for (Boolean b : list) {
+			if (b) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * 在全部分片上并行执行 task，返回值与 configs 次序一致。第一个分片在当前线程中执行，
+	 * 已处于跨分片查询任务中的嵌套调用在当前线程中依次执行
+	 */
+	static <T> List<T> fanOut(Config[] configs, Function<Config, T> task) {
+		int n = configs.length;
+		List<T> ret = new ArrayList<T>(n);
+		if (n == 1 || inFanOut.get() != null || isInTransaction(configs)) {
+			for (Config c : configs) {
+				ret.add(task.apply(c));
+			}
+			return ret;
+		}
+		
+		// 传递 Db.usePrimary(...)、Db.useReplica(...) 指定的路由
+		ReplicaRouter.Route route = ReplicaRouter.getRoute();
+		ExecutorService es = getExecutor();
+		Future<T>[] futures = new Future[n - 1];
+		try {
+			for (int i=1; i<n; i++) {
+				Config c = configs[i];
+				futures[i - 1] = es.submit(() -> {
+					inFanOut.set(Boolean.TRUE);
+					try {
+						return route != null ? ReplicaRouter.call(route, () -> task.apply(c)) : task.apply(c);
+					} finally {
+						inFanOut.remove();
+					}
+				});
+			}
+			
+			ret.add(task.apply(configs[0]));
+			for (Future<T> f : futures) {
+				ret.add(f.get());
+			}
+			return ret;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ActiveRecordException(e);
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			throw t instanceof RuntimeException ? (RuntimeException)t : new ActiveRecordException(t);
+		} finally {
+			for (Future<T> f : futures) {
+				if (f != null && !f.isDone()) {
+					f.cancel(true);
+				}
+			}
+		}
+	}
+	
+	private static boolean isInTransaction(Config[] configs) {
+		for (Config c : configs) {
+			if (c.isInTransaction()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static <T> Page<T> mergePage(List<Page<T>> pages, Comparator<? super T> comparator, int pageNumber, int pageSize) {
+		long totalRow = 0;
+		List<List<T>> lists = new ArrayList<List<T>>(pages.size());
+		for (Page<T> p : pages) {
+			totalRow += p.getTotalRow();
+			lists.add(p.getList());
+		}
+		
+		int totalPage = (int) (totalRow / pageSize);
+		if (totalRow % pageSize != 0) {
+			totalPage++;
+		}
+		List<T> list = merge(lists, comparator, (pageNumber - 1) * pageSize, pageSize);
+		return new Page<T>(list, pageNumber, pageSize, totalPage, (int)totalRow);
+	}
+	
+	/**
+	 * 合并各分片的结果，comparator 为 null 时按分片次序拼接，否则对各分片的有序结果做多路归并
+	 */
+	static <T> List<T> merge(List<List<T>> lists, Comparator<? super T> comparator, int skip, int limit) {
+		if (comparator == null) {
+			List<T> ret = new ArrayList<T>();
+			for (List<T> list : lists) {
+				ret.addAll(list);
+			}
+			if (skip == 0 && limit >= ret.size()) {
+				return ret;
+			}
+			return new ArrayList<T>(ret.subList(Math.min(skip, ret.size()), (int)Math.min((long)skip + limit, ret.size())));
+		}
+		
+		PriorityQueue<Cursor<T>> queue = new PriorityQueue<Cursor<T>>(Math.max(lists.size(), 1), (a, b) -> comparator.compare(a.current(), b.current()));
+		for (List<T> list : lists) {
+			if (!list.isEmpty()) {
+				queue.add(new Cursor<T>(list));
+			}
+		}
+		
+		List<T> ret = new ArrayList<T>(Math.min(limit, 1024));
+		while (ret.size() < limit && !queue.isEmpty()) {
+			Cursor<T> c = queue.poll();
+			if (skip > 0) {
+				skip--;
+			} else {
+				ret.add(c.current());
+			}
+			if (++c.index < c.list.size()) {
+				queue.add(c);
+			}
+		}
+		return ret;
+	}
+	
+	private static class Cursor<T> {
+		final List<T> list;
+		int index = 0;
+		
+		Cursor(List<T> list) {
+			this.list = list;
+		}
+		
+		T current() {
+			return list.get(index);
+		}
+	}
+}
+
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import com.jfinal.kit.StrKit;
+
+/**
+ * ShardTable 声明一个水平分片的表：分片键、全部分片的 configName 以及路由函数
+ *
+ * <pre>
+ * 每个分片是一个独立的 ActiveRecordPlugin，各自完成相同的表映射，例如：
+ * for (int i=0; i<2; i++) {
+ *     ActiveRecordPlugin arp = new ActiveRecordPlugin("shard_" + i, dataSource[i]);
+ *     arp.addMapping("orders", Orders.class);
+ *     me.add(arp);
+ * }
+ *
+ * ShardKit.addShardTable(Orders.class, new ShardTable("orders", "tenant_id", "shard_0", "shard_1"));
+ * </pre>
+ */
+public class ShardTable {
+	
+	private final String tableName;
+	private final String shardKey;
+	private final String[] configNames;
+	private String primaryKey = null;		// 用于 Db + Record 模式，为 null 时使用 dialect 默认主键
+	private IShardRouter router = IShardRouter.defaultShardRouter;
+	
+	public ShardTable(String tableName, String shardKey, String... configNames) {
+		if (StrKit.isBlank(tableName)) {
+			throw new IllegalArgumentException("tableName can not be blank");
+		}
+		if (StrKit.isBlank(shardKey)) {
+			throw new IllegalArgumentException("shardKey can not be blank");
+		}
+		if (configNames == null || configNames.length == 0) {
+			throw new IllegalArgumentException("configNames can not be empty");
+		}
+		
+		this.tableName = tableName.trim();
+		this.shardKey = shardKey.trim();
+		this.configNames = new String[configNames.length];
+		for (int i=0; i<configNames.length; i++) {
+			if (StrKit.isBlank(configNames[i])) {
+				throw new IllegalArgumentException("configName can not be blank");
+			}
+			this.configNames[i] = configNames[i].trim();
+		}
+	}
+	
+	public ShardTable setRouter(IShardRouter router) {
+		if (router == null) {
+			throw new IllegalArgumentException("router can not be null");
+		}
+		this.router = router;
+		return this;
+	}
+	
+	/**
+	 * 指定 Db + Record 模式下的主键，复合主键用逗号分隔。Model 模式使用 Table 中的主键
+	 */
+	public ShardTable setPrimaryKey(String primaryKey) {
+		this.primaryKey = StrKit.isBlank(primaryKey) ? null : primaryKey.trim();
+		return this;
+	}
+	
+	public String getTableName() {
+		return tableName;
+	}
+	
+	public String getShardKey() {
+		return shardKey;
+	}
+	
+	public String[] getConfigNames() {
+		return configNames.clone();
+	}
+	
+	public String getPrimaryKey() {
+		return primaryKey;
+	}
+	
+	/**
+	 * 返回分片键的值所在分片的 configName
+	 */
+	public String route(Object shardKeyValue) {
+		if (shardKeyValue == null) {
+			throw new ActiveRecordException("Shard key " + shardKey + " of table " + tableName + " can not be null");
+		}
+		String ret = router.route(shardKeyValue, configNames);
+		if (ret == null) {
+			throw new ActiveRecordException("Shard not found for " + tableName + "." + shardKey + " = " + shardKeyValue);
+		}
+		return ret;
+	}
+	
+	public Config getConfig(Object shardKeyValue) {
+		return getConfig(route(shardKeyValue));
+	}
+	
+	/**
+	 * 返回全部分片的 Config，用于跨分片查询
+	 */
+	public Config[] getConfigs() {
+		Config[] ret = new Config[configNames.length];
+		for (int i=0; i<configNames.length; i++) {
+			ret[i] = getConfig(configNames[i]);
+		}
+		return ret;
+	}
+	
+	private Config getConfig(String configName) {
+		Config ret = DbKit.getConfig(configName);
+		if (ret == null) {
+			throw new ActiveRecordException("Config not found by configName: " + configName + ", table: " + tableName);
+		}
+		return ret;
+	}
+	
+	/**
+	 * 返回分片键在主键中的位置，分片键不是主键的组成部分时返回 -1
+	 */
+	int indexOfShardKey(String[] pKeys) {
+		for (int i=0; i<pKeys.length; i++) {
+			if (pKeys[i].trim().equalsIgnoreCase(shardKey)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
+
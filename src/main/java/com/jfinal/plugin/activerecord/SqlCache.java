@@ -0,0 +1,372 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import com.jfinal.plugin.activerecord.dialect.Dialect;
+
+/**
+ * SqlCache 缓存 Dialect 为单行 CRUD 生成的 sql，避免每次 save()、update()、findById()
+ * 都使用 StringBuilder 重新拼接 sql
+ *
+ * <pre>
+ * 1：sql 只与表名、参与操作的字段集合有关，所以缓存的 key 为：操作类型 + 表名 + 字段位图
+ *    字段位图按 Table.getColumnIndex(...) 的序号置位，Db 操作的 Record 没有 Table 信息，
+ *    使用字段名数组代替位图
+ *
+ * 2：缓存值 SqlInfo 除 sql 以外还记录了参数次序 paraNames，调用 getParas(attrs)
+ *    按 paraNames 从 attrs 中取出参数值
+ *
+ * 3：参数次序通过向 Dialect 传入值为 Para 占位对象的 attrs 记录下来，所以无需 Dialect
+ *    做任何改动，自定义 Dialect 同样适用。若 Dialect 将值拼接在 sql 中（例如主键值为
+ *    "seq.nextval"）则不进行缓存，见 Dialect.isSqlCacheable(...)
+ *
+ * 4：缓存条目数达到 maxSize 后不再添加新条目，退化为直接调用 Dialect 生成 sql
+ *
+ * 配置：
+ *    arp.setSqlCache(true);
+ * </pre>
+ */
+public class SqlCache {
+
+	public static final int DEFAULT_MAX_SIZE = 4096;
+
+	static final int MODEL_SAVE = 1;
+	static final int MODEL_UPDATE = 2;
+	static final int MODEL_FIND_BY_ID = 3;
+	static final int MODEL_DELETE_BY_ID = 4;
+	static final int DB_SAVE = 5;
+	static final int DB_UPDATE = 6;
+	static final int DB_FIND_BY_ID = 7;
+	static final int DB_DELETE_BY_ID = 8;
+
+	protected final int maxSize;
+	protected final ConcurrentHashMap<Key, SqlInfo> cache;
+
+	public SqlCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	public SqlCache(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must more than 0");
+		}
+		this.maxSize = maxSize;
+		this.cache = new ConcurrentHashMap<>(Math.min(maxSize, 512));
+	}
+
+	/**
+	 * 获取 Model.save() 使用的 sql 与参数次序，不可缓存时返回 null
+	 */
+	public SqlInfo forModelSave(Config config, Table table, Map<String, Object> attrs) {
+		Dialect dialect = config.dialect;
+		if (!dialect.isSqlCacheable(table.getPrimaryKey(), attrs)) {
+			return null;
+		}
+
+		long[] bits = new long[(table.getColumnCount() + 63) >>> 6];
+		for (String attr : attrs.keySet()) {
+			setBit(bits, table.getColumnIndex(attr));
+		}
+
+		Key key = new Key(MODEL_SAVE, table.getName(), bits);
+		SqlInfo ret = cache.get(key);
+		if (ret == null) {
+			StringBuilder sql = new StringBuilder();
+			List<Object> paras = new ArrayList<>();
+			dialect.forModelSave(table, toParaMap(config, attrs), sql, paras);
+			ret = put(key, sql, paras);
+		}
+		return ret;
+	}
+
+	/**
+	 * 获取 Model.update() 使用的 sql 与参数次序，不可缓存时返回 null
+	 */
+	public SqlInfo forModelUpdate(Config config, Table table, Map<String, Object> attrs, Set<String> modifyFlag) {
+		Dialect dialect = config.dialect;
+		String[] pKeys = table.getPrimaryKey();
+		long[] bits = new long[(table.getColumnCount() + 63) >>> 6];
+		// 与 Dialect.forModelUpdate(...) 中参与 update 的字段保持一致：attrs 与 modifyFlag 的交集，排除主键
+		for (String attr : modifyFlag) {
+			if (attrs.containsKey(attr) && !dialect.isPrimaryKey(attr, pKeys)) {
+				setBit(bits, table.getColumnIndex(attr));
+			}
+		}
+
+		Key key = new Key(MODEL_UPDATE, table.getName(), bits);
+		SqlInfo ret = cache.get(key);
+		if (ret == null) {
+			StringBuilder sql = new StringBuilder();
+			List<Object> paras = new ArrayList<>();
+			dialect.forModelUpdate(table, toParaMap(config, attrs), modifyFlag, sql, paras);
+			ret = put(key, sql, paras);
+		}
+		return ret;
+	}
+
+	public String forModelFindById(Config config, Table table, String columns) {
+		Key key = new Key(MODEL_FIND_BY_ID, table.getName(), columns);
+		SqlInfo ret = cache.get(key);
+		if (ret == null) {
+			ret = put(key, config.dialect.forModelFindById(table, columns));
+		}
+		return ret.sql;
+	}
+
+	public String forModelDeleteById(Config config, Table table) {
+		Key key = new Key(MODEL_DELETE_BY_ID, table.getName(), null);
+		SqlInfo ret = cache.get(key);
+		if (ret == null) {
+			ret = put(key, config.dialect.forModelDeleteById(table));
+		}
+		return ret.sql;
+	}
+
+	/**
+	 * 获取 Db.save(...) 使用的 sql 与参数次序，不可缓存时返回 null
+	 */
+	public SqlInfo forDbSave(Config config, String tableName, String[] pKeys, Record record) {
+		Dialect dialect = config.dialect;
+		Map<String, Object> columns = record.getColumns();
+		if (!dialect.isSqlCacheable(pKeys, columns)) {
+			return null;
+		}
+
+		Key key = new Key(DB_SAVE, tableName, columns.keySet().toArray(new String[columns.size()]));
+		SqlInfo ret = cache.get(key);
+		if (ret == null) {
+			Record paraRecord = new Record();
+			paraRecord.setColumnsMap(toParaMap(config, columns));
+			StringBuilder sql = new StringBuilder();
+			List<Object> paras = new ArrayList<>();
+			dialect.forDbSave(tableName, pKeys.clone(), paraRecord, sql, paras);
+			ret = put(key, sql, paras);
+		}
+		return ret;
+	}
+
+	/**
+	 * 获取 Db.update(...) 使用的 sql 与参数次序，不可缓存时返回 null
+	 */
+	public SqlInfo forDbUpdate(Config config, String tableName, String[] pKeys, Record record) {
+		Dialect dialect = config.dialect;
+		Map<String, Object> columns = record.getColumns();
+		Set<String> modifyFlag = record._getModifyFlag();
+		List<String> names = new ArrayList<>(modifyFlag.size() + pKeys.length);
+		// 与 Dialect.forDbUpdate(...) 中参与 update 的字段保持一致
+		for (String col : columns.keySet()) {
+			if (modifyFlag.contains(col)) {
+				names.add(col);
+			}
+		}
+		for (String pKey : pKeys) {
+			names.add(pKey);
+		}
+
+		Key key = new Key(DB_UPDATE, tableName, names.toArray(new String[names.size()]));
+		SqlInfo ret = cache.get(key);
+		if (ret == null) {
+			String[] pKeysCopy = pKeys.clone();
+			Object[] ids = new Object[pKeys.length];
+			for (int i=0; i<pKeys.length; i++) {
+				ids[i] = new Para(pKeys[i].trim());
+			}
+			Record paraRecord = new Record();
+			paraRecord.setColumnsMap(toParaMap(config, columns));
+			paraRecord._getModifyFlag().addAll(modifyFlag);
+			StringBuilder sql = new StringBuilder();
+			List<Object> paras = new ArrayList<>();
+			dialect.forDbUpdate(tableName, pKeysCopy, ids, paraRecord, sql, paras);
+			ret = put(key, sql, paras);
+		}
+		return ret;
+	}
+
+	public String forDbFindById(Config config, String tableName, String primaryKey) {
+		Key key = new Key(DB_FIND_BY_ID, tableName, primaryKey);
+		SqlInfo ret = cache.get(key);
+		if (ret == null) {
+			ret = put(key, config.dialect.forDbFindById(tableName, primaryKey.split(",")));
+		}
+		return ret.sql;
+	}
+
+	public String forDbDeleteById(Config config, String tableName, String primaryKey) {
+		Key key = new Key(DB_DELETE_BY_ID, tableName, primaryKey);
+		SqlInfo ret = cache.get(key);
+		if (ret == null) {
+			ret = put(key, config.dialect.forDbDeleteById(tableName, primaryKey.split(",")));
+		}
+		return ret.sql;
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	public void clear() {
+		cache.clear();
+	}
+
+	// ---------
+
+	private static void setBit(long[] bits, int index) {
+		if (index >= 0) {
+			bits[index >>> 6] |= 1L << index;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> toParaMap(Config config, Map<String, Object> attrs) {
+		Map<String, Object> ret = config.containerFactory.getAttrsMap();
+		for (Entry<String, Object> e : attrs.entrySet()) {
+			ret.put(e.getKey(), new Para(e.getKey()));
+		}
+		return ret;
+	}
+
+	private SqlInfo put(Key key, StringBuilder sql, List<Object> paras) {
+		String[] paraNames = new String[paras.size()];
+		for (int i=0; i<paraNames.length; i++) {
+			Object p = paras.get(i);
+			if (!(p instanceof Para)) {
+				return null;		// Dialect 向 paras 中添加了非 attrs 的值，无法缓存
+			}
+			paraNames[i] = ((Para)p).name;
+		}
+
+		SqlInfo ret = new SqlInfo(sql.toString(), paraNames);
+		if (cache.size() < maxSize) {
+			cache.putIfAbsent(key, ret);
+		}
+		return ret;
+	}
+
+	private SqlInfo put(Key key, String sql) {
+		SqlInfo ret = new SqlInfo(sql, null);
+		if (cache.size() < maxSize) {
+			cache.putIfAbsent(key, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * 生成 sql 时代替真实参数值的占位对象，用于记录参数次序
+	 */
+	static final class Para {
+		final String name;
+
+		Para(String name) {
+			this.name = name;
+		}
+
+		public String toString() {
+			return "?" + name;
+		}
+	}
+
+	static final class Key {
+		final int op;
+		final String table;
+		final Object columns;	// long[]、String[] 或者 String
+		final int hash;
+
+		Key(int op, String table, Object columns) {
+			this.op = op;
+			this.table = table;
+			this.columns = columns;
+
+			int h = op * 31 + table.hashCode();
+			if (columns instanceof long[]) {
+				h = h * 31 + Arrays.hashCode((long[])columns);
+			} else if (columns instanceof String[]) {
+				h = h * 31 + Arrays.hashCode((String[])columns);
+			} else if (columns != null) {
+				h = h * 31 + columns.hashCode();
+			}
+			this.hash = h;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key)o;
+			if (hash != k.hash || op != k.op || !table.equals(k.table)) {
+				return false;
+			}
+			if (columns instanceof long[]) {
+				return k.columns instanceof long[] && Arrays.equals((long[])columns, (long[])k.columns);
+			}
+			if (columns instanceof String[]) {
+				return k.columns instanceof String[] && Arrays.equals((String[])columns, (String[])k.columns);
+			}
+			return columns == null ? k.columns == null : columns.equals(k.columns);
+		}
+	}
+
+	/**
+	 * 缓存的 sql 以及参数次序
+	 */
+	public static class SqlInfo {
+
+		final String sql;
+		final String[] paraNames;
+
+		SqlInfo(String sql, String[] paraNames) {
+			this.sql = sql;
+			this.paraNames = paraNames;
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		/**
+		 * 参数对应的字段名，按 sql 中 '?' 的次序排列
+		 */
+		public String[] getParaNames() {
+			return paraNames;
+		}
+
+		/**
+		 * 按参数次序从 attrs 中取出参数值
+		 */
+		public Object[] getParas(Map<String, Object> attrs) {
+			Object[] ret = new Object[paraNames.length];
+			for (int i=0; i<ret.length; i++) {
+				ret[i] = attrs.get(paraNames[i]);
+			}
+			return ret;
+		}
+	}
+}
+
@@ -0,0 +1,369 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import com.jfinal.log.Log;
+
+/**
+ * SqlMonitor 统计 sql 执行耗时、行数、批量大小以及获取 Connection 的等待时间
+ *
+ * <pre>
+ * 1：DbPro、Model 经由 Config.executeQuery、executeUpdate、executeBatch 执行 sql 并计时，
+ *    不对 Connection、PreparedStatement 做任何代理，
+ *    未配置 SqlMonitor 时只多出一次 null 判断
+ *
+ * 2：按 sql 文本分组统计，sql 文本数量超过 maxSqlCount 以后的新 sql 统一计入 OTHER_SQL，
+ *    配合 SqlCache 与 SqlKit 对 sql 的去重，同一形态的 sql 只会有一条统计
+ *
+ * 3：执行时间超过 slowSqlMillis 的 sql 输出到日志
+ *
+ * 4：通过 Listener 将每次执行结果导出到外部监控系统，Listener 在执行 sql 的线程中被调用，
+ *    不要在其中做耗时操作。Listener 抛出的异常只输出日志，不影响 sql 的执行结果以及其它 Listener
+ *
+ * 例子：
+ * SqlMonitor monitor = new SqlMonitor().setSlowSqlMillis(500);
+ * monitor.addListener(new SqlMonitor.Listener() {
+ *     public void onExecute(String configName, String sql, Object[] paras, long nanos, int rows, int batchSize) {
+ *         timer.record(nanos, TimeUnit.NANOSECONDS);
+ *     }
+ * });
+ * arp.setSqlMonitor(monitor);
+ *
+ * // 耗时最长的 10 条 sql
+ * monitor.getStats().stream().limit(10).forEach(System.out::println);
+ * </pre>
+ */
+public class SqlMonitor {
+
+	public static final String OTHER_SQL = "_OTHER_SQL_";
+	// batch(List<String> sqlList, ...) 中的 sql 各不相同，统一计入该名下
+	public static final String SQL_LIST_BATCH = "_SQL_LIST_BATCH_";
+
+	private static final Log log = Log.getLog(SqlMonitor.class);
+
+	/**
+	 * sql 执行监听器
+	 */
+	public interface Listener {
+
+		/**
+		 * @param sql 执行的 sql
+		 * @param paras sql 参数，批量执行时为 null
+		 * @param nanos 执行耗时，查询包含读取 ResultSet 的时间
+		 * @param rows 查询返回的行数或者 update 影响的行数
+		 * @param batchSize 批量执行时本批次的数量，非批量执行时为 0
+		 */
+		default void onExecute(String configName, String sql, Object[] paras, long nanos, int rows, int batchSize) {}
+
+		/**
+		 * 从 DataSource 获取 Connection 的等待时间
+		 */
+		default void onConnectionWait(String configName, long nanos) {}
+	}
+
+	private final Map<String, Stat> statMap = new ConcurrentHashMap<>();
+	private final Stat connectionWaitStat = new Stat("_CONNECTION_WAIT_");
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	private volatile long slowSqlNanos = TimeUnit.SECONDS.toNanos(1);
+	private volatile boolean logSlowSqlPara = true;
+	private int maxSqlCount = 1024;
+
+	String configName;		// 由 ActiveRecordPlugin 注入
+
+	/**
+	 * 慢 sql 阈值，默认值 1000 毫秒，配置为 0 时不输出慢 sql 日志
+	 */
+	public SqlMonitor setSlowSqlMillis(long slowSqlMillis) {
+		if (slowSqlMillis < 0) {
+			throw new IllegalArgumentException("slowSqlMillis can not be less than 0");
+		}
+		this.slowSqlNanos = TimeUnit.MILLISECONDS.toNanos(slowSqlMillis);
+		return this;
+	}
+
+	/**
+	 * 慢 sql 日志是否输出参数，参数含有敏感数据时可关闭
+	 */
+	public SqlMonitor setLogSlowSqlPara(boolean logSlowSqlPara) {
+		this.logSlowSqlPara = logSlowSqlPara;
+		return this;
+	}
+
+	/**
+	 * 分组统计的 sql 数量上限，默认值 1024
+	 */
+	public SqlMonitor setMaxSqlCount(int maxSqlCount) {
+		if (maxSqlCount < 1) {
+			throw new IllegalArgumentException("maxSqlCount must more than 0");
+		}
+		this.maxSqlCount = maxSqlCount;
+		return this;
+	}
+
+	public SqlMonitor addListener(Listener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("listener can not be null");
+		}
+		listeners.add(listener);
+		return this;
+	}
+
+	public SqlMonitor removeListener(Listener listener) {
+		listeners.remove(listener);
+		return this;
+	}
+
+	// --------
+
+	/**
+	 * 记录一次查询或者 update，startNanos 为执行之前 System.nanoTime() 的值
+	 */
+	void record(String sql, Object[] paras, long startNanos, int rows) {
+		long nanos = System.nanoTime() - startNanos;
+		statOf(sql).add(nanos, rows, 0);
+		if (slowSqlNanos > 0 && nanos >= slowSqlNanos) {
+			logSlowSql(sql, paras, nanos, rows);
+		}
+		fireExecute(sql, paras, nanos, rows, 0);
+	}
+
+	/**
+	 * 记录一次 executeBatch()
+	 */
+	void recordBatch(String sql, long startNanos, int[] result) {
+		long nanos = System.nanoTime() - startNanos;
+		int rows = 0;
+		for (int r : result) {
+			if (r > 0) {
+				rows += r;
+			}
+		}
+		statOf(sql).add(nanos, rows, result.length);
+		if (slowSqlNanos > 0 && nanos >= slowSqlNanos) {
+			log.warn("Slow sql batch (" + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms, batch size " + result.length + "): " + sql);
+		}
+		fireExecute(sql, null, nanos, rows, result.length);
+	}
+
+	void recordConnectionWait(long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		connectionWaitStat.add(nanos, 0, 0);
+		for (Listener listener : listeners) {
+			try {
+				listener.onConnectionWait(configName, nanos);
+			} catch (Exception e) {
+				log.error("SqlMonitor listener error: " + listener.getClass().getName(), e);
+			}
+		}
+	}
+
+	// sql 已执行完毕，Listener 的异常不可向外抛出
+	private void fireExecute(String sql, Object[] paras, long nanos, int rows, int batchSize) {
+		for (Listener listener : listeners) {
+			try {
+				listener.onExecute(configName, sql, paras, nanos, rows, batchSize);
+			} catch (Exception e) {
+				log.error("SqlMonitor listener error: " + listener.getClass().getName(), e);
+			}
+		}
+	}
+
+	private Stat statOf(String sql) {
+		Stat ret = statMap.get(sql);
+		if (ret == null) {
+			if (statMap.size() >= maxSqlCount) {
+				sql = OTHER_SQL;
+			}
+			ret = statMap.computeIfAbsent(sql, Stat::new);
+		}
+		return ret;
+	}
+
+	private void logSlowSql(String sql, Object[] paras, long nanos, int rows) {
+		StringBuilder msg = new StringBuilder(sql.length() + 64);
+		msg.append("Slow sql (").append(TimeUnit.NANOSECONDS.toMillis(nanos)).append(" ms, ").append(rows).append(" rows): ").append(sql);
+		if (logSlowSqlPara && paras != null && paras.length > 0) {
+			msg.append("\nPara: ").append(Arrays.toString(paras));
+		}
+		log.warn(msg.toString());
+	}
+
+	// --------
+
+	/**
+	 * 所有 sql 的统计，按总耗时降序排列
+	 */
+	public List<Stat> getStats() {
+		List<Stat> ret = new ArrayList<>(statMap.values());
+		ret.sort((a, b) -> Long.compare(b.getTotalNanos(), a.getTotalNanos()));
+		return ret;
+	}
+
+	public Stat getStat(String sql) {
+		return statMap.get(sql);
+	}
+
+	public Stat getConnectionWaitStat() {
+		return connectionWaitStat;
+	}
+
+	public void reset() {
+		statMap.clear();
+		connectionWaitStat.reset();
+	}
+
+	/**
+	 * 单条 sql 的统计。耗时直方图按 2 的幂划分毫秒区间：
+	 * [0, 1), [1, 2), [2, 4) ... [2^(n-2), ∞)，百分位为所在区间的上界
+	 */
+	public static class Stat {
+
+		static final int BUCKET_COUNT = 20;		// 最后一个区间起始于 2^18 毫秒，约 4.4 分钟
+
+		final String sql;
+		final LongAdder count = new LongAdder();
+		final LongAdder totalNanos = new LongAdder();
+		final AtomicLong maxNanos = new AtomicLong();
+		final LongAdder rows = new LongAdder();
+		final LongAdder batchCount = new LongAdder();
+		final LongAdder batchSize = new LongAdder();
+		final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+		Stat(String sql) {
+			this.sql = sql;
+		}
+
+		void add(long nanos, int rows, int batchSize) {
+			count.increment();
+			totalNanos.add(nanos);
+			maxNanos.accumulateAndGet(nanos, Math::max);
+			this.rows.add(rows);
+			if (batchSize > 0) {
+				batchCount.increment();
+				this.batchSize.add(batchSize);
+			}
+			buckets.incrementAndGet(bucketOf(nanos));
+		}
+
+		static int bucketOf(long nanos) {
+			long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+			int ret = millis == 0 ? 0 : 64 - Long.numberOfLeadingZeros(millis);
+			return Math.min(ret, BUCKET_COUNT - 1);
+		}
+
+		void reset() {
+			count.reset();
+			totalNanos.reset();
+			maxNanos.set(0);
+			rows.reset();
+			batchCount.reset();
+			batchSize.reset();
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				buckets.set(i, 0);
+			}
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public long getTotalNanos() {
+			return totalNanos.sum();
+		}
+
+		public long getMaxNanos() {
+			return maxNanos.get();
+		}
+
+		public double getAvgMillis() {
+			long c = count.sum();
+			return c == 0 ? 0 : totalNanos.sum() / 1000000.0 / c;
+		}
+
+		/**
+		 * 查询返回的总行数或者 update 影响的总行数
+		 */
+		public long getRows() {
+			return rows.sum();
+		}
+
+		public long getBatchCount() {
+			return batchCount.sum();
+		}
+
+		public double getAvgBatchSize() {
+			long c = batchCount.sum();
+			return c == 0 ? 0 : (double)batchSize.sum() / c;
+		}
+
+		/**
+		 * 耗时直方图，第 i 个元素为落在第 i 个区间的次数
+		 */
+		public long[] getHistogram() {
+			long[] ret = new long[BUCKET_COUNT];
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				ret[i] = buckets.get(i);
+			}
+			return ret;
+		}
+
+		/**
+		 * 估算百分位耗时，例如 getPercentileMillis(0.99)，结果为所在区间的上界，
+		 * 落在最后一个区间时返回最大耗时
+		 */
+		public long getPercentileMillis(double percentile) {
+			long[] histogram = getHistogram();
+			long total = 0;
+			for (long h : histogram) {
+				total += h;
+			}
+			if (total == 0) {
+				return 0;
+			}
+
+			long target = (long)Math.ceil(total * percentile);
+			long sum = 0;
+			for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+				sum += histogram[i];
+				if (sum >= target) {
+					return 1L << i;
+				}
+			}
+			return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+		}
+
+		public String toString() {
+			return "count: " + getCount() + ", avg: " + String.format("%.2f", getAvgMillis()) + " ms, p99: " + getPercentileMillis(0.99) +
+					" ms, max: " + TimeUnit.NANOSECONDS.toMillis(getMaxNanos()) + " ms, rows: " + getRows() + ", sql: " + sql;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import com.jfinal.kit.LogKit;
+
+/**
+ * StatementCache 缓存同一个 Connection 上由 Dialect 生成的 CRUD sql 对应的 PreparedStatement
+ *
+ * <pre>
+ * 1：只在事务中使用，事务结束时由 Config.removeThreadLocalConnection() 关闭所有缓存的
+ *    PreparedStatement，所以不会跨越 Connection 的生命周期
+ *
+ * 2：按 LRU 策略淘汰，被淘汰的 PreparedStatement 立即关闭
+ *
+ * 3：非事务场景下 Connection 用完即归还连接池，建议使用连接池自身的 PreparedStatement 缓存，
+ *    例如 DruidPlugin.setMaxPoolPreparedStatementPerConnectionSize(...)
+ * </pre>
+ */
+class StatementCache {
+
+	final Connection conn;
+	private final LinkedHashMap<String, PreparedStatement> cache;
+	// 与 cache 中的 value 相同，closeStatement 时按引用判断，避免 containsValue 遍历
+	private final Set<PreparedStatement> statements = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	StatementCache(Connection conn, int maxSize) {
+		this.conn = conn;
+		this.cache = new LinkedHashMap<String, PreparedStatement>(16, 0.75F, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() > maxSize) {
+					statements.remove(eldest.getValue());
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	PreparedStatement get(String sql) {
+		return cache.get(sql);
+	}
+
+	void put(String sql, PreparedStatement pst) {
+		PreparedStatement old = cache.put(sql, pst);
+		statements.add(pst);
+		if (old != null && old != pst) {
+			statements.remove(old);
+			closeQuietly(old);
+		}
+	}
+
+	boolean contains(PreparedStatement pst) {
+		return statements.contains(pst);
+	}
+
+	void close() {
+		for (PreparedStatement pst : cache.values()) {
+			closeQuietly(pst);
+		}
+		cache.clear();
+		statements.clear();
+	}
+
+	private static void closeQuietly(PreparedStatement pst) {
+		try {
+			pst.close();
+		} catch (SQLException e) {
+			LogKit.error(e.getMessage(), e);
+		}
+	}
+}
+
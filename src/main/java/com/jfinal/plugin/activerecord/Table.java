@@ -16,10 +16,17 @@
 
 package com.jfinal.plugin.activerecord;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Supplier;
 import com.jfinal.kit.StrKit;
 
 /**
@@ -30,8 +37,11 @@ public class Table {
 	private String name;
 	private String[] primaryKey = null;
 	private Map<String, Class<?>> columnTypeMap;	// config.containerFactory.getAttrsMap();
+	private Map<String, Integer> columnIndexMap;	// 字段在 columnTypeMap 中的添加次序，用于 SqlCache 等按位图标记字段
+	private List<String> columnLabelList;			// 按 columnIndexMap 中的序号存放字段名
 	
 	private Class<? extends Model<?>> modelClass;
+	private Supplier<? extends Model<?>> modelFactory;	// 免反射创建 modelClass 对象，为 null 时由 ModelFactory 使用构造方法
 	
 	public Table(String name, Class<? extends Model<?>> modelClass) {
 		if (StrKit.isBlank(name))
@@ -68,6 +78,32 @@ public class Table {
 			throw new IllegalArgumentException("columnTypeMap can not be null");
 		
 		this.columnTypeMap = columnTypeMap;
+		this.columnIndexMap = createColumnIndexMap(columnTypeMap);
+		this.columnLabelList = new ArrayList<String>(columnTypeMap.size());
+		for (String columnLabel : columnTypeMap.keySet()) {
+			columnIndexMap.put(columnLabel, columnIndexMap.size());
+			columnLabelList.add(columnLabel);
+		}
+	}
+	
+	/**
+	 * columnIndexMap 与 columnTypeMap 保持相同的大小写敏感规则，
+	 * 例如 CaseInsensitiveContainerFactory 创建的 TreeMap
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<String, Integer> createColumnIndexMap(Map<String, Class<?>> columnTypeMap) {
+		if (columnTypeMap instanceof SortedMap && ((SortedMap<String, ?>)columnTypeMap).comparator() != null) {
+			return new TreeMap<String, Integer>(((SortedMap<String, ?>)columnTypeMap).comparator());
+		}
+		return new HashMap<String, Integer>();
+	}
+	
+	/**
+	 * 字段名的比较规则，例如 String.CASE_INSENSITIVE_ORDER，为 null 表示大小写敏感
+	 */
+	@SuppressWarnings("unchecked")
+	Comparator<? super String> getColumnComparator() {
+		return columnIndexMap instanceof SortedMap ? ((SortedMap<String, ?>)columnIndexMap).comparator() : null;
 	}
 	
 	public String getName() {
@@ -76,6 +112,35 @@ public class Table {
 	
 	public void setColumnType(String columnLabel, Class<?> columnType) {
 		columnTypeMap.put(columnLabel, columnType);
+		if (!columnIndexMap.containsKey(columnLabel)) {
+			columnIndexMap.put(columnLabel, columnIndexMap.size());
+			columnLabelList.add(columnLabel);
+		}
+	}
+	
+	/**
+	 * 返回字段的序号，不存在时返回 -1。序号从 0 开始，按字段被添加的次序分配，一经分配不再改变
+	 */
+	public int getColumnIndex(String columnLabel) {
+		if (columnLabel == null) {
+			return -1;
+		}
+		Integer index = columnIndexMap.get(columnLabel);
+		return index != null ? index : -1;
+	}
+	
+	/**
+	 * 返回序号对应的字段名
+	 */
+	public String getColumnLabel(int columnIndex) {
+		return columnLabelList.get(columnIndex);
+	}
+	
+	/**
+	 * 返回字段个数，也即 getColumnIndex(...) 返回值的上限
+	 */
+	public int getColumnCount() {
+		return columnIndexMap.size();
 	}
 	
 	public Class<?> getColumnType(String columnLabel) {
@@ -102,6 +167,14 @@ public class Table {
 		return modelClass;
 	}
 	
+	public Supplier<? extends Model<?>> getModelFactory() {
+		return modelFactory;
+	}
+	
+	void setModelFactory(Supplier<? extends Model<?>> modelFactory) {
+		this.modelFactory = modelFactory;
+	}
+	
 	public Map<String, Class<?>> getColumnTypeMap() {
 		return Collections.unmodifiableMap(columnTypeMap);
 	}
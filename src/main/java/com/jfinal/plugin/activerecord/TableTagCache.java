@@ -0,0 +1,319 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import com.jfinal.plugin.activerecord.cache.ICache;
+import com.jfinal.plugin.activerecord.cache.SingleFlight;
+
+/**
+ * TableTagCache 将 findByCache、findFirstByCache、paginateByCache 的缓存结果与其查询的表关联，
+ * 表被修改后相关缓存自动失效
+ *
+ * <pre>
+ * 1：每张表维护一个版本号，缓存结果记录查询之前各表的版本号，读取时版本号不一致即视为失效
+ *
+ * 2：查询涉及的表默认从 sql 中 from、join 之后的表名推断，也可通过 call(...) 显式声明
+ *
+ * 3：Model 的 save、update、delete，DbPro 的 save、update、delete 以及 batch 系列方法
+ *    会递增所修改表的版本号，处于事务之中时在事务提交之后递增
+ *
+ * 4：版本号保存在当前进程之中，多个进程共享同一个缓存时，其它进程的修改不会使本进程的缓存失效
+ *
+ * 5：缓存中存放的是 TableTagCache.Entry，直接通过 ICache.get(...) 读取时需注意
+ *
+ * 例子：
+ * arp.setTableTagCache(true);
+ *
+ * // 推断出依赖 blog、user 两张表，任意一张表被修改后缓存失效
+ * Db.findByCache("blog", "hot", "select b.* from blog b join user u on b.user_id = u.id");
+ *
+ * // 显式声明依赖的表，例如 sql 中调用了视图、存储过程
+ * TableTagCache.call(new String[]{"blog", "user"}, () -> Db.findByCache("blog", "view", "select * from v_blog"));
+ * </pre>
+ */
+public class TableTagCache {
+
+	private static final ThreadLocal<String[]> tablesTL = new ThreadLocal<>();
+
+	private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+		"where", "join", "left", "right", "inner", "outer", "cross", "full", "natural", "on", "using",
+		"group", "order", "limit", "offset", "fetch", "having", "union", "except", "intersect", "minus",
+		"set", "values", "value", "select", "for", "window", "lateral", "straight_join", "as"
+	));
+
+	private final Map<String, AtomicLong> versionMap = new ConcurrentHashMap<>();
+	private final Map<String, String[]> sqlTablesMap = new ConcurrentHashMap<>();
+	private int maxSqlCount = 4096;
+
+	/**
+	 * 缓存 sql 推断结果的数量上限，默认值 4096
+	 */
+	public TableTagCache setMaxSqlCount(int maxSqlCount) {
+		this.maxSqlCount = maxSqlCount;
+		return this;
+	}
+
+	/**
+	 * 显式声明 supplier 中缓存查询所依赖的表，代替从 sql 推断
+	 */
+	public static <T> T call(String[] tables, Supplier<T> supplier) {
+		String[] old = tablesTL.get();
+		tablesTL.set(normalize(tables));
+		try {
+			return supplier.get();
+		} finally {
+			if (old != null) {
+				tablesTL.set(old);
+			} else {
+				tablesTL.remove();
+			}
+		}
+	}
+
+	public long getVersion(String table) {
+		AtomicLong ret = versionMap.get(normalize(table));
+		return ret != null ? ret.get() : 0;
+	}
+
+	// ---------
+
+	@SuppressWarnings("unchecked")
+	<T> T get(ICache cache, String cacheName, Object key, String sql, Supplier<T> loader) {
+		String[] tables = tablesTL.get();
+		if (tables == null) {
+			tables = getTables(sql);
+		}
+		if (tables.length == 0) {
+			return cache.get(cacheName, key, loader);
+		}
+
+		Object ret = cache.get(cacheName, key);
+		if (ret instanceof Entry && isValid((Entry)ret)) {
+			return (T)((Entry)ret).value;
+		}
+
+		String[] ts = tables;
+		return SingleFlight.load(cacheName, key, () -> {
+			Object value = cache.get(cacheName, key);		// 上一轮加载刚好完成时无需再次加载
+			if (value instanceof Entry && isValid((Entry)value)) {
+				return (T)((Entry)value).value;
+			}
+
+			long[] versions = getVersions(ts);		// 必须在查询之前获取版本号
+			T t = loader.get();
+			if (t != null) {
+				cache.put(cacheName, key, new Entry(ts, versions, t));
+			}
+			return t;
+		});
+	}
+
+	private boolean isValid(Entry entry) {
+		for (int i = 0; i < entry.tables.length; i++) {
+			AtomicLong v = versionMap.get(entry.tables[i]);
+			if ((v != null ? v.get() : 0) != entry.versions[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private long[] getVersions(String[] tables) {
+		long[] ret = new long[tables.length];
+		for (int i = 0; i < tables.length; i++) {
+			AtomicLong v = versionMap.get(tables[i]);
+			ret[i] = v != null ? v.get() : 0;
+		}
+		return ret;
+	}
+
+	/**
+	 * 递增表的版本号，处于事务之中时在事务提交之后递增
+	 */
+	void bump(Config config, String... tables) {
+		Runnable r = () -> {
+			for (String t : tables) {
+				versionMap.computeIfAbsent(normalize(t), k -> new AtomicLong()).incrementAndGet();
+			}
+		};
+		if (config.isInTransaction()) {
+			config.addCallbackAfterTxCommit(r);
+		} else {
+			r.run();
+		}
+	}
+
+	/**
+	 * 递增 sql 所修改的表的版本号
+	 */
+	void bumpSql(Config config, String sql) {
+		String[] tables = getTables(sql);
+		if (tables.length > 0) {
+			bump(config, tables);
+		}
+	}
+
+	private String[] getTables(String sql) {
+		String[] ret = sqlTablesMap.get(sql);
+		if (ret == null) {
+			ret = parseTables(sql);
+			if (sqlTablesMap.size() < maxSqlCount) {
+				sqlTablesMap.put(sql, ret);
+			}
+		}
+		return ret;
+	}
+
+	// ---------
+
+	/**
+	 * 从 sql 中 from、join、update、into、table 之后的位置提取表名，from 之后支持逗号分隔的多个表。
+	 * 宁可多提取也不能遗漏，多提取只会导致缓存多失效
+	 */
+	static String[] parseTables(String sql) {
+		Set<String> ret = new LinkedHashSet<>();
+		List<String> tokens = tokenize(sql);
+		for (int i = 0, n = tokens.size(); i < n - 1; i++) {
+			String t = tokens.get(i);
+			boolean isFrom = "from".equals(t);
+			if (isFrom || "join".equals(t) || "update".equals(t) || "into".equals(t) || "table".equals(t)) {
+				int j = i + 1;
+				while (j < n) {
+					String name = tokens.get(j);
+					if (name.equals("(") || name.equals(",") || STOP_WORDS.contains(name)) {
+						break;
+					}
+					ret.add(normalize(name));
+
+					// 跳过别名，from a t1, b t2
+					j++;
+					if (j < n && "as".equals(tokens.get(j))) {
+						j++;
+					}
+					if (j < n && !tokens.get(j).equals(",") && !tokens.get(j).equals("(") && !STOP_WORDS.contains(tokens.get(j))) {
+						j++;
+					}
+					if (isFrom && j < n && tokens.get(j).equals(",")) {
+						j++;
+					} else {
+						break;
+					}
+				}
+			}
+		}
+		return ret.toArray(new String[ret.size()]);
+	}
+
+	/**
+	 * 切分为小写的单词以及 "(" 、","，字符串常量被忽略。
+	 * 引号、方括号括起的名称整体作为单词的一部分，其中可以包含空格
+	 */
+	private static List<String> tokenize(String sql) {
+		List<String> ret = new ArrayList<>();
+		int n = sql.length();
+		int i = 0;
+		while (i < n) {
+			char c = sql.charAt(i);
+			if (c == '\'') {
+				i++;
+				while (i < n && sql.charAt(i) != '\'') {
+					i++;
+				}
+				i++;
+			} else if (c == '(' || c == ',') {
+				ret.add(String.valueOf(c));
+				i++;
+			} else if (Character.isLetterOrDigit(c) || c == '_' || c == '`' || c == '"' || c == '[' || c == '$') {
+				int start = i;
+				while (i < n) {
+					c = sql.charAt(i);
+					if (c == '`' || c == '"' || c == '[') {
+						char end = c == '[' ? ']' : c;
+						i++;
+						while (i < n && sql.charAt(i) != end) {
+							i++;
+						}
+						i = Math.min(i + 1, n);
+					} else if (Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '$') {
+						i++;
+					} else {
+						break;
+					}
+				}
+				ret.add(sql.substring(start, i).toLowerCase());
+			} else {
+				i++;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * 去除引号、方括号以及 schema 前缀，转为小写
+	 */
+	static String normalize(String table) {
+		int dot = table.lastIndexOf('.');
+		if (dot >= 0) {
+			table = table.substring(dot + 1);
+		}
+		StringBuilder ret = new StringBuilder(table.length());
+		for (int i = 0; i < table.length(); i++) {
+			char c = table.charAt(i);
+			if (c != '`' && c != '"' && c != '[' && c != ']') {
+				ret.append(Character.toLowerCase(c));
+			}
+		}
+		return ret.toString();
+	}
+
+	private static String[] normalize(String[] tables) {
+		String[] ret = new String[tables.length];
+		for (int i = 0; i < tables.length; i++) {
+			ret[i] = normalize(tables[i]);
+		}
+		return ret;
+	}
+
+	/**
+	 * 放入 ICache 中的缓存结果，记录查询之前各表的版本号
+	 */
+	public static class Entry implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final String[] tables;
+		final long[] versions;
+		final Object value;
+
+		Entry(String[] tables, long[] versions, Object value) {
+			this.tables = tables;
+			this.versions = versions;
+			this.value = value;
+		}
+	}
+}
@@ -100,6 +100,7 @@ public class TransactionExecutor {
             boolean closeOnException = true;
             try {
                 if (conn != null) {
+                    config.closeStatementCache();
                     if (originalAutoCommit != null) {
                         conn.setAutoCommit(originalAutoCommit);
                     }
@@ -24,9 +24,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import com.jfinal.plugin.activerecord.CPI;
 import com.jfinal.plugin.activerecord.Model;
 import com.jfinal.plugin.activerecord.ModelBuilder;
+import com.jfinal.plugin.activerecord.ModelFactory;
 
 /**
  * 针对 mybatis 用户使用习惯，避免 JDBC 将 Byte、Short 转成 Integer
@@ -57,8 +59,9 @@ public class KeepByteAndShortModelBuilder extends ModelBuilder {
 		String[] labelNames = new String[columnCount + 1];
 		int[] types = new int[columnCount + 1];
 		buildLabelNamesAndTypes(rsmd, labelNames, types);
+		Supplier<? extends Model> factory = ModelFactory.get(modelClass);
 		while (rs.next()) {
-			Model<?> ar = modelClass.newInstance();
+			Model<?> ar = factory.get();
 			Map<String, Object> attrs = CPI.getAttrs(ar);
 			for (int i=1; i<=columnCount; i++) {
 				Object value;
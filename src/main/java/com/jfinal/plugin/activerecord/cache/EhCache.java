@@ -16,20 +16,74 @@
 
 package com.jfinal.plugin.activerecord.cache;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import com.jfinal.kit.ThreadPoolKit;
 import com.jfinal.plugin.ehcache.CacheKit;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
 
 /**
  * EhCache.
+ * 
+ * <pre>
+ * 默认使用 ehcache.xml 中配置的过期策略。通过 setTimeToLive(...) 可指定过期时间、随机抖动比例，
+ * 以及 stale-while-revalidate 时长：
+ * 
+ * arp.setCache(new EhCache().setTimeToLive(600, 0.1, 60));
+ * 
+ * 上例数据在 540 至 660 秒之间过期，避免同一批数据同时过期；过期之后 60 秒之内
+ * get(cacheName, key, loader) 立即返回旧数据，同时在后台刷新
+ * </pre>
  */
 public class EhCache implements ICache {
 	
+	private int timeToLiveSeconds = 0;		// 为 0 时使用 ehcache.xml 中的配置
+	private double jitter = 0;
+	private int staleSeconds = 0;
+	private Executor executor = null;
+	
+	/**
+	 * @param timeToLiveSeconds 过期时间
+	 * @param jitter 过期时间随机抖动的比例，取值 0 到 1，例如 0.1 表示上下浮动 10%
+	 * @param staleSeconds 过期后仍可返回旧数据并在后台刷新的时长，为 0 时不启用
+	 */
+	public EhCache setTimeToLive(int timeToLiveSeconds, double jitter, int staleSeconds) {
+		if (timeToLiveSeconds < 0 || staleSeconds < 0) {
+			throw new IllegalArgumentException("timeToLiveSeconds and staleSeconds can not be less than 0");
+		}
+		if (jitter < 0 || jitter >= 1) {
+			throw new IllegalArgumentException("jitter must be between 0 and 1");
+		}
+		if (staleSeconds > 0 && timeToLiveSeconds == 0) {
+			throw new IllegalArgumentException("staleSeconds need timeToLiveSeconds");
+		}
+		this.timeToLiveSeconds = timeToLiveSeconds;
+		this.jitter = jitter;
+		this.staleSeconds = staleSeconds;
+		return this;
+	}
+	
+	/**
+	 * 配置 stale-while-revalidate 后台刷新使用的线程池，默认使用 ThreadPoolKit.getExecutor()
+	 */
+	public EhCache setExecutor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+	
 	@SuppressWarnings("unchecked")
 	public <T>T get(String cacheName, Object key) {
 		return (T)CacheKit.get(cacheName, key);
 	}
 	
 	public void put(String cacheName, Object key, Object value) {
-		CacheKit.put(cacheName, key, value);
+		if (timeToLiveSeconds > 0) {
+			CacheKit.getOrAddCache(cacheName).put(createElement(key, value));
+		} else {
+			CacheKit.put(cacheName, key, value);
+		}
 	}
 	
 	public void remove(String cacheName, Object key) {
@@ -39,6 +93,54 @@ public class EhCache implements ICache {
 	public void removeAll(String cacheName) {
 		CacheKit.removeAll(cacheName);
 	}
+	
+	@SuppressWarnings("unchecked")
+	public <T> T get(String cacheName, Object key, Supplier<T> loader) {
+		Cache cache = CacheKit.getOrAddCache(cacheName);
+		Element element = cache.get(key);
+		if (element != null && element.getObjectValue() != null) {
+			if (staleSeconds > 0 && isStale(element)) {
+				SingleFlight.refresh(cacheName, key, () -> load(cache, key, loader), executor != null ? executor : ThreadPoolKit.getExecutor());
+			}
+			return (T)element.getObjectValue();
+		}
+		
+		return SingleFlight.load(cacheName, key, () -> {
+			Element e = cache.get(key);
+			if (e != null && e.getObjectValue() != null) {
+				return (T)e.getObjectValue();
+			}
+			return load(cache, key, loader);
+		});
+	}
+	
+	private <T> T load(Cache cache, Object key, Supplier<T> loader) {
+		T ret = loader.get();
+		if (ret != null) {
+			cache.put(timeToLiveSeconds > 0 ? createElement(key, ret) : new Element(key, ret));
+		}
+		return ret;
+	}
+	
+	/**
+	 * Element 的实际存活时间为抖动之后的 timeToLive 加上 staleSeconds
+	 */
+	private Element createElement(Object key, Object value) {
+		int ttl = timeToLiveSeconds;
+		if (jitter > 0) {
+			int delta = (int)(ttl * jitter);
+			if (delta > 0) {
+				ttl += ThreadLocalRandom.current().nextInt(-delta, delta + 1);
+			}
+		}
+		Element ret = new Element(key, value);
+		ret.setTimeToLive(Math.max(ttl, 1) + staleSeconds);
+		return ret;
+	}
+	
+	private boolean isStale(Element element) {
+		long freshMillis = (element.getTimeToLive() - staleSeconds) * 1000L;
+		return System.currentTimeMillis() - element.getLatestOfCreationAndUpdateTime() > freshMillis;
+	}
 }
 
-
@@ -16,6 +16,10 @@
 
 package com.jfinal.plugin.activerecord.cache;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
 /**
  * ICache.
  */
@@ -24,4 +28,40 @@ public interface ICache {
 	void put(String cacheName, Object key, Object value);
 	void remove(String cacheName, Object key);
 	void removeAll(String cacheName);
+	
+	/**
+	 * 批量获取，返回值与 keys 一一对应，不存在的 key 对应 null。
+	 * 实现类可以在一次网络往返中完成，例如 RedisCache 使用 MGET
+	 */
+	default <T> List<T> getAll(String cacheName, List<?> keys) {
+		List<T> ret = new ArrayList<T>(keys.size());
+		for (Object key : keys) {
+			ret.add(get(cacheName, key));
+		}
+		return ret;
+	}
+	
+	/**
+	 * 从缓存中获取数据，不存在时调用 loader 加载并放入缓存，loader 返回 null 时不放入缓存。
+	 * 
+	 * 同一个 key 并发加载时只有一个线程执行 loader，其它线程等待并共享其结果。
+	 * 实现类可以在此基础上支持 stale-while-revalidate 与 TTL 随机抖动，例如 EhCache
+	 */
+	default <T> T get(String cacheName, Object key, Supplier<T> loader) {
+		T ret = get(cacheName, key);
+		if (ret != null) {
+			return ret;
+		}
+		
+		return SingleFlight.load(cacheName, key, () -> {
+			T value = get(cacheName, key);		// 上一轮加载刚好完成时无需再次加载
+			if (value == null) {
+				value = loader.get();
+				if (value != null) {
+					put(cacheName, key, value);
+				}
+			}
+			return value;
+		});
+	}
 }
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LruCache 进程内有界缓存，每个 cacheName 最多缓存 maxSize 个对象，超出时淘汰最久未访问的对象
+ *
+ * <pre>
+ * 1：expireMillis 大于 0 时对象在写入 expireMillis 毫秒之后过期
+ * 2：缓存的是对象引用，取出后不要修改其内容
+ * </pre>
+ */
+public class LruCache implements ICache {
+	
+	private final int maxSize;
+	private final long expireMillis;
+	private final Map<String, Segment> cacheMap = new ConcurrentHashMap<String, Segment>();
+	
+	public LruCache(int maxSize, long expireMillis) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must more than 0");
+		}
+		if (expireMillis < 0) {
+			throw new IllegalArgumentException("expireMillis can not be less than 0");
+		}
+		this.maxSize = maxSize;
+		this.expireMillis = expireMillis;
+	}
+	
+	public LruCache(int maxSize) {
+		this(maxSize, 0);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public <T> T get(String cacheName, Object key) {
+		Segment segment = cacheMap.get(cacheName);
+		return segment != null ? (T)segment.get(key) : null;
+	}
+	
+	public void put(String cacheName, Object key, Object value) {
+		cacheMap.computeIfAbsent(cacheName, k -> new Segment()).put(key, value);
+	}
+	
+	public void remove(String cacheName, Object key) {
+		Segment segment = cacheMap.get(cacheName);
+		if (segment != null) {
+			segment.remove(key);
+		}
+	}
+	
+	public void removeAll(String cacheName) {
+		cacheMap.remove(cacheName);
+	}
+	
+	public int size(String cacheName) {
+		Segment segment = cacheMap.get(cacheName);
+		return segment != null ? segment.size() : 0;
+	}
+	
+	private class Segment {
+		
+		private final LinkedHashMap<Object, Entry> map = new LinkedHashMap<Object, Entry>(64, 0.75F, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<Object, LruCache.Entry> eldest) {
+				return size() > maxSize;
+			}
+		};
+		
+		synchronized Object get(Object key) {
+			Entry e = map.get(key);
+			if (e == null) {
+				return null;
+			}
+			if (e.expireAt > 0 && e.expireAt < System.currentTimeMillis()) {
+				map.remove(key);
+				return null;
+			}
+			return e.value;
+		}
+		
+		synchronized void put(Object key, Object value) {
+			map.put(key, new Entry(value, expireMillis > 0 ? System.currentTimeMillis() + expireMillis : 0));
+		}
+		
+		synchronized void remove(Object key) {
+			map.remove(key);
+		}
+		
+		synchronized int size() {
+			return map.size();
+		}
+	}
+	
+	private static class Entry {
+		final Object value;
+		final long expireAt;
+		
+		Entry(Object value, long expireAt) {
+			this.value = value;
+			this.expireAt = expireAt;
+		}
+	}
+}
+
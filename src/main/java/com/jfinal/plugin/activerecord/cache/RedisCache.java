@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import com.jfinal.plugin.redis.Cache;
+import com.jfinal.plugin.redis.Redis;
+import com.jfinal.plugin.redis.serializer.ISerializer;
+import com.jfinal.plugin.redis.serializer.SchemaSerializer;
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * RedisCache 使用 RedisPlugin 作为 ActiveRecord 的缓存，多个进程共享缓存数据
+ *
+ * <pre>
+ * 1：cacheName 作为命名空间，redis key 的格式为 prefix + cacheName + ":" + version + ":" + key。
+ *    removeAll(cacheName) 仅对命名空间的版本号执行一次 INCR，不使用 KEYS、SCAN 逐个删除，
+ *    旧版本的数据不再被访问，在 timeToLive 到期后由 redis 清除
+ *
+ * 2：其它进程执行 removeAll 以后，本进程在 versionCheckMillis 之内可能仍然读到旧版本的数据，
+ *    配置为 0 时每次访问都读取版本号，多一次网络往返
+ *
+ * 3：仅版本号 key 使用 hash tag，数据 key 不带 hash tag，集群模式下同一命名空间的数据分散在各个 slot，
+ *    getAll(...) 通过 Cache.mgetBytes(...) 按 slot 拆分后并行读取
+ *
+ * 4：key 通过 String.valueOf(key) 转换，findById(1) 与 findById("1") 对应同一个 key
+ *
+ * 5：value 默认使用 SchemaSerializer 序列化，Record、Model 只保存一份字段名
+ *
+ * 例子：
+ * arp.setCache(new RedisCache().setTimeToLive(3600, 0.1));
+ * arp.addEntityCache(User.class, new EntityCache(new RedisCache("entity")));
+ * </pre>
+ */
+public class RedisCache implements ICache {
+	
+	private final String redisCacheName;
+	private volatile Cache redis;
+	
+	private String prefix = "_ar_cache_:";
+	private int timeToLiveSeconds = 3600;
+	private double jitter = 0;
+	private long versionCheckMillis = 1000;
+	private ISerializer serializer = new SchemaSerializer();
+	
+	private final Map<String, Version> versionMap = new ConcurrentHashMap<>();
+	
+	/**
+	 * @param redisCacheName RedisPlugin 中的 cacheName，为 null 时使用 Redis.use()
+	 */
+	public RedisCache(String redisCacheName) {
+		this.redisCacheName = redisCacheName;
+	}
+	
+	public RedisCache() {
+		this((String)null);
+	}
+	
+	public RedisCache(Cache redis) {
+		if (redis == null) {
+			throw new IllegalArgumentException("redis can not be null");
+		}
+		this.redisCacheName = redis.getName();
+		this.redis = redis;
+	}
+	
+	/**
+	 * @param timeToLiveSeconds 过期时间，默认值 3600 秒，为 0 时永不过期，removeAll 以后旧版本的数据不会被清除
+	 * @param jitter 过期时间随机抖动的比例，取值 0 到 1，例如 0.1 表示上下浮动 10%
+	 */
+	public RedisCache setTimeToLive(int timeToLiveSeconds, double jitter) {
+		if (timeToLiveSeconds < 0) {
+			throw new IllegalArgumentException("timeToLiveSeconds can not be less than 0");
+		}
+		if (jitter < 0 || jitter >= 1) {
+			throw new IllegalArgumentException("jitter must be between 0 and 1");
+		}
+		this.timeToLiveSeconds = timeToLiveSeconds;
+		this.jitter = jitter;
+		return this;
+	}
+	
+	/**
+	 * 本地缓存命名空间版本号的时长，默认值 1000 毫秒
+	 */
+	public RedisCache setVersionCheckMillis(long versionCheckMillis) {
+		if (versionCheckMillis < 0) {
+			throw new IllegalArgumentException("versionCheckMillis can not be less than 0");
+		}
+		this.versionCheckMillis = versionCheckMillis;
+		return this;
+	}
+	
+	public RedisCache setSerializer(ISerializer serializer) {
+		if (serializer == null) {
+			throw new IllegalArgumentException("serializer can not be null");
+		}
+		this.serializer = serializer;
+		return this;
+	}
+	
+	public RedisCache setPrefix(String prefix) {
+		if (prefix == null) {
+			throw new IllegalArgumentException("prefix can not be null");
+		}
+		this.prefix = prefix;
+		return this;
+	}
+	
+	public Cache getRedis() {
+		Cache ret = redis;
+		if (ret == null) {
+			ret = redisCacheName != null ? Redis.use(redisCacheName) : Redis.use();
+			if (ret == null) {
+				throw new IllegalStateException("Redis cache not found: " + redisCacheName + ", RedisPlugin not started");
+			}
+			redis = ret;
+		}
+		return ret;
+	}
+	
+	// --------
+	
+	@SuppressWarnings("unchecked")
+	public <T>T get(String cacheName, Object key) {
+		String redisKey = redisKey(cacheName, version(cacheName), key);
+		byte[] data = getRedis().callByRedisKey(redisKey, jedis -> jedis.get(SafeEncoder.encode(redisKey)));
+		return (T)serializer.valueFromBytes(data);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public <T> List<T> getAll(String cacheName, List<?> keys) {
+		List<T> ret = new ArrayList<T>(keys.size());
+		if (keys.isEmpty()) {
+			return ret;
+		}
+		
+		long version = version(cacheName);
+		byte[][] keysBytes = new byte[keys.size()][];
+		for (int i = 0; i < keysBytes.length; i++) {
+			keysBytes[i] = SafeEncoder.encode(redisKey(cacheName, version, keys.get(i)));
+		}
+		
+		// ClusterCache 中按 slot 拆分
+		for (byte[] data : getRedis().mgetBytes(keysBytes)) {
+			ret.add((T)serializer.valueFromBytes(data));
+		}
+		return ret;
+	}
+	
+	public void put(String cacheName, Object key, Object value) {
+		if (value == null) {
+			return ;
+		}
+		
+		String redisKey = redisKey(cacheName, version(cacheName), key);
+		byte[] keyBytes = SafeEncoder.encode(redisKey);
+		byte[] valueBytes = serializer.valueToBytes(value);
+		getRedis().callByRedisKey(redisKey, jedis -> timeToLiveSeconds > 0 ? jedis.setex(keyBytes, ttl(), valueBytes) : jedis.set(keyBytes, valueBytes));
+	}
+	
+	public void remove(String cacheName, Object key) {
+		String redisKey = redisKey(cacheName, version(cacheName), key);
+		getRedis().callByRedisKey(redisKey, jedis -> jedis.del(SafeEncoder.encode(redisKey)));
+	}
+	
+	/**
+	 * 递增命名空间的版本号，时间复杂度 O(1)
+	 */
+	public void removeAll(String cacheName) {
+		String versionKey = versionKey(cacheName);
+		long value = getRedis().callByRedisKey(versionKey, jedis -> jedis.incr(versionKey));
+		
+		Version v = versionMap.get(cacheName);
+		if (v != null) {
+			v.update(value);
+		}
+	}
+	
+	// --------
+	
+	private long version(String cacheName) {
+		Version v = versionMap.get(cacheName);
+		if (v == null) {
+			// 首次访问同步读取，避免并发线程使用默认版本号
+			v = versionMap.computeIfAbsent(cacheName, k -> new Version(loadVersion(k)));
+		}
+		
+		long now = System.currentTimeMillis();
+		long last = v.lastCheckTime.get();
+		if (now - last >= versionCheckMillis && v.lastCheckTime.compareAndSet(last, now)) {
+			v.value = loadVersion(cacheName);
+		}
+		return v.value;
+	}
+	
+	private long loadVersion(String cacheName) {
+		String versionKey = versionKey(cacheName);
+		String ret = getRedis().callByRedisKey(versionKey, jedis -> jedis.get(versionKey));
+		return ret != null ? Long.parseLong(ret) : 0;
+	}
+	
+	private long ttl() {
+		if (jitter == 0) {
+			return timeToLiveSeconds;
+		}
+		double delta = timeToLiveSeconds * jitter;
+		return Math.max(1, Math.round(timeToLiveSeconds - delta + ThreadLocalRandom.current().nextDouble() * delta * 2));
+	}
+	
+	private String versionKey(String cacheName) {
+		return prefix + "{" + cacheName + "}:_version_";
+	}
+	
+	private String redisKey(String cacheName, long version, Object key) {
+		return prefix + cacheName + ":" + version + ":" + key;
+	}
+	
+	private static class Version {
+		
+		volatile long value;
+		final AtomicLong lastCheckTime;
+		
+		Version(long value) {
+			this.value = value;
+			this.lastCheckTime = new AtomicLong(System.currentTimeMillis());
+		}
+		
+		void update(long value) {
+			this.value = value;
+			lastCheckTime.set(System.currentTimeMillis());
+		}
+	}
+}
+
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord.cache;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import com.jfinal.log.Log;
+
+/**
+ * SingleFlight 同一个缓存 key 并发加载时只有一个线程执行 loader，其它线程等待并共享其结果，
+ * 避免热点 key 过期时大量请求同时穿透到数据库
+ * 
+ * <pre>
+ * 1：等待时长超过 waitTimeoutMillis 时不再等待，直接执行 loader
+ * 2：正在加载的线程在 loader 之中再次加载同一个 key 时直接执行 loader，避免自身等待造成死锁
+ * </pre>
+ */
+public class SingleFlight {
+	
+	private static final Log log = Log.getLog(SingleFlight.class);
+	
+	private static final ConcurrentHashMap<Object, Flight> inFlightMap = new ConcurrentHashMap<Object, Flight>(512);
+	
+	private static volatile long waitTimeoutMillis = 10000;
+	
+	private SingleFlight() {}
+	
+	/**
+	 * 配置等待其它线程加载结果的最长时间，默认值 10000 毫秒
+	 */
+	public static void setWaitTimeoutMillis(long waitTimeoutMillis) {
+		if (waitTimeoutMillis <= 0) {
+			throw new IllegalArgumentException("waitTimeoutMillis must more than 0");
+		}
+		SingleFlight.waitTimeoutMillis = waitTimeoutMillis;
+	}
+	
+	/**
+	 * 执行 loader 并返回其结果，同一个 cacheName + key 已有线程在加载时等待其结果
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T load(String cacheName, Object key, Supplier<T> loader) {
+		Object flightKey = new SimpleImmutableEntry<String, Object>(cacheName, key);
+		Flight flight = new Flight(Thread.currentThread());
+		Flight existing = inFlightMap.putIfAbsent(flightKey, flight);
+		if (existing != null) {
+			if (existing.owner == Thread.currentThread()) {
+				return loader.get();	// 重入
+			}
+			Object[] ret = await(existing, cacheName, key);
+			return ret != null ? (T)ret[0] : loader.get();
+		}
+		
+		try {
+			T ret = loader.get();
+			flight.complete(ret);
+			return ret;
+		} catch (Throwable t) {
+			flight.completeExceptionally(t);
+			throw t;
+		} finally {
+			inFlightMap.remove(flightKey, flight);
+		}
+	}
+	
+	/**
+	 * 在 executor 中异步执行 loader，用于 stale-while-revalidate。
+	 * 同一个 cacheName + key 已有线程在加载时直接返回
+	 */
+	public static void refresh(String cacheName, Object key, Supplier<?> loader, Executor executor) {
+		Object flightKey = new SimpleImmutableEntry<String, Object>(cacheName, key);
+		Flight flight = new Flight(null);
+		if (inFlightMap.putIfAbsent(flightKey, flight) != null) {
+			return ;
+		}
+		
+		try {
+			executor.execute(() -> {
+				flight.owner = Thread.currentThread();
+				try {
+					flight.complete(loader.get());
+				} catch (Throwable t) {
+					log.error("Refresh cache error, cacheName: " + cacheName + ", key: " + key, t);
+					flight.completeExceptionally(t);
+				} finally {
+					inFlightMap.remove(flightKey, flight);
+				}
+			});
+		} catch (Throwable t) {		// 例如线程池拒绝任务
+			inFlightMap.remove(flightKey, flight);
+			flight.completeExceptionally(t);
+			log.error("Can not submit cache refresh task: " + t.getMessage(), t);
+		}
+	}
+	
+	/**
+	 * 等待加载结果，结果存放于返回数组的第一个元素，等待超时或被中断时返回 null
+	 */
+	private static Object[] await(Flight flight, String cacheName, Object key) {
+		try {
+			return new Object[] {flight.get(waitTimeoutMillis, TimeUnit.MILLISECONDS)};
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new CompletionException(cause);
+		} catch (TimeoutException e) {
+			log.warn("Wait for loading cache timeout, load directly, cacheName: " + cacheName + ", key: " + key);
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+	
+	private static class Flight extends CompletableFuture<Object> {
+		
+		volatile Thread owner;
+		
+		Flight(Thread owner) {
+			this.owner = owner;
+		}
+	}
+}
@@ -16,6 +16,7 @@
 
 package com.jfinal.plugin.activerecord.dialect;
 
+import java.io.Reader;
 import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -208,6 +209,99 @@ public abstract class Dialect {
 		rs.close();
 	}
 
+	/**
+	 * 判断 forModelSave、forDbSave 生成的 sql 是否只与表名、字段名有关，从而可以被 SqlCache 缓存
+	 *
+	 * 主键值为 "seq.nextval" 这类序列表达式时，OracleDialect、H2Dialect 会将其直接拼接到 sql 中，
+	 * 此时 sql 与值有关，不能缓存。自定义 Dialect 若在 sql 中拼接了其它值，需要覆盖此方法
+	 */
+	public boolean isSqlCacheable(String[] pKeys, Map<String, Object> attrs) {
+		for (String pKey : pKeys) {
+			Object value = attrs.get(pKey.trim());
+			if (value instanceof String && ((String)value).endsWith(".nextval")) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 单条 sql 允许的参数个数上限，BatchLoader 按此值对 in (...) 查询进行分块。
+	 * 默认值 999 为 sqlite 的限制，各 Dialect 按所用数据库的限制覆盖此方法
+	 */
+	public int getMaxParaCount() {
+		return 999;
+	}
+
+	/**
+	 * 单条多行 insert 语句的行数上限，DbPro.bulkInsert(...) 按此值以及 getMaxParaCount() 分块。
+	 * 不支持多行 insert 的数据库返回 1
+	 */
+	public int getMaxRowsPerInsert() {
+		return 1000;
+	}
+
+	/**
+	 * 生成一次插入 rowCount 行数据的 insert 语句：insert into t(a, b) values(?, ?), (?, ?)
+	 */
+	public String forMultiRowInsert(String tableName, String[] columns, int rowCount) {
+		StringBuilder sql = new StringBuilder(32 + columns.length * (rowCount * 3 + 16));
+		sql.append("insert into ").append(tableName.trim()).append('(');
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append(columns[i].trim());
+		}
+		sql.append(") values");
+		for (int r = 0; r < rowCount; r++) {
+			sql.append(r > 0 ? ", (" : "(");
+			for (int i = 0; i < columns.length; i++) {
+				sql.append(i > 0 ? ", ?" : "?");
+			}
+			sql.append(')');
+		}
+		return sql.toString();
+	}
+
+	/**
+	 * 使用数据库原生的批量导入协议导入 csv 数据，返回导入的行数，csv 格式见 CsvKit
+	 *
+	 * 返回 -1 表示当前数据库或者 jdbc 驱动不支持，此时不得读取 csv，DbPro.bulkInsert(...)
+	 * 将退化为多行 insert
+	 */
+	public long bulkLoad(Connection conn, String tableName, String[] columns, Reader csv) throws SQLException {
+		return -1;
+	}
+
+	/**
+	 * 按顺序加载 jdbc 驱动中的类，都不存在时返回 null，用于在不依赖驱动的前提下使用驱动的扩展 API
+	 */
+	protected static Class<?> getDriverClass(String... classNames) {
+		for (String name : classNames) {
+			try {
+				return Class.forName(name, false, Dialect.class.getClassLoader());
+			} catch (ClassNotFoundException | LinkageError e) {
+				ClassLoader cl = Thread.currentThread().getContextClassLoader();
+				if (cl != null) {
+					try {
+						return Class.forName(name, false, cl);
+					} catch (ClassNotFoundException | LinkageError ignored) {
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 解除反射调用的 InvocationTargetException 包装
+	 */
+	protected static SQLException toSQLException(Exception e) {
+		Throwable t = e instanceof java.lang.reflect.InvocationTargetException ? e.getCause() : e;
+		return t instanceof SQLException ? (SQLException)t : new SQLException(t.getMessage(), t);
+	}
+
 	public boolean isOracle() {
 		return false;
 	}
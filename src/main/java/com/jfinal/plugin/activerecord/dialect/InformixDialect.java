@@ -187,6 +187,10 @@ public class InformixDialect extends Dialect {
     public void fillStatement(PreparedStatement pst, Object... paras) throws SQLException {
         fillStatementHandleDateType(pst, paras);
     }
+
+    public int getMaxRowsPerInsert() {
+        return 1;
+    }
 }
 
 
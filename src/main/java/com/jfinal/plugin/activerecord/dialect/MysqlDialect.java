@@ -16,10 +16,17 @@
 
 package com.jfinal.plugin.activerecord.dialect;
 
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import com.jfinal.kit.CsvKit;
 import com.jfinal.plugin.activerecord.CPI;
 import com.jfinal.plugin.activerecord.Record;
 import com.jfinal.plugin.activerecord.Table;
@@ -207,4 +214,60 @@ public class MysqlDialect extends Dialect {
 		findSql.append(" limit ").append(offset).append(", ").append(pageSize);	// limit can use one or two '?' to pass paras
 		return findSql.toString();
 	}
+
+	public int getMaxParaCount() {
+		return 65535;
+	}
+
+	public String forMultiRowInsert(String tableName, String[] columns, int rowCount) {
+		StringBuilder sql = new StringBuilder(32 + columns.length * (rowCount * 3 + 16));
+		sql.append("insert into `").append(tableName.trim()).append("`(");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append('`').append(columns[i].trim()).append('`');
+		}
+		sql.append(") values");
+		for (int r = 0; r < rowCount; r++) {
+			sql.append(r > 0 ? ", (" : "(");
+			for (int i = 0; i < columns.length; i++) {
+				sql.append(i > 0 ? ", ?" : "?");
+			}
+			sql.append(')');
+		}
+		return sql.toString();
+	}
+
+	/**
+	 * 通过 load data local infile 流式导入，需要 mysql jdbc 驱动，在 jdbcUrl 中配置 allowLoadLocalInfile=true，
+	 * 并且数据库端开启 local_infile
+	 */
+	public long bulkLoad(Connection conn, String tableName, String[] columns, Reader csv) throws SQLException {
+		Class<?> stmtClass = getDriverClass("com.mysql.cj.jdbc.JdbcStatement", "com.mysql.jdbc.Statement");
+		if (stmtClass == null) {
+			return -1;
+		}
+
+		StringBuilder sql = new StringBuilder();
+		sql.append("load data local infile 'stream' into table `").append(tableName.trim()).append('`');
+		sql.append(" character set utf8mb4 fields terminated by ',' optionally enclosed by '\"' escaped by '' lines terminated by '\\n' (");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append('`').append(columns[i].trim()).append('`');
+		}
+		sql.append(')');
+
+		try (Statement st = conn.createStatement()) {
+			if (!st.isWrapperFor(stmtClass)) {
+				return -1;
+			}
+			stmtClass.getMethod("setLocalInfileInputStream", InputStream.class).invoke(st.unwrap(stmtClass), CsvKit.toInputStream(csv, StandardCharsets.UTF_8));
+			return st.executeUpdate(sql.toString());
+		} catch (ReflectiveOperationException e) {
+			throw toSQLException(e);
+		}
+	}
 }
@@ -231,6 +231,36 @@ public class OracleDialect extends Dialect {
 	public String getDefaultPrimaryKey() {
 		return "ID";
 	}
+
+	public int getMaxParaCount() {
+		return 1000;	// oracle 中 in (...) 列表的元素个数上限为 1000
+	}
+
+	/**
+	 * oracle 不支持 values(...), (...)，使用 insert all into ... select 1 from dual
+	 */
+	public String forMultiRowInsert(String tableName, String[] columns, int rowCount) {
+		StringBuilder into = new StringBuilder();
+		into.append(" into ").append(tableName.trim()).append('(');
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				into.append(", ");
+			}
+			into.append(columns[i].trim());
+		}
+		into.append(") values(");
+		for (int i = 0; i < columns.length; i++) {
+			into.append(i > 0 ? ", ?" : "?");
+		}
+		into.append(')');
+
+		StringBuilder sql = new StringBuilder(16 + into.length() * rowCount);
+		sql.append("insert all");
+		for (int r = 0; r < rowCount; r++) {
+			sql.append(into);
+		}
+		return sql.append(" select 1 from dual").toString();
+	}
 }
 
 
@@ -16,7 +16,9 @@
 
 package com.jfinal.plugin.activerecord.dialect;
 
+import java.io.Reader;
 import java.math.BigInteger;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -272,6 +274,57 @@ public class PostgreSqlDialect extends Dialect {
 		}
 		rs.close();
 	}
+
+	public int getMaxParaCount() {
+		return 32767;
+	}
+
+	public String forMultiRowInsert(String tableName, String[] columns, int rowCount) {
+		StringBuilder sql = new StringBuilder(32 + columns.length * (rowCount * 3 + 16));
+		sql.append("insert into \"").append(tableName.trim()).append("\"(");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append('\"').append(columns[i].trim()).append('\"');
+		}
+		sql.append(") values");
+		for (int r = 0; r < rowCount; r++) {
+			sql.append(r > 0 ? ", (" : "(");
+			for (int i = 0; i < columns.length; i++) {
+				sql.append(i > 0 ? ", ?" : "?");
+			}
+			sql.append(')');
+		}
+		return sql.toString();
+	}
+
+	/**
+	 * 通过 CopyManager 执行 copy ... from stdin，需要 postgresql jdbc 驱动
+	 */
+	public long bulkLoad(Connection conn, String tableName, String[] columns, Reader csv) throws SQLException {
+		Class<?> pgConnClass = getDriverClass("org.postgresql.PGConnection");
+		if (pgConnClass == null || !conn.isWrapperFor(pgConnClass)) {
+			return -1;
+		}
+
+		StringBuilder sql = new StringBuilder();
+		sql.append("copy \"").append(tableName.trim()).append("\"(");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append('\"').append(columns[i].trim()).append('\"');
+		}
+		sql.append(") from stdin with (format csv, null 'NULL')");
+
+		try {
+			Object copyManager = pgConnClass.getMethod("getCopyAPI").invoke(conn.unwrap(pgConnClass));
+			return (Long)copyManager.getClass().getMethod("copyIn", String.class, Reader.class).invoke(copyManager, sql.toString(), csv);
+		} catch (ReflectiveOperationException e) {
+			throw toSQLException(e);
+		}
+	}
 }
 
 
@@ -216,6 +216,10 @@ public class SqlServerDialect extends Dialect {
 	public void fillStatement(PreparedStatement pst, Object... paras) throws SQLException {
 		fillStatementHandleDateType(pst, paras);
 	}
+
+	public int getMaxParaCount() {
+		return 2100;
+	}
 }
 
 
@@ -376,6 +376,16 @@ public class Generator {
 		}
 	}
 
+	/**
+	 * 设置 MappingKit 是否为每个 Model 生成创建函数，例如 Blog::new，
+	 * 使 ModelBuilder 免反射创建 Model 对象
+	 */
+	public void setGenerateModelFactory(boolean generateModelFactory) {
+		if (this.mappingKitGenerator != null) {
+			this.mappingKitGenerator.setGenerateModelFactory(generateModelFactory);
+		}
+	}
+
 	/**
 	 * 设置数据字典 DataDictionary 文件输出目录，默认与 modelOutputDir 相同
 	 */
@@ -36,6 +36,7 @@ public class MappingKitGenerator {
 	protected String mappingKitPackageName;
 	protected String mappingKitOutputDir;
 	protected String mappingKitClassName = "_MappingKit";
+	protected boolean generateModelFactory = false;
 
 	public MappingKitGenerator(String mappingKitPackageName, String mappingKitOutputDir) {
 		this.mappingKitPackageName = mappingKitPackageName;
@@ -89,12 +90,20 @@ public class MappingKitGenerator {
 		return mappingKitClassName;
 	}
 
+	/**
+	 * 生成 arp.addMapping("blog", "id", Blog.class, Blog::new)，使 ModelBuilder 免反射创建 Model 对象
+	 */
+	public void setGenerateModelFactory(boolean generateModelFactory) {
+		this.generateModelFactory = generateModelFactory;
+	}
+
 	public void generate(List<TableMeta> tableMetas) {
 		System.out.println("Generate MappingKit file ...");
 		System.out.println("MappingKit Output Dir: " + mappingKitOutputDir);
 
 		Kv data = Kv.of("mappingKitPackageName", mappingKitPackageName);
 		data.set("mappingKitClassName", mappingKitClassName);
+		data.set("generateModelFactory", generateModelFactory);
 		data.set("tableMetas", tableMetas);
 
 		String ret = engine.getTemplate(template).renderToString(data);
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.activerecord.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import com.jfinal.plugin.activerecord.SqlPara;
+import com.jfinal.template.Template;
+import com.jfinal.template.expr.ast.Const;
+import com.jfinal.template.expr.ast.Expr;
+import com.jfinal.template.expr.ast.Id;
+import com.jfinal.template.stat.ast.NullStat;
+import com.jfinal.template.stat.ast.Stat;
+import com.jfinal.template.stat.ast.StatList;
+import com.jfinal.template.stat.ast.Text;
+
+/**
+ * CompiledSql 是 #sql 模板的预编译形式
+ *
+ * <pre>
+ * 1：#sql 内容仅由文本与 #para(name)、#para(0) 组成（in 类型除外）时为静态 sql，
+ *    解析时一次性生成最终的 sql 与参数提取规则，getSqlPara(...) 无需再渲染模板
+ *
+ * 2：其它情况为动态 sql，依然通过渲染模板生成
+ *
+ * 3：参数不满足提取规则时（例如 #para(name) 中的 name 未出现在 data 中、下标越界），
+ *    返回 null 交由模板渲染处理，以便保持原有的取值与异常行为
+ * </pre>
+ */
+final class CompiledSql {
+
+	final Template template;
+	final String sql;			// 动态 sql 为 null
+
+	private String[] names;		// #para(name)，与 indexes 只会有一个不为 null
+	private int[] indexes;		// #para(0)
+	private int[] types;
+
+	private CompiledSql(Template template, String sql) {
+		this.template = template;
+		this.sql = sql;
+	}
+
+	boolean isStatic() {
+		return sql != null;
+	}
+
+	static CompiledSql compile(Template template, Stat stat) {
+		StringBuilder sql = new StringBuilder();
+		List<ParaDirective> paraList = new ArrayList<>();
+		if ( !collect(stat, sql, paraList) ) {
+			return new CompiledSql(template, null);
+		}
+
+		int size = paraList.size();
+		String[] names = new String[size];
+		int[] indexes = new int[size];
+		int[] types = new int[size];
+		int nameCount = 0;
+		for (int i = 0; i < size; i++) {
+			ParaDirective pd = paraList.get(i);
+			indexes[i] = pd.getIndex();
+			types[i] = pd.getType();
+			if (indexes[i] == -1) {
+				names[i] = ((Id)pd.getParaExpr()).getId();
+				nameCount++;
+			}
+		}
+
+		// 混用 #para(name) 与 #para(0) 的模板无论哪种调用方式都会在渲染时出错，交由渲染处理
+		if (nameCount != 0 && nameCount != size) {
+			return new CompiledSql(template, null);
+		}
+
+		CompiledSql ret = new CompiledSql(template, sql.toString());
+		if (nameCount > 0) {
+			ret.names = names;
+		} else {
+			ret.indexes = indexes;
+		}
+		ret.types = types;
+		return ret;
+	}
+
+	private static boolean collect(Stat stat, StringBuilder sql, List<ParaDirective> paraList) {
+		if (stat instanceof StatList) {
+			StatList statList = (StatList)stat;
+			for (int i = 0, n = statList.length(); i < n; i++) {
+				if ( !collect(statList.getStat(i), sql, paraList) ) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		if (stat instanceof Text) {
+			sql.append(((Text)stat).getChars());
+			return true;
+		}
+
+		if (stat instanceof ParaDirective) {
+			ParaDirective pd = (ParaDirective)stat;
+			if (pd.isTypeIn()) {
+				return false;		// in 子句的问号数量随参数变化
+			}
+			Expr expr = pd.getParaExpr();
+			if (pd.getIndex() == -1 && !(expr instanceof Id)) {
+				return false;		// #para(a.b)、#para(x ?? y) 等表达式需要渲染求值
+			}
+			if (pd.getIndex() != -1 && !(expr instanceof Const)) {
+				return false;
+			}
+			sql.append('?');
+			paraList.add(pd);
+			return true;
+		}
+
+		return stat == null || stat instanceof NullStat;
+	}
+
+	/**
+	 * 对应 getSqlPara(String, Map)，返回 null 表示需要渲染模板
+	 */
+	SqlPara getSqlPara(Map<?, ?> data) {
+		if (sql == null || indexes != null) {
+			return null;
+		}
+
+		SqlPara ret = new SqlPara().setSql(sql);
+		if (names != null) {
+			if (data == null) {
+				return null;
+			}
+			for (int i = 0; i < names.length; i++) {
+				Object value = data.get(names[i]);
+				if (value == null && !data.containsKey(names[i])) {
+					return null;	// 与 Scope.get(...) 一致，未定义的变量交由渲染处理
+				}
+				ret.addPara(ParaDirective.toParaValue(types[i], value));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * 对应 getSqlPara(String, Object...)，返回 null 表示需要渲染模板
+	 */
+	SqlPara getSqlPara(Object[] paras) {
+		if (sql == null || names != null) {
+			return null;
+		}
+
+		SqlPara ret = new SqlPara().setSql(sql);
+		if (indexes != null) {
+			if (paras == null) {
+				return null;
+			}
+			for (int i = 0; i < indexes.length; i++) {
+				if (indexes[i] >= paras.length) {
+					return null;
+				}
+				ret.addPara(ParaDirective.toParaValue(types[i], paras[indexes[i]]));
+			}
+		}
+		return ret;
+	}
+}
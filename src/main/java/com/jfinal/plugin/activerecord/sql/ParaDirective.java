@@ -162,19 +162,10 @@ public class ParaDirective extends Directive {
 	}
 
     private void handleSqlPara(Writer writer, SqlPara sqlPara, Object value) {
-        if (type == 0) {
+        if (type != TYPE_IN) {
             write(writer, "?");
-            sqlPara.addPara(value);
-        } else if (type == TYPE_LIKE) {
-            write(writer, "?");
-            sqlPara.addPara("%" + value + "%");
-        } else if (type == TYPE_LIKE_LEFT) {
-            write(writer, "?");
-            sqlPara.addPara("%" + value);
-        } else if (type == TYPE_LIKE_RIGHT) {
-            write(writer, "?");
-            sqlPara.addPara(value + "%");
-        } else if (type == TYPE_IN) {
+            sqlPara.addPara(toParaValue(type, value));
+        } else {
             if (value instanceof Collection) {
                 handleCollection(writer, sqlPara, (Collection<?>)value);
             } else if (value != null && value.getClass().isArray()) {
@@ -186,6 +177,37 @@ public class ParaDirective extends Directive {
         }
     }
 
+    /**
+     * 按 like 类型转换参数值，被 CompiledSql 共享以保证与渲染结果一致
+     */
+    static Object toParaValue(int type, Object value) {
+        if (type == TYPE_LIKE) {
+            return "%" + value + "%";
+        } else if (type == TYPE_LIKE_LEFT) {
+            return "%" + value;
+        } else if (type == TYPE_LIKE_RIGHT) {
+            return value + "%";
+        } else {
+            return value;
+        }
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    int getType() {
+        return type;
+    }
+
+    boolean isTypeIn() {
+        return type == TYPE_IN;
+    }
+
+    Expr getParaExpr() {
+        return exprList.getExpr(0);
+    }
+
     private void handleCollection(Writer writer, SqlPara sqlPara, Collection<?> collection) {
         write(writer, "(");
         boolean first = true;
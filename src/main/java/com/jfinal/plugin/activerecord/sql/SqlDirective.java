@@ -60,7 +60,13 @@ public class SqlDirective extends Directive {
 			throw new ParseException("Sql already exists with key : " + key, location);
 		}
 
-		sqlTemplateMap.put(key, new Template(env, stat));
+		Template template = new Template(env, stat);
+		sqlTemplateMap.put(key, template);
+
+		Map<String, CompiledSql> compiledSqlMap = (Map<String, CompiledSql>)scope.get(SqlKit.COMPILED_SQL_MAP_KEY);
+		if (compiledSqlMap != null) {
+			compiledSqlMap.put(key, CompiledSql.compile(template, stat));
+		}
 	}
 
 	public boolean hasEnd() {
@@ -28,6 +28,12 @@ import com.jfinal.template.source.ISource;
 
 /**
  * SqlKit
+ *
+ * <pre>
+ * 解析 sql 模板时对每个 #sql 进行预编译，参考 CompiledSql：
+ * 1：静态 sql 直接使用预先生成的 sql 与参数提取规则创建 SqlPara，不再渲染模板
+ * 2：动态 sql 依然在每次调用时渲染模板
+ * </pre>
  */
 @SuppressWarnings({"unchecked", "rawtypes"})
 public class SqlKit {
@@ -35,12 +41,14 @@ public class SqlKit {
 	static final String SQL_TEMPLATE_MAP_KEY = "_SQL_TEMPLATE_MAP_";
 	static final String SQL_PARA_KEY = "_SQL_PARA_";
 	static final String PARA_ARRAY_KEY = "_PARA_ARRAY_"; // 此参数保持不动，已被用于模板取值 _PARA_ARRAY_[n]
+	static final String COMPILED_SQL_MAP_KEY = "_COMPILED_SQL_MAP_";
 
 	private String configName;
 	private boolean devMode;
 	private Engine engine;
 	private List<SqlSource> sqlSourceList = new ArrayList<SqlSource>();
 	private Map<String, Template> sqlTemplateMap;
+	private Map<String, CompiledSql> compiledSqlMap;
 
 	public SqlKit(String configName, boolean devMode) {
 		this.configName = configName;
@@ -90,12 +98,15 @@ public class SqlKit {
 
 	public synchronized void parseSqlTemplate() {
 		Map<String, Template> sqlTemplateMap = new HashMap<String, Template>(512, 0.5F);
+		Map<String, CompiledSql> compiledSqlMap = new HashMap<String, CompiledSql>(512, 0.5F);
 		for (SqlSource ss : sqlSourceList) {
 			Template template = ss.isFile() ? engine.getTemplate(ss.file) : engine.getTemplate(ss.source);
 			Map<Object, Object> data = new HashMap<Object, Object>();
 			data.put(SQL_TEMPLATE_MAP_KEY, sqlTemplateMap);
+			data.put(COMPILED_SQL_MAP_KEY, compiledSqlMap);
 			template.renderToString(data);
 		}
+		this.compiledSqlMap = compiledSqlMap;
 		this.sqlTemplateMap = sqlTemplateMap;
 	}
 
@@ -176,6 +187,14 @@ public class SqlKit {
 			return null;
 		}
 
+		CompiledSql cs = getCompiledSql(key, template);
+		if (cs != null) {
+			SqlPara ret = cs.getSqlPara(data);
+			if (ret != null) {
+				return ret;
+			}
+		}
+
 		SqlPara sqlPara = new SqlPara();
 		data.put(SQL_PARA_KEY, sqlPara);
 		sqlPara.setSql(template.renderToString(data));
@@ -199,6 +218,14 @@ public class SqlKit {
 			return null;
 		}
 
+		CompiledSql cs = getCompiledSql(key, template);
+		if (cs != null) {
+			SqlPara ret = cs.getSqlPara(paras);
+			if (ret != null) {
+				return ret;
+			}
+		}
+
 		SqlPara sqlPara = new SqlPara();
 		Map data = new HashMap();
 		data.put(SQL_PARA_KEY, sqlPara);
@@ -208,6 +235,22 @@ public class SqlKit {
 		return sqlPara;
 	}
 
+	/**
+	 * devMode 下模板可能刚被重新解析，通过 template 比对确保二者来自同一次解析
+	 */
+	private CompiledSql getCompiledSql(String key, Template template) {
+		CompiledSql cs = compiledSqlMap.get(key);
+		return cs != null && cs.template == template ? cs : null;
+	}
+
+	/**
+	 * 判断 key 对应的 sql 是否为无需渲染的静态 sql
+	 */
+	public boolean isStaticSql(String key) {
+		CompiledSql cs = compiledSqlMap.get(key);
+		return cs != null && cs.isStatic();
+	}
+
 	public java.util.Set<java.util.Map.Entry<String, Template>> getSqlMapEntrySet() {
 		return sqlTemplateMap.entrySet();
 	}
@@ -16,6 +16,8 @@
 
 package com.jfinal.plugin.activerecord.tx;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
 import com.jfinal.aop.Interceptor;
@@ -100,7 +102,7 @@ public class Tx implements Interceptor {
 				conn.commit();
 				config.executeCallbackAfterTxCommit();
 			} else {
-				txFun.call(inv, conn);
+				txFun.call(inv, afterCommitAware(config, conn));
 			}
 
 		} catch (NestedTransactionHelpException e) {
@@ -119,6 +121,7 @@ public class Tx implements Interceptor {
 		finally {
 			try {
 				if (conn != null) {
+					config.closeStatementCache();
 					if (autoCommit != null)
 						conn.setAutoCommit(autoCommit);
 					conn.close();
@@ -132,7 +135,24 @@ public class Tx implements Interceptor {
 			}
 		}
 	}
-}
-
-
 
+	/**
+	 * txFun 自行提交事务，通过代理在 conn.commit() 之后执行 addCallbackAfterTxCommit(...) 添加的回调，
+	 * 使 EntityCache 等在事务提交后的失效不被遗漏
+	 */
+	private static Connection afterCommitAware(Config config, Connection conn) {
+		return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+			Object ret;
+			try {
+				ret = method.invoke(conn, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+			if ("commit".equals(method.getName()) && method.getParameterCount() == 0) {
+				config.executeCallbackAfterTxCommit();
+				config.removeCallbackAfterTxCommit();
+			}
+			return ret;
+		});
+	}
+}
@@ -25,6 +25,7 @@ import com.alibaba.druid.pool.DruidDataSource;
 import com.jfinal.kit.StrKit;
 import com.jfinal.plugin.IPlugin;
 import com.jfinal.plugin.activerecord.IDataSourceProvider;
+import com.jfinal.plugin.activerecord.PoolMetrics;
 
 /**
  * DruidPlugin.
@@ -296,6 +297,30 @@ public class DruidPlugin implements IPlugin, IDataSourceProvider {
 		return ds;
 	}
 	
+	/**
+	 * 每次调用时读取 DruidDataSource 的实时状态，插件未启动时返回 0
+	 */
+	public PoolMetrics getPoolMetrics() {
+		return new PoolMetrics() {
+			public int getActive() {
+				DruidDataSource d = ds;
+				return d != null ? d.getActiveCount() : 0;
+			}
+			public int getIdle() {
+				DruidDataSource d = ds;
+				return d != null ? d.getPoolingCount() : 0;
+			}
+			public int getPending() {
+				DruidDataSource d = ds;
+				return d != null ? d.getWaitThreadCount() : 0;
+			}
+			public int getMax() {
+				DruidDataSource d = ds;
+				return d != null ? d.getMaxActive() : maxActive;
+			}
+		};
+	}
+	
 	/**
 	 * 支持高版本 druid 下配置 connectTimeout、socketTimeout。使用方法如下：
 	 *    druidPlugin.getDruidDataSource().setConnectTimeout(xxx);
@@ -38,7 +38,7 @@ public class CacheKit {
 		return cacheManager;
 	}
 	
-	static Cache getOrAddCache(String cacheName) {
+	public static Cache getOrAddCache(String cacheName) {
 		Cache cache = cacheManager.getCache(cacheName);
 		if (cache == null) {
 			synchronized(CacheKit.class) {
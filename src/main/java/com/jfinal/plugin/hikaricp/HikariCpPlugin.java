@@ -20,8 +20,10 @@ import javax.sql.DataSource;
 import com.jfinal.kit.StrKit;
 import com.jfinal.plugin.IPlugin;
 import com.jfinal.plugin.activerecord.IDataSourceProvider;
+import com.jfinal.plugin.activerecord.PoolMetrics;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 
 /**
  * Fast, simple, reliable. HikariCP is a "zero-overhead" production ready JDBC connection pool.
@@ -171,6 +173,35 @@ public class HikariCpPlugin implements IPlugin, IDataSourceProvider {
 		return ds;
 	}
 
+	/**
+	 * 每次调用时读取 HikariPoolMXBean 的实时状态，连接池未启动时返回 0
+	 */
+	@Override
+	public PoolMetrics getPoolMetrics() {
+		return new PoolMetrics() {
+			public int getActive() {
+				HikariPoolMXBean pool = getPool();
+				return pool != null ? pool.getActiveConnections() : 0;
+			}
+			public int getIdle() {
+				HikariPoolMXBean pool = getPool();
+				return pool != null ? pool.getIdleConnections() : 0;
+			}
+			public int getPending() {
+				HikariPoolMXBean pool = getPool();
+				return pool != null ? pool.getThreadsAwaitingConnection() : 0;
+			}
+			public int getMax() {
+				HikariDataSource d = ds;
+				return d != null ? d.getMaximumPoolSize() : maximumPoolSize;
+			}
+			private HikariPoolMXBean getPool() {
+				HikariDataSource d = ds;
+				return d != null ? d.getHikariPoolMXBean() : null;
+			}
+		};
+	}
+
 	@Override
 	public boolean start() {
 		HikariConfig config = newHikariConfig();
@@ -18,17 +18,18 @@ package com.jfinal.plugin.redis;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import com.jfinal.kit.Func.*;
 import com.jfinal.kit.StrKit;
 import com.jfinal.plugin.redis.serializer.ISerializer;
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPubSub;
 import redis.clients.jedis.Transaction;
 import redis.clients.jedis.params.ScanParams;
 import redis.clients.jedis.params.SetParams;
 import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.util.Pool;
 import redis.clients.jedis.util.SafeEncoder;
 
 /**
@@ -44,11 +45,16 @@ import redis.clients.jedis.util.SafeEncoder;
 public class Cache {
 
     protected String name;
-    protected JedisPool jedisPool;
+    protected Pool<Jedis> jedisPool;
     protected ISerializer serializer;
     protected IKeyNamingPolicy keyNamingPolicy;
 
     protected final ThreadLocal<Jedis> threadLocalJedis = new ThreadLocal<Jedis>();
+    protected volatile MgetBatcher mgetBatcher;
+    protected volatile RedisLock redisLock;
+    protected volatile RedisSubscriber subscriber;
+    // 阻塞命令与订阅使用的独立连接池，为 null 时使用 jedisPool
+    protected Pool<Jedis> blockingPool;
 
     /**
      * 使用 lambda 开放 Jedis API，建议优先使用本方法
@@ -70,11 +76,53 @@ public class Cache {
         finally {close(jd);}
     }
 
+    /**
+     * 在 key 所在节点上执行命令，Cache 中按 key 路由的写命令均通过本方法执行，
+     * ClusterCache 中遇到 MOVED、ASK 时刷新 slot 分布后重试，连接异常时只在命令发出之前重试，避免重复执行
+     * <pre>
+     * 例子：
+     *   Long ret = Redis.use().call("key", j -> j.incrBy("key", 1));
+     * </pre>
+     */
+    public <R> R call(Object key, Function<Jedis, R> jedis) {
+        Jedis jd = getJedis(key);
+        try {
+            return jedis.apply(jd);
+        }
+        finally {close(jd);}
+    }
+
+    /**
+     * 与 call(Object key, Function) 相同，参数为不经过 IKeyNamingPolicy 处理的原始 redis key
+     */
+    public <R> R callByRedisKey(String redisKey, Function<Jedis, R> jedis) {
+        Jedis jd = getJedisByRedisKey(redisKey);
+        try {
+            return jedis.apply(jd);
+        }
+        finally {close(jd);}
+    }
+
+    /**
+     * 与 call(Object key, Function) 相同，用于 get、hget、lrange 等只读命令，
+     * ClusterCache 中只读命令遇到连接异常时同样刷新 slot 分布后重试
+     */
+    public <R> R callRead(Object key, Function<Jedis, R> jedis) {
+        return call(key, jedis);
+    }
+
+    /**
+     * 与 callRead(Object key, Function) 相同，参数为不经过 IKeyNamingPolicy 处理的原始 redis key
+     */
+    public <R> R callReadByRedisKey(String redisKey, Function<Jedis, R> jedis) {
+        return callByRedisKey(redisKey, jedis);
+    }
+
     protected Cache() {
 
     }
 
-    public Cache(String name, JedisPool jedisPool, ISerializer serializer, IKeyNamingPolicy keyNamingPolicy) {
+    public Cache(String name, Pool<Jedis> jedisPool, ISerializer serializer, IKeyNamingPolicy keyNamingPolicy) {
         this.name = name;
         this.jedisPool = jedisPool;
         this.serializer = serializer;
@@ -87,11 +135,7 @@ public class Cache {
      * 对于某个原本带有生存时间（TTL）的键来说， 当 SET 命令成功在这个键上执行时， 这个键原有的 TTL 将被清除。
      */
     public String set(Object key, Object value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.set(keyToBytes(key), valueToBytes(value));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.set(keyToBytes(key), valueToBytes(value)));
     }
 
     /**
@@ -99,11 +143,7 @@ public class Cache {
      * @return 1 表示 key 不存在，0 表示 key 存在
      */
     public Long setnx(Object key, Object value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.setnx(keyToBytes(key), valueToBytes(value));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.setnx(keyToBytes(key), valueToBytes(value)));
     }
 
     /**
@@ -111,22 +151,14 @@ public class Cache {
      * 如果 key 已经存在， SETEX 命令将覆写旧值。
      */
     public String setex(Object key, long seconds, Object value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.setex(keyToBytes(key), seconds, valueToBytes(value));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.setex(keyToBytes(key), seconds, valueToBytes(value)));
     }
 
     /**
      * psetex 与 setex 功能相同，但是生存时间为 milliseconds (以毫秒为单位)。
      */
     public String psetex(Object key, long milliseconds, Object value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.psetex(keyToBytes(key), milliseconds, valueToBytes(value));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.psetex(keyToBytes(key), milliseconds, valueToBytes(value)));
     }
 
     /**
@@ -135,11 +167,7 @@ public class Cache {
      */
     @SuppressWarnings("unchecked")
     public <T> T get(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return (T)valueFromBytes(jedis.get(keyToBytes(key)));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> (T)valueFromBytes(jedis.get(keyToBytes(key))));
     }
 
     /**
@@ -147,11 +175,7 @@ public class Cache {
      * 不存在的 key 会被忽略。
      */
     public Long del(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.del(keyToBytes(key));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.del(keyToBytes(key)));
     }
 
     /**
@@ -159,11 +183,7 @@ public class Cache {
      * 不存在的 key 会被忽略。
      */
     public Long del(Object... keys) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.del(keysToBytesArray(keys));
-        }
-        finally {close(jedis);}
+        return call(firstKey(keys), jedis -> jedis.del(keysToBytesArray(keys)));
     }
 
     /**
@@ -173,6 +193,7 @@ public class Cache {
      * KEYS h*llo 匹配 hllo 和 heeeeello 等。
      * KEYS h[ae]llo 匹配 hello 和 hallo ，但不匹配 hillo 。
      * 特殊符号用 \ 隔开
+     * 注意：KEYS 会阻塞 redis 直到遍历完所有 key，生产环境中建议使用 scanner(pattern)
      */
     public Set<String> keys(String pattern) {
         Jedis jedis = getJedis();
@@ -196,8 +217,7 @@ public class Cache {
     public String mset(Object... keysValues) {
         if (keysValues.length % 2 != 0)
             throw new IllegalArgumentException("wrong number of arguments for mset, keysValues length can not be odd");
-        Jedis jedis = getJedis();
-        try {
+        return call(firstKey(keysValues), jedis -> {
             byte[][] kv = new byte[keysValues.length][];
             for (int i=0; i<keysValues.length; i++) {
                 if (i % 2 == 0)
@@ -206,8 +226,7 @@ public class Cache {
                     kv[i] = valueToBytes(keysValues[i]);
             }
             return jedis.mset(kv);
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -218,8 +237,7 @@ public class Cache {
     public Long msetnx(Object... keysValues) {
         if (keysValues.length % 2 != 0)
             throw new IllegalArgumentException("wrong number of arguments for msetnx, keysValues length can not be odd");
-        Jedis jedis = getJedis();
-        try {
+        return call(firstKey(keysValues), jedis -> {
             byte[][] kv = new byte[keysValues.length][];
             for (int i=0; i<keysValues.length; i++) {
                 if (i % 2 == 0)
@@ -228,8 +246,7 @@ public class Cache {
                     kv[i] = valueToBytes(keysValues[i]);
             }
             return jedis.msetnx(kv);
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -238,13 +255,22 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public List mget(Object... keys) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(firstKey(keys), jedis -> {
             byte[][] keysBytesArray = keysToBytesArray(keys);
             List<byte[]> data = jedis.mget(keysBytesArray);
             return valueListFromBytesList(data);
+        });
+    }
+
+    /**
+     * 与 mget 相同，参数为不经过 IKeyNamingPolicy 处理的原始 redis key，返回未经 ISerializer 处理的 value，
+     * 用于自行序列化的场景，ClusterCache 中按 hash slot 拆分
+     */
+    public List<byte[]> mgetBytes(byte[]... keys) {
+        if (keys.length == 0) {
+            return new ArrayList<byte[]>();
         }
-        finally {close(jedis);}
+        return callReadByRedisKey(SafeEncoder.encode(keys[0]), jedis -> jedis.mget(keys));
     }
 
     /**
@@ -255,11 +281,7 @@ public class Cache {
      * 关于递增(increment) / 递减(decrement)操作的更多信息，请参见 INCR 命令。
      */
     public Long decr(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.decr(keyToBytes(key));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.decr(keyToBytes(key)));
     }
 
     /**
@@ -270,11 +292,7 @@ public class Cache {
      * 关于更多递增(increment) / 递减(decrement)操作的更多信息，请参见 INCR 命令。
      */
     public Long decrBy(Object key, long longValue) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.decrBy(keyToBytes(key), longValue);
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.decrBy(keyToBytes(key), longValue));
     }
 
     /**
@@ -284,23 +302,17 @@ public class Cache {
      * 本操作的值限制在 64 位(bit)有符号数字表示之内。
      */
     public Long incr(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.incr(keyToBytes(key));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.incr(keyToBytes(key)));
     }
 
     /**
      * 获取记数器的值
      */
     public Long getCounter(Object key) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(key, jedis -> {
             String ret = (String)jedis.get(keyNamingPolicy.getKeyName(key));
             return ret != null ? Long.parseLong(ret) : null;
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -311,22 +323,14 @@ public class Cache {
      * 关于递增(increment) / 递减(decrement)操作的更多信息，参见 INCR 命令。
      */
     public Long incrBy(Object key, long longValue) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.incrBy(keyToBytes(key), longValue);
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.incrBy(keyToBytes(key), longValue));
     }
 
     /**
      * 检查给定 key 是否存在。
      */
     public boolean exists(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.exists(keyToBytes(key));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.exists(keyToBytes(key)));
     }
 
     /**
@@ -346,11 +350,7 @@ public class Cache {
      * 当 newkey 已经存在时， RENAME 命令将覆盖旧值。
      */
     public String rename(Object oldkey, Object newkey) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.rename(keyToBytes(oldkey), keyToBytes(newkey));
-        }
-        finally {close(jedis);}
+        return call(oldkey, jedis -> jedis.rename(keyToBytes(oldkey), keyToBytes(newkey)));
     }
 
     /**
@@ -358,11 +358,7 @@ public class Cache {
      * 修改成功时，返回 1 ； 如果 newkey 已经存在，返回 0
      */
     public Long renamenx(Object oldkey, Object newkey) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.renamenx(keyToBytes(oldkey), keyToBytes(newkey));
-        }
-        finally {close(jedis);}
+        return call(oldkey, jedis -> jedis.renamenx(keyToBytes(oldkey), keyToBytes(newkey)));
     }
 
     /**
@@ -371,22 +367,14 @@ public class Cache {
      * 因此，也可以利用这一特性，将 MOVE 当作锁(locking)原语(primitive)。
      */
     public Long move(Object key, int dbIndex) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.move(keyToBytes(key), dbIndex);
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.move(keyToBytes(key), dbIndex));
     }
 
     /**
      * 将 key 原子性地从当前实例传送到目标实例的指定数据库上，一旦传送成功， key 保证会出现在目标实例上，而当前实例上的 key 会被删除。
      */
     public String migrate(String host, int port, Object key, int destinationDb, int timeout) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.migrate(host, port, keyToBytes(key), destinationDb, timeout);
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.migrate(host, port, keyToBytes(key), destinationDb, timeout));
     }
 
     /**
@@ -411,44 +399,28 @@ public class Cache {
      * 在 Redis 中，带有生存时间的 key 被称为『易失的』(volatile)。
      */
     public Long expire(Object key, long seconds) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.expire(keyToBytes(key), seconds);
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.expire(keyToBytes(key), seconds));
     }
 
     /**
      * EXPIREAT 的作用和 EXPIRE 类似，都用于为 key 设置生存时间。不同在于 EXPIREAT 命令接受的时间参数是 UNIX 时间戳(unix timestamp)。
      */
     public Long expireAt(Object key, long unixTime) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.expireAt(keyToBytes(key), unixTime);
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.expireAt(keyToBytes(key), unixTime));
     }
 
     /**
      * 这个命令和 EXPIRE 命令的作用类似，但是它以毫秒为单位设置 key 的生存时间，而不像 EXPIRE 命令那样，以秒为单位。
      */
     public Long pexpire(Object key, long milliseconds) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.pexpire(keyToBytes(key), milliseconds);
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.pexpire(keyToBytes(key), milliseconds));
     }
 
     /**
      * 这个命令和 EXPIREAT 命令类似，但它以毫秒为单位设置 key 的过期 unix 时间戳，而不是像 EXPIREAT 那样，以秒为单位。
      */
     public Long pexpireAt(Object key, long millisecondsTimestamp) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.pexpireAt(keyToBytes(key), millisecondsTimestamp);
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.pexpireAt(keyToBytes(key), millisecondsTimestamp));
     }
 
     /**
@@ -457,77 +429,49 @@ public class Cache {
      */
     @SuppressWarnings("unchecked")
     public <T> T getSet(Object key, Object value) {
-        Jedis jedis = getJedis();
-        try {
-            return (T)valueFromBytes(jedis.getSet(keyToBytes(key), valueToBytes(value)));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> (T)valueFromBytes(jedis.getSet(keyToBytes(key), valueToBytes(value))));
     }
 
     /**
      * 移除给定 key 的生存时间，将这个 key 从『易失的』(带生存时间 key )转换成『持久的』(一个不带生存时间、永不过期的 key )。
      */
     public Long persist(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.persist(keyToBytes(key));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.persist(keyToBytes(key)));
     }
 
     /**
      * 返回 key 所储存的值的类型。
      */
     public String type(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.type(keyToBytes(key));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.type(keyToBytes(key)));
     }
 
     /**
      * 以秒为单位，返回给定 key 的剩余生存时间(TTL, time to live)。
      */
     public Long ttl(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.ttl(keyToBytes(key));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.ttl(keyToBytes(key)));
     }
 
     /**
      * 这个命令类似于 TTL 命令，但它以毫秒为单位返回 key 的剩余生存时间，而不是像 TTL 命令那样，以秒为单位。
      */
     public Long pttl(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.pttl(keyToBytes(key));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.pttl(keyToBytes(key)));
     }
 
     /**
      * 对象被引用的数量
      */
     public Long objectRefcount(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.objectRefcount(keyToBytes(key));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.objectRefcount(keyToBytes(key)));
     }
 
     /**
      * 对象没有被访问的空闲时间
      */
     public Long objectIdletime(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.objectIdletime(keyToBytes(key));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.objectIdletime(keyToBytes(key)));
     }
 
     /**
@@ -536,11 +480,7 @@ public class Cache {
      * 如果域 field 已经存在于哈希表中，旧值将被覆盖。
      */
     public Long hset(Object key, Object field, Object value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hset(keyToBytes(key), fieldToBytes(field), valueToBytes(value));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.hset(keyToBytes(key), fieldToBytes(field), valueToBytes(value)));
     }
 
     /**
@@ -549,14 +489,12 @@ public class Cache {
      * 如果 key 不存在，一个空哈希表被创建并执行 HMSET 操作。
      */
     public String hmset(Object key, Map<Object, Object> hash) {
-        Jedis jedis = getJedis();
-        try {
+        return call(key, jedis -> {
             Map<byte[], byte[]> para = new HashMap<byte[], byte[]>();
             for (Entry<Object, Object> e : hash.entrySet())
                 para.put(fieldToBytes(e.getKey()), valueToBytes(e.getValue()));
             return jedis.hmset(keyToBytes(key), para);
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -564,11 +502,7 @@ public class Cache {
      */
     @SuppressWarnings("unchecked")
     public <T> T hget(Object key, Object field) {
-        Jedis jedis = getJedis();
-        try {
-            return (T)valueFromBytes(jedis.hget(keyToBytes(key), fieldToBytes(field)));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> (T)valueFromBytes(jedis.hget(keyToBytes(key), fieldToBytes(field))));
     }
 
     /**
@@ -578,34 +512,24 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public List hmget(Object key, Object... fields) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(key, jedis -> {
             List<byte[]> data = jedis.hmget(keyToBytes(key), fieldsToBytesArray(fields));
             return valueListFromBytesList(data);
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
      * 删除哈希表 key 中的一个或多个指定域，不存在的域将被忽略。
      */
     public Long hdel(Object key, Object... fields) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hdel(keyToBytes(key), fieldsToBytesArray(fields));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.hdel(keyToBytes(key), fieldsToBytesArray(fields)));
     }
 
     /**
      * 查看哈希表 key 中，给定域 field 是否存在。
      */
     public boolean hexists(Object key, Object field) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hexists(keyToBytes(key), fieldToBytes(field));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.hexists(keyToBytes(key), fieldToBytes(field)));
     }
 
     /**
@@ -614,8 +538,7 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public Map hgetAll(Object key) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(key, jedis -> {
             Map<byte[], byte[]> data = jedis.hgetAll(keyToBytes(key));
             Map<Object, Object> result = new HashMap<Object, Object>();
             if (data == null) {
@@ -626,8 +549,7 @@ public class Cache {
                 result.put(fieldFromBytes(e.getKey()), valueFromBytes(e.getValue()));
             }
             return result;
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -635,12 +557,10 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public List hvals(Object key) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(key, jedis -> {
             List<byte[]> data = jedis.hvals(keyToBytes(key));
             return valueListFromBytesList(data);
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -648,25 +568,19 @@ public class Cache {
      * 底层实现此方法取名为 hfields 更为合适，在此仅为与底层保持一致
      */
     public Set<Object> hkeys(Object key) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(key, jedis -> {
             Set<byte[]> fieldSet = jedis.hkeys(keyToBytes(key));
             Set<Object> result = new HashSet<Object>();
             fieldSetFromBytesSet(fieldSet, result);
             return result;
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
      * 返回哈希表 key 中域的数量。
      */
     public Long hlen(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hlen(keyToBytes(key));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.hlen(keyToBytes(key)));
     }
 
     /**
@@ -678,23 +592,17 @@ public class Cache {
      * 本操作的值被限制在 64 位(bit)有符号数字表示之内。
      */
     public Long hincrBy(Object key, Object field, long value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hincrBy(keyToBytes(key), fieldToBytes(field), value);
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.hincrBy(keyToBytes(key), fieldToBytes(field), value));
     }
 
     /**
      * 获取哈希表内记数器的值
      */
     public Long hgetCounter(Object key, Object field) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(key, jedis -> {
             byte[] ret = jedis.hget(keyToBytes(key), fieldToBytes(field));
             return ret != null ? Long.parseLong(SafeEncoder.encode(ret)) : null;
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -707,20 +615,14 @@ public class Cache {
      * HINCRBYFLOAT 命令的详细功能和 INCRBYFLOAT 命令类似，请查看 INCRBYFLOAT 命令获取更多相关信息。
      */
     public Double hincrByFloat(Object key, Object field, double value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.hincrByFloat(keyToBytes(key), fieldToBytes(field), value);
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.hincrByFloat(keyToBytes(key), fieldToBytes(field), value));
     }
 
     public Double hgetFloatCounter(Object key, Object field) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(key, jedis -> {
             byte[] ret = jedis.hget(keyToBytes(key), fieldToBytes(field));
             return ret != null ? Double.parseDouble(SafeEncoder.encode(ret)) : null;
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -739,11 +641,7 @@ public class Cache {
      * 如果 key 不是列表类型，返回一个错误。
      */
     public <T> T lindex(Object key, long index) {
-        Jedis jedis = getJedis();
-        try {
-            return (T)valueFromBytes(jedis.lindex(keyToBytes(key), index));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> (T)valueFromBytes(jedis.lindex(keyToBytes(key), index)));
     }
 
     /**
@@ -752,11 +650,7 @@ public class Cache {
      * 如果 key 不是列表类型，返回一个错误。
      */
     public Long llen(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.llen(keyToBytes(key));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.llen(keyToBytes(key)));
     }
 
     /**
@@ -764,11 +658,7 @@ public class Cache {
      */
     @SuppressWarnings("unchecked")
     public <T> T lpop(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return (T)valueFromBytes(jedis.lpop(keyToBytes(key)));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> (T)valueFromBytes(jedis.lpop(keyToBytes(key))));
     }
 
     /**
@@ -780,11 +670,7 @@ public class Cache {
      * 当 key 存在但不是列表类型时，返回一个错误。
      */
     public Long lpush(Object key, Object... values) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.lpush(keyToBytes(key), valuesToBytesArray(values));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.lpush(keyToBytes(key), valuesToBytesArray(values)));
     }
 
     /**
@@ -792,11 +678,7 @@ public class Cache {
      * 和 LPUSH key value [value …] 命令相反，当 key 不存在时， LPUSHX 命令什么也不做。
      */
     public Long lpushx(Object key, Object... values) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.lpushx(keyToBytes(key), valuesToBytesArray(values));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.lpushx(keyToBytes(key), valuesToBytesArray(values)));
     }
 
     /**
@@ -805,11 +687,7 @@ public class Cache {
      * 关于列表下标的更多信息，请参考 LINDEX 命令。
      */
     public String lset(Object key, long index, Object value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.lset(keyToBytes(key), index, valueToBytes(value));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.lset(keyToBytes(key), index, valueToBytes(value)));
     }
 
     /**
@@ -820,11 +698,7 @@ public class Cache {
      * count = 0 : 移除表中所有与 value 相等的值。
      */
     public Long lrem(Object key, long count, Object value) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.lrem(keyToBytes(key), count, valueToBytes(value));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.lrem(keyToBytes(key), count, valueToBytes(value)));
     }
 
     /**
@@ -839,16 +713,14 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public List lrange(Object key, long start, long end) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(key, jedis -> {
             List<byte[]> data = jedis.lrange(keyToBytes(key), start, end);
             if (data != null) {
                 return valueListFromBytesList(data);
             } else {
                 return new ArrayList<byte[]>(0);
             }
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -859,11 +731,7 @@ public class Cache {
      * 当 key 不是列表类型时，返回一个错误。
      */
     public String ltrim(Object key, long start, long end) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.ltrim(keyToBytes(key), start, end);
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.ltrim(keyToBytes(key), start, end));
     }
 
     /**
@@ -871,11 +739,7 @@ public class Cache {
      */
     @SuppressWarnings("unchecked")
     public <T> T rpop(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return (T)valueFromBytes(jedis.rpop(keyToBytes(key)));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> (T)valueFromBytes(jedis.rpop(keyToBytes(key))));
     }
 
     /**
@@ -885,11 +749,7 @@ public class Cache {
      */
     @SuppressWarnings("unchecked")
     public <T> T rpoplpush(Object srcKey, Object dstKey) {
-        Jedis jedis = getJedis();
-        try {
-            return (T)valueFromBytes(jedis.rpoplpush(keyToBytes(srcKey), keyToBytes(dstKey)));
-        }
-        finally {close(jedis);}
+        return call(srcKey, jedis -> (T)valueFromBytes(jedis.rpoplpush(keyToBytes(srcKey), keyToBytes(dstKey))));
     }
 
     /**
@@ -901,11 +761,7 @@ public class Cache {
      * 当 key 存在但不是列表类型时，返回一个错误。
      */
     public Long rpush(Object key, Object... values) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.rpush(keyToBytes(key), valuesToBytesArray(values));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.rpush(keyToBytes(key), valuesToBytesArray(values)));
     }
 
     /**
@@ -913,11 +769,7 @@ public class Cache {
      * 和 RPUSH key value [value …] 命令相反，当 key 不存在时， RPUSHX 命令什么也不做。
      */
     public Long rpushx(Object key, Object... values) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.rpushx(keyToBytes(key), valuesToBytesArray(values));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.rpushx(keyToBytes(key), valuesToBytesArray(values)));
     }
 
     /**
@@ -930,12 +782,12 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public List blpop(int timeout, Object... keys) {
-        Jedis jedis = getJedis();
+        Jedis jedis = getBlockingJedis(firstKey(keys));
         try {
             List<byte[]> data = jedis.blpop(timeout, keysToBytesArray(keys));
             return keyValueListFromBytesList(data);
         }
-        finally {close(jedis);}
+        finally {closeBlocking(jedis);}
     }
 
     /**
@@ -949,12 +801,12 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public List brpop(int timeout, Object... keys) {
-        Jedis jedis = getJedis();
+        Jedis jedis = getBlockingJedis(firstKey(keys));
         try {
             List<byte[]> data = jedis.brpop(timeout, keysToBytesArray(keys));
             return keyValueListFromBytesList(data);
         }
-        finally {close(jedis);}
+        finally {closeBlocking(jedis);}
     }
 
     /**
@@ -975,22 +827,14 @@ public class Cache {
      * 当 key 不是集合类型时，返回一个错误。
      */
     public Long sadd(Object key, Object... members) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.sadd(keyToBytes(key), valuesToBytesArray(members));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.sadd(keyToBytes(key), valuesToBytesArray(members)));
     }
 
     /**
      * 返回集合 key 的基数(集合中元素的数量)。
      */
     public Long scard(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.scard(keyToBytes(key));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.scard(keyToBytes(key)));
     }
 
     /**
@@ -999,11 +843,7 @@ public class Cache {
      */
     @SuppressWarnings("unchecked")
     public <T> T spop(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return (T)valueFromBytes(jedis.spop(keyToBytes(key)));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> (T)valueFromBytes(jedis.spop(keyToBytes(key))));
     }
 
     /**
@@ -1012,25 +852,19 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public Set smembers(Object key) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(key, jedis -> {
             Set<byte[]> data = jedis.smembers(keyToBytes(key));
             Set<Object> result = new HashSet<Object>();
             valueSetFromBytesSet(data, result);
             return result;
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
      * 判断 member 元素是否集合 key 的成员。
      */
     public boolean sismember(Object key, Object member) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.sismember(keyToBytes(key), valueToBytes(member));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.sismember(keyToBytes(key), valueToBytes(member)));
     }
 
     /**
@@ -1038,14 +872,12 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public Set sinter(Object... keys) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(firstKey(keys), jedis -> {
             Set<byte[]> data = jedis.sinter(keysToBytesArray(keys));
             Set<Object> result = new HashSet<Object>();
             valueSetFromBytesSet(data, result);
             return result;
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -1053,11 +885,7 @@ public class Cache {
      */
     @SuppressWarnings("unchecked")
     public <T> T srandmember(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return (T)valueFromBytes(jedis.srandmember(keyToBytes(key)));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> (T)valueFromBytes(jedis.srandmember(keyToBytes(key))));
     }
 
     /**
@@ -1070,23 +898,17 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public List srandmember(Object key, int count) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(key, jedis -> {
             List<byte[]> data = jedis.srandmember(keyToBytes(key), count);
             return valueListFromBytesList(data);
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
      * 移除集合 key 中的一个或多个 member 元素，不存在的 member 元素会被忽略。
      */
     public Long srem(Object key, Object... members) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.srem(keyToBytes(key), valuesToBytesArray(members));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.srem(keyToBytes(key), valuesToBytesArray(members)));
     }
 
     /**
@@ -1095,14 +917,12 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public Set sunion(Object... keys) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(firstKey(keys), jedis -> {
             Set<byte[]> data = jedis.sunion(keysToBytesArray(keys));
             Set<Object> result = new HashSet<Object>();
             valueSetFromBytesSet(data, result);
             return result;
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -1111,14 +931,12 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public Set sdiff(Object... keys) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(firstKey(keys), jedis -> {
             Set<byte[]> data = jedis.sdiff(keysToBytesArray(keys));
             Set<Object> result = new HashSet<Object>();
             valueSetFromBytesSet(data, result);
             return result;
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -1127,33 +945,23 @@ public class Cache {
      * 并通过重新插入这个 member 元素，来保证该 member 在正确的位置上。
      */
     public Long zadd(Object key, double score, Object member) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zadd(keyToBytes(key), score, valueToBytes(member));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.zadd(keyToBytes(key), score, valueToBytes(member)));
     }
 
     public Long zadd(Object key, Map<Object, Double> scoreMembers) {
-        Jedis jedis = getJedis();
-        try {
+        return call(key, jedis -> {
             Map<byte[], Double> para = new HashMap<byte[], Double>();
             for (Entry<Object, Double> e : scoreMembers.entrySet())
                 para.put(valueToBytes(e.getKey()), e.getValue());	// valueToBytes is important
             return jedis.zadd(keyToBytes(key), para);
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
      * 返回有序集 key 的基数。
      */
     public Long zcard(Object key) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zcard(keyToBytes(key));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.zcard(keyToBytes(key)));
     }
 
     /**
@@ -1161,22 +969,14 @@ public class Cache {
      * 关于参数 min 和 max 的详细使用方法，请参考 ZRANGEBYSCORE 命令。
      */
     public Long zcount(Object key, double min, double max) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zcount(keyToBytes(key), min, max);
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.zcount(keyToBytes(key), min, max));
     }
 
     /**
      * 为有序集 key 的成员 member 的 score 值加上增量 increment 。
      */
     public Double zincrby(Object key, double score, Object member) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zincrby(keyToBytes(key), score, valueToBytes(member));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.zincrby(keyToBytes(key), score, valueToBytes(member)));
     }
 
     /**
@@ -1187,14 +987,12 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public List zrange(Object key, long start, long end) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(key, jedis -> {
             List<byte[]> data = jedis.zrange(keyToBytes(key), start, end);
             List<Object> result = new ArrayList<>();
             valueSetFromBytesSet(data, result);
             return result;
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -1205,14 +1003,12 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public List zrevrange(Object key, long start, long end) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(key, jedis -> {
             List<byte[]> data = jedis.zrevrange(keyToBytes(key), start, end);
             List<Object> result = new ArrayList<>();
             valueSetFromBytesSet(data, result);
             return result;
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -1221,14 +1017,12 @@ public class Cache {
      */
     @SuppressWarnings("rawtypes")
     public List zrangeByScore(Object key, double min, double max) {
-        Jedis jedis = getJedis();
-        try {
+        return callRead(key, jedis -> {
             List<byte[]> data = jedis.zrangeByScore(keyToBytes(key), min, max);
             List<Object> result = new ArrayList<>();
             valueSetFromBytesSet(data, result);
             return result;
-        }
-        finally {close(jedis);}
+        });
     }
 
     /**
@@ -1237,11 +1031,7 @@ public class Cache {
      * 使用 ZREVRANK 命令可以获得成员按 score 值递减(从大到小)排列的排名。
      */
     public Long zrank(Object key, Object member) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zrank(keyToBytes(key), valueToBytes(member));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.zrank(keyToBytes(key), valueToBytes(member)));
     }
 
     /**
@@ -1250,11 +1040,7 @@ public class Cache {
      * 使用 ZRANK 命令可以获得成员按 score 值递增(从小到大)排列的排名。
      */
     public Long zrevrank(Object key, Object member) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zrevrank(keyToBytes(key), valueToBytes(member));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.zrevrank(keyToBytes(key), valueToBytes(member)));
     }
 
     /**
@@ -1262,11 +1048,7 @@ public class Cache {
      * 当 key 存在但不是有序集类型时，返回一个错误。
      */
     public Long zrem(Object key, Object... members) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zrem(keyToBytes(key), valuesToBytesArray(members));
-        }
-        finally {close(jedis);}
+        return call(key, jedis -> jedis.zrem(keyToBytes(key), valuesToBytesArray(members)));
     }
 
     /**
@@ -1274,11 +1056,7 @@ public class Cache {
      * 如果 member 元素不是有序集 key 的成员，或 key 不存在，返回 nil 。
      */
     public Double zscore(Object key, Object member) {
-        Jedis jedis = getJedis();
-        try {
-            return jedis.zscore(keyToBytes(key), valueToBytes(member));
-        }
-        finally {close(jedis);}
+        return callRead(key, jedis -> jedis.zscore(keyToBytes(key), valueToBytes(member)));
     }
 
     /**
@@ -1310,17 +1088,18 @@ public class Cache {
      *    重要：订阅后代码会阻塞监听发布的内容<br/>
      */
     public void subscribe(final JedisPubSub jedisPubSub, final String... channels) {
-        Jedis jedis = getJedis();
+        Jedis jedis = getBlockingJedis(null);
         try {
             jedis.subscribe(jedisPubSub, channels);
         }
-        finally {close(jedis);}
+        finally {closeBlocking(jedis);}
     }
 
     /**
      * subscribe channel [channel …] 订阅一个或多个频道<br/>
      * PS：<br/>
      *    取消订阅在 jedisPubSub 中的 unsubscribe 方法。<br/>
+     *    每次调用占用一个连接与一个线程，订阅多个频道时建议使用 getSubscriber()<br/>
      */
     public JedisPubSub subscribeThread(final JedisPubSub jedisPubSub, final String... channels) {
         new Thread(() -> subscribe(jedisPubSub, channels)).start();
@@ -1334,17 +1113,18 @@ public class Cache {
      *     重要：订阅后代码会阻塞监听发布的内容<br/>
      */
     public void psubscribe(final JedisPubSub jedisPubSub, final String... patterns) {
-        Jedis jedis = getJedis();
+        Jedis jedis = getBlockingJedis(null);
         try {
             jedis.psubscribe(jedisPubSub, patterns);
         }
-        finally {close(jedis);}
+        finally {closeBlocking(jedis);}
     }
 
     /**
      * psubscribe pattern [pattern …] 订阅给定模式相匹配的所有频道<br/>
      * PS：<br/>
      *     取消订阅在 jedisPubSub 中的 punsubscribe 方法。<br/>
+     *     每次调用占用一个连接与一个线程，订阅多个模式时建议使用 getSubscriber()<br/>
      */
     public JedisPubSub psubscribeThread(final JedisPubSub jedisPubSub, final String... patterns) {
         new Thread(() -> psubscribe(jedisPubSub, patterns)).start();
@@ -1434,6 +1214,130 @@ public class Cache {
         finally {close(jedis);}
     }
 
+    /**
+     * 创建 RedisPipeline，使用完毕后必须调用 close() 归还连接
+     * <pre>
+     * 例子：
+     * try (RedisPipeline p = Redis.use().pipeline()) {
+     *     CompletableFuture<User> user = p.get("user:1");
+     *     CompletableFuture<Long> pv = p.incr("pv");
+     *     p.sync();
+     *     ...
+     * }
+     * </pre>
+     */
+    public RedisPipeline pipeline() {
+        return new RedisPipeline(this);
+    }
+
+    /**
+     * 在一次网络往返中执行 pipeline 中添加的所有命令，返回按命令顺序排列的结果
+     * <pre>
+     * 例子：
+     * List<Object> ret = Redis.use().pipelined(p -> {
+     *     p.get("user:1");
+     *     p.hgetAll("profile:1");
+     * });
+     * </pre>
+     */
+    public List<Object> pipelined(Consumer<RedisPipeline> commands) {
+        try (RedisPipeline p = pipeline()) {
+            commands.accept(p);
+            return p.sync();
+        }
+    }
+
+    /**
+     * 将并发的 GET 合并为 MGET，参考 MgetBatcher
+     */
+    public MgetBatcher getMgetBatcher() {
+        MgetBatcher ret = mgetBatcher;
+        if (ret == null) {
+            synchronized (this) {
+                ret = mgetBatcher;
+                if (ret == null) {
+                    ret = new MgetBatcher(this);
+                    mgetBatcher = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
+    public void setMgetBatcher(MgetBatcher mgetBatcher) {
+        this.mgetBatcher = mgetBatcher;
+    }
+
+    /**
+     * 通过 pub/sub 等待锁释放的分布式锁，参考 RedisLock
+     */
+    public RedisLock getRedisLock() {
+        RedisLock ret = redisLock;
+        if (ret == null) {
+            synchronized (this) {
+                ret = redisLock;
+                if (ret == null) {
+                    ret = new RedisLock(this);
+                    redisLock = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 在一个连接上复用所有订阅的 RedisSubscriber
+     */
+    public RedisSubscriber getSubscriber() {
+        RedisSubscriber ret = subscriber;
+        if (ret == null) {
+            synchronized (this) {
+                ret = subscriber;
+                if (ret == null) {
+                    ret = new RedisSubscriber(this);
+                    subscriber = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 配置阻塞命令（blpop、brpop、subscribe、psubscribe）与订阅连接使用的独立连接池，
+     * 避免长时间占用的连接耗尽处理普通命令的连接池。由 RedisPlugin.setBlockingPoolSize(...) 配置
+     */
+    public void setBlockingPool(Pool<Jedis> blockingPool) {
+        this.blockingPool = blockingPool;
+    }
+
+    public Pool<Jedis> getBlockingPool() {
+        return blockingPool;
+    }
+
+    /**
+     * 获取独占连接用于订阅等长时间占用连接的操作，不使用当前线程绑定的 Jedis，
+     * 用完后调用 jedis.close() 归还
+     */
+    public Jedis getDedicatedJedis() {
+        Pool<Jedis> pool = blockingPool;
+        return pool != null ? pool.getResource() : jedisPool.getResource();
+    }
+
+    protected Jedis getBlockingJedis(Object key) {
+        if (blockingPool != null) {
+            return blockingPool.getResource();
+        }
+        return key != null ? getJedis(key) : getJedis();
+    }
+
+    protected void closeBlocking(Jedis jedis) {
+        if (blockingPool != null) {
+            jedis.close();
+        } else {
+            close(jedis);
+        }
+    }
+
     // ---------
 
     protected byte[] keyToBytes(Object key) {
@@ -1531,6 +1435,25 @@ public class Cache {
         return jedis != null ? jedis : jedisPool.getResource();
     }
 
+    /**
+     * 获取 key 所在节点的 Jedis，单节点与 sentinel 模式下与 getJedis() 相同，
+     * ClusterCache 中按 hash slot 路由
+     */
+    public Jedis getJedis(Object key) {
+        return getJedis();
+    }
+
+    /**
+     * 与 getJedis(Object key) 相同，参数为不经过 IKeyNamingPolicy 处理的原始 redis key
+     */
+    public Jedis getJedisByRedisKey(String redisKey) {
+        return getJedis();
+    }
+
+    protected Object firstKey(Object[] keys) {
+        return keys.length > 0 ? keys[0] : null;
+    }
+
     public void close(Jedis jedis) {
         if (threadLocalJedis.get() == null && jedis != null)
             jedis.close();
@@ -1548,11 +1471,29 @@ public class Cache {
         threadLocalJedis.remove();
     }
 
+    /**
+     * 关闭连接池，由 RedisPlugin.stop() 调用
+     */
+    protected void destroy() {
+        if (redisLock != null) {
+            redisLock.stop();
+        }
+        if (subscriber != null) {
+            subscriber.stop();
+        }
+        if (blockingPool != null) {
+            blockingPool.destroy();
+        }
+        jedisPool.destroy();
+    }
+
     /**
      * 利用 set 方法实现锁
      *
      * SET resource-name anystring NX EX max-lock-time
      *
+     * 竞争激烈或需要 fencing token、可重入、自动续期时使用 getRedisLock()
+     *
      * <pre>
      * 例子：
      * String lockId = Redis.use().lock("lockStock", 120, 5)
@@ -1571,22 +1512,23 @@ public class Cache {
      * @return 获取锁成功则返回 lockId，否则返回 null。释放锁方法 unlock 必须传入正确的 lockId
      */
     public String lock(String name, int maxLockTime, double retryTime) {
-        Jedis jedis = getJedis();
-        try {
-            String lockId = java.util.UUID.randomUUID().toString();
-            SetParams setParams = new SetParams().nx().ex((long)maxLockTime);
-            long startTime = System.currentTimeMillis();
-            do {
+        String lockId = java.util.UUID.randomUUID().toString();
+        SetParams setParams = new SetParams().nx().ex((long)maxLockTime);
+        long startTime = System.currentTimeMillis();
+        do {
+            // 每次尝试单独获取连接，sleep 期间不占用连接池中的连接
+            Jedis jedis = getJedisByRedisKey(name);
+            try {
                 if ("OK".equals(jedis.set(name, lockId, setParams))) {
                     return lockId;
                 }
-                try {Thread.sleep(50);} catch (InterruptedException e) {break;}
-            } while (System.currentTimeMillis() - startTime < retryTime * 1000);
-            return null;
-        }
-        finally {
-            close(jedis);
-        }
+            }
+            finally {
+                close(jedis);
+            }
+            try {Thread.sleep(50);} catch (InterruptedException e) {break;}
+        } while (System.currentTimeMillis() - startTime < retryTime * 1000);
+        return null;
     }
 
     /**
@@ -1595,7 +1537,7 @@ public class Cache {
      * @param lockId 调用 lock(...) 方法成功获取锁时得到的返回值
      */
     public void unlock(String name, String lockId) {
-        Jedis jedis = getJedis();
+        Jedis jedis = getJedisByRedisKey(name);
         try {
             String value = jedis.get(name);
             if (value != null && value.equals(lockId)) {
@@ -1731,6 +1673,24 @@ public class Cache {
     public void scan(Integer cursor, F11<List<String>, Boolean> keyList) {
         scan(cursor, null, null, keyList);
     }
+
+    /**
+     * 基于 SCAN 的批量遍历、批量获取 value 以及批量删除，支持限速与进度，参考 RedisScanner
+     * <pre>
+     * 例子：
+     * long n = Redis.use().scanner("session:*").setRateLimit(20000).delete();
+     * </pre>
+     */
+    public RedisScanner scanner(String pattern) {
+        return new RedisScanner(this, pattern);
+    }
+
+    /**
+     * RedisScanner 需要遍历的主节点连接池，ClusterCache 中为所有主节点
+     */
+    protected List<Pool<Jedis>> getMasterPools() {
+        return Collections.singletonList(jedisPool);
+    }
 }
 
 
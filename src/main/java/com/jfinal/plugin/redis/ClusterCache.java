@@ -0,0 +1,677 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import com.jfinal.kit.LogKit;
+import com.jfinal.plugin.redis.serializer.ISerializer;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.Pool;
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * ClusterCache 使 Cache 的 API 运行于 Redis Cluster 之上
+ *
+ * <pre>
+ * 1：通过 CLUSTER SLOTS 获取 hash slot 与主节点的对应关系，每个主节点一个 JedisPool，
+ *    单 key 命令按 key 的 hash slot 路由到对应节点
+ *
+ * 2：mget、mgetBytes、del(keys...)、mset 按 hash slot 拆分，同一节点上的多个 slot 通过 pipeline 一次发送，
+ *    多个节点并行执行，结果按原顺序组装。跨 slot 的 mset 不是原子操作
+ *
+ * 3：其它多 key 命令（rename、sinter、blpop、msetnx 等）按第一个 key 路由，
+ *    所有 key 需要通过 hash tag 位于同一个 slot，例如 "{user:1}:profile"、"{user:1}:orders"
+ *
+ * 4：keys、flushDB、flushAll、scanner(...) 在所有主节点上执行，其它不带 key 的命令（eval、scan、subscribe、tx 等）
+ *    以及 RedisInterceptor 绑定的 Jedis 使用默认节点
+ *
+ * 5：每隔 refreshIntervalMillis 在后台刷新一次 slot 分布。按 key 路由的命令以及 mget、del、mset
+ *    遇到 MOVED 时立即刷新 slot 分布并重试，遇到 ASK 时向目标节点发送 ASKING 后重试，
+ *    最多执行 maxAttempts 次。重试期间 del 的返回值可能少于实际删除的数量
+ *
+ *    连接异常时命令可能已经执行，只有 get、mget 等只读命令（callRead）刷新 slot 分布后重试，
+ *    incr、lpush 等写命令只在命令发出之前（获取连接失败）重试，避免重复执行
+ *
+ * 6：keyspace notification 只在 key 所在节点发布，集群模式下 NearCache 主要依靠版本戳失效
+ *
+ * 例子：
+ * RedisPlugin rp = new RedisPlugin("main", "10.0.0.1:7000, 10.0.0.2:7000, 10.0.0.3:7000");
+ * rp.useCluster();
+ * </pre>
+ */
+public class ClusterCache extends Cache {
+
+	protected static final int SLOT_COUNT = 16384;
+
+	protected final JedisPoolConfig poolConfig;
+	protected final int timeout;
+	protected final String password;
+	protected final String clientName;
+
+	protected final Map<String, JedisPool> nodePools = new ConcurrentHashMap<>();
+	protected volatile String[] slotNodes = new String[SLOT_COUNT];
+
+	protected long refreshIntervalMillis = 5000;
+	protected final AtomicLong lastRefresh = new AtomicLong();
+	// 每次成功刷新 slot 分布后加一，用于合并并发的重定向触发的刷新
+	protected volatile long slotsVersion;
+	protected int maxAttempts = 5;
+	protected volatile ExecutorService executor;
+
+	/**
+	 * @param nodes 集群中部分或全部节点，格式为 "host:port"
+	 */
+	public ClusterCache(String name, Collection<String> nodes, JedisPoolConfig poolConfig, int timeout, String password, String clientName, ISerializer serializer, IKeyNamingPolicy keyNamingPolicy) {
+		if (nodes == null || nodes.isEmpty()) {
+			throw new IllegalArgumentException("nodes can not be empty");
+		}
+		this.name = name;
+		this.serializer = serializer;
+		this.keyNamingPolicy = keyNamingPolicy;
+		this.poolConfig = poolConfig;
+		this.timeout = timeout;
+		this.password = password;
+		this.clientName = clientName;
+
+		for (String node : nodes) {
+			getNodePool(node.trim());
+		}
+		refreshSlots();
+		this.jedisPool = nodePools.get(firstNode());
+	}
+
+	/**
+	 * slot 分布的刷新间隔，默认值 5000 毫秒
+	 */
+	public ClusterCache setRefreshIntervalMillis(long refreshIntervalMillis) {
+		if (refreshIntervalMillis < 1) {
+			throw new IllegalArgumentException("refreshIntervalMillis must more than 0");
+		}
+		this.refreshIntervalMillis = refreshIntervalMillis;
+		return this;
+	}
+
+	/**
+	 * 遇到 MOVED、ASK 与连接异常时命令的最大执行次数，默认值 5
+	 */
+	public ClusterCache setMaxAttempts(int maxAttempts) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must more than 0");
+		}
+		this.maxAttempts = maxAttempts;
+		return this;
+	}
+
+	/**
+	 * 多节点并行执行所使用的线程池，默认为按需创建的 daemon 线程池
+	 */
+	public ClusterCache setExecutor(ExecutorService executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("executor can not be null");
+		}
+		this.executor = executor;
+		return this;
+	}
+
+	protected ExecutorService getExecutor() {
+		ExecutorService ret = executor;
+		if (ret == null) {
+			synchronized (this) {
+				ret = executor;
+				if (ret == null) {
+					ret = Executors.newCachedThreadPool(r -> {
+						Thread t = new Thread(r, "ClusterCache-" + name);
+						t.setDaemon(true);
+						return t;
+					});
+					executor = ret;
+				}
+			}
+		}
+		return ret;
+	}
+
+	// ---------
+
+	/**
+	 * 创建节点连接池，可覆盖本方法接入测试替身
+	 */
+	protected JedisPool createPool(String host, int port) {
+		return new JedisPool(poolConfig, host, port, timeout, password, 0, clientName);
+	}
+
+	protected JedisPool getNodePool(String node) {
+		return nodePools.computeIfAbsent(node, k -> {
+			int index = k.lastIndexOf(':');
+			if (index <= 0) {
+				throw new IllegalArgumentException("node must be host:port : " + k);
+			}
+			return createPool(k.substring(0, index), Integer.parseInt(k.substring(index + 1).trim()));
+		});
+	}
+
+	protected String firstNode() {
+		for (String node : slotNodes) {
+			if (node != null) {
+				return node;
+			}
+		}
+		throw new IllegalStateException("No slot is served by the cluster");
+	}
+
+	/**
+	 * 依次从已知节点读取 CLUSTER SLOTS，直到成功
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void refreshSlots() {
+		RuntimeException last = null;
+		for (String node : new ArrayList<>(nodePools.keySet())) {
+			try (Jedis jedis = nodePools.get(node).getResource()) {
+				String[] slots = new String[SLOT_COUNT];
+				for (Object o : jedis.clusterSlots()) {
+					List<Object> range = (List<Object>)o;
+					int start = ((Long)range.get(0)).intValue();
+					int end = ((Long)range.get(1)).intValue();
+					List<Object> master = (List<Object>)range.get(2);
+					String host = SafeEncoder.encode((byte[])master.get(0));
+					if (host.isEmpty()) {
+						host = node.substring(0, node.lastIndexOf(':'));	// 节点未声明地址时与被查询节点相同
+					}
+					String owner = host + ":" + master.get(1);
+					getNodePool(owner);
+					Arrays.fill(slots, start, end + 1, owner);
+				}
+				slotNodes = slots;
+				slotsVersion++;
+				lastRefresh.set(System.currentTimeMillis());
+				return ;
+			} catch (RuntimeException e) {
+				last = e;
+			}
+		}
+		throw new IllegalStateException("Can not load cluster slots from nodes: " + nodePools.keySet(), last);
+	}
+
+	/**
+	 * 出现重定向或连接异常之后刷新 slot 分布，version 为执行命令之前的 slotsVersion，
+	 * 其它线程已完成刷新时不再重复刷新
+	 */
+	protected void refreshSlots(long version) {
+		synchronized (this) {
+			if (slotsVersion != version) {
+				return ;
+			}
+			try {
+				refreshSlots();
+			} catch (RuntimeException e) {
+				LogKit.error("ClusterCache refresh slots failed: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * 到达刷新间隔时由一个线程在后台刷新 slot 分布
+	 */
+	protected void checkRefresh() {
+		long now = System.currentTimeMillis();
+		long last = lastRefresh.get();
+		if (now - last >= refreshIntervalMillis && lastRefresh.compareAndSet(last, now)) {
+			getExecutor().execute(() -> {
+				try {
+					refreshSlots();
+				} catch (Exception e) {
+					LogKit.error("ClusterCache refresh slots failed: " + e.getMessage(), e);
+				}
+			});
+		}
+	}
+
+	protected String nodeOf(int slot) {
+		checkRefresh();
+		String ret = slotNodes[slot];
+		if (ret == null) {
+			refreshSlots();
+			ret = slotNodes[slot];
+			if (ret == null) {
+				throw new IllegalStateException("Slot " + slot + " is not served by any node");
+			}
+		}
+		return ret;
+	}
+
+	protected Set<String> masterNodes() {
+		Set<String> ret = new LinkedHashSet<>();
+		for (String node : slotNodes) {
+			if (node != null) {
+				ret.add(node);
+			}
+		}
+		return ret;
+	}
+
+	// ---------
+
+	/**
+	 * 按 key 的 hash slot 获取节点的 Jedis，不使用 RedisInterceptor 绑定的 Jedis
+	 */
+	public Jedis getJedis(Object key) {
+		return key != null ? getJedisByRedisKey(keyNamingPolicy.getKeyName(key)) : getJedis();
+	}
+
+	public Jedis getJedisByRedisKey(String redisKey) {
+		return getJedisBySlot(JedisClusterCRC16.getSlot(redisKey));
+	}
+
+	public Jedis getJedisBySlot(int slot) {
+		return nodePools.get(nodeOf(slot)).getResource();
+	}
+
+	public void close(Jedis jedis) {
+		if (jedis != null && jedis != threadLocalJedis.get()) {
+			jedis.close();
+		}
+	}
+
+	public <R> R call(Object key, Function<Jedis, R> jedis) {
+		return key != null ? callByRedisKey(keyNamingPolicy.getKeyName(key), jedis) : super.call(null, jedis);
+	}
+
+	public <R> R callByRedisKey(String redisKey, Function<Jedis, R> jedis) {
+		return callBySlot(JedisClusterCRC16.getSlot(redisKey), false, jedis);
+	}
+
+	public <R> R callRead(Object key, Function<Jedis, R> jedis) {
+		return key != null ? callReadByRedisKey(keyNamingPolicy.getKeyName(key), jedis) : super.call(null, jedis);
+	}
+
+	public <R> R callReadByRedisKey(String redisKey, Function<Jedis, R> jedis) {
+		return callBySlot(JedisClusterCRC16.getSlot(redisKey), true, jedis);
+	}
+
+	public <R> R callBySlot(int slot, Function<Jedis, R> command) {
+		return callBySlot(slot, false, command);
+	}
+
+	/**
+	 * 在 slot 所在节点执行命令。MOVED 时刷新 slot 分布后重试，
+	 * ASK 时 slot 正在迁移，向目标节点发送 ASKING 后重试，不刷新 slot 分布。
+	 * 连接异常时 readOnly 为 true 或者命令尚未发出才刷新 slot 分布后重试
+	 */
+	public <R> R callBySlot(int slot, boolean readOnly, Function<Jedis, R> command) {
+		String askNode = null;
+		for (int attempt = 1; ; attempt++) {
+			long version = slotsVersion;
+			Jedis jedis = null;
+			boolean sent = false;
+			try {
+				if (askNode != null) {
+					jedis = nodePools.get(askNode).getResource();
+					jedis.asking();
+				} else {
+					jedis = getJedisBySlot(slot);
+				}
+				sent = true;
+				return command.apply(jedis);
+			} catch (JedisAskDataException e) {
+				if (attempt >= maxAttempts) {
+					throw e;
+				}
+				askNode = e.getTargetNode().getHost() + ":" + e.getTargetNode().getPort();
+				getNodePool(askNode);
+			} catch (JedisRedirectionException e) {
+				if (attempt >= maxAttempts) {
+					throw e;
+				}
+				askNode = null;
+				refreshSlots(version);
+			} catch (JedisConnectionException e) {
+				if (attempt >= maxAttempts || (sent && !readOnly)) {
+					throw e;
+				}
+				askNode = null;
+				refreshSlots(version);
+			} finally {
+				close(jedis);
+			}
+		}
+	}
+
+	/**
+	 * 跨 slot 命令整体重试，ASK 同样通过刷新 slot 分布后重试，迁移未完成时最终抛出异常。
+	 * 连接异常时只有 readOnly 为 true 才重试
+	 */
+	protected <R> R retry(boolean readOnly, Supplier<R> command) {
+		for (int attempt = 1; ; attempt++) {
+			long version = slotsVersion;
+			try {
+				return command.get();
+			} catch (JedisRedirectionException e) {
+				if (attempt >= maxAttempts) {
+					throw e;
+				}
+				refreshSlots(version);
+			} catch (JedisConnectionException e) {
+				if (attempt >= maxAttempts || !readOnly) {
+					throw e;
+				}
+				refreshSlots(version);
+			}
+		}
+	}
+
+	public RedisPipeline pipeline() {
+		return new ClusterPipeline(this);
+	}
+
+	/**
+	 * 阻塞命令需要按 key 路由到所在节点，不支持独立的连接池
+	 */
+	public void setBlockingPool(Pool<Jedis> blockingPool) {
+		throw new IllegalStateException("ClusterCache does not support blocking pool");
+	}
+
+	protected void destroy() {
+		super.destroy();
+		for (JedisPool pool : nodePools.values()) {
+			if (pool != jedisPool) {
+				pool.destroy();
+			}
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	// ---------
+
+	@SuppressWarnings("rawtypes")
+	public List mget(Object... keys) {
+		return valueListFromBytesList(mgetBytes(keysToBytesArray(keys)));
+	}
+
+	public List<byte[]> mgetBytes(byte[]... keys) {
+		Map<String, Map<Integer, List<Integer>>> groups = groupByNode(keys);
+		if (groups.size() == 1 && groups.values().iterator().next().size() == 1) {
+			return super.mgetBytes(keys);
+		}
+
+		return retry(true, () -> {
+			byte[][] ret = new byte[keys.length][];
+			forEachNode(groupByNode(keys), (pipeline, slots) -> {
+				List<List<Integer>> indexes = new ArrayList<>(slots.values());
+				List<Response<List<byte[]>>> responses = new ArrayList<>(indexes.size());
+				for (List<Integer> idx : indexes) {
+					responses.add(pipeline.mget(select(keys, idx)));
+				}
+				pipeline.sync();
+				for (int i = 0; i < indexes.size(); i++) {
+					List<Integer> idx = indexes.get(i);
+					List<byte[]> data = responses.get(i).get();
+					for (int j = 0; j < idx.size(); j++) {
+						ret[idx.get(j)] = data.get(j);
+					}
+				}
+			});
+			return new ArrayList<>(Arrays.asList(ret));
+		});
+	}
+
+	public Long del(Object... keys) {
+		byte[][] kb = keysToBytesArray(keys);
+		Map<String, Map<Integer, List<Integer>>> groups = groupByNode(kb);
+		if (groups.size() <= 1 && (groups.isEmpty() || groups.values().iterator().next().size() == 1)) {
+			return super.del(keys);
+		}
+
+		return retry(false, () -> {
+			AtomicLong ret = new AtomicLong();
+			forEachNode(groupByNode(kb), (pipeline, slots) -> {
+				List<Response<Long>> responses = new ArrayList<>(slots.size());
+				for (List<Integer> idx : slots.values()) {
+					responses.add(pipeline.del(select(kb, idx)));
+				}
+				pipeline.sync();
+				for (Response<Long> r : responses) {
+					ret.addAndGet(r.get());
+				}
+			});
+			return ret.get();
+		});
+	}
+
+	public String mset(Object... keysValues) {
+		if (keysValues.length % 2 != 0)
+			throw new IllegalArgumentException("wrong number of arguments for mset, keysValues length can not be odd");
+		byte[][] kb = new byte[keysValues.length / 2][];
+		byte[][] vb = new byte[kb.length][];
+		for (int i = 0; i < kb.length; i++) {
+			kb[i] = keyToBytes(keysValues[i * 2]);
+			vb[i] = valueToBytes(keysValues[i * 2 + 1]);
+		}
+		Map<String, Map<Integer, List<Integer>>> groups = groupByNode(kb);
+		if (groups.size() <= 1 && (groups.isEmpty() || groups.values().iterator().next().size() == 1)) {
+			return super.mset(keysValues);
+		}
+
+		return retry(false, () -> {
+			forEachNode(groupByNode(kb), (pipeline, slots) -> {
+				List<Response<String>> responses = new ArrayList<>(slots.size());
+				for (List<Integer> idx : slots.values()) {
+					byte[][] kv = new byte[idx.size() * 2][];
+					for (int j = 0; j < idx.size(); j++) {
+						kv[j * 2] = kb[idx.get(j)];
+						kv[j * 2 + 1] = vb[idx.get(j)];
+					}
+					responses.add(pipeline.mset(kv));
+				}
+				pipeline.sync();
+				for (Response<String> r : responses) {
+					r.get();	// 抛出 MOVED 等错误
+				}
+			});
+			return "OK";
+		});
+	}
+
+	public Set<String> keys(String pattern) {
+		Set<String> ret = ConcurrentHashMap.newKeySet();
+		forEachMaster(jedis -> ret.addAll(jedis.keys(pattern)));
+		return new LinkedHashSet<>(ret);
+	}
+
+	protected List<Pool<Jedis>> getMasterPools() {
+		List<Pool<Jedis>> ret = new ArrayList<>();
+		for (String node : masterNodes()) {
+			ret.add(nodePools.get(node));
+		}
+		return ret;
+	}
+
+	public String flushDB() {
+		forEachMaster(Jedis::flushDB);
+		return "OK";
+	}
+
+	public String flushAll() {
+		forEachMaster(Jedis::flushAll);
+		return "OK";
+	}
+
+	// ---------
+
+	/**
+	 * 按节点、slot 两级分组，值为 key 在参数数组中的下标
+	 */
+	protected Map<String, Map<Integer, List<Integer>>> groupByNode(byte[][] keys) {
+		Map<String, Map<Integer, List<Integer>>> ret = new LinkedHashMap<>();
+		for (int i = 0; i < keys.length; i++) {
+			int slot = JedisClusterCRC16.getSlot(keys[i]);
+			ret.computeIfAbsent(nodeOf(slot), k -> new LinkedHashMap<>()).computeIfAbsent(slot, k -> new ArrayList<>()).add(i);
+		}
+		return ret;
+	}
+
+	protected static byte[][] select(byte[][] keys, List<Integer> indexes) {
+		byte[][] ret = new byte[indexes.size()][];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = keys[indexes.get(i)];
+		}
+		return ret;
+	}
+
+	/**
+	 * 每个节点使用一个连接与一个 pipeline 并行执行，最后一个节点在当前线程执行
+	 */
+	protected void forEachNode(Map<String, Map<Integer, List<Integer>>> groups, BiConsumer<Pipeline, Map<Integer, List<Integer>>> task) {
+		List<Runnable> runs = new ArrayList<>(groups.size());
+		for (Map.Entry<String, Map<Integer, List<Integer>>> e : groups.entrySet()) {
+			JedisPool pool = nodePools.get(e.getKey());
+			runs.add(() -> {
+				try (Jedis jedis = pool.getResource(); Pipeline pipeline = jedis.pipelined()) {
+					task.accept(pipeline, e.getValue());
+				}
+			});
+		}
+		runAll(runs);
+	}
+
+	protected void forEachMaster(Consumer<Jedis> task) {
+		List<Runnable> runs = new ArrayList<>();
+		for (String node : masterNodes()) {
+			JedisPool pool = nodePools.get(node);
+			runs.add(() -> {
+				try (Jedis jedis = pool.getResource()) {
+					task.accept(jedis);
+				}
+			});
+		}
+		runAll(runs);
+	}
+
+	protected void runAll(List<Runnable> runs) {
+		int n = runs.size();
+		if (n == 0) {
+			return ;
+		}
+
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[n - 1];
+		for (int i = 0; i < n - 1; i++) {
+			futures[i] = CompletableFuture.runAsync(runs.get(i), getExecutor());
+		}
+		RuntimeException error = null;
+		try {
+			runs.get(n - 1).run();
+		} catch (RuntimeException e) {
+			error = e;
+		}
+		for (CompletableFuture<?> f : futures) {
+			try {
+				f.join();
+			} catch (CompletionException e) {
+				if (error == null) {
+					error = e.getCause() instanceof RuntimeException ? (RuntimeException)e.getCause() : e;
+				}
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	// ---------
+
+	/**
+	 * 按 key 所在节点分别建立 pipeline，sync() 时各节点并行执行
+	 */
+	public static class ClusterPipeline extends RedisPipeline {
+
+		protected final ClusterCache clusterCache;
+		protected final Map<String, Jedis> nodeJedis = new LinkedHashMap<>();
+		protected final Map<String, Pipeline> nodePipelines = new LinkedHashMap<>();
+
+		public ClusterPipeline(ClusterCache cache) {
+			super(cache);
+			this.clusterCache = cache;
+		}
+
+		protected Pipeline pipeline(byte[] key) {
+			if (key == null) {
+				return pipeline;
+			}
+			String node = clusterCache.nodeOf(JedisClusterCRC16.getSlot(key));
+			Pipeline ret = nodePipelines.get(node);
+			if (ret == null) {
+				Jedis jedis = clusterCache.nodePools.get(node).getResource();
+				nodeJedis.put(node, jedis);
+				ret = jedis.pipelined();
+				nodePipelines.put(node, ret);
+			}
+			return ret;
+		}
+
+		protected void syncAll() {
+			List<Runnable> runs = new ArrayList<>(nodePipelines.size() + 1);
+			runs.add(pipeline::sync);
+			for (Pipeline p : nodePipelines.values()) {
+				runs.add(p::sync);
+			}
+			clusterCache.runAll(runs);
+		}
+
+		protected void closeAll() {
+			try {
+				for (Pipeline p : nodePipelines.values()) {
+					try {
+						p.close();
+					} catch (RuntimeException e) {
+						LogKit.error(e.getMessage(), e);
+					}
+				}
+				for (Jedis jedis : nodeJedis.values()) {
+					jedis.close();
+				}
+			} finally {
+				super.closeAll();
+			}
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.redis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MgetBatcher 将多个线程并发发起的 GET 合并为 MGET
+ *
+ * <pre>
+ * 1：不设置等待时间窗口。第一个到达的线程立即发送 MGET，MGET 执行期间到达的 GET
+ *    进入队列，由该线程在下一轮一次性发送，所以低并发时没有额外延迟，高并发时自动合批
+ *
+ * 2：每个 MGET 最多包含 maxBatchSize 个 key，默认值 128
+ *
+ * 3：发送 MGET 的线程在自己的请求完成之后最多再发送一轮即返回，剩余请求由正在 get(...)
+ *    中等待的线程接手发送，没有等待的线程时（均为 getAsync 请求）交由 ForkJoinPool.commonPool() 发送
+ *
+ * 例子：
+ * User user = Redis.batchGet("user:" + id);
+ * CompletableFuture<User> f = Redis.use().getMgetBatcher().getAsync("user:" + id);
+ * </pre>
+ */
+public class MgetBatcher {
+
+	protected final Cache cache;
+	protected final int maxBatchSize;
+	protected final ConcurrentLinkedQueue<Request> queue = new ConcurrentLinkedQueue<>();
+	protected final AtomicBoolean flushing = new AtomicBoolean(false);
+	// 在 get(...) 中等待的线程数，以及用于等待 flushing 标记释放的锁
+	protected final AtomicInteger waiters = new AtomicInteger();
+	protected final Object lock = new Object();
+
+	public MgetBatcher(Cache cache, int maxBatchSize) {
+		if (cache == null) {
+			throw new IllegalArgumentException("cache can not be null");
+		}
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSize must more than 0");
+		}
+		this.cache = cache;
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public MgetBatcher(Cache cache) {
+		this(cache, 128);
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * 获取 key 对应的值，与 Cache.get(key) 返回值一致
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(Object key) {
+		Request req = new Request(key);
+		queue.offer(req);
+		flush(req);
+		if (!req.future.isDone()) {
+			waitFor(req);
+		}
+		
+		try {
+			return (T)req.future.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof RuntimeException ? (RuntimeException)cause : e;
+		}
+	}
+
+	/**
+	 * 当前没有 MGET 在执行时由当前线程立即发送，否则加入下一批
+	 */
+	public CompletableFuture<Object> getAsync(Object key) {
+		Request req = new Request(key);
+		queue.offer(req);
+		flush(req);
+		return req.future;
+	}
+
+	/**
+	 * 等待其它线程发送本请求，其它线程释放 flushing 标记时由本线程接手发送
+	 */
+	protected void waitFor(Request req) {
+		waiters.incrementAndGet();
+		try {
+			while (!req.future.isDone()) {
+				synchronized (lock) {
+					if (!req.future.isDone() && flushing.get()) {
+						lock.wait();
+					}
+				}
+				flush(req);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			waiters.decrementAndGet();
+		}
+		
+		// 完成本请求的线程可能因本线程仍在等待而没有交出剩余请求，所以减少 waiters 之后由本线程接手
+		flush(null);
+	}
+
+	/**
+	 * 抢到 flushing 标记的线程发送队列中的请求，own 完成之后最多再发送一轮即释放标记，
+	 * own 为 null 时只发送一轮。释放标记之后唤醒等待的线程接手，没有等待的线程时交由
+	 * ForkJoinPool.commonPool() 发送，避免剩余请求无人处理
+	 */
+	protected void flush(Request own) {
+		if (queue.isEmpty() || !flushing.compareAndSet(false, true)) {
+			return ;
+		}
+		
+		try {
+			boolean extraRound = own == null;
+			while (executeRound()) {
+				if (own == null || own.future.isDone()) {
+					if (extraRound) {
+						break;
+					}
+					extraRound = true;
+				}
+			}
+		} finally {
+			flushing.set(false);
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+		}
+		
+		if (!queue.isEmpty() && waiters.get() == 0) {
+			CompletableFuture.runAsync(() -> flush(null));
+		}
+	}
+
+	/**
+	 * 从队列中取出最多 maxBatchSize 个请求发送一次 MGET，队列为空时返回 false
+	 */
+	protected boolean executeRound() {
+		Request req = queue.poll();
+		if (req == null) {
+			return false;
+		}
+		List<Request> batch = new ArrayList<>();
+		batch.add(req);
+		while (batch.size() < maxBatchSize && (req = queue.poll()) != null) {
+			batch.add(req);
+		}
+		execute(batch);
+		return true;
+	}
+
+	protected void execute(List<Request> batch) {
+		Object[] keys = new Object[batch.size()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = batch.get(i).key;
+		}
+
+		// 使用 Cache.mget，ClusterCache 中会按 hash slot 拆分
+		List<?> data;
+		try {
+			data = cache.mget(keys);
+		} catch (RuntimeException e) {
+			for (Request r : batch) {
+				r.future.completeExceptionally(e);
+			}
+			return ;
+		}
+
+		for (int i = 0; i < keys.length; i++) {
+			batch.get(i).future.complete(data.get(i));
+		}
+	}
+
+	protected static class Request {
+
+		final Object key;
+		final CompletableFuture<Object> future = new CompletableFuture<>();
+
+		Request(Object key) {
+			this.key = key;
+		}
+	}
+}
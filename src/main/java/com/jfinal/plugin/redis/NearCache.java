@@ -0,0 +1,467 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.redis;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import com.jfinal.kit.LogKit;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * NearCache 在 Cache 之前增加一层进程内缓存，命中时既没有网络往返也没有反序列化
+ *
+ * <pre>
+ * 1：按 LRU 策略淘汰，最多 maxSize 个 key，每个 key 在 ttlMillis 之后过期
+ *
+ * 2：通过 redis keyspace notification 失效，任何客户端修改或删除 key、key 过期
+ *    都会使本地缓存失效。需要 redis 开启 notify-keyspace-events，可以在 redis.conf 中配置，
+ *    也可以通过 setNotifyKeyspaceEvents("KA") 在 start() 时用 CONFIG SET 开启
+ *
+ * 3：重新订阅成功时清空本地缓存，所以不会因为连接断开期间漏掉通知而读到旧值。
+ *    订阅连接断开期间只依靠版本戳兜底，关闭版本戳兜底时不使用本地缓存
+ *
+ * 4：版本戳兜底：版本 key 为 hash，key 按 hashCode 分散到 VERSION_BUCKETS 个 field 中，
+ *    通过 NearCache 的 set、del 写入时只递增该 key 所在的 field，其它进程每隔
+ *    versionCheckMillis 读取一次版本 key，只失效发生变化的 field 所对应的本地缓存。
+ *    用于无法开启 keyspace notification 的环境，检查在 get 时惰性触发
+ *
+ * 5：本地缓存直接返回缓存的对象，调用方不要修改返回的对象
+ *
+ * 例子：
+ * NearCache nearCache = new NearCache(Redis.use(), 10000, 60 * 1000);
+ * nearCache.start();
+ *
+ * Config config = nearCache.get("sys:config");
+ * nearCache.set("sys:config", config);
+ *
+ * nearCache.stop();
+ * </pre>
+ */
+public class NearCache {
+
+	protected static final Object NULL = new Object();
+	protected static final int VERSION_BUCKETS = 64;
+
+	protected final Cache cache;
+	protected final int maxSize;
+	protected final long ttlMillis;
+	protected final LinkedHashMap<String, Entry> map;
+
+	// 正在从 redis 加载的 key，value 为加载者的标记。key 在加载期间失效时被移除，
+	// 加载完成时标记不一致则不写入本地缓存，避免写入旧值，其它 key 的失效不影响本次加载
+	protected final HashMap<String, Object> loadingMap = new HashMap<>();
+	protected final AtomicLong hitCounter = new AtomicLong();
+	protected final AtomicLong missCounter = new AtomicLong();
+
+	protected String notifyKeyspaceEvents = null;
+	protected long retryMillis = 3000;
+
+	protected String versionKey;
+	protected long versionCheckMillis = 1000;
+	protected final AtomicLong lastVersionCheck = new AtomicLong();
+	protected volatile Map<String, String> versions;
+
+	protected volatile boolean subscribed = false;
+	protected volatile boolean running = false;
+	protected volatile JedisPubSub pubSub;
+	protected Thread thread;
+
+	public NearCache(Cache cache, int maxSize, long ttlMillis) {
+		if (cache == null) {
+			throw new IllegalArgumentException("cache can not be null");
+		}
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must more than 0");
+		}
+		if (ttlMillis < 1) {
+			throw new IllegalArgumentException("ttlMillis must more than 0");
+		}
+		this.cache = cache;
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.versionKey = "_near_cache_version_:" + cache.getName();
+		this.map = new LinkedHashMap<String, Entry>(16, 0.75F, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String, NearCache.Entry> eldest) {
+				return size() > NearCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * 配置 start() 时通过 CONFIG SET notify-keyspace-events 开启的通知类型，例如 "KA"。
+	 * 默认为 null，不执行 CONFIG SET，适用于不允许 CONFIG 命令的云 redis
+	 */
+	public NearCache setNotifyKeyspaceEvents(String notifyKeyspaceEvents) {
+		this.notifyKeyspaceEvents = notifyKeyspaceEvents;
+		return this;
+	}
+
+	/**
+	 * 订阅连接断开后的重连间隔，默认值 3000 毫秒
+	 */
+	public NearCache setRetryMillis(long retryMillis) {
+		if (retryMillis < 1) {
+			throw new IllegalArgumentException("retryMillis must more than 0");
+		}
+		this.retryMillis = retryMillis;
+		return this;
+	}
+
+	/**
+	 * 版本 key 检查间隔，默认值 1000 毫秒，配置为 0 时关闭版本戳兜底
+	 */
+	public NearCache setVersionCheck(String versionKey, long versionCheckMillis) {
+		if (versionKey == null || versionKey.isEmpty()) {
+			throw new IllegalArgumentException("versionKey can not be blank");
+		}
+		if (versionCheckMillis < 0) {
+			throw new IllegalArgumentException("versionCheckMillis can not be less than 0");
+		}
+		this.versionKey = versionKey;
+		this.versionCheckMillis = versionCheckMillis;
+		return this;
+	}
+
+	/**
+	 * 启动订阅线程，订阅成功之前 get 直接读取 redis
+	 */
+	public synchronized NearCache start() {
+		if (running) {
+			return this;
+		}
+		running = true;
+		thread = new Thread(this::subscribeLoop, "NearCache-" + cache.getName());
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	public synchronized void stop() {
+		running = false;
+		JedisPubSub ps = pubSub;
+		if (ps != null && ps.isSubscribed()) {
+			ps.punsubscribe();
+		}
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+		subscribed = false;
+		clear();
+	}
+
+	public boolean isSubscribed() {
+		return subscribed;
+	}
+
+	// ---------
+
+	/**
+	 * 获取 key 对应的值，与 Cache.get(key) 返回值一致，null 值同样会被缓存
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(Object key) {
+		if (!subscribed && versionCheckMillis == 0) {
+			missCounter.incrementAndGet();
+			return cache.get(key);
+		}
+
+		checkVersion();
+
+		String redisKey = cache.getKeyNamingPolicy().getKeyName(key);
+		long now = System.currentTimeMillis();
+		synchronized (map) {
+			Entry e = map.get(redisKey);
+			if (e != null) {
+				if (e.expireAt > now) {
+					hitCounter.incrementAndGet();
+					return e.value == NULL ? null : (T)e.value;
+				}
+				map.remove(redisKey);
+			}
+		}
+
+		missCounter.incrementAndGet();
+		Object stamp = new Object();
+		synchronized (map) {
+			loadingMap.put(redisKey, stamp);
+		}
+		T ret;
+		try {
+			ret = load(key);
+		} catch (RuntimeException e) {
+			synchronized (map) {
+				loadingMap.remove(redisKey, stamp);
+			}
+			throw e;
+		}
+		synchronized (map) {
+			if (loadingMap.remove(redisKey, stamp)) {
+				map.put(redisKey, new Entry(ret == null ? NULL : ret, now + ttlMillis));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * 从 redis 加载，可覆盖本方法接入测试替身
+	 */
+	protected <T> T load(Object key) {
+		return cache.get(key);
+	}
+
+	public String set(Object key, Object value) {
+		try {
+			return cache.set(key, value);
+		} finally {
+			afterWrite(key);
+		}
+	}
+
+	public String setex(Object key, long seconds, Object value) {
+		try {
+			return cache.setex(key, seconds, value);
+		} finally {
+			afterWrite(key);
+		}
+	}
+
+	public Long del(Object... keys) {
+		try {
+			return cache.del(keys);
+		} finally {
+			afterWrite(keys);
+		}
+	}
+
+	protected void afterWrite(Object... keys) {
+		Set<String> buckets = new HashSet<>();
+		for (Object key : keys) {
+			String redisKey = cache.getKeyNamingPolicy().getKeyName(key);
+			invalidate(redisKey);
+			buckets.add(bucketOf(redisKey));
+		}
+		if (versionCheckMillis > 0) {
+			try {
+				incrVersions(buckets);
+			} catch (RuntimeException e) {
+				LogKit.error("NearCache can not update version key: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * 使本地缓存中的 key 失效，参数为经过 IKeyNamingPolicy 处理之后的 redis key
+	 */
+	public void invalidate(String redisKey) {
+		synchronized (map) {
+			loadingMap.remove(redisKey);
+			map.remove(redisKey);
+		}
+	}
+
+	public void clear() {
+		synchronized (map) {
+			loadingMap.clear();
+			map.clear();
+		}
+	}
+
+	/**
+	 * 失效 hashCode 落在 buckets 中的全部 key
+	 */
+	protected void invalidateBuckets(Set<String> buckets) {
+		synchronized (map) {
+			loadingMap.keySet().removeIf(k -> buckets.contains(bucketOf(k)));
+			for (Iterator<String> it = map.keySet().iterator(); it.hasNext(); ) {
+				if (buckets.contains(bucketOf(it.next()))) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	protected static String bucketOf(String redisKey) {
+		return String.valueOf(Math.floorMod(redisKey.hashCode(), VERSION_BUCKETS));
+	}
+
+	public int size() {
+		synchronized (map) {
+			return map.size();
+		}
+	}
+
+	public long getHitCount() {
+		return hitCounter.get();
+	}
+
+	public long getMissCount() {
+		return missCounter.get();
+	}
+
+	// ---------
+
+	/**
+	 * 到达检查间隔时由一个线程读取版本 key，其它线程使用上一次的检查结果。
+	 * 首次检查以及读取失败时清空本地缓存，之后只失效版本发生变化的 field
+	 */
+	protected void checkVersion() {
+		if (versionCheckMillis == 0) {
+			return ;
+		}
+		long now = System.currentTimeMillis();
+		long last = lastVersionCheck.get();
+		if (now - last < versionCheckMillis || !lastVersionCheck.compareAndSet(last, now)) {
+			return ;
+		}
+
+		Map<String, String> current;
+		try {
+			current = readVersions();
+		} catch (RuntimeException e) {
+			LogKit.error("NearCache can not read version key: " + e.getMessage(), e);
+			versions = null;
+			clear();
+			return ;
+		}
+		applyVersions(current);
+	}
+
+	protected void applyVersions(Map<String, String> current) {
+		Map<String, String> old = versions;
+		versions = current;
+		if (old == null) {
+			clear();
+			return ;
+		}
+
+		Set<String> changed = new HashSet<>();
+		for (Map.Entry<String, String> e : current.entrySet()) {
+			if (!e.getValue().equals(old.get(e.getKey()))) {
+				changed.add(e.getKey());
+			}
+		}
+		for (String bucket : old.keySet()) {
+			if (!current.containsKey(bucket)) {
+				changed.add(bucket);		// 版本 key 被删除或过期
+			}
+		}
+		if (!changed.isEmpty()) {
+			invalidateBuckets(changed);
+		}
+	}
+
+	/**
+	 * 读取版本 key 的全部 field，直接使用 Jedis 读写字符串，不经过 ISerializer
+	 */
+	protected Map<String, String> readVersions() {
+		String redisKey = cache.getKeyNamingPolicy().getKeyName(versionKey);
+		return cache.callByRedisKey(redisKey, jedis -> jedis.hgetAll(redisKey));
+	}
+
+	protected void incrVersions(Set<String> buckets) {
+		String redisKey = cache.getKeyNamingPolicy().getKeyName(versionKey);
+		cache.callByRedisKey(redisKey, jedis -> {
+			for (String bucket : buckets) {
+				jedis.hincrBy(redisKey, bucket, 1);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * 订阅线程主循环，连接断开后清空本地缓存并在 retryMillis 之后重新订阅
+	 */
+	protected void subscribeLoop() {
+		while (running) {
+			try {
+				subscribe();
+			} catch (Exception e) {
+				if (running) {
+					LogKit.error("NearCache subscription lost: " + e.getMessage(), e);
+				}
+			} finally {
+				subscribed = false;
+				clear();
+			}
+
+			if (running) {
+				try {
+					Thread.sleep(retryMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return ;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 订阅当前 database 的 keyspace 频道，阻塞直到取消订阅或连接断开
+	 */
+	protected void subscribe() {
+		Jedis jedis = cache.getDedicatedJedis();	// 订阅独占连接，不使用当前线程绑定的 Jedis
+		try {
+			if (notifyKeyspaceEvents != null) {
+				try {
+					jedis.configSet("notify-keyspace-events", notifyKeyspaceEvents);
+				} catch (RuntimeException e) {
+					LogKit.warn("NearCache can not config notify-keyspace-events: " + e.getMessage());
+				}
+			}
+
+			String prefix = "__keyspace@" + jedis.getDB() + "__:";
+			JedisPubSub ps = new JedisPubSub() {
+				public void onPSubscribe(String pattern, int subscribedChannels) {
+					clear();
+					subscribed = true;
+				}
+
+				public void onPMessage(String pattern, String channel, String message) {
+					if (channel.startsWith(prefix)) {
+						invalidate(channel.substring(prefix.length()));
+					}
+				}
+			};
+			pubSub = ps;
+			if (running) {
+				jedis.psubscribe(ps, prefix + "*");
+			}
+		} finally {
+			pubSub = null;
+			jedis.close();
+		}
+	}
+
+	protected static class Entry {
+
+		final Object value;
+		final long expireAt;
+
+		Entry(Object value, long expireAt) {
+			this.value = value;
+			this.expireAt = expireAt;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.redis;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import com.jfinal.plugin.redis.RedisRateLimiter.Algorithm;
+
+/**
+ * RateLimit 配置 RateLimitInterceptor 的限流规则，方法上的配置优先于类上的配置
+ * <pre>
+ * 例子：
+ * &#64;Before(RateLimitInterceptor.class)
+ * &#64;RateLimit(value = 10, windowMillis = 60000, by = RateLimit.By.IP)
+ * public void login() {...}
+ * </pre>
+ */
+@Inherited
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface RateLimit {
+
+	/**
+	 * 限流的维度
+	 */
+	enum By {
+		ACTION,		// 所有请求共享额度
+		IP,			// 按客户端 ip
+		SESSION		// 按 session id，没有 session 时按 ip
+	}
+
+	int value();						// windowMillis 之内允许的次数
+
+	long windowMillis() default 1000;
+
+	By by() default By.ACTION;
+
+	Algorithm algorithm() default Algorithm.SLIDING_WINDOW;
+
+	int localBatch() default 0;			// 参考 RedisRateLimiter.setLocalBatch(...)
+
+	String cacheName() default "";		// RedisPlugin 的 cacheName，默认使用 Redis.use()
+}
+
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.redis;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import com.jfinal.aop.Interceptor;
+import com.jfinal.aop.Invocation;
+import com.jfinal.core.Controller;
+import com.jfinal.kit.StrKit;
+import com.jfinal.plugin.redis.RedisRateLimiter.Result;
+
+/**
+ * RateLimitInterceptor 按 RateLimit 注解对 action 或业务方法限流
+ *
+ * <pre>
+ * 1：action 被限流时响应 429 状态码，并设置 Retry-After 响应头，通过 ErrorRender.setErrorView(429, ...)
+ *    或 setErrorJsonContent(429, ...) 配置响应内容
+ *
+ * 2：非 action 方法被限流时抛出 IllegalStateException
+ *
+ * 3：每个方法使用一个 RedisRateLimiter，key 为 actionKey（或 类名.方法名）加上 ip、session id。
+ *    需要按用户等其它维度限流时继承本类并覆盖 getKey(...)
+ *
+ * 例子：
+ * &#64;Before(RateLimitInterceptor.class)
+ * &#64;RateLimit(value = 100, windowMillis = 60000, by = RateLimit.By.IP)
+ * public void search() {...}
+ * </pre>
+ */
+public class RateLimitInterceptor implements Interceptor {
+
+	protected final Map<Method, RedisRateLimiter> limiterMap = new ConcurrentHashMap<>();
+
+	public void intercept(Invocation inv) {
+		RateLimit rateLimit = getRateLimit(inv);
+		if (rateLimit == null) {
+			inv.invoke();
+			return ;
+		}
+
+		RedisRateLimiter limiter = limiterMap.computeIfAbsent(inv.getMethod(), m -> createRateLimiter(rateLimit));
+		Result result = limiter.acquire(getKey(inv, rateLimit), 1);
+		if (result.isAllowed()) {
+			inv.invoke();
+			return ;
+		}
+
+		onRejected(inv, result);
+	}
+
+	protected RateLimit getRateLimit(Invocation inv) {
+		RateLimit ret = inv.getMethod().getAnnotation(RateLimit.class);
+		return ret != null ? ret : inv.getTarget().getClass().getAnnotation(RateLimit.class);
+	}
+
+	protected RedisRateLimiter createRateLimiter(RateLimit rateLimit) {
+		Cache cache = StrKit.isBlank(rateLimit.cacheName()) ? Redis.use() : Redis.use(rateLimit.cacheName());
+		if (cache == null) {
+			throw new IllegalStateException("Redis cache not found: " + rateLimit.cacheName());
+		}
+		RedisRateLimiter ret = new RedisRateLimiter(cache, rateLimit.algorithm(), rateLimit.value(), rateLimit.windowMillis());
+		if (rateLimit.localBatch() > 0) {
+			ret.setLocalBatch(rateLimit.localBatch());
+		}
+		return ret;
+	}
+
+	protected String getKey(Invocation inv, RateLimit rateLimit) {
+		String name = inv.isActionInvocation() ? inv.getActionKey() : inv.getTarget().getClass().getName() + "." + inv.getMethodName();
+		if (rateLimit.by() == RateLimit.By.ACTION || !inv.isActionInvocation()) {
+			return name;
+		}
+
+		HttpServletRequest request = inv.getController().getRequest();
+		if (rateLimit.by() == RateLimit.By.SESSION) {
+			HttpSession session = request.getSession(false);
+			if (session != null) {
+				return name + ":s:" + session.getId();
+			}
+		}
+		return name + ":ip:" + getIp(request);
+	}
+
+	/**
+	 * 客户端 ip，位于反向代理之后时覆盖本方法从 X-Forwarded-For 等请求头中获取
+	 */
+	protected String getIp(HttpServletRequest request) {
+		return request.getRemoteAddr();
+	}
+
+	protected void onRejected(Invocation inv, Result result) {
+		if (!inv.isActionInvocation()) {
+			throw new IllegalStateException("Rate limit exceeded: " + inv.getTarget().getClass().getName() + "." + inv.getMethodName());
+		}
+
+		Controller c = inv.getController();
+		long seconds = Math.max(1, (result.getRetryAfterMillis() + 999) / 1000);
+		c.getResponse().setHeader("Retry-After", String.valueOf(seconds));
+		c.renderError(429);
+	}
+}
+
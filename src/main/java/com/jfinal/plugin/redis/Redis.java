@@ -16,7 +16,9 @@
 
 package com.jfinal.plugin.redis;
 
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import redis.clients.jedis.Jedis;
 import com.jfinal.kit.StrKit;
@@ -100,6 +102,27 @@ public class Redis {
 		return use(cacheName).call(jedis);
 	}
 	
+	/**
+	 * 在一次网络往返中执行多个命令
+	 * <pre>
+	 * 例子：
+	 *   List<Object> ret = Redis.pipelined(p -> {
+	 *       p.get("user:1");
+	 *       p.incr("pv");
+	 *   });
+	 * </pre>
+	 */
+	public static List<Object> pipelined(Consumer<RedisPipeline> commands) {
+		return use().pipelined(commands);
+	}
+	
+	/**
+	 * 并发的 GET 自动合并为 MGET，参考 MgetBatcher
+	 */
+	public static <T> T batchGet(Object key) {
+		return use().getMgetBatcher().get(key);
+	}
+	
 	public static <T> T callback(ICallback<T> callback) {
 		return callback(use(), callback);
 	}
@@ -0,0 +1,557 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.redis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import com.jfinal.kit.Func.F00;
+import com.jfinal.kit.LogKit;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+/**
+ * RedisLock 分布式锁，等待期间通过 pub/sub 接收释放通知，不再固定间隔轮询
+ *
+ * <pre>
+ * 1：获取锁失败时立即归还 Jedis 连接，然后等待释放通知。等待时长不超过 pollMillis
+ *    与锁的剩余时间，所以订阅连接不可用或通知丢失时退化为有上限的轮询
+ *
+ * 2：每次成功获取锁都会得到一个单调递增的 fencing token，可将其随写操作传给下游存储，
+ *    由下游拒绝 token 更小的旧持有者的写入
+ *
+ * 3：同一线程可重入，重入时返回同一个 Lease，unlock 次数与 lock 次数一致时才真正释放。
+ *    重入时 Lease 已超过 leaseMillis，先通过续期脚本确认锁仍属于自己，
+ *    否则视为锁已丢失，重新获取锁并返回新的 Lease，旧 Lease 的 unlock 不再有任何操作
+ *
+ * 4：watchdog 为 true 时，持有期间每隔 leaseMillis / 3 续期一次，适用于执行时间无法预估的任务。
+ *    续期失败说明锁已丢失，Lease.isHeld() 返回 false
+ *
+ * 5：与 Cache.lock(...) 使用相同的 key，两者可以互斥
+ *
+ * 例子：
+ * RedisLock.Lease lease = Redis.use().getRedisLock().lock("order:" + id, 30000, 5000);
+ * if (lease != null) {
+ *     try {
+ *         orderService.process(id, lease.getToken());
+ *     } finally {
+ *         lease.unlock();
+ *     }
+ * }
+ *
+ * Redis.use().getRedisLock().withLock("order:" + id, 30000, 5000, () -> {
+ *     业务代码
+ * });
+ * </pre>
+ */
+public class RedisLock {
+
+	// 成功返回 {1, fencing token}，失败返回 {0, 锁的剩余毫秒数}
+	protected static final String ACQUIRE_SCRIPT =
+		"if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then " +
+		"  return {1, redis.call('incr', KEYS[2])} " +
+		"end " +
+		"return {0, redis.call('pttl', KEYS[1])}";
+
+	protected static final String RELEASE_SCRIPT =
+		"if redis.call('get', KEYS[1]) == ARGV[1] then " +
+		"  redis.call('del', KEYS[1]) " +
+		"  redis.call('publish', ARGV[2], KEYS[1]) " +
+		"  return 1 " +
+		"end " +
+		"return 0";
+
+	protected static final String RENEW_SCRIPT =
+		"if redis.call('get', KEYS[1]) == ARGV[1] then " +
+		"  return redis.call('pexpire', KEYS[1], ARGV[2]) " +
+		"end " +
+		"return 0";
+
+	protected final Cache cache;
+	protected final String channel;
+	protected long pollMillis = 100;
+	protected long retryMillis = 3000;
+
+	protected final ThreadLocal<Map<String, Lease>> heldTL = ThreadLocal.withInitial(HashMap::new);
+	protected final ConcurrentHashMap<String, Waiters> waitersMap = new ConcurrentHashMap<>();
+	protected final Map<String, String> shaMap = new ConcurrentHashMap<>();
+
+	protected volatile boolean running = false;
+	protected volatile JedisPubSub pubSub;
+	protected Thread thread;
+	protected ScheduledExecutorService watchdog;
+
+	protected final LongAdder acquireCount = new LongAdder();
+	protected final LongAdder contendedCount = new LongAdder();
+	protected final LongAdder timeoutCount = new LongAdder();
+	protected final LongAdder totalWaitNanos = new LongAdder();
+	protected final AtomicLong maxWaitNanos = new AtomicLong();
+	protected final LongAdder renewCount = new LongAdder();
+	protected final LongAdder lostCount = new LongAdder();
+
+	public RedisLock(Cache cache) {
+		if (cache == null) {
+			throw new IllegalArgumentException("cache can not be null");
+		}
+		this.cache = cache;
+		this.channel = "_redis_lock_:" + cache.getName();
+	}
+
+	/**
+	 * 等待释放通知的最长时间，默认值 100 毫秒，到达后重新尝试获取锁
+	 */
+	public RedisLock setPollMillis(long pollMillis) {
+		if (pollMillis < 1) {
+			throw new IllegalArgumentException("pollMillis must more than 0");
+		}
+		this.pollMillis = pollMillis;
+		return this;
+	}
+
+	/**
+	 * 获取锁
+	 * @param name 锁的名称
+	 * @param leaseMillis 锁的过期时间，单位毫秒
+	 * @param waitMillis 获取锁的最长等待时间，单位毫秒，0 表示只尝试一次
+	 * @return 获取成功返回 Lease，超时返回 null
+	 */
+	public Lease lock(String name, long leaseMillis, long waitMillis) {
+		return lock(name, leaseMillis, waitMillis, false);
+	}
+
+	/**
+	 * 获取锁
+	 * @param watchdog 为 true 时持有期间自动续期，直到 unlock
+	 */
+	public Lease lock(String name, long leaseMillis, long waitMillis, boolean watchdog) {
+		if (name == null || name.isEmpty()) {
+			throw new IllegalArgumentException("name can not be blank");
+		}
+		if (leaseMillis < 1) {
+			throw new IllegalArgumentException("leaseMillis must more than 0");
+		}
+		if (waitMillis < 0) {
+			throw new IllegalArgumentException("waitMillis can not be less than 0");
+		}
+
+		Map<String, Lease> held = heldTL.get();
+		Lease lease = held.get(name);
+		if (lease != null && lease.held && lease.verify(leaseMillis)) {
+			lease.holdCount++;
+			return lease;
+		}
+		if (lease != null) {
+			held.remove(name);		// 已丢失的锁，重新获取
+		}
+
+		String owner = UUID.randomUUID().toString();
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+		Waiters waiters = null;
+		try {
+			while (true) {
+				long seen = waiters != null ? waiters.version : 0;
+				long sent = System.nanoTime();
+				List<Object> ret = eval(ACQUIRE_SCRIPT, Arrays.asList(name, fenceKey(name)), Arrays.asList(owner, Long.toString(leaseMillis)));
+				if ((Long)ret.get(0) == 1L) {
+					lease = new Lease(name, owner, (Long)ret.get(1), leaseMillis, sent);
+					break;
+				}
+
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					timeoutCount.increment();
+					record(start);
+					return null;
+				}
+
+				if (waiters == null) {
+					contendedCount.increment();
+					ensureSubscribed();
+					waiters = register(name);
+					continue ;		// 注册之后立即重试一次，避免错过注册之前发出的释放通知
+				}
+
+				long pttl = (Long)ret.get(1);
+				long wait = Math.min(TimeUnit.NANOSECONDS.toMillis(remaining) + 1, pollMillis);
+				if (pttl > 0) {
+					wait = Math.min(wait, pttl);
+				}
+				waiters.await(seen, wait);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			record(start);
+			return null;
+		} finally {
+			if (waiters != null) {
+				unregister(name, waiters);
+			}
+		}
+
+		acquireCount.increment();
+		record(start);
+		held.put(name, lease);
+		if (watchdog) {
+			lease.renewTask = getWatchdog().scheduleWithFixedDelay(lease::renew, leaseMillis / 3 + 1, leaseMillis / 3 + 1, TimeUnit.MILLISECONDS);
+		}
+		return lease;
+	}
+
+	/**
+	 * 为业务封装分布式锁，获取锁失败时返回 false
+	 */
+	public boolean withLock(String name, long leaseMillis, long waitMillis, F00 fun) {
+		Lease lease = lock(name, leaseMillis, waitMillis);
+		if (lease == null) {
+			return false;
+		}
+		try {
+			fun.call();
+			return true;
+		} finally {
+			lease.unlock();
+		}
+	}
+
+	/**
+	 * 当前线程持有的锁，未持有时返回 null
+	 */
+	public Lease getHeldLease(String name) {
+		return heldTL.get().get(name);
+	}
+
+	public synchronized void stop() {
+		running = false;
+		JedisPubSub ps = pubSub;
+		if (ps != null && ps.isSubscribed()) {
+			ps.unsubscribe();
+		}
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+		if (watchdog != null) {
+			watchdog.shutdownNow();
+			watchdog = null;
+		}
+	}
+
+	// ---------
+
+	public long getAcquireCount() {
+		return acquireCount.sum();
+	}
+
+	/**
+	 * 首次尝试失败、需要等待的次数
+	 */
+	public long getContendedCount() {
+		return contendedCount.sum();
+	}
+
+	public long getTimeoutCount() {
+		return timeoutCount.sum();
+	}
+
+	public long getTotalWaitNanos() {
+		return totalWaitNanos.sum();
+	}
+
+	public long getMaxWaitNanos() {
+		return maxWaitNanos.get();
+	}
+
+	public long getRenewCount() {
+		return renewCount.sum();
+	}
+
+	/**
+	 * watchdog 续期失败、锁已被他人获取或已过期的次数
+	 */
+	public long getLostCount() {
+		return lostCount.sum();
+	}
+
+	protected void record(long start) {
+		long nanos = System.nanoTime() - start;
+		totalWaitNanos.add(nanos);
+		maxWaitNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	// ---------
+
+	/**
+	 * fencing token 所在的 key，通过 hash tag 与锁的 key 位于同一个 slot，以便在 ClusterCache 中使用
+	 */
+	protected String fenceKey(String name) {
+		return name.indexOf('{') >= 0 ? name + ":fence" : "{" + name + "}:fence";
+	}
+
+	/**
+	 * 优先使用 evalsha，redis 重启等原因导致脚本丢失时重新加载
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> T eval(String script, List<String> keys, List<String> args) {
+		return cache.callByRedisKey(keys.get(0), jedis -> {
+			String sha = shaMap.get(script);
+			if (sha != null) {
+				try {
+					return (T)jedis.evalsha(sha, keys, args);
+				} catch (JedisNoScriptException e) {
+					// 重新加载脚本
+				}
+			}
+			shaMap.put(script, jedis.scriptLoad(script));
+			return (T)jedis.eval(script, keys, args);
+		});
+	}
+
+	protected void release(Lease lease) {
+		if (lease.renewTask != null) {
+			lease.renewTask.cancel(false);
+		}
+		Long ret = eval(RELEASE_SCRIPT, Collections.singletonList(lease.name), Arrays.asList(lease.owner, channel));
+		if (ret == 0L) {
+			LogKit.warn("Redis lock already expired before unlock: " + lease.name);
+		}
+	}
+
+	protected synchronized ScheduledExecutorService getWatchdog() {
+		if (watchdog == null) {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+				Thread t = new Thread(r, "RedisLock-watchdog-" + cache.getName());
+				t.setDaemon(true);
+				return t;
+			});
+			executor.setRemoveOnCancelPolicy(true);
+			watchdog = executor;
+		}
+		return watchdog;
+	}
+
+	protected Waiters register(String name) {
+		return waitersMap.compute(name, (k, w) -> {
+			if (w == null) {
+				w = new Waiters();
+			}
+			w.count++;
+			return w;
+		});
+	}
+
+	protected void unregister(String name, Waiters waiters) {
+		waitersMap.computeIfPresent(name, (k, w) -> --w.count == 0 ? null : w);
+	}
+
+	// ---------
+
+	protected synchronized void ensureSubscribed() {
+		if (running) {
+			return ;
+		}
+		running = true;
+		thread = new Thread(this::subscribeLoop, "RedisLock-" + cache.getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * 订阅连接断开后唤醒所有等待者重试，并在 retryMillis 之后重新订阅
+	 */
+	protected void subscribeLoop() {
+		while (running) {
+			Jedis jedis = null;
+			try {
+				jedis = cache.getDedicatedJedis();	// 订阅独占连接，不使用当前线程绑定的 Jedis
+				JedisPubSub ps = new JedisPubSub() {
+					public void onMessage(String channel, String name) {
+						Waiters w = waitersMap.get(name);
+						if (w != null) {
+							w.signal();
+						}
+					}
+				};
+				pubSub = ps;
+				if (running) {
+					jedis.subscribe(ps, channel);
+				}
+			} catch (Exception e) {
+				if (running) {
+					LogKit.error("RedisLock subscription lost: " + e.getMessage(), e);
+				}
+			} finally {
+				pubSub = null;
+				if (jedis != null) {
+					jedis.close();
+				}
+				for (Waiters w : waitersMap.values()) {
+					w.signal();
+				}
+			}
+
+			if (running) {
+				try {
+					Thread.sleep(retryMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return ;
+				}
+			}
+		}
+	}
+
+	// ---------
+
+	/**
+	 * 同一个锁名称上的等待者，count 与 version 均在 ConcurrentHashMap.compute 或 synchronized 中修改
+	 */
+	protected static class Waiters {
+
+		int count;
+		volatile long version;
+
+		synchronized void signal() {
+			version++;
+			notifyAll();
+		}
+
+		synchronized void await(long seen, long millis) throws InterruptedException {
+			if (version == seen) {
+				wait(millis);
+			}
+		}
+	}
+
+	/**
+	 * 一次成功获取的锁
+	 */
+	public class Lease {
+
+		final String name;
+		final String owner;
+		final long token;
+		final long leaseMillis;
+		int holdCount = 1;
+		volatile boolean held = true;
+		volatile boolean lost = false;
+		// 锁在 redis 中的过期时间的保守估计，以发送获取或续期命令之前的 System.nanoTime() 为起点
+		volatile long expireAt;
+		volatile ScheduledFuture<?> renewTask;
+
+		Lease(String name, String owner, long token, long leaseMillis, long sent) {
+			this.name = name;
+			this.owner = owner;
+			this.token = token;
+			this.leaseMillis = leaseMillis;
+			this.expireAt = sent + TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * fencing token，同一个锁名称上每次成功获取都会递增
+		 */
+		public long getToken() {
+			return token;
+		}
+
+		/**
+		 * 已超过 leaseMillis 且未被 watchdog 续期，或者 watchdog 续期失败以后返回 false
+		 */
+		public boolean isHeld() {
+			return held && System.nanoTime() - expireAt < 0;
+		}
+
+		public int getHoldCount() {
+			return holdCount;
+		}
+
+		/**
+		 * 释放锁，必须在获取锁的线程中调用
+		 */
+		public void unlock() {
+			Map<String, Lease> heldMap = heldTL.get();
+			if (heldMap.get(name) != this) {
+				if (lost) {
+					return ;		// 锁已丢失并在重入时被重新获取
+				}
+				throw new IllegalStateException("The lock is not held by current thread: " + name);
+			}
+			if (--holdCount > 0) {
+				return ;
+			}
+
+			heldMap.remove(name);
+			held = false;
+			release(this);
+		}
+
+		void renew() {
+			if (!held) {
+				return ;
+			}
+			try {
+				renew(leaseMillis);
+			} catch (Exception e) {
+				LogKit.error("Redis lock renew failed: " + e.getMessage(), e);
+			}
+		}
+
+		/**
+		 * 通过续期脚本确认锁仍属于自己并延长过期时间，失败时标记为已丢失
+		 */
+		boolean renew(long millis) {
+			long sent = System.nanoTime();
+			Long ret = eval(RENEW_SCRIPT, Collections.singletonList(name), Arrays.asList(owner, Long.toString(millis)));
+			if (ret == 1L) {
+				expireAt = sent + TimeUnit.MILLISECONDS.toNanos(millis);
+				renewCount.increment();
+				return true;
+			}
+
+			held = false;
+			lost = true;
+			lostCount.increment();
+			if (renewTask != null) {
+				renewTask.cancel(false);
+			}
+			LogKit.warn("Redis lock lost before unlock: " + name);
+			return false;
+		}
+
+		/**
+		 * 重入时调用，未超过过期时间时直接返回 true，否则通过续期脚本确认
+		 */
+		boolean verify(long millis) {
+			return System.nanoTime() - expireAt < 0 || renew(Math.max(millis, leaseMillis));
+		}
+	}
+}
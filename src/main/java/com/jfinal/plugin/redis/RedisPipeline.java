@@ -0,0 +1,368 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.redis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * RedisPipeline 将多个命令一次性发送给 redis，只产生一次网络往返
+ *
+ * <pre>
+ * 1：key、field、value 与 Cache 中的同名方法一样经过 IKeyNamingPolicy 与 ISerializer 处理，
+ *    所以可以与 Cache 的其它方法混合使用
+ *
+ * 2：每个命令返回 CompletableFuture，sync() 之后完成。单个命令出错只影响其自身的 CompletableFuture
+ *
+ * 3：pipeline 独占一个 Jedis 连接，在 sync() 之前不要在同一线程中通过 RedisInterceptor
+ *    绑定的连接调用 Cache 的其它方法
+ *
+ * 例子 1：
+ * List<Object> ret = Redis.use().pipelined(p -> {
+ *     p.get("user:1");
+ *     p.hget("feed", "top");
+ *     p.incr("pv");
+ * });
+ *
+ * 例子 2：
+ * try (RedisPipeline p = Redis.use().pipeline()) {
+ *     CompletableFuture<User> user = p.get("user:1");
+ *     CompletableFuture<List<Object>> news = p.lrange("news", 0, 9);
+ *     p.sync();
+ *     render(Kv.of("user", user.join()).set("news", news.join()));
+ * }
+ * </pre>
+ */
+public class RedisPipeline implements AutoCloseable {
+
+	protected final Cache cache;
+	protected final Jedis jedis;
+	protected final Pipeline pipeline;
+	protected final List<Op<?>> ops = new ArrayList<>();
+	protected boolean closed = false;
+
+	public RedisPipeline(Cache cache) {
+		this.cache = cache;
+		this.jedis = cache.getJedis();
+		try {
+			this.pipeline = jedis.pipelined();
+		} catch (RuntimeException e) {
+			cache.close(jedis);
+			throw e;
+		}
+	}
+
+	protected <R, T> CompletableFuture<T> add(Response<R> response, Function<R, T> converter) {
+		Op<T> op = new Op<>(response, converter);
+		ops.add(op);
+		return op.future;
+	}
+
+	protected <T> CompletableFuture<T> add(Response<T> response) {
+		return add(response, Function.identity());
+	}
+
+	@SuppressWarnings("unchecked")
+	protected <T> T value(byte[] bytes) {
+		return (T)cache.valueFromBytes(bytes);
+	}
+
+	/**
+	 * 待发送的命令数量
+	 */
+	public int size() {
+		return ops.size();
+	}
+
+	/**
+	 * 发送所有命令并读取结果，完成各命令的 CompletableFuture
+	 * @return 按命令顺序排列的结果，出错的命令对应的元素为其异常对象
+	 */
+	public List<Object> sync() {
+		if (closed) {
+			throw new IllegalStateException("The pipeline is already closed");
+		}
+
+		List<Object> ret = new ArrayList<>(ops.size());
+		try {
+			syncAll();
+		} catch (RuntimeException e) {
+			for (Op<?> op : ops) {
+				op.future.completeExceptionally(e);
+			}
+			ops.clear();
+			throw e;
+		}
+
+		for (Op<?> op : ops) {
+			ret.add(op.complete());
+		}
+		ops.clear();
+		return ret;
+	}
+
+	/**
+	 * 未 sync() 的命令会被发送，连接归还连接池
+	 */
+	public void close() {
+		if (closed) {
+			return ;
+		}
+		try {
+			if (!ops.isEmpty()) {
+				sync();
+			}
+		} finally {
+			closed = true;
+			closeAll();
+		}
+	}
+
+	/**
+	 * 获取 key 所在节点的 Pipeline，ClusterPipeline 中按 hash slot 路由
+	 */
+	protected Pipeline pipeline(byte[] key) {
+		return pipeline;
+	}
+
+	protected Pipeline pipeline(byte[][] keys) {
+		return pipeline(keys.length > 0 ? keys[0] : null);
+	}
+
+	protected void syncAll() {
+		pipeline.sync();
+	}
+
+	protected void closeAll() {
+		try {
+			pipeline.close();
+		} finally {
+			cache.close(jedis);
+		}
+	}
+
+	// ---------
+
+	public CompletableFuture<String> set(Object key, Object value) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).set(k, cache.valueToBytes(value)));
+	}
+
+	public CompletableFuture<String> setex(Object key, long seconds, Object value) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).setex(k, seconds, cache.valueToBytes(value)));
+	}
+
+	public <T> CompletableFuture<T> get(Object key) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).get(k), this::value);
+	}
+
+	@SuppressWarnings("rawtypes")
+	public CompletableFuture<List> mget(Object... keys) {
+		byte[][] ks = cache.keysToBytesArray(keys);
+		return add(pipeline(ks).mget(ks), cache::valueListFromBytesList);
+	}
+
+	public CompletableFuture<Long> del(Object... keys) {
+		byte[][] ks = cache.keysToBytesArray(keys);
+		return add(pipeline(ks).del(ks));
+	}
+
+	public CompletableFuture<Boolean> exists(Object key) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).exists(k));
+	}
+
+	public CompletableFuture<Long> expire(Object key, long seconds) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).expire(k, seconds));
+	}
+
+	public CompletableFuture<Long> ttl(Object key) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).ttl(k));
+	}
+
+	public CompletableFuture<Long> incr(Object key) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).incr(k));
+	}
+
+	public CompletableFuture<Long> incrBy(Object key, long value) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).incrBy(k, value));
+	}
+
+	public CompletableFuture<Long> decr(Object key) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).decr(k));
+	}
+
+	public CompletableFuture<Long> hset(Object key, Object field, Object value) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).hset(k, cache.fieldToBytes(field), cache.valueToBytes(value)));
+	}
+
+	public <T> CompletableFuture<T> hget(Object key, Object field) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).hget(k, cache.fieldToBytes(field)), this::value);
+	}
+
+	public CompletableFuture<Long> hdel(Object key, Object... fields) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).hdel(k, cache.fieldsToBytesArray(fields)));
+	}
+
+	public CompletableFuture<Map<Object, Object>> hgetAll(Object key) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).hgetAll(k), data -> {
+			Map<Object, Object> result = new HashMap<Object, Object>();
+			if (data != null) {
+				for (Entry<byte[], byte[]> e : data.entrySet()) {
+					result.put(cache.fieldFromBytes(e.getKey()), cache.valueFromBytes(e.getValue()));
+				}
+			}
+			return result;
+		});
+	}
+
+	public CompletableFuture<Long> hincrBy(Object key, Object field, long value) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).hincrBy(k, cache.fieldToBytes(field), value));
+	}
+
+	public CompletableFuture<Long> lpush(Object key, Object... values) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).lpush(k, cache.valuesToBytesArray(values)));
+	}
+
+	public CompletableFuture<Long> rpush(Object key, Object... values) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).rpush(k, cache.valuesToBytesArray(values)));
+	}
+
+	@SuppressWarnings("rawtypes")
+	public CompletableFuture<List> lrange(Object key, long start, long end) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).lrange(k, start, end), cache::valueListFromBytesList);
+	}
+
+	public CompletableFuture<Long> sadd(Object key, Object... members) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).sadd(k, cache.valuesToBytesArray(members)));
+	}
+
+	public CompletableFuture<Long> srem(Object key, Object... members) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).srem(k, cache.valuesToBytesArray(members)));
+	}
+
+	public CompletableFuture<Set<Object>> smembers(Object key) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).smembers(k), data -> {
+			Set<Object> result = new HashSet<Object>();
+			if (data != null) {
+				cache.valueSetFromBytesSet(data, result);
+			}
+			return result;
+		});
+	}
+
+	public CompletableFuture<Boolean> sismember(Object key, Object member) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).sismember(k, cache.valueToBytes(member)));
+	}
+
+	public CompletableFuture<Long> zadd(Object key, double score, Object member) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).zadd(k, score, cache.valueToBytes(member)));
+	}
+
+	public CompletableFuture<Long> zrem(Object key, Object... members) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).zrem(k, cache.valuesToBytesArray(members)));
+	}
+
+	public CompletableFuture<Double> zscore(Object key, Object member) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).zscore(k, cache.valueToBytes(member)));
+	}
+
+	@SuppressWarnings("rawtypes")
+	public CompletableFuture<List> zrange(Object key, long start, long end) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).zrange(k, start, end), cache::valueListFromBytesList);
+	}
+
+	@SuppressWarnings("rawtypes")
+	public CompletableFuture<List> zrevrange(Object key, long start, long end) {
+		byte[] k = cache.keyToBytes(key);
+		return add(pipeline(k).zrevrange(k, start, end), cache::valueListFromBytesList);
+	}
+
+	/**
+	 * 直接使用 Jedis Pipeline 添加本类未封装的命令，返回值不经过 ISerializer 处理
+	 */
+	public <T> CompletableFuture<T> call(Function<Pipeline, Response<T>> command) {
+		return add(command.apply(pipeline));
+	}
+
+	/**
+	 * 与 call(command) 相同，ClusterPipeline 中按 redisKey 路由到所在节点，redisKey 不经过 IKeyNamingPolicy 处理
+	 */
+	public <T> CompletableFuture<T> call(String redisKey, Function<Pipeline, Response<T>> command) {
+		return add(command.apply(pipeline(SafeEncoder.encode(redisKey))));
+	}
+
+	// ---------
+
+	protected static class Op<T> {
+
+		final Response<?> response;
+		final Function<Object, T> converter;
+		final CompletableFuture<T> future = new CompletableFuture<>();
+
+		@SuppressWarnings("unchecked")
+		<R> Op(Response<R> response, Function<R, T> converter) {
+			this.response = response;
+			this.converter = (Function<Object, T>)converter;
+		}
+
+		Object complete() {
+			try {
+				T value = converter.apply(response.get());
+				future.complete(value);
+				return value;
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+				return e;
+			}
+		}
+	}
+}
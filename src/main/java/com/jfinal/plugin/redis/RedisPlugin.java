@@ -16,10 +16,16 @@
 
 package com.jfinal.plugin.redis;
 
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisSentinelPool;
 import redis.clients.jedis.Protocol;
+import redis.clients.jedis.util.Pool;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.function.Consumer;
+import com.jfinal.kit.LogKit;
 import com.jfinal.kit.StrKit;
 import com.jfinal.plugin.IPlugin;
 import com.jfinal.plugin.redis.serializer.FstSerializer;
@@ -30,6 +36,22 @@ import com.jfinal.plugin.redis.serializer.ISerializer;
  * RedisPlugin 支持多个 Redis 服务端，只需要创建多个 RedisPlugin 对象
  * 对应这多个不同的 Redis 服务端即可。也支持多个 RedisPlugin 对象对应同一
  * Redis 服务的不同 database，具体例子见 jfinal 手册
+ * 
+ * 通过 useSentinel(...)、useCluster() 支持 Sentinel 与 Cluster，此时 host 为逗号分隔的
+ * "host:port" 列表：
+ * <pre>
+ * RedisPlugin rp = new RedisPlugin("main", "10.0.0.1:26379, 10.0.0.2:26379", "password");
+ * rp.useSentinel("mymaster");
+ * 
+ * RedisPlugin rp = new RedisPlugin("main", "10.0.0.1:7000, 10.0.0.2:7000, 10.0.0.3:7000");
+ * rp.useCluster();
+ * </pre>
+ * 
+ * 通过 setBlockingPoolSize(...) 为 blpop、brpop、订阅等长时间占用连接的操作配置独立的连接池，
+ * 避免其耗尽处理普通命令的连接池：
+ * <pre>
+ * rp.setBlockingPoolSize(8);
+ * </pre>
  */
 public class RedisPlugin implements IPlugin {
 	
@@ -44,9 +66,13 @@ public class RedisPlugin implements IPlugin {
 	protected Integer database = null;
 	protected String clientName = null;
 	
+	protected String sentinelMasterName = null;
+	protected boolean cluster = false;
+	
 	protected ISerializer serializer = null;
 	protected IKeyNamingPolicy keyNamingPolicy = null;
 	protected JedisPoolConfig jedisPoolConfig = new JedisPoolConfig();
+	protected int blockingPoolSize = 0;
 	
 	public RedisPlugin(String cacheName, String host) {
 		if (StrKit.isBlank(cacheName))
@@ -100,26 +126,21 @@ public class RedisPlugin implements IPlugin {
 			return true;
 		}
 		
-		JedisPool jedisPool;
-		if      (port != null && timeout != null && database != null && clientName != null)
-			jedisPool = new JedisPool(jedisPoolConfig, host, port, timeout, password, database, clientName);
-		else if (port != null && timeout != null && database != null)
-			jedisPool = new JedisPool(jedisPoolConfig, host, port, timeout, password, database);
-		else if (port != null && timeout != null)
-			jedisPool = new JedisPool(jedisPoolConfig, host, port, timeout, password);
-		// else if (port != null && timeout != null)
-			// jedisPool = new JedisPool(jedisPoolConfig, host, port, timeout);
-		else if (port != null)
-			jedisPool = new JedisPool(jedisPoolConfig, host, port);
-		else
-			jedisPool = new JedisPool(jedisPoolConfig, host);
-		
 		if (serializer == null)
 			serializer = FstSerializer.me;
 		if (keyNamingPolicy == null)
 			keyNamingPolicy = IKeyNamingPolicy.defaultKeyNamingPolicy;
 		
-		Cache cache = new Cache(cacheName, jedisPool, serializer, keyNamingPolicy);
+		if (cluster || sentinelMasterName != null) {
+			Cache cache = cluster ? createClusterCache() : createSentinelCache();
+			Redis.addCache(cache);
+			isStarted = true;
+			return true;
+		}
+		
+		Cache cache = new Cache(cacheName, createJedisPool(jedisPoolConfig), serializer, keyNamingPolicy);
+		if (blockingPoolSize > 0)
+			cache.setBlockingPool(createJedisPool(createBlockingPoolConfig()));
 		Redis.addCache(cache);
 		
 		isStarted = true;
@@ -130,12 +151,102 @@ public class RedisPlugin implements IPlugin {
 		Cache cache = Redis.removeCache(cacheName);
 		if (cache == Redis.mainCache)
 			Redis.mainCache = null;
-		cache.jedisPool.destroy();
+		cache.destroy();
 		
 		isStarted = false;
 		return true;
 	}
 	
+	protected JedisPool createJedisPool(JedisPoolConfig config) {
+		if      (port != null && timeout != null && database != null && clientName != null)
+			return new JedisPool(config, host, port, timeout, password, database, clientName);
+		else if (port != null && timeout != null && database != null)
+			return new JedisPool(config, host, port, timeout, password, database);
+		else if (port != null && timeout != null)
+			return new JedisPool(config, host, port, timeout, password);
+		// else if (port != null && timeout != null)
+			// return new JedisPool(config, host, port, timeout);
+		else if (port != null)
+			return new JedisPool(config, host, port);
+		else
+			return new JedisPool(config, host);
+	}
+	
+	/**
+	 * 阻塞命令连接池的配置，复制 jedisPoolConfig 中的配置（testOnBorrow、maxWait、空闲检测等），
+	 * 只将连接数上限改为 blockingPoolSize，连接耗尽时等待归还
+	 */
+	protected JedisPoolConfig createBlockingPoolConfig() {
+		JedisPoolConfig config = (JedisPoolConfig)jedisPoolConfig.clone();
+		config.setMaxTotal(blockingPoolSize);
+		config.setMaxIdle(blockingPoolSize);
+		config.setMinIdle(0);
+		config.setBlockWhenExhausted(true);
+		return config;
+	}
+	
+	protected Set<String> parseNodes() {
+		Set<String> ret = new LinkedHashSet<String>();
+		for (String node : host.split(",")) {
+			if (StrKit.notBlank(node))
+				ret.add(node.trim());
+		}
+		return ret;
+	}
+	
+	protected Cache createSentinelCache() {
+		int timeout = this.timeout != null ? this.timeout : Protocol.DEFAULT_TIMEOUT;
+		int database = this.database != null ? this.database : Protocol.DEFAULT_DATABASE;
+		Pool<Jedis> pool = new JedisSentinelPool(sentinelMasterName, parseNodes(), jedisPoolConfig, timeout, password, database, clientName);
+		Cache cache = new Cache(cacheName, pool, serializer, keyNamingPolicy);
+		if (blockingPoolSize > 0)
+			cache.setBlockingPool(new JedisSentinelPool(sentinelMasterName, parseNodes(), createBlockingPoolConfig(), timeout, password, database, clientName));
+		return cache;
+	}
+	
+	protected Cache createClusterCache() {
+		if (database != null && database != 0)
+			throw new IllegalArgumentException("Redis Cluster only supports database 0");
+		int timeout = this.timeout != null ? this.timeout : Protocol.DEFAULT_TIMEOUT;
+		if (blockingPoolSize > 0)
+			LogKit.warn("RedisPlugin blockingPoolSize is ignored in cluster mode");
+		return new ClusterCache(cacheName, parseNodes(), jedisPoolConfig, timeout, password, clientName, serializer, keyNamingPolicy);
+	}
+	
+	/**
+	 * 使用 Redis Sentinel，host 为逗号分隔的 sentinel 地址列表，主节点切换时连接池自动切换到新的主节点
+	 * @param masterName sentinel 中配置的 master 名称
+	 */
+	public RedisPlugin useSentinel(String masterName) {
+		if (StrKit.isBlank(masterName))
+			throw new IllegalArgumentException("masterName can not be blank.");
+		if (cluster)
+			throw new IllegalStateException("useCluster() already called");
+		this.sentinelMasterName = masterName.trim();
+		return this;
+	}
+	
+	/**
+	 * 使用 Redis Cluster，host 为逗号分隔的集群节点地址列表，参考 ClusterCache
+	 */
+	public RedisPlugin useCluster() {
+		if (sentinelMasterName != null)
+			throw new IllegalStateException("useSentinel(...) already called");
+		this.cluster = true;
+		return this;
+	}
+	
+	/**
+	 * 配置阻塞命令（blpop、brpop、subscribe、psubscribe）以及 RedisSubscriber、RedisLock、NearCache
+	 * 订阅连接使用的独立连接池的大小，默认值 0 表示与普通命令共用连接池。Cluster 模式下不支持
+	 */
+	public RedisPlugin setBlockingPoolSize(int blockingPoolSize) {
+		if (blockingPoolSize < 0)
+			throw new IllegalArgumentException("blockingPoolSize can not be less than 0");
+		this.blockingPoolSize = blockingPoolSize;
+		return this;
+	}
+	
 	/**
 	 * 当RedisPlugin 提供的设置属性仍然无法满足需求时，通过此方法获取到
 	 * JedisPoolConfig 对象，可对 redis 进行更加细致的配置
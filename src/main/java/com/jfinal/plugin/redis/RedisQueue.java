@@ -0,0 +1,555 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.redis;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import com.jfinal.kit.LogKit;
+import com.jfinal.kit.ThreadPoolKit;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.XAddParams;
+import redis.clients.jedis.params.XClaimParams;
+import redis.clients.jedis.params.XPendingParams;
+import redis.clients.jedis.params.XReadGroupParams;
+import redis.clients.jedis.resps.StreamEntry;
+import redis.clients.jedis.resps.StreamPendingEntry;
+
+/**
+ * RedisQueue 基于 Redis Streams 消费组的持久化任务队列，用于替代 lpush + brpop
+ *
+ * <pre>
+ * 1：消息处理成功后才 XACK，消费者在处理过程中宕机时，消息保留在消费组的 pending 列表中，
+ *    空闲超过 claimIdleMillis 后被其它消费者通过 XCLAIM 接管并重新处理，不会丢失
+ *
+ * 2：每个 RedisQueue 只有一个拉取线程持有连接，通过 XREADGROUP 批量拉取，最多 batchSize 条，
+ *    消息分发到 executor（默认 ThreadPoolKit.getExecutor()）中执行
+ *
+ * 3：同时处理的消息数不超过 concurrency，处理线程跟不上时拉取线程停止拉取（背压），
+ *    未拉取的消息留在 stream 中，可由其它进程的消费者处理
+ *
+ * 4：同一条消息投递次数超过 maxDeliveries 时转入 stream + ":dead"，并从 pending 列表中移除，
+ *    避免无法处理的消息被反复重试
+ *
+ * 5：handler 可能收到重复消息（处理成功但 XACK 之前宕机），需要保证幂等
+ *
+ * 6：所有 redis 操作集中在 createGroup、add、read、claim、ack 几个 protected 方法中，
+ *    单元测试中可以继承 RedisQueue 并以内存实现覆盖这些方法
+ *
+ * 例子：
+ * RedisQueue queue = new RedisQueue(Redis.use(), "order-queue", "order-worker").setConcurrency(8);
+ * queue.start(msg -> {
+ *     Order order = msg.getValue();
+ *     orderService.process(order);
+ * });
+ *
+ * queue.send(order);
+ * queue.stop(10, TimeUnit.SECONDS);
+ * </pre>
+ */
+public class RedisQueue {
+
+	/**
+	 * send(Object value) 使用的字段名
+	 */
+	public static final String VALUE_FIELD = "_v";
+
+	@FunctionalInterface
+	public interface Handler {
+		void handle(Message msg) throws Exception;
+	}
+
+	protected final Cache cache;
+	protected final String stream;
+	protected final String group;
+	protected String consumer = defaultConsumerName();
+
+	protected int batchSize = 16;
+	protected int concurrency = 4;
+	protected long blockMillis = 2000;
+	protected long claimIdleMillis = 60000;
+	protected long claimIntervalMillis = 30000;
+	protected int maxDeliveries = 16;
+	protected long maxLen = 0;
+	protected Executor executor;
+
+	protected volatile boolean running = false;
+	protected Thread thread;
+	protected Semaphore permits;
+	protected Handler handler;
+	protected long lastClaimTime = 0;
+
+	protected final LongAdder ackCount = new LongAdder();
+	protected final LongAdder failCount = new LongAdder();
+	protected final LongAdder claimCount = new LongAdder();
+	protected final LongAdder deadCount = new LongAdder();
+
+	public RedisQueue(Cache cache, String stream, String group) {
+		if (cache == null) {
+			throw new IllegalArgumentException("cache can not be null");
+		}
+		if (stream == null || group == null) {
+			throw new IllegalArgumentException("stream and group can not be null");
+		}
+		this.cache = cache;
+		this.stream = stream;
+		this.group = group;
+	}
+
+	/**
+	 * 消费者名称，默认为 "主机名-进程号-随机数"，同一消费组中必须唯一
+	 */
+	public RedisQueue setConsumer(String consumer) {
+		if (consumer == null) {
+			throw new IllegalArgumentException("consumer can not be null");
+		}
+		this.consumer = consumer;
+		return this;
+	}
+
+	/**
+	 * 每次 XREADGROUP 拉取的最大消息数，默认值 16
+	 */
+	public RedisQueue setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must more than 0");
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * 同时处理的最大消息数，默认值 4
+	 */
+	public RedisQueue setConcurrency(int concurrency) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("concurrency must more than 0");
+		}
+		this.concurrency = concurrency;
+		return this;
+	}
+
+	/**
+	 * XREADGROUP 阻塞等待的时长，默认值 2000 毫秒，同时也是 stop() 之后拉取线程退出的最大延迟
+	 */
+	public RedisQueue setBlockMillis(long blockMillis) {
+		if (blockMillis < 1) {
+			throw new IllegalArgumentException("blockMillis must more than 0");
+		}
+		this.blockMillis = blockMillis;
+		return this;
+	}
+
+	/**
+	 * @param claimIdleMillis pending 消息空闲超过该时长后被接管，需大于 handler 的最长执行时间，默认值 60000
+	 * @param claimIntervalMillis 检查 pending 列表的间隔，默认值 30000
+	 * @param maxDeliveries 最大投递次数，超过后转入死信 stream，默认值 16
+	 */
+	public RedisQueue setClaim(long claimIdleMillis, long claimIntervalMillis, int maxDeliveries) {
+		if (claimIdleMillis < 1 || claimIntervalMillis < 1 || maxDeliveries < 1) {
+			throw new IllegalArgumentException("claimIdleMillis, claimIntervalMillis and maxDeliveries must more than 0");
+		}
+		this.claimIdleMillis = claimIdleMillis;
+		this.claimIntervalMillis = claimIntervalMillis;
+		this.maxDeliveries = maxDeliveries;
+		return this;
+	}
+
+	/**
+	 * send 时按 MAXLEN ~ maxLen 近似裁剪 stream，默认值 0 表示不裁剪。
+	 * 注意：裁剪会删除尚未被消费的消息
+	 */
+	public RedisQueue setMaxLen(long maxLen) {
+		if (maxLen < 0) {
+			throw new IllegalArgumentException("maxLen can not be less than 0");
+		}
+		this.maxLen = maxLen;
+		return this;
+	}
+
+	public RedisQueue setExecutor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	public String getStream() {
+		return stream;
+	}
+
+	public String getGroup() {
+		return group;
+	}
+
+	public String getConsumer() {
+		return consumer;
+	}
+
+	// --------
+
+	/**
+	 * 发送消息，返回消息 id
+	 */
+	public String send(Map<String, String> fields) {
+		if (fields == null || fields.isEmpty()) {
+			throw new IllegalArgumentException("fields can not be empty");
+		}
+		return add(stream, fields);
+	}
+
+	/**
+	 * 使用 Cache 的 ISerializer 序列化 value 后发送，通过 Message.getValue() 获取
+	 */
+	public String send(Object value) {
+		byte[] data = cache.getSerializer().valueToBytes(value);
+		return send(Collections.singletonMap(VALUE_FIELD, Base64.getEncoder().encodeToString(data)));
+	}
+
+	/**
+	 * 创建消费组并启动拉取线程
+	 */
+	public synchronized void start(Handler handler) {
+		if (handler == null) {
+			throw new IllegalArgumentException("handler can not be null");
+		}
+		if (running) {
+			throw new IllegalStateException("RedisQueue already started: " + stream);
+		}
+
+		createGroup();
+		this.handler = handler;
+		this.permits = new Semaphore(concurrency);
+		if (executor == null) {
+			executor = ThreadPoolKit.getExecutor();
+		}
+		running = true;
+		thread = new Thread(this::pollLoop, "RedisQueue-" + stream);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * 停止拉取，并等待正在处理的消息完成。超时未完成的消息保留在 pending 列表中，稍后被重新处理
+	 * @return 所有正在处理的消息在 timeout 之内完成时返回 true
+	 */
+	public boolean stop(long timeout, TimeUnit unit) {
+		Thread t;
+		synchronized (this) {
+			if (!running) {
+				return true;
+			}
+			running = false;
+			t = thread;
+			thread = null;
+		}
+
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		try {
+			t.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+			long remaining = deadline - System.nanoTime();
+			if (remaining > 0 && permits.tryAcquire(concurrency, remaining, TimeUnit.NANOSECONDS)) {
+				permits.release(concurrency);
+				return true;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	public void stop() {
+		stop(blockMillis + 1000, TimeUnit.MILLISECONDS);
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * 当前正在处理的消息数
+	 */
+	public int getInFlight() {
+		Semaphore p = permits;
+		return p != null ? concurrency - p.availablePermits() : 0;
+	}
+
+	public long getAckCount() {
+		return ackCount.sum();
+	}
+
+	public long getFailCount() {
+		return failCount.sum();
+	}
+
+	public long getClaimCount() {
+		return claimCount.sum();
+	}
+
+	public long getDeadCount() {
+		return deadCount.sum();
+	}
+
+	// --------
+
+	protected void pollLoop() {
+		while (running) {
+			int n = 0;
+			try {
+				// 背压：至少有一个空闲处理名额时才拉取，拉取数量不超过空闲名额
+				if (!permits.tryAcquire(blockMillis, TimeUnit.MILLISECONDS)) {
+					continue;
+				}
+				n = 1 + permits.drainPermits();
+				if (n > batchSize) {
+					permits.release(n - batchSize);
+					n = batchSize;
+				}
+
+				List<Message> list = null;
+				long now = System.currentTimeMillis();
+				if (now - lastClaimTime >= claimIntervalMillis) {
+					lastClaimTime = now;
+					list = claim(n);
+				}
+				if (list == null || list.isEmpty()) {
+					list = read(n, blockMillis);
+				}
+
+				for (Message msg : list) {
+					n--;
+					dispatch(msg);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break ;
+			} catch (Exception e) {
+				LogKit.error("RedisQueue poll failed: " + e.getMessage(), e);
+				sleep(1000);
+			} finally {
+				if (n > 0) {
+					permits.release(n);
+				}
+			}
+		}
+	}
+
+	protected void dispatch(Message msg) {
+		if (msg.getDeliveryCount() > maxDeliveries) {
+			try {
+				deadLetter(msg);
+			} catch (Exception e) {
+				LogKit.error("RedisQueue can not move message to dead letter stream: " + e.getMessage(), e);
+			} finally {
+				permits.release();
+			}
+			return ;
+		}
+
+		try {
+			executor.execute(() -> process(msg));
+		} catch (RejectedExecutionException e) {
+			// 消息保留在 pending 列表中，等待 claim
+			LogKit.error("RedisQueue executor rejected message " + msg.getId(), e);
+			permits.release();
+		}
+	}
+
+	protected void process(Message msg) {
+		try {
+			handler.handle(msg);
+			ack(msg.getId());
+			ackCount.increment();
+		} catch (Throwable e) {
+			// 不 ack，消息在 claimIdleMillis 之后被重新投递
+			failCount.increment();
+			LogKit.error("RedisQueue handler failed, message " + msg.getId() + ": " + e.getMessage(), e);
+		} finally {
+			permits.release();
+		}
+	}
+
+	protected void deadLetter(Message msg) {
+		add(stream + ":dead", msg.getFields());
+		ack(msg.getId());
+		deadCount.increment();
+		LogKit.warn("RedisQueue message " + msg.getId() + " moved to " + stream + ":dead after " + (msg.getDeliveryCount() - 1) + " deliveries");
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static String defaultConsumerName() {
+		String name = ManagementFactory.getRuntimeMXBean().getName();	// pid@hostname
+		return name + "-" + UUID.randomUUID().toString().substring(0, 8);
+	}
+
+	// -------- redis 操作
+
+	/**
+	 * 创建消费组，从 stream 的第一条消息开始消费，消费组已存在时忽略
+	 */
+	protected void createGroup() {
+		try {
+			cache.callByRedisKey(stream, jedis -> jedis.xgroupCreate(stream, group, new StreamEntryID(), true));
+		} catch (JedisDataException e) {
+			if (e.getMessage() == null || !e.getMessage().startsWith("BUSYGROUP")) {
+				throw e;
+			}
+		}
+	}
+
+	protected String add(String key, Map<String, String> fields) {
+		return cache.callByRedisKey(key, jedis -> {
+			XAddParams params = new XAddParams();
+			if (maxLen > 0) {
+				params.maxLen(maxLen).approximateTrimming();
+			}
+			return jedis.xadd(key, params, fields).toString();
+		});
+	}
+
+	/**
+	 * 拉取从未投递过的消息，没有消息时最多阻塞 blockMillis
+	 */
+	protected List<Message> read(int count, long blockMillis) {
+		// 配置了阻塞命令连接池时，阻塞读取不占用普通命令的连接池
+		boolean blocking = cache.getBlockingPool() != null;
+		Jedis jedis = blocking ? cache.getDedicatedJedis() : cache.getJedisByRedisKey(stream);
+		try {
+			XReadGroupParams params = new XReadGroupParams().count(count).block((int)blockMillis);
+			Map<String, StreamEntryID> streams = Collections.singletonMap(stream, StreamEntryID.XREADGROUP_UNDELIVERED_ENTRY);
+			List<Map.Entry<String, List<StreamEntry>>> result = jedis.xreadGroup(group, consumer, params, streams);
+
+			List<Message> ret = new ArrayList<>();
+			if (result != null) {
+				for (Map.Entry<String, List<StreamEntry>> e : result) {
+					for (StreamEntry entry : e.getValue()) {
+						ret.add(new Message(entry.getID().toString(), entry.getFields(), 1));
+					}
+				}
+			}
+			return ret;
+		} finally {
+			if (blocking) {
+				jedis.close();
+			} else {
+				cache.close(jedis);
+			}
+		}
+	}
+
+	/**
+	 * 接管空闲超过 claimIdleMillis 的 pending 消息。已被其它消费者接管或者已被删除的消息不会返回
+	 */
+	protected List<Message> claim(int count) {
+		return cache.callByRedisKey(stream, jedis -> {
+			List<StreamPendingEntry> pending = jedis.xpending(stream, group, new XPendingParams("-", "+", count).idle(claimIdleMillis));
+			if (pending == null || pending.isEmpty()) {
+				return Collections.emptyList();
+			}
+
+			Map<String, Long> deliveredMap = new HashMap<>();
+			StreamEntryID[] ids = new StreamEntryID[pending.size()];
+			for (int i = 0; i < ids.length; i++) {
+				StreamPendingEntry p = pending.get(i);
+				ids[i] = p.getID();
+				deliveredMap.put(p.getID().toString(), p.getDeliveredTimes());
+			}
+
+			List<StreamEntry> entries = jedis.xclaim(stream, group, consumer, claimIdleMillis, new XClaimParams(), ids);
+			List<Message> ret = new ArrayList<>(entries.size());
+			for (StreamEntry entry : entries) {
+				if (entry == null || entry.getFields() == null) {
+					continue ;
+				}
+				// XCLAIM 使投递次数加一
+				String id = entry.getID().toString();
+				Long delivered = deliveredMap.get(id);
+				ret.add(new Message(id, entry.getFields(), delivered != null ? (int)Math.min(Integer.MAX_VALUE, delivered + 1) : 1));
+			}
+			claimCount.add(ret.size());
+			return ret;
+		});
+	}
+
+	protected void ack(String id) {
+		cache.callByRedisKey(stream, jedis -> jedis.xack(stream, group, new StreamEntryID(id)));
+	}
+
+	// --------
+
+	/**
+	 * 队列中的消息
+	 */
+	public class Message {
+
+		final String id;
+		final Map<String, String> fields;
+		final int deliveryCount;
+
+		/**
+		 * @param deliveryCount 包含本次在内的投递次数
+		 */
+		public Message(String id, Map<String, String> fields, int deliveryCount) {
+			this.id = id;
+			this.fields = fields;
+			this.deliveryCount = deliveryCount;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public Map<String, String> getFields() {
+			return fields;
+		}
+
+		public String get(String field) {
+			return fields.get(field);
+		}
+
+		public int getDeliveryCount() {
+			return deliveryCount;
+		}
+
+		/**
+		 * 获取 send(Object value) 发送的对象
+		 */
+		@SuppressWarnings("unchecked")
+		public <T> T getValue() {
+			String data = fields.get(VALUE_FIELD);
+			return data != null ? (T)cache.getSerializer().valueFromBytes(Base64.getDecoder().decode(data)) : null;
+		}
+	}
+}
+
@@ -0,0 +1,437 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+/**
+ * RedisRateLimiter 基于 Lua 脚本的分布式限流，一次网络往返完成检查与计数，多个进程之间没有竞态
+ *
+ * <pre>
+ * 1：SLIDING_WINDOW 滑动窗口，按当前窗口计数与上一窗口计数的加权和估算 windowMillis 之内的请求数，
+ *    每个 key 只占用一个 hash，不随请求数增长
+ *
+ * 2：TOKEN_BUCKET 令牌桶，容量为 limit，每 windowMillis 补充 limit 个令牌，允许 limit 以内的突发
+ *
+ * 3：脚本通过 scriptLoad 预加载并使用 evalsha 执行，redis 重启导致脚本丢失时自动重新加载。
+ *    时间取自 redis 的 TIME 命令，不受各进程时钟偏差影响
+ *
+ * 4：setLocalBatch(n) 开启本地预检：剩余额度充足时一次向 redis 预留 n 个额度，后续请求在本地扣减，
+ *    不再访问 redis。额度已在 redis 中计数，所以不会超限，代价是预留而未使用的额度在过期之前
+ *    其它进程无法使用。剩余额度不足 2n 时不再预留，退化为每次访问 redis。
+ *    本地额度不足本次所需时访问 redis，未用完的本地额度并入新预留的额度
+ *
+ * 5：tryAcquire(List keys) 在一个 pipeline 中检查多个 key，集群模式下按节点分组
+ *
+ * 例子：
+ * // 每个用户每分钟 100 次
+ * RedisRateLimiter limiter = new RedisRateLimiter(Redis.use(), Algorithm.SLIDING_WINDOW, 100, 60000);
+ * if (!limiter.tryAcquire("user:" + userId)) {
+ *     renderError(429);
+ * }
+ *
+ * // 每个接口每秒 1000 次，本地每次预留 20 个额度
+ * RedisRateLimiter limiter = new RedisRateLimiter(Redis.use(), Algorithm.TOKEN_BUCKET, 1000, 1000).setLocalBatch(20);
+ * </pre>
+ */
+public class RedisRateLimiter {
+
+	public enum Algorithm {
+		SLIDING_WINDOW,
+		TOKEN_BUCKET
+	}
+
+	// 以下脚本 ARGV 均为：limit、windowMillis、最少获取数 min、最多获取数 max
+	// 剩余额度不少于 2 * max 时获取 max 个，否则不少于 min 时获取 min 个，否则获取 0 个
+	// 返回 {获取数, 获取后的剩余额度, 获取失败时建议的重试毫秒数}
+	protected static final String SCRIPT_HEAD =
+		"if redis.replicate_commands then redis.replicate_commands() end " +
+		"local t = redis.call('time') " +
+		"local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000) " +
+		"local limit = tonumber(ARGV[1]) " +
+		"local window = tonumber(ARGV[2]) " +
+		"local min = tonumber(ARGV[3]) " +
+		"local max = tonumber(ARGV[4]) ";
+
+	protected static final String SLIDING_WINDOW_SCRIPT = SCRIPT_HEAD +
+		"local idx = math.floor(now / window) " +
+		"local h = redis.call('hmget', KEYS[1], 'w', 'c', 'p') " +
+		"local w = tonumber(h[1]) or idx " +
+		"local c = tonumber(h[2]) or 0 " +
+		"local p = tonumber(h[3]) or 0 " +
+		"if w ~= idx then " +
+		"  if w == idx - 1 then p = c else p = 0 end " +
+		"  c = 0 " +
+		"end " +
+		"local elapsed = now - idx * window " +
+		"local avail = limit - math.ceil(p * (window - elapsed) / window + c) " +
+		"local g = 0 " +
+		"if avail >= max * 2 then g = max elseif avail >= min then g = min end " +
+		"c = c + g " +
+		"redis.call('hset', KEYS[1], 'w', idx, 'c', c, 'p', p) " +
+		"redis.call('pexpire', KEYS[1], window * 2) " +
+		"local retry = 0 " +
+		"if g == 0 then " +
+		"  retry = window - elapsed " +
+		"  if p > 0 then retry = math.min(retry, math.ceil((min - avail) * window / p)) end " +
+		"end " +
+		"return {g, avail - g, retry}";
+
+	protected static final String TOKEN_BUCKET_SCRIPT = SCRIPT_HEAD +
+		"local h = redis.call('hmget', KEYS[1], 't', 'ts') " +
+		"local tokens = tonumber(h[1]) " +
+		"local ts = tonumber(h[2]) " +
+		"if tokens == nil or ts == nil then tokens = limit ts = now end " +
+		"if now > ts then tokens = math.min(limit, tokens + (now - ts) * limit / window) end " +
+		"local g = 0 " +
+		"if tokens >= max * 2 then g = max elseif tokens >= min then g = min end " +
+		"tokens = tokens - g " +
+		"redis.call('hset', KEYS[1], 't', tostring(tokens), 'ts', math.max(now, ts)) " +
+		"redis.call('pexpire', KEYS[1], window + 1000) " +
+		"local retry = 0 " +
+		"if g == 0 then retry = math.ceil((min - tokens) * window / limit) end " +
+		"return {g, math.floor(tokens), retry}";
+
+	protected final Cache cache;
+	protected final Algorithm algorithm;
+	protected final int limit;
+	protected final long windowMillis;
+	protected final String script;
+
+	protected String prefix = "_rate_limit_:";
+	protected int localBatch = 0;
+	protected int maxLocalKeys = 10000;
+	protected Map<String, Lease> leaseMap;
+
+	protected final Map<String, String> shaMap = new ConcurrentHashMap<>();
+	protected final LongAdder localHitCount = new LongAdder();
+	protected final LongAdder remoteCount = new LongAdder();
+	protected final LongAdder rejectCount = new LongAdder();
+
+	/**
+	 * @param limit windowMillis 之内允许的次数，令牌桶的容量
+	 * @param windowMillis 时间窗口，令牌桶每 windowMillis 补充 limit 个令牌
+	 */
+	public RedisRateLimiter(Cache cache, Algorithm algorithm, int limit, long windowMillis) {
+		if (cache == null || algorithm == null) {
+			throw new IllegalArgumentException("cache and algorithm can not be null");
+		}
+		if (limit < 1 || windowMillis < 1) {
+			throw new IllegalArgumentException("limit and windowMillis must more than 0");
+		}
+		this.cache = cache;
+		this.algorithm = algorithm;
+		this.limit = limit;
+		this.windowMillis = windowMillis;
+		this.script = algorithm == Algorithm.SLIDING_WINDOW ? SLIDING_WINDOW_SCRIPT : TOKEN_BUCKET_SCRIPT;
+	}
+
+	public RedisRateLimiter setPrefix(String prefix) {
+		if (prefix == null) {
+			throw new IllegalArgumentException("prefix can not be null");
+		}
+		this.prefix = prefix;
+		return this;
+	}
+
+	/**
+	 * 开启本地预检，每次向 redis 预留 localBatch 个额度，默认值 0 表示不开启
+	 * @param localBatch 每次预留的额度，建议不超过 limit 的 1/10
+	 * @param maxLocalKeys 本地最多保存预留额度的 key 数量，按 LRU 淘汰
+	 */
+	public synchronized RedisRateLimiter setLocalBatch(int localBatch, int maxLocalKeys) {
+		if (localBatch < 0 || maxLocalKeys < 1) {
+			throw new IllegalArgumentException("localBatch can not be less than 0 and maxLocalKeys must more than 0");
+		}
+		this.localBatch = localBatch;
+		this.maxLocalKeys = maxLocalKeys;
+		this.leaseMap = localBatch > 1 ? Collections.synchronizedMap(new LinkedHashMap<String, Lease>(16, 0.75F, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String, Lease> eldest) {
+				return size() > RedisRateLimiter.this.maxLocalKeys;
+			}
+		}) : null;
+		return this;
+	}
+
+	public RedisRateLimiter setLocalBatch(int localBatch) {
+		return setLocalBatch(localBatch, maxLocalKeys);
+	}
+
+	public Algorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public long getWindowMillis() {
+		return windowMillis;
+	}
+
+	/**
+	 * 通过本地预留额度放行、未访问 redis 的次数
+	 */
+	public long getLocalHitCount() {
+		return localHitCount.sum();
+	}
+
+	public long getRemoteCount() {
+		return remoteCount.sum();
+	}
+
+	public long getRejectCount() {
+		return rejectCount.sum();
+	}
+
+	// ---------
+
+	public boolean tryAcquire(String key) {
+		return acquire(key, 1).isAllowed();
+	}
+
+	public boolean tryAcquire(String key, int permits) {
+		return acquire(key, permits).isAllowed();
+	}
+
+	/**
+	 * 获取 permits 个额度，返回值包含剩余额度与建议的重试时间
+	 */
+	public Result acquire(String key, int permits) {
+		if (permits < 1 || permits > limit) {
+			throw new IllegalArgumentException("permits must more than 0 and can not be greater than limit " + limit);
+		}
+		Result ret = acquireLocal(key, permits);
+		if (ret != null) {
+			return ret;
+		}
+
+		remoteCount.increment();
+		int max = maxPermits(permits);
+		return toResult(key, permits, eval(redisKey(key), args(permits, max)));
+	}
+
+	/**
+	 * 在一个 pipeline 中对多个 key 各获取一个额度，返回值与 keys 一一对应
+	 */
+	public List<Result> tryAcquire(List<String> keys) {
+		Result[] ret = new Result[keys.size()];
+		List<Integer> remote = new ArrayList<>();
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = acquireLocal(keys.get(i), 1);
+			if (ret[i] == null) {
+				remote.add(i);
+			}
+		}
+		if (remote.isEmpty()) {
+			return Arrays.asList(ret);
+		}
+
+		remoteCount.add(remote.size());
+		int max = maxPermits(1);
+		List<String> args = args(1, max);
+		String sha = loadScript(keys.get(remote.get(0)));
+		List<CompletableFuture<Object>> futures = new ArrayList<>(remote.size());
+		try (RedisPipeline pipeline = cache.pipeline()) {
+			for (int i : remote) {
+				String redisKey = redisKey(keys.get(i));
+				futures.add(pipeline.call(redisKey, p -> p.evalsha(sha, Collections.singletonList(redisKey), args)));
+			}
+			pipeline.sync();
+		}
+
+		for (int j = 0; j < futures.size(); j++) {
+			int i = remote.get(j);
+			Object value;
+			try {
+				value = futures.get(j).join();
+			} catch (Exception e) {
+				// 集群中部分节点未加载脚本等情况，单独执行一次
+				value = eval(redisKey(keys.get(i)), args);
+			}
+			ret[i] = toResult(keys.get(i), 1, value);
+		}
+		return Arrays.asList(ret);
+	}
+
+	/**
+	 * 删除 key 的计数与本地预留额度
+	 */
+	public void reset(String key) {
+		Map<String, Lease> map = leaseMap;
+		if (map != null) {
+			map.remove(key);
+		}
+		cache.callByRedisKey(redisKey(key), jedis -> jedis.del(redisKey(key)));
+	}
+
+	// ---------
+
+	protected Result acquireLocal(String key, int permits) {
+		Map<String, Lease> map = leaseMap;
+		if (map == null) {
+			return null;
+		}
+		Lease lease = map.get(key);
+		if (lease == null) {
+			return null;
+		}
+		if (System.currentTimeMillis() >= lease.expireAt) {
+			map.remove(key, lease);
+			return null;
+		}
+		// 剩余额度不足时保留 lease，由 toResult(...) 将其合并到新预留的额度之中
+		for (;;) {
+			int remaining = lease.remaining.get();
+			if (remaining < permits) {
+				return null;
+			}
+			if (lease.remaining.compareAndSet(remaining, remaining - permits)) {
+				localHitCount.add(permits);
+				return new Result(true, remaining - permits, 0);
+			}
+		}
+	}
+
+	protected int maxPermits(int permits) {
+		return leaseMap != null ? Math.max(permits, localBatch) : permits;
+	}
+
+	protected List<String> args(int min, int max) {
+		return Arrays.asList(String.valueOf(limit), String.valueOf(windowMillis), String.valueOf(min), String.valueOf(max));
+	}
+
+	@SuppressWarnings("unchecked")
+	protected Result toResult(String key, int permits, Object value) {
+		List<Long> list = (List<Long>)value;
+		long granted = list.get(0);
+		long remaining = list.get(1);
+		if (granted == 0) {
+			rejectCount.increment();
+			return new Result(false, remaining, list.get(2));
+		}
+
+		Map<String, Lease> map = leaseMap;
+		if (granted > permits && map != null) {
+			// 预留额度在 windowMillis 之内有效，滑动窗口中其计数同样在 windowMillis 之后失效
+			int reserved = (int)(granted - permits);
+			long now = System.currentTimeMillis();
+			map.compute(key, (k, old) -> {
+				if (old != null && now < old.expireAt) {
+					// 已有 lease 的剩余额度并入新 lease，按较早的过期时间失效，既不丢失也不会超限
+					int left = old.remaining.getAndSet(0);
+					if (left > 0) {
+						return new Lease(reserved + left, old.expireAt);
+					}
+				}
+				return new Lease(reserved, now + windowMillis);
+			});
+		}
+		return new Result(true, remaining + granted - permits, 0);
+	}
+
+	protected String redisKey(String key) {
+		return prefix + key;
+	}
+
+	protected String loadScript(String key) {
+		String sha = shaMap.get(script);
+		if (sha == null) {
+			sha = cache.callByRedisKey(redisKey(key), jedis -> jedis.scriptLoad(script));
+			shaMap.put(script, sha);
+		}
+		return sha;
+	}
+
+	/**
+	 * 优先使用 evalsha，redis 重启等原因导致脚本丢失时重新加载
+	 */
+	protected Object eval(String redisKey, List<String> args) {
+		List<String> keys = Collections.singletonList(redisKey);
+		return cache.callByRedisKey(redisKey, jedis -> {
+			String sha = shaMap.get(script);
+			if (sha != null) {
+				try {
+					return jedis.evalsha(sha, keys, args);
+				} catch (JedisNoScriptException e) {
+					// 重新加载脚本
+				}
+			}
+			shaMap.put(script, jedis.scriptLoad(script));
+			return jedis.eval(script, keys, args);
+		});
+	}
+
+	// ---------
+
+	protected static class Lease {
+
+		final AtomicInteger remaining;
+		final long expireAt;
+
+		Lease(int remaining, long expireAt) {
+			this.remaining = new AtomicInteger(remaining);
+			this.expireAt = expireAt;
+		}
+	}
+
+	/**
+	 * 限流检查结果
+	 */
+	public static class Result {
+
+		final boolean allowed;
+		final long remaining;
+		final long retryAfterMillis;
+
+		public Result(boolean allowed, long remaining, long retryAfterMillis) {
+			this.allowed = allowed;
+			this.remaining = remaining;
+			this.retryAfterMillis = retryAfterMillis;
+		}
+
+		public boolean isAllowed() {
+			return allowed;
+		}
+
+		/**
+		 * 剩余额度，本地预检放行时为本地预留的剩余额度
+		 */
+		public long getRemaining() {
+			return remaining;
+		}
+
+		/**
+		 * 被拒绝时建议的重试等待毫秒数
+		 */
+		public long getRetryAfterMillis() {
+			return retryAfterMillis;
+		}
+	}
+}
+
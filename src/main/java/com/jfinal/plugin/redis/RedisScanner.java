@@ -0,0 +1,410 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.redis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+import com.jfinal.kit.Func.F10;
+import com.jfinal.kit.Func.F11;
+import com.jfinal.kit.Func.F21;
+import com.jfinal.kit.StrKit;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.Pool;
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * RedisScanner 基于 SCAN 的批量遍历与批量删除，不使用会阻塞 redis 的 KEYS 命令
+ *
+ * <pre>
+ * 1：SCAN 返回的 key 按 batchSize 分批处理，每批通过一次 MGET、一次 pipeline 的 HGETALL
+ *    或者一次 UNLINK 完成。集群模式下在每个主节点上依次 SCAN，每批按 slot 分组后在同一个
+ *    pipeline 中执行
+ *
+ * 2：setRateLimit(...) 限制每秒处理的 key 数量，超出时在批次之间休眠，
+ *    使全量失效、数据迁移可以在生产环境中执行而不影响正常请求
+ *
+ * 3：回调返回 false、调用 cancel() 或者线程被中断时停止遍历。处理进度通过 getScannedCount()、
+ *    getProcessedCount()、getDeletedCount() 获取，或者通过 setProgressListener(...) 在每批之后回调
+ *
+ * 4：SCAN 的语义决定了遍历期间新增的 key 可能不被返回，同一个 key 可能被返回多次
+ *
+ * 5：key 为 redis 中的原始 key，不经过 IKeyNamingPolicy 处理，value 使用 Cache 的 ISerializer 反序列化
+ *
+ * 例子：
+ * // 删除所有 session，每批 500 个，每秒不超过 20000 个
+ * long n = Redis.use().scanner("session:*").setBatchSize(500).setRateLimit(20000).delete();
+ *
+ * // 遍历 string 类型的数据
+ * Redis.use().scanner("user:*").setType("string").forEachValue((keys, values) -> {
+ *     for (int i = 0; i < keys.size(); i++) {
+ *         target.set(keys.get(i), values.get(i));
+ *     }
+ *     return true;
+ * });
+ * </pre>
+ */
+public class RedisScanner {
+
+	protected final Cache cache;
+	protected final String pattern;
+
+	protected int count = 1000;
+	protected int batchSize = 500;
+	protected String type = null;
+	protected int rateLimit = 0;
+	protected F10<RedisScanner> progressListener = null;
+
+	protected volatile boolean cancelled = false;
+	protected volatile long startTime = 0;
+	protected volatile long endTime = 0;
+	protected final AtomicLong scannedCount = new AtomicLong();
+	protected final AtomicLong processedCount = new AtomicLong();
+	protected final AtomicLong deletedCount = new AtomicLong();
+
+	/**
+	 * @param pattern SCAN MATCH 使用的模式，为 null 时遍历所有 key
+	 */
+	public RedisScanner(Cache cache, String pattern) {
+		if (cache == null) {
+			throw new IllegalArgumentException("cache can not be null");
+		}
+		this.cache = cache;
+		this.pattern = pattern;
+	}
+
+	/**
+	 * SCAN COUNT 参数，默认值 1000，只能大致调整每次 SCAN 返回的数量
+	 */
+	public RedisScanner setCount(int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("count must more than 0");
+		}
+		this.count = count;
+		return this;
+	}
+
+	/**
+	 * 每批处理的 key 数量，默认值 500
+	 */
+	public RedisScanner setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must more than 0");
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * SCAN TYPE 参数，例如 "string"、"hash"，需要 redis 6.0 以上版本
+	 */
+	public RedisScanner setType(String type) {
+		this.type = type;
+		return this;
+	}
+
+	/**
+	 * 每秒最多处理的 key 数量，默认值 0 表示不限制
+	 */
+	public RedisScanner setRateLimit(int rateLimit) {
+		if (rateLimit < 0) {
+			throw new IllegalArgumentException("rateLimit can not be less than 0");
+		}
+		this.rateLimit = rateLimit;
+		return this;
+	}
+
+	/**
+	 * 每批处理完成之后回调，回调在遍历线程中执行
+	 */
+	public RedisScanner setProgressListener(F10<RedisScanner> progressListener) {
+		this.progressListener = progressListener;
+		return this;
+	}
+
+	/**
+	 * 在其它线程中停止遍历，当前批次处理完成之后生效
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public boolean isDone() {
+		return endTime > 0;
+	}
+
+	public long getScannedCount() {
+		return scannedCount.get();
+	}
+
+	public long getProcessedCount() {
+		return processedCount.get();
+	}
+
+	public long getDeletedCount() {
+		return deletedCount.get();
+	}
+
+	public long getElapsedMillis() {
+		if (startTime == 0) {
+			return 0;
+		}
+		return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+	}
+
+	// ---------
+
+	/**
+	 * 分批遍历 key
+	 * @return 处理的 key 数量
+	 */
+	public long forEachKey(F11<List<String>, Boolean> keyList) {
+		return run((jedis, keys) -> keyList.call(keys));
+	}
+
+	/**
+	 * 分批遍历 key 与通过 MGET 获取的 value，values 与 keys 一一对应，
+	 * 非 string 类型或者已被删除的 key 对应 null
+	 */
+	public long forEachValue(F21<List<String>, List<Object>, Boolean> keyValueList) {
+		return run((jedis, keys) -> {
+			List<Object> values = new ArrayList<>(keys.size());
+			for (byte[] data : mget(jedis, keys)) {
+				values.add(cache.valueFromBytes(data));
+			}
+			return keyValueList.call(keys, values);
+		});
+	}
+
+	/**
+	 * 分批遍历 hash 类型的 key 与通过 HGETALL 获取的数据，hashes 与 keys 一一对应
+	 */
+	public long forEachHash(F21<List<String>, List<Map<Object, Object>>, Boolean> keyHashList) {
+		return run((jedis, keys) -> {
+			List<Map<Object, Object>> hashes = new ArrayList<>(keys.size());
+			for (Map<byte[], byte[]> data : hgetAll(jedis, keys)) {
+				Map<Object, Object> hash = new HashMap<>();
+				for (Entry<byte[], byte[]> e : data.entrySet()) {
+					hash.put(cache.fieldFromBytes(e.getKey()), cache.valueFromBytes(e.getValue()));
+				}
+				hashes.add(hash);
+			}
+			return keyHashList.call(keys, hashes);
+		});
+	}
+
+	/**
+	 * 分批 UNLINK 所有匹配的 key，由 redis 在后台线程中释放内存
+	 * @return 删除的 key 数量
+	 */
+	public long delete() {
+		run((jedis, keys) -> {
+			deletedCount.addAndGet(unlink(jedis, keys));
+			return true;
+		});
+		return deletedCount.get();
+	}
+
+	// ---------
+
+	protected long run(F21<Jedis, List<String>, Boolean> batchHandler) {
+		if (startTime != 0) {
+			throw new IllegalStateException("RedisScanner can only run once");
+		}
+		startTime = System.currentTimeMillis();
+		try {
+			ScanParams params = new ScanParams().count(count);
+			if (StrKit.notBlank(pattern)) {
+				params.match(pattern);
+			}
+
+			for (Pool<Jedis> pool : cache.getMasterPools()) {
+				try (Jedis jedis = pool.getResource()) {
+					if (!scanNode(jedis, params, batchHandler)) {
+						break ;
+					}
+				}
+			}
+			return processedCount.get();
+		} finally {
+			endTime = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * 遍历一个节点，返回 false 表示停止遍历
+	 */
+	protected boolean scanNode(Jedis jedis, ScanParams params, F21<Jedis, List<String>, Boolean> batchHandler) {
+		String cursor = ScanParams.SCAN_POINTER_START;
+		List<String> buffer = new ArrayList<>();
+		ScanResult<String> result;
+		do {
+			if (cancelled || Thread.currentThread().isInterrupted()) {
+				return false;
+			}
+
+			result = type != null ? jedis.scan(cursor, params, type) : jedis.scan(cursor, params);
+			cursor = result.getCursor();
+			List<String> list = result.getResult();
+			if (list != null) {
+				buffer.addAll(list);
+				scannedCount.addAndGet(list.size());
+			}
+
+			boolean complete = result.isCompleteIteration();
+			while (buffer.size() >= batchSize || (complete && !buffer.isEmpty())) {
+				int n = Math.min(batchSize, buffer.size());
+				List<String> batch = new ArrayList<>(buffer.subList(0, n));
+				buffer.subList(0, n).clear();
+
+				Boolean ret = batchHandler.call(jedis, batch);
+				processedCount.addAndGet(n);
+				if (progressListener != null) {
+					progressListener.call(this);
+				}
+				if (ret == null || !ret || cancelled) {
+					return false;
+				}
+				if (!throttle()) {
+					return false;
+				}
+			}
+		} while (!result.isCompleteIteration());
+		return true;
+	}
+
+	/**
+	 * 处理速度超过 rateLimit 时休眠，被中断时返回 false
+	 */
+	protected boolean throttle() {
+		if (rateLimit <= 0) {
+			return true;
+		}
+		long expected = processedCount.get() * 1000 / rateLimit;
+		long elapsed = System.currentTimeMillis() - startTime;
+		if (expected > elapsed) {
+			try {
+				Thread.sleep(expected - elapsed);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// ---------
+
+	/**
+	 * 集群模式下多 key 命令要求所有 key 位于同一个 slot，按 slot 分组，值为 key 在参数中的下标
+	 */
+	protected List<List<Integer>> groupBySlot(List<String> keys) {
+		if (!(cache instanceof ClusterCache)) {
+			List<Integer> all = new ArrayList<>(keys.size());
+			for (int i = 0; i < keys.size(); i++) {
+				all.add(i);
+			}
+			return Collections.singletonList(all);
+		}
+
+		Map<Integer, List<Integer>> map = new LinkedHashMap<>();
+		for (int i = 0; i < keys.size(); i++) {
+			map.computeIfAbsent(JedisClusterCRC16.getSlot(keys.get(i)), k -> new ArrayList<>()).add(i);
+		}
+		return new ArrayList<>(map.values());
+	}
+
+	protected static byte[][] toBytes(List<String> keys, List<Integer> indexes) {
+		byte[][] ret = new byte[indexes.size()][];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = SafeEncoder.encode(keys.get(indexes.get(i)));
+		}
+		return ret;
+	}
+
+	protected List<byte[]> mget(Jedis jedis, List<String> keys) {
+		List<List<Integer>> groups = groupBySlot(keys);
+		List<Response<List<byte[]>>> responses = new ArrayList<>(groups.size());
+		try (Pipeline pipeline = jedis.pipelined()) {
+			for (List<Integer> group : groups) {
+				responses.add(pipeline.mget(toBytes(keys, group)));
+			}
+			pipeline.sync();
+		}
+
+		byte[][] ret = new byte[keys.size()][];
+		for (int g = 0; g < groups.size(); g++) {
+			List<Integer> group = groups.get(g);
+			List<byte[]> data = responses.get(g).get();
+			for (int i = 0; i < group.size(); i++) {
+				ret[group.get(i)] = data.get(i);
+			}
+		}
+		List<byte[]> list = new ArrayList<>(ret.length);
+		Collections.addAll(list, ret);
+		return list;
+	}
+
+	protected List<Map<byte[], byte[]>> hgetAll(Jedis jedis, List<String> keys) {
+		List<Response<Map<byte[], byte[]>>> responses = new ArrayList<>(keys.size());
+		try (Pipeline pipeline = jedis.pipelined()) {
+			for (String key : keys) {
+				responses.add(pipeline.hgetAll(SafeEncoder.encode(key)));
+			}
+			pipeline.sync();
+		}
+
+		List<Map<byte[], byte[]>> ret = new ArrayList<>(keys.size());
+		for (Response<Map<byte[], byte[]>> r : responses) {
+			Map<byte[], byte[]> data = r.get();
+			ret.add(data != null ? data : Collections.emptyMap());
+		}
+		return ret;
+	}
+
+	protected long unlink(Jedis jedis, List<String> keys) {
+		List<List<Integer>> groups = groupBySlot(keys);
+		List<Response<Long>> responses = new ArrayList<>(groups.size());
+		try (Pipeline pipeline = jedis.pipelined()) {
+			for (List<Integer> group : groups) {
+				responses.add(pipeline.unlink(toBytes(keys, group)));
+			}
+			pipeline.sync();
+		}
+
+		long ret = 0;
+		for (Response<Long> r : responses) {
+			ret += r.get();
+		}
+		return ret;
+	}
+}
+
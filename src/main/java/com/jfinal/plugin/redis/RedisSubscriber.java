@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.redis;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import com.jfinal.kit.LogKit;
+import com.jfinal.kit.ThreadPoolKit;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * RedisSubscriber 在一个订阅连接上复用所有频道与模式的订阅，消息通过 executor 分发给监听器
+ *
+ * <pre>
+ * 1：无论注册多少个频道，只占用一个连接与一个线程。Cache.subscribeThread(...) 每次调用
+ *    都会占用一个连接与一个线程，频道较多时会耗尽连接池
+ *
+ * 2：订阅连接通过 Cache.getDedicatedJedis() 获取，配置 RedisPlugin.setBlockingPoolSize(...)
+ *    后不占用处理普通命令的连接池
+ *
+ * 3：连接断开后在 retryMillis 之后自动重连，并重新订阅所有频道与模式，断开期间的消息会丢失
+ *
+ * 4：监听器默认在 ThreadPoolKit.getExecutor() 中执行，同一频道的消息不保证按序处理。
+ *    需要按序处理时使用 setExecutor(Runnable::run)，此时监听器需要尽快返回
+ *
+ * 例子：
+ * RedisSubscriber subscriber = Redis.use().getSubscriber();
+ * subscriber.subscribe("order-created", (channel, message) -> {
+ *     orderService.onCreated(message);
+ * });
+ * subscriber.psubscribe("user.*", (channel, message) -> {
+ *     userService.onEvent(channel, message);
+ * });
+ * </pre>
+ */
+public class RedisSubscriber {
+
+	@FunctionalInterface
+	public interface Listener {
+		void onMessage(String channel, String message);
+	}
+
+	protected final Cache cache;
+	// 连接建立后首先订阅该频道，收到订阅确认后再订阅所有已注册的频道与模式
+	protected final String controlChannel;
+	protected final Map<String, List<Listener>> channelMap = new ConcurrentHashMap<>();
+	protected final Map<String, List<Listener>> patternMap = new ConcurrentHashMap<>();
+
+	protected Executor executor;
+	protected long retryMillis = 1000;
+
+	protected volatile boolean running = false;
+	protected Thread thread;
+	protected JedisPubSub pubSub;
+	// pubSub 已收到 controlChannel 的订阅确认，可以直接发送订阅命令
+	protected boolean ready = false;
+
+	public RedisSubscriber(Cache cache) {
+		if (cache == null) {
+			throw new IllegalArgumentException("cache can not be null");
+		}
+		this.cache = cache;
+		this.controlChannel = "_redis_subscriber_:" + cache.getName();
+	}
+
+	/**
+	 * 监听器执行使用的线程池，默认使用 ThreadPoolKit.getExecutor()
+	 */
+	public RedisSubscriber setExecutor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/**
+	 * 连接断开后重连的间隔，默认值 1000 毫秒
+	 */
+	public RedisSubscriber setRetryMillis(long retryMillis) {
+		if (retryMillis < 1) {
+			throw new IllegalArgumentException("retryMillis must more than 0");
+		}
+		this.retryMillis = retryMillis;
+		return this;
+	}
+
+	public void subscribe(String channel, Listener listener) {
+		add(channelMap, channel, listener, false);
+	}
+
+	public void psubscribe(String pattern, Listener listener) {
+		add(patternMap, pattern, listener, true);
+	}
+
+	public void unsubscribe(String channel, Listener listener) {
+		remove(channelMap, channel, listener, false);
+	}
+
+	public void punsubscribe(String pattern, Listener listener) {
+		remove(patternMap, pattern, listener, true);
+	}
+
+	public boolean isSubscribed() {
+		return ready;
+	}
+
+	public synchronized void stop() {
+		running = false;
+		if (ready) {
+			try {
+				pubSub.unsubscribe();
+				pubSub.punsubscribe();
+			} catch (Exception e) {
+				LogKit.warn("RedisSubscriber unsubscribe failed: " + e.getMessage());
+			}
+		}
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	// ---------
+
+	protected synchronized void add(Map<String, List<Listener>> map, String name, Listener listener, boolean pattern) {
+		if (name == null || listener == null) {
+			throw new IllegalArgumentException("channel and listener can not be null");
+		}
+		if (name.equals(controlChannel)) {
+			throw new IllegalArgumentException("channel is reserved: " + name);
+		}
+
+		List<Listener> list = map.get(name);
+		if (list == null) {
+			list = new CopyOnWriteArrayList<>();
+			map.put(name, list);
+			if (ready) {
+				send(name, pattern, true);
+			}
+		}
+		list.add(listener);
+
+		if (!running) {
+			start();
+		}
+	}
+
+	protected synchronized void remove(Map<String, List<Listener>> map, String name, Listener listener, boolean pattern) {
+		List<Listener> list = map.get(name);
+		if (list != null && list.remove(listener) && list.isEmpty()) {
+			map.remove(name);
+			if (ready) {
+				send(name, pattern, false);
+			}
+		}
+	}
+
+	private void send(String name, boolean pattern, boolean subscribe) {
+		try {
+			if (pattern) {
+				if (subscribe) pubSub.psubscribe(name); else pubSub.punsubscribe(name);
+			} else {
+				if (subscribe) pubSub.subscribe(name); else pubSub.unsubscribe(name);
+			}
+		} catch (Exception e) {
+			// 连接已断开，重连后按 channelMap、patternMap 重新订阅
+			LogKit.warn("RedisSubscriber can not send command: " + e.getMessage());
+		}
+	}
+
+	protected void start() {
+		if (executor == null) {
+			executor = ThreadPoolKit.getExecutor();
+		}
+		running = true;
+		thread = new Thread(this::subscribeLoop, "RedisSubscriber-" + cache.getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * 收到 controlChannel 的订阅确认后订阅所有已注册的频道与模式
+	 */
+	protected synchronized void onReady(JedisPubSub ps) {
+		pubSub = ps;
+		ready = true;
+		if (!channelMap.isEmpty()) {
+			ps.subscribe(channelMap.keySet().toArray(new String[0]));
+		}
+		if (!patternMap.isEmpty()) {
+			ps.psubscribe(patternMap.keySet().toArray(new String[0]));
+		}
+	}
+
+	protected synchronized void onDisconnect() {
+		ready = false;
+		pubSub = null;
+	}
+
+	protected void dispatch(List<Listener> list, String channel, String message) {
+		if (list == null) {
+			return ;
+		}
+		for (Listener listener : list) {
+			try {
+				executor.execute(() -> {
+					try {
+						listener.onMessage(channel, message);
+					} catch (Throwable e) {
+						LogKit.error("RedisSubscriber listener failed, channel " + channel + ": " + e.getMessage(), e);
+					}
+				});
+			} catch (Exception e) {
+				LogKit.error("RedisSubscriber can not dispatch message, channel " + channel + ": " + e.getMessage(), e);
+			}
+		}
+	}
+
+	protected void subscribeLoop() {
+		while (running) {
+			Jedis jedis = null;
+			try {
+				jedis = cache.getDedicatedJedis();
+				JedisPubSub ps = new JedisPubSub() {
+					public void onSubscribe(String channel, int subscribedChannels) {
+						if (channel.equals(controlChannel)) {
+							onReady(this);
+						}
+					}
+
+					public void onMessage(String channel, String message) {
+						dispatch(channelMap.get(channel), channel, message);
+					}
+
+					public void onPMessage(String pattern, String channel, String message) {
+						dispatch(patternMap.get(pattern), channel, message);
+					}
+				};
+				if (running) {
+					jedis.subscribe(ps, controlChannel);
+				}
+			} catch (Exception e) {
+				if (running) {
+					LogKit.error("RedisSubscriber subscription lost: " + e.getMessage(), e);
+				}
+			} finally {
+				onDisconnect();
+				if (jedis != null) {
+					jedis.close();
+				}
+			}
+
+			if (running) {
+				try {
+					Thread.sleep(retryMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return ;
+				}
+			}
+		}
+	}
+}
+
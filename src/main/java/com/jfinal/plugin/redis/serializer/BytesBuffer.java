@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.redis.serializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * BytesBuffer 可复用的字节缓冲区，供 PooledSerializer 写入与读取数据
+ *
+ * <pre>
+ * 1：写入时自动扩容，reset() 之后可重复使用，避免每次序列化分配新的缓冲区
+ * 2：整数使用变长编码，有符号整数先做 zigzag 转换，小数值只占一个字节
+ * 3：字符串直接以 UTF-8 编码写入缓冲区，不产生中间 byte[]
+ * </pre>
+ */
+public class BytesBuffer {
+
+	protected byte[] buf;
+	protected int pos;
+	protected int limit;
+
+	/**
+	 * 创建用于写入的缓冲区
+	 */
+	public BytesBuffer(int capacity) {
+		this.buf = new byte[capacity];
+		this.pos = 0;
+		this.limit = 0;
+	}
+
+	/**
+	 * 创建用于读取 data 中 [offset, offset + length) 的缓冲区
+	 */
+	public BytesBuffer(byte[] data, int offset, int length) {
+		this.buf = data;
+		this.pos = offset;
+		this.limit = offset + length;
+	}
+
+	public BytesBuffer reset() {
+		pos = 0;
+		limit = 0;
+		return this;
+	}
+
+	public byte[] array() {
+		return buf;
+	}
+
+	public int position() {
+		return pos;
+	}
+
+	public int capacity() {
+		return buf.length;
+	}
+
+	/**
+	 * 返回已写入部分的拷贝
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buf, pos);
+	}
+
+	protected void ensure(int n) {
+		if (pos + n > buf.length) {
+			int newCapacity = Math.max(buf.length << 1, pos + n);
+			buf = Arrays.copyOf(buf, newCapacity);
+		}
+	}
+
+	// ---------
+
+	public void writeByte(int b) {
+		ensure(1);
+		buf[pos++] = (byte)b;
+	}
+
+	public void writeBytes(byte[] b, int offset, int length) {
+		ensure(length);
+		System.arraycopy(b, offset, buf, pos, length);
+		pos += length;
+	}
+
+	/**
+	 * 写入非负整数
+	 */
+	public void writeVarInt(int v) {
+		ensure(5);
+		while ((v & ~0x7F) != 0) {
+			buf[pos++] = (byte)((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		buf[pos++] = (byte)v;
+	}
+
+	public void writeVarLong(long v) {
+		ensure(10);
+		while ((v & ~0x7FL) != 0) {
+			buf[pos++] = (byte)((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		buf[pos++] = (byte)v;
+	}
+
+	public void writeZigZagInt(int v) {
+		writeVarInt((v << 1) ^ (v >> 31));
+	}
+
+	public void writeZigZagLong(long v) {
+		writeVarLong((v << 1) ^ (v >> 63));
+	}
+
+	public void writeLong(long v) {
+		ensure(8);
+		for (int i = 56; i >= 0; i -= 8) {
+			buf[pos++] = (byte)(v >>> i);
+		}
+	}
+
+	public void writeDouble(double v) {
+		writeLong(Double.doubleToLongBits(v));
+	}
+
+	public void writeFloat(float v) {
+		int bits = Float.floatToIntBits(v);
+		ensure(4);
+		buf[pos++] = (byte)(bits >>> 24);
+		buf[pos++] = (byte)(bits >>> 16);
+		buf[pos++] = (byte)(bits >>> 8);
+		buf[pos++] = (byte)bits;
+	}
+
+	/**
+	 * 写入 UTF-8 编码的字符串，先写字节长度。预留最大长度后直接编码，再回填实际长度
+	 */
+	public void writeString(String s) {
+		int len = s.length();
+		if (len > 0x1FFFFF / 3) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(bytes.length);
+			writeBytes(bytes, 0, bytes.length);
+			return ;
+		}
+
+		// 最大字节数不超过 3 * len < 2^21，长度固定使用 3 字节变长编码以便回填
+		ensure(3 + len * 3);
+		int start = pos;
+		pos += 3;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				buf[pos++] = (byte)c;
+			} else if (c < 0x800) {
+				buf[pos++] = (byte)(0xC0 | (c >> 6));
+				buf[pos++] = (byte)(0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				buf[pos++] = (byte)(0xF0 | (cp >> 18));
+				buf[pos++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+				buf[pos++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+				buf[pos++] = (byte)(0x80 | (cp & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				buf[pos++] = (byte)'?';		// 与 String.getBytes(UTF_8) 对孤立代理字符的处理一致
+			} else {
+				buf[pos++] = (byte)(0xE0 | (c >> 12));
+				buf[pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+				buf[pos++] = (byte)(0x80 | (c & 0x3F));
+			}
+		}
+		int n = pos - start - 3;
+		buf[start] = (byte)((n & 0x7F) | 0x80);
+		buf[start + 1] = (byte)(((n >>> 7) & 0x7F) | 0x80);
+		buf[start + 2] = (byte)(n >>> 14);
+	}
+
+	// ---------
+
+	protected void require(int n) {
+		if (pos + n > limit) {
+			throw new IllegalArgumentException("Unexpected end of data");
+		}
+	}
+
+	public int readByte() {
+		require(1);
+		return buf[pos++];
+	}
+
+	public byte[] readBytes(int length) {
+		require(length);
+		byte[] ret = Arrays.copyOfRange(buf, pos, pos + length);
+		pos += length;
+		return ret;
+	}
+
+	public int readVarInt() {
+		int ret = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = readByte();
+			ret |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return ret;
+			}
+		}
+		throw new IllegalArgumentException("Malformed var int");
+	}
+
+	public long readVarLong() {
+		long ret = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			ret |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return ret;
+			}
+		}
+		throw new IllegalArgumentException("Malformed var long");
+	}
+
+	public int readZigZagInt() {
+		int v = readVarInt();
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	public long readZigZagLong() {
+		long v = readVarLong();
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	public long readLong() {
+		require(8);
+		long ret = 0;
+		for (int i = 0; i < 8; i++) {
+			ret = (ret << 8) | (buf[pos++] & 0xFF);
+		}
+		return ret;
+	}
+
+	public double readDouble() {
+		return Double.longBitsToDouble(readLong());
+	}
+
+	public float readFloat() {
+		require(4);
+		int bits = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16) | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+		pos += 4;
+		return Float.intBitsToFloat(bits);
+	}
+
+	public String readString() {
+		int n = readVarInt();
+		require(n);
+		String ret = new String(buf, pos, n, StandardCharsets.UTF_8);
+		pos += n;
+		return ret;
+	}
+}
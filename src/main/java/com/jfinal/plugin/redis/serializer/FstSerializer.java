@@ -16,19 +16,19 @@
 
 package com.jfinal.plugin.redis.serializer;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import org.nustaq.serialization.FSTObjectInput;
-import org.nustaq.serialization.FSTObjectOutput;
-import com.jfinal.kit.LogKit;
+import org.nustaq.serialization.FSTConfiguration;
 import redis.clients.jedis.util.SafeEncoder;
 
 /**
  * FstSerializer.
+ * 
+ * 通过 FSTConfiguration 复用线程内的 FSTObjectOutput、FSTObjectInput 及其缓冲区，
+ * 不再为每次调用创建流对象，字节格式与 new FSTObjectOutput(out) 一致
  */
 public class FstSerializer implements ISerializer {
 	
+	protected static final FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
+	
 	public static final ISerializer me = new FstSerializer();
 	
 	public byte[] keyToBytes(String key) {
@@ -48,39 +48,24 @@ public class FstSerializer implements ISerializer {
     }
 	
 	public byte[] valueToBytes(Object value) {
-		FSTObjectOutput fstOut = null;
 		try {
-			ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
-			fstOut = new FSTObjectOutput(bytesOut);
-			fstOut.writeObject(value);
-			fstOut.flush();
-			return bytesOut.toByteArray();
+			return conf.asByteArray(value);
 		}
 		catch (Exception e) {
 			throw new RuntimeException(e);
 		}
-		finally {
-			if(fstOut != null)
-				try {fstOut.close();} catch (IOException e) {LogKit.error(e.getMessage(), e);}
-		}
 	}
 	
 	public Object valueFromBytes(byte[] bytes) {
 		if(bytes == null || bytes.length == 0)
 			return null;
 		
-		FSTObjectInput fstInput = null;
 		try {
-			fstInput = new FSTObjectInput(new ByteArrayInputStream(bytes));
-			return fstInput.readObject();
+			return conf.asObject(bytes);
 		}
 		catch (Exception e) {
 			throw new RuntimeException(e);
 		}
-		finally {
-			if(fstInput != null)
-				try {fstInput.close();} catch (IOException e) {LogKit.error(e.getMessage(), e);}
-		}
 	}
 }
 
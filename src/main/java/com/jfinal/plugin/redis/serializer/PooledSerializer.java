@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.redis.serializer;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * PooledSerializer 使用线程内复用的 BytesBuffer 进行序列化的 ISerializer 扩展
+ *
+ * <pre>
+ * 1：子类实现 write(...)、read(...)，直接读写 BytesBuffer，不创建流对象。
+ *    Jedis 的 API 只接收完整的 byte[]，所以 valueToBytes 仍需将结果拷贝一次，
+ *    valueFromBytes 则直接在 redis 返回的 byte[] 上读取，不再拷贝
+ *
+ * 2：超过 compressThreshold 字节的数据使用 Deflater.BEST_SPEED 压缩，
+ *    压缩后没有变小则保留原始数据。默认值为 0，不压缩
+ *
+ * 3：缓冲区超过 maxRetainedSize 时用完即丢弃，避免个别大对象长期占用内存
+ *
+ * 例子：
+ * RedisPlugin rp = new RedisPlugin("main", "localhost");
+ * rp.setSerializer(new SchemaSerializer().setCompressThreshold(4096));
+ * </pre>
+ */
+public abstract class PooledSerializer implements ISerializer {
+
+	protected static final int RAW = 0;
+	protected static final int DEFLATE = 1;
+
+	protected int compressThreshold = 0;
+	protected int initialSize = 512;
+	protected int maxRetainedSize = 256 * 1024;
+
+	protected final ThreadLocal<BytesBuffer> bufferTL = new ThreadLocal<>();
+	protected final ThreadLocal<Deflater> deflaterTL = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+	protected final ThreadLocal<Inflater> inflaterTL = ThreadLocal.withInitial(Inflater::new);
+
+	/**
+	 * 序列化 value 到 out
+	 */
+	protected abstract void write(Object value, BytesBuffer out);
+
+	/**
+	 * 从 in 反序列化
+	 */
+	protected abstract Object read(BytesBuffer in);
+
+	public PooledSerializer setCompressThreshold(int compressThreshold) {
+		if (compressThreshold < 0) {
+			throw new IllegalArgumentException("compressThreshold can not be less than 0");
+		}
+		this.compressThreshold = compressThreshold;
+		return this;
+	}
+
+	public PooledSerializer setMaxRetainedSize(int maxRetainedSize) {
+		if (maxRetainedSize < initialSize) {
+			throw new IllegalArgumentException("maxRetainedSize can not be less than " + initialSize);
+		}
+		this.maxRetainedSize = maxRetainedSize;
+		return this;
+	}
+
+	// ---------
+
+	public byte[] keyToBytes(String key) {
+		return SafeEncoder.encode(key);
+	}
+
+	public String keyFromBytes(byte[] bytes) {
+		return SafeEncoder.encode(bytes);
+	}
+
+	public byte[] fieldToBytes(Object field) {
+		return valueToBytes(field);
+	}
+
+	public Object fieldFromBytes(byte[] bytes) {
+		return valueFromBytes(bytes);
+	}
+
+	public byte[] valueToBytes(Object value) {
+		BytesBuffer out = acquire();
+		try {
+			out.writeByte(RAW);
+			write(value, out);
+
+			int len = out.position() - 1;
+			if (compressThreshold > 0 && len > compressThreshold) {
+				byte[] ret = compress(out.array(), 1, len);
+				if (ret != null) {
+					return ret;
+				}
+			}
+			return out.toByteArray();
+		} finally {
+			release(out);
+		}
+	}
+
+	public Object valueFromBytes(byte[] bytes) {
+		if (bytes == null || bytes.length == 0) {
+			return null;
+		}
+
+		BytesBuffer in;
+		if (bytes[0] == RAW) {
+			in = new BytesBuffer(bytes, 1, bytes.length - 1);
+		} else if (bytes[0] == DEFLATE) {
+			in = decompress(bytes);
+		} else {
+			throw new IllegalArgumentException("Unknown data format: " + bytes[0]);
+		}
+		return read(in);
+	}
+
+	// ---------
+
+	/**
+	 * 获取当前线程的缓冲区，重入时（例如 write 中再次调用 valueToBytes）使用新的缓冲区
+	 */
+	protected BytesBuffer acquire() {
+		BytesBuffer ret = bufferTL.get();
+		if (ret == null) {
+			return new BytesBuffer(initialSize);
+		}
+		bufferTL.remove();
+		return ret.reset();
+	}
+
+	protected void release(BytesBuffer buffer) {
+		if (buffer.capacity() <= maxRetainedSize) {
+			bufferTL.set(buffer);
+		}
+	}
+
+	/**
+	 * 压缩后的格式：DEFLATE、原始长度、压缩数据。压缩后没有变小时返回 null
+	 */
+	protected byte[] compress(byte[] data, int offset, int length) {
+		Deflater deflater = deflaterTL.get();
+		deflater.reset();
+		deflater.setInput(data, offset, length);
+		deflater.finish();
+
+		BytesBuffer out = new BytesBuffer(Math.min(length, 64 * 1024));
+		out.writeByte(DEFLATE);
+		out.writeVarInt(length);
+		while (!deflater.finished()) {
+			out.ensure(8 * 1024);
+			int n = deflater.deflate(out.buf, out.pos, out.buf.length - out.pos);
+			out.pos += n;
+			if (out.pos >= length) {
+				return null;
+			}
+		}
+		return out.toByteArray();
+	}
+
+	protected BytesBuffer decompress(byte[] bytes) {
+		BytesBuffer header = new BytesBuffer(bytes, 1, bytes.length - 1);
+		int length = header.readVarInt();
+		byte[] data = new byte[length];
+
+		Inflater inflater = inflaterTL.get();
+		inflater.reset();
+		inflater.setInput(bytes, header.position(), bytes.length - header.position());
+		try {
+			int n = 0;
+			while (n < length) {
+				int count = inflater.inflate(data, n, length - n);
+				if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new IllegalArgumentException("Corrupted compressed data");
+				}
+				n += count;
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+		return new BytesBuffer(data, 0, length);
+	}
+}
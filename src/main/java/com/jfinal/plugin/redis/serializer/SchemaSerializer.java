@@ -0,0 +1,545 @@
+/**
+ * Copyright (c) 2011-2023, James Zhan 詹波 (jfinal@126.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jfinal.plugin.redis.serializer;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import com.jfinal.kit.Kv;
+import com.jfinal.kit.Ret;
+import com.jfinal.plugin.activerecord.CPI;
+import com.jfinal.plugin.activerecord.CaseInsensitiveContainerFactory;
+import com.jfinal.plugin.activerecord.Model;
+import com.jfinal.plugin.activerecord.ModelFactory;
+import com.jfinal.plugin.activerecord.Page;
+import com.jfinal.plugin.activerecord.Record;
+
+/**
+ * SchemaSerializer 针对 Model、Record、Page、Kv、Ret 以及常用 JDBC 类型的紧凑序列化
+ *
+ * <pre>
+ * 1：同一次序列化中，字段名相同的 Model、Record 共享 schema，字段名只写入一次，
+ *    后续对象只写入 schema 序号与字段值。缓存 List&lt;Record&gt;、Page&lt;Model&gt; 时效果明显
+ *
+ * 2：Model 的类名同样只写入一次，反序列化时只允许创建 Model 的子类，并通过 ModelFactory 创建
+ *
+ * 3：不支持的类型交给 fallback 序列化，默认为 FstSerializer
+ *
+ * 4：Model 只保存属性值，不保存修改标记，与缓存查询结果的使用场景一致
+ *
+ * 5：Record 记录字段容器的类型，反序列化时还原为 HashMap、LinkedHashMap 或者
+ *    CaseInsensitiveContainerFactory 的容器，其它容器使用当前默认 Config 的容器
+ *
+ * 例子：
+ * RedisPlugin rp = new RedisPlugin("main", "localhost");
+ * rp.setSerializer(new SchemaSerializer().setCompressThreshold(4096));
+ * </pre>
+ */
+public class SchemaSerializer extends PooledSerializer {
+
+	protected static final int NULL = 0;
+	protected static final int STRING = 1;
+	protected static final int INT = 2;
+	protected static final int LONG = 3;
+	protected static final int DOUBLE = 4;
+	protected static final int FLOAT = 5;
+	protected static final int TRUE = 6;
+	protected static final int FALSE = 7;
+	protected static final int SHORT = 8;
+	protected static final int BYTE = 9;
+	protected static final int BIG_DECIMAL = 10;
+	protected static final int BIG_INTEGER = 11;
+	protected static final int DATE = 12;
+	protected static final int SQL_DATE = 13;
+	protected static final int TIME = 14;
+	protected static final int TIMESTAMP = 15;
+	protected static final int LOCAL_DATE = 16;
+	protected static final int LOCAL_DATE_TIME = 17;
+	protected static final int BYTES = 18;
+	protected static final int LIST = 19;
+	protected static final int MAP = 20;
+	protected static final int LINKED_MAP = 21;
+	protected static final int KV = 22;
+	protected static final int RET = 23;
+	protected static final int RECORD = 24;
+	protected static final int MODEL = 25;
+	protected static final int PAGE = 26;
+	protected static final int OTHER = 27;
+	protected static final int OBJECT_ARRAY = 28;
+
+	// Record 字段容器的类型
+	protected static final int COLUMNS_DEFAULT = 0;
+	protected static final int COLUMNS_HASH_MAP = 1;
+	protected static final int COLUMNS_LINKED_MAP = 2;
+	protected static final int COLUMNS_CASE_INSENSITIVE = 3;
+	protected static final int COLUMNS_LOWER_CASE = 4;
+	protected static final int COLUMNS_UPPER_CASE = 5;
+
+	protected static final CaseInsensitiveContainerFactory caseInsensitive = new CaseInsensitiveContainerFactory();
+	protected static final CaseInsensitiveContainerFactory lowerCase = new CaseInsensitiveContainerFactory(true);
+	protected static final CaseInsensitiveContainerFactory upperCase = new CaseInsensitiveContainerFactory(false);
+
+	protected static final Map<String, Class<?>> modelClassCache = new ConcurrentHashMap<>();
+
+	protected ISerializer fallback;
+
+	/**
+	 * 配置不支持的类型所使用的序列化，默认为 FstSerializer
+	 */
+	public SchemaSerializer setFallback(ISerializer fallback) {
+		if (fallback == null) {
+			throw new IllegalArgumentException("fallback can not be null");
+		}
+		this.fallback = fallback;
+		return this;
+	}
+
+	protected ISerializer getFallback() {
+		if (fallback == null) {
+			fallback = FstSerializer.me;
+		}
+		return fallback;
+	}
+
+	protected void write(Object value, BytesBuffer out) {
+		writeValue(value, out, new WriteContext());
+	}
+
+	protected Object read(BytesBuffer in) {
+		return readValue(in, new ReadContext());
+	}
+
+	// ---------
+
+	@SuppressWarnings("rawtypes")
+	protected void writeValue(Object value, BytesBuffer out, WriteContext ctx) {
+		if (value == null) {
+			out.writeByte(NULL);
+			return ;
+		}
+
+		Class<?> c = value.getClass();
+		if (c == String.class) {
+			out.writeByte(STRING);
+			out.writeString((String)value);
+		} else if (c == Integer.class) {
+			out.writeByte(INT);
+			out.writeZigZagInt((Integer)value);
+		} else if (c == Long.class) {
+			out.writeByte(LONG);
+			out.writeZigZagLong((Long)value);
+		} else if (c == Boolean.class) {
+			out.writeByte((Boolean)value ? TRUE : FALSE);
+		} else if (c == java.sql.Timestamp.class) {
+			java.sql.Timestamp ts = (java.sql.Timestamp)value;
+			out.writeByte(TIMESTAMP);
+			out.writeZigZagLong(ts.getTime());
+			out.writeVarInt(ts.getNanos());
+		} else if (c == Double.class) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double)value);
+		} else if (c == BigDecimal.class) {
+			BigDecimal bd = (BigDecimal)value;
+			out.writeByte(BIG_DECIMAL);
+			out.writeZigZagInt(bd.scale());
+			writeBytes(bd.unscaledValue().toByteArray(), out);
+		} else if (c == java.util.Date.class) {
+			out.writeByte(DATE);
+			out.writeZigZagLong(((java.util.Date)value).getTime());
+		} else if (c == java.sql.Date.class) {
+			out.writeByte(SQL_DATE);
+			out.writeZigZagLong(((java.sql.Date)value).getTime());
+		} else if (c == java.sql.Time.class) {
+			out.writeByte(TIME);
+			out.writeZigZagLong(((java.sql.Time)value).getTime());
+		} else if (c == LocalDateTime.class) {
+			LocalDateTime t = (LocalDateTime)value;
+			out.writeByte(LOCAL_DATE_TIME);
+			writeLocalDate(t.toLocalDate(), out);
+			out.writeVarLong(t.toLocalTime().toNanoOfDay());
+		} else if (c == LocalDate.class) {
+			out.writeByte(LOCAL_DATE);
+			writeLocalDate((LocalDate)value, out);
+		} else if (c == Float.class) {
+			out.writeByte(FLOAT);
+			out.writeFloat((Float)value);
+		} else if (c == Short.class) {
+			out.writeByte(SHORT);
+			out.writeZigZagInt((Short)value);
+		} else if (c == Byte.class) {
+			out.writeByte(BYTE);
+			out.writeByte((Byte)value);
+		} else if (c == BigInteger.class) {
+			out.writeByte(BIG_INTEGER);
+			writeBytes(((BigInteger)value).toByteArray(), out);
+		} else if (c == byte[].class) {
+			out.writeByte(BYTES);
+			writeBytes((byte[])value, out);
+		} else if (value instanceof Record) {
+			Map<String, Object> columns = ((Record)value).getColumns();
+			out.writeByte(RECORD);
+			out.writeByte(getColumnsType(columns));
+			writeColumns(columns, out, ctx);
+		} else if (value instanceof Model) {
+			out.writeByte(MODEL);
+			writeModelClass(((Model)value).getClass(), out, ctx);
+			writeColumns(CPI.getAttrs((Model)value), out, ctx);
+		} else if (c == Object[].class) {
+			Object[] array = (Object[])value;
+			out.writeByte(OBJECT_ARRAY);
+			out.writeVarInt(array.length);
+			for (Object o : array) {
+				writeValue(o, out, ctx);
+			}
+		} else if (c == ArrayList.class) {
+			List list = (List)value;
+			out.writeByte(LIST);
+			writeList(list, out, ctx);
+		} else if (c == Page.class) {
+			Page page = (Page)value;
+			out.writeByte(PAGE);
+			out.writeVarInt(page.getPageNumber());
+			out.writeVarInt(page.getPageSize());
+			out.writeVarInt(page.getTotalPage());
+			out.writeVarInt(page.getTotalRow());
+			writeList(page.getList(), out, ctx);
+		} else if (c == Kv.class) {
+			out.writeByte(KV);
+			writeMap((Map)value, out, ctx);
+		} else if (c == Ret.class) {
+			out.writeByte(RET);
+			writeMap((Map)value, out, ctx);
+		} else if (c == HashMap.class) {
+			out.writeByte(MAP);
+			writeMap((Map)value, out, ctx);
+		} else if (c == LinkedHashMap.class) {
+			out.writeByte(LINKED_MAP);
+			writeMap((Map)value, out, ctx);
+		} else {
+			out.writeByte(OTHER);
+			writeBytes(getFallback().valueToBytes(value), out);
+		}
+	}
+
+	protected int getColumnsType(Map<String, Object> columns) {
+		Class<?> c = columns.getClass();
+		if (c == HashMap.class) {
+			return COLUMNS_HASH_MAP;
+		}
+		if (c == LinkedHashMap.class) {
+			return COLUMNS_LINKED_MAP;
+		}
+		if (columns instanceof CaseInsensitiveContainerFactory.CaseInsensitiveMap) {
+			Boolean toLowerCase = ((CaseInsensitiveContainerFactory.CaseInsensitiveMap<?>)columns).getContainerFactory().getToLowerCase();
+			return toLowerCase == null ? COLUMNS_CASE_INSENSITIVE : (toLowerCase ? COLUMNS_LOWER_CASE : COLUMNS_UPPER_CASE);
+		}
+		return COLUMNS_DEFAULT;
+	}
+
+	protected Map<String, Object> createColumns(int columnsType) {
+		switch (columnsType) {
+			case COLUMNS_DEFAULT:
+				return new Record().getColumns();
+			case COLUMNS_HASH_MAP:
+				return new HashMap<>();
+			case COLUMNS_LINKED_MAP:
+				return new LinkedHashMap<>();
+			case COLUMNS_CASE_INSENSITIVE:
+				return caseInsensitive.getColumnsMap();
+			case COLUMNS_LOWER_CASE:
+				return lowerCase.getColumnsMap();
+			case COLUMNS_UPPER_CASE:
+				return upperCase.getColumnsMap();
+			default:
+				throw new IllegalArgumentException("Unknown columns type: " + columnsType);
+		}
+	}
+
+	protected void writeBytes(byte[] bytes, BytesBuffer out) {
+		out.writeVarInt(bytes.length);
+		out.writeBytes(bytes, 0, bytes.length);
+	}
+
+	protected void writeLocalDate(LocalDate d, BytesBuffer out) {
+		out.writeZigZagInt(d.getYear());
+		out.writeByte(d.getMonthValue());
+		out.writeByte(d.getDayOfMonth());
+	}
+
+	@SuppressWarnings("rawtypes")
+	protected void writeList(List list, BytesBuffer out, WriteContext ctx) {
+		int size = list.size();
+		out.writeVarInt(size);
+		for (int i = 0; i < size; i++) {
+			writeValue(list.get(i), out, ctx);
+		}
+	}
+
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	protected void writeMap(Map map, BytesBuffer out, WriteContext ctx) {
+		out.writeVarInt(map.size());
+		for (Entry e : (java.util.Set<Entry>)map.entrySet()) {
+			writeValue(e.getKey(), out, ctx);
+			writeValue(e.getValue(), out, ctx);
+		}
+	}
+
+	/**
+	 * 写入 schema 序号，首次出现的 schema 紧接着写入字段名，然后按 schema 顺序写入字段值
+	 */
+	protected void writeColumns(Map<String, Object> columns, BytesBuffer out, WriteContext ctx) {
+		String[] schema = ctx.lastSchema;
+		int index = ctx.lastIndex;
+		if (schema == null || !sameSchema(schema, columns)) {
+			schema = columns.keySet().toArray(new String[columns.size()]);
+			List<String> key = Arrays.asList(schema);
+			Integer existing = ctx.schemaIndex.get(key);
+			if (existing != null) {
+				index = existing;
+				out.writeVarInt(index);
+			} else {
+				index = ctx.schemaIndex.size();
+				ctx.schemaIndex.put(key, index);
+				out.writeVarInt(index);
+				out.writeVarInt(schema.length);
+				for (String name : schema) {
+					out.writeString(name);
+				}
+			}
+			ctx.lastSchema = schema;
+			ctx.lastIndex = index;
+		} else {
+			out.writeVarInt(index);
+		}
+
+		for (Object value : columns.values()) {
+			writeValue(value, out, ctx);
+		}
+	}
+
+	protected boolean sameSchema(String[] schema, Map<String, Object> columns) {
+		if (schema.length != columns.size()) {
+			return false;
+		}
+		int i = 0;
+		for (String name : columns.keySet()) {
+			if (!schema[i++].equals(name)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected void writeModelClass(Class<?> modelClass, BytesBuffer out, WriteContext ctx) {
+		Integer index = ctx.classIndex.get(modelClass);
+		if (index != null) {
+			out.writeVarInt(index);
+		} else {
+			index = ctx.classIndex.size();
+			ctx.classIndex.put(modelClass, index);
+			out.writeVarInt(index);
+			out.writeString(modelClass.getName());
+		}
+	}
+
+	// ---------
+
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	protected Object readValue(BytesBuffer in, ReadContext ctx) {
+		int tag = in.readByte();
+		switch (tag) {
+			case NULL:
+				return null;
+			case STRING:
+				return in.readString();
+			case INT:
+				return in.readZigZagInt();
+			case LONG:
+				return in.readZigZagLong();
+			case TRUE:
+				return Boolean.TRUE;
+			case FALSE:
+				return Boolean.FALSE;
+			case TIMESTAMP: {
+				java.sql.Timestamp ts = new java.sql.Timestamp(in.readZigZagLong());
+				ts.setNanos(in.readVarInt());
+				return ts;
+			}
+			case DOUBLE:
+				return in.readDouble();
+			case BIG_DECIMAL: {
+				int scale = in.readZigZagInt();
+				return new BigDecimal(new BigInteger(in.readBytes(in.readVarInt())), scale);
+			}
+			case DATE:
+				return new java.util.Date(in.readZigZagLong());
+			case SQL_DATE:
+				return new java.sql.Date(in.readZigZagLong());
+			case TIME:
+				return new java.sql.Time(in.readZigZagLong());
+			case LOCAL_DATE_TIME: {
+				LocalDate d = readLocalDate(in);
+				return LocalDateTime.of(d, java.time.LocalTime.ofNanoOfDay(in.readVarLong()));
+			}
+			case LOCAL_DATE:
+				return readLocalDate(in);
+			case FLOAT:
+				return in.readFloat();
+			case SHORT:
+				return (short)in.readZigZagInt();
+			case BYTE:
+				return (byte)in.readByte();
+			case BIG_INTEGER:
+				return new BigInteger(in.readBytes(in.readVarInt()));
+			case BYTES:
+				return in.readBytes(in.readVarInt());
+			case RECORD: {
+				Map<String, Object> columns = createColumns(in.readByte());
+				readColumns(columns, in, ctx);
+				Record record = new Record();
+				CPI.setColumnsMap(record, columns);
+				return record;
+			}
+			case MODEL: {
+				Model model = (Model)ModelFactory.create(readModelClass(in, ctx));
+				readColumns(CPI.getAttrs(model), in, ctx);
+				return model;
+			}
+			case LIST:
+				return readList(in, ctx);
+			case OBJECT_ARRAY: {
+				Object[] array = new Object[in.readVarInt()];
+				for (int i = 0; i < array.length; i++) {
+					array[i] = readValue(in, ctx);
+				}
+				return array;
+			}
+			case PAGE: {
+				int pageNumber = in.readVarInt();
+				int pageSize = in.readVarInt();
+				int totalPage = in.readVarInt();
+				int totalRow = in.readVarInt();
+				return new Page(readList(in, ctx), pageNumber, pageSize, totalPage, totalRow);
+			}
+			case KV:
+				return readMap(new Kv(), in, ctx);
+			case RET:
+				return readMap(new Ret(), in, ctx);
+			case MAP:
+				return readMap(new HashMap(), in, ctx);
+			case LINKED_MAP:
+				return readMap(new LinkedHashMap(), in, ctx);
+			case OTHER:
+				return getFallback().valueFromBytes(in.readBytes(in.readVarInt()));
+			default:
+				throw new IllegalArgumentException("Unknown type tag: " + tag);
+		}
+	}
+
+	protected LocalDate readLocalDate(BytesBuffer in) {
+		int year = in.readZigZagInt();
+		int month = in.readByte();
+		int day = in.readByte();
+		return LocalDate.of(year, month, day);
+	}
+
+	protected List<Object> readList(BytesBuffer in, ReadContext ctx) {
+		int size = in.readVarInt();
+		List<Object> ret = new ArrayList<>(Math.min(size, 1024));
+		for (int i = 0; i < size; i++) {
+			ret.add(readValue(in, ctx));
+		}
+		return ret;
+	}
+
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	protected Map readMap(Map map, BytesBuffer in, ReadContext ctx) {
+		int size = in.readVarInt();
+		for (int i = 0; i < size; i++) {
+			Object key = readValue(in, ctx);
+			map.put(key, readValue(in, ctx));
+		}
+		return map;
+	}
+
+	protected void readColumns(Map<String, Object> columns, BytesBuffer in, ReadContext ctx) {
+		int index = in.readVarInt();
+		String[] schema;
+		if (index < ctx.schemas.size()) {
+			schema = ctx.schemas.get(index);
+		} else if (index == ctx.schemas.size()) {
+			schema = new String[in.readVarInt()];
+			for (int i = 0; i < schema.length; i++) {
+				schema[i] = in.readString();
+			}
+			ctx.schemas.add(schema);
+		} else {
+			throw new IllegalArgumentException("Unknown schema index: " + index);
+		}
+
+		for (String name : schema) {
+			columns.put(name, readValue(in, ctx));
+		}
+	}
+
+	protected Class<?> readModelClass(BytesBuffer in, ReadContext ctx) {
+		int index = in.readVarInt();
+		if (index < ctx.classes.size()) {
+			return ctx.classes.get(index);
+		}
+		if (index != ctx.classes.size()) {
+			throw new IllegalArgumentException("Unknown class index: " + index);
+		}
+
+		Class<?> ret = modelClassCache.computeIfAbsent(in.readString(), name -> {
+			try {
+				Class<?> c = Class.forName(name, false, Thread.currentThread().getContextClassLoader());
+				if (!Model.class.isAssignableFrom(c)) {
+					throw new IllegalArgumentException("Not a Model class: " + name);
+				}
+				return c;
+			} catch (ClassNotFoundException e) {
+				throw new IllegalArgumentException("Model class not found: " + name, e);
+			}
+		});
+		ctx.classes.add(ret);
+		return ret;
+	}
+
+	// ---------
+
+	protected static class WriteContext {
+		final Map<List<String>, Integer> schemaIndex = new HashMap<>();
+		final Map<Class<?>, Integer> classIndex = new HashMap<>();
+		String[] lastSchema;
+		int lastIndex;
+	}
+
+	protected static class ReadContext {
+		final List<String[]> schemas = new ArrayList<>();
+		final List<Class<?>> classes = new ArrayList<>();
+	}
+}
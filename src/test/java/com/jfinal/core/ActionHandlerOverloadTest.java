@@ -0,0 +1,121 @@
+package com.jfinal.core;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.aop.Interceptor;
+import com.jfinal.config.Constants;
+import com.jfinal.plugin.activerecord.ActiveRecordException;
+import com.jfinal.plugin.activerecord.ConnectionOverloadException;
+import com.jfinal.render.RenderFactory;
+import com.jfinal.render.RenderManager;
+import com.jfinal.template.Engine;
+
+public class ActionHandlerOverloadTest {
+	
+	public static class OverloadController extends Controller {
+		public void overload() {
+			throw new ActiveRecordException(new ConnectionOverloadException("main", 10, 10));
+		}
+		
+		public void fail() {
+			throw new IllegalStateException("fail");
+		}
+	}
+	
+	@BeforeClass
+	public static void init() {
+		if (RenderManager.me().getRenderFactory() == null) {
+			RenderFactory renderFactory = new RenderFactory();
+			renderFactory.init(new Engine(), new Constants(), null);
+			RenderManager.me().setRenderFactory(renderFactory);
+		}
+	}
+	
+	static class TestActionHandler extends ActionHandler {
+		TestActionHandler() {
+			init(null, new Constants());
+		}
+		
+		protected Action getAction(String target, String[] urlPara) {
+			try {
+				String methodName = target.substring(1);
+				return new Action("/", target, OverloadController.class, OverloadController.class.getMethod(methodName), methodName, new Interceptor[0], "/");
+			} catch (NoSuchMethodException e) {
+				return null;
+			}
+		}
+	}
+	
+	/**
+	 * 通过动态代理模拟 HttpServletResponse，记录 status 与 header
+	 */
+	static HttpServletResponse response(Map<String, Object> result, ByteArrayOutputStream body) {
+		ServletOutputStream os = new ServletOutputStream() {
+			public void write(int b) {
+				body.write(b);
+			}
+			public boolean isReady() {
+				return true;
+			}
+			public void setWriteListener(WriteListener writeListener) {
+			}
+		};
+		return (HttpServletResponse)Proxy.newProxyInstance(ActionHandlerOverloadTest.class.getClassLoader(), new Class<?>[] {HttpServletResponse.class}, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "setStatus":
+					result.put("status", args[0]);
+					return null;
+				case "setHeader":
+					result.put((String)args[0], args[1]);
+					return null;
+				case "getOutputStream":
+					return os;
+				default:
+					return null;
+			}
+		});
+	}
+	
+	static HttpServletRequest request() {
+		return (HttpServletRequest)Proxy.newProxyInstance(ActionHandlerOverloadTest.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> {
+			return method.getReturnType() == boolean.class ? false : null;
+		});
+	}
+	
+	@Test
+	public void overloadRespondsWith503() {
+		Map<String, Object> result = new HashMap<>();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		new TestActionHandler().handle("/overload", request(), response(result, body), new boolean[1]);
+		
+		Assert.assertEquals(503, result.get("status"));
+		Assert.assertEquals("1", result.get("Retry-After"));
+		Assert.assertTrue(body.toString().contains("503"));
+	}
+	
+	@Test
+	public void otherErrorRespondsWith500() {
+		Map<String, Object> result = new HashMap<>();
+		new TestActionHandler().handle("/fail", request(), response(result, new ByteArrayOutputStream()), new boolean[1]);
+		
+		Assert.assertEquals(500, result.get("status"));
+		Assert.assertNull(result.get("Retry-After"));
+	}
+	
+	@Test
+	public void isOverload() {
+		TestActionHandler handler = new TestActionHandler();
+		Assert.assertTrue(handler.isOverload(new ActiveRecordException(new ConnectionOverloadException("main", 1, 1))));
+		Assert.assertTrue(handler.isOverload(new RuntimeException(new java.sql.SQLTransientConnectionException("timeout"))));
+		Assert.assertFalse(handler.isOverload(new ActiveRecordException(new java.sql.SQLException("syntax"))));
+	}
+}
@@ -0,0 +1,82 @@
+package com.jfinal.kit;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CsvKitTest {
+	
+	static String readAll(Reader reader) throws IOException {
+		StringBuilder ret = new StringBuilder();
+		char[] buf = new char[3];		// 小缓冲区，覆盖跨行读取
+		for (int n; (n = reader.read(buf, 0, buf.length)) != -1; ) {
+			ret.append(buf, 0, n);
+		}
+		return ret.toString();
+	}
+	
+	static List<String[]> parseAll(String csv) {
+		List<String[]> ret = new ArrayList<>();
+		Iterator<String[]> it = CsvKit.parse(new StringReader(csv));
+		while (it.hasNext()) {
+			ret.add(it.next());
+		}
+		return ret;
+	}
+	
+	@Test
+	public void toLine() {
+		Assert.assertEquals("1,\"a\",NULL,1,2.50\n", CsvKit.toLine(new Object[]{1, "a", null, true, new BigDecimal("2.50")}));
+		Assert.assertEquals("\"NULL\",\"say \"\"hi\"\"\"\n", CsvKit.toLine(new Object[]{"NULL", "say \"hi\""}));
+	}
+	
+	@Test
+	public void nullAndQuotedNull() {
+		List<String[]> rows = parseAll("NULL,\"NULL\",\"\",\n");
+		Assert.assertEquals(1, rows.size());
+		Assert.assertArrayEquals(new String[]{null, "NULL", "", ""}, rows.get(0));
+	}
+	
+	@Test
+	public void crlfAndEmbeddedNewline() {
+		List<String[]> rows = parseAll("1,\"a\r\nb\"\r\n2,\"c\nd\"\r\n3,e\r4,f");
+		Assert.assertEquals(4, rows.size());
+		Assert.assertArrayEquals(new String[]{"1", "a\r\nb"}, rows.get(0));
+		Assert.assertArrayEquals(new String[]{"2", "c\nd"}, rows.get(1));
+		Assert.assertArrayEquals(new String[]{"3", "e"}, rows.get(2));
+		Assert.assertArrayEquals(new String[]{"4", "f"}, rows.get(3));
+	}
+	
+	@Test
+	public void roundTrip() throws IOException {
+		List<Object[]> rows = Arrays.asList(
+			new Object[]{1, "NULL", null},
+			new Object[]{2, "quote \" and comma ,", "line1\nline2"},
+			new Object[]{3, "crlf\r\nend", ""}
+		);
+		String csv = readAll(CsvKit.toReader(rows.iterator()));
+		
+		List<String[]> parsed = parseAll(csv);
+		Assert.assertEquals(rows.size(), parsed.size());
+		for (int i = 0; i < rows.size(); i++) {
+			Object[] expected = rows.get(i);
+			String[] actual = parsed.get(i);
+			Assert.assertEquals(expected.length, actual.length);
+			for (int j = 0; j < expected.length; j++) {
+				Assert.assertEquals(expected[j] != null ? expected[j].toString() : null, actual[j]);
+			}
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void unclosedQuote() {
+		parseAll("1,\"abc\n");
+	}
+}
@@ -0,0 +1,88 @@
+package com.jfinal.plugin.activerecord;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.plugin.activerecord.dialect.H2Dialect;
+
+public class BatchLoaderTest {
+	
+	static ActiveRecordPlugin arp;
+	
+	// 主键为 numeric，jdbc 返回 BigDecimal，与 oracle 的 NUMBER 相同
+	public static class Account extends Model<Account> {
+		private static final long serialVersionUID = 1L;
+		static final Account dao = new Account().dao();
+	}
+	
+	public static class Post extends Model<Post> {
+		private static final long serialVersionUID = 1L;
+		static final Post dao = new Post().dao();
+	}
+	
+	@BeforeClass
+	public static void init() throws SQLException {
+		JdbcDataSource ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:batchLoaderTest;DB_CLOSE_DELAY=-1");
+		try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+			st.execute("create table account(id numeric(20, 0) primary key, name varchar(50))");
+			st.execute("insert into account values (1, 'james'), (2, 'david')");
+			st.execute("create table post(id int primary key, account_id bigint)");
+			st.execute("insert into post values (1, 1), (2, 2), (3, 1)");
+		}
+		
+		arp = new ActiveRecordPlugin("batchLoaderTest", ds);
+		arp.setDialect(new H2Dialect());
+		arp.setContainerFactory(new CaseInsensitiveContainerFactory(true));
+		arp.addMapping("account", Account.class);
+		arp.addMapping("post", Post.class);
+		arp.start();
+	}
+	
+	@AfterClass
+	public static void exit() {
+		arp.stop();
+	}
+	
+	@Test
+	public void key() {
+		Assert.assertEquals(1L, BatchLoader.key(1));
+		Assert.assertEquals(1L, BatchLoader.key(BigInteger.ONE));
+		Assert.assertEquals(1L, BatchLoader.key(new BigDecimal("1.00")));
+		Assert.assertEquals(BatchLoader.key(new BigDecimal("1.5")), BatchLoader.key(new BigDecimal("1.50")));
+		BigInteger big = BigInteger.ONE.shiftLeft(64);
+		Assert.assertEquals(big, BatchLoader.key(big));
+		Assert.assertEquals(big, BatchLoader.key(new BigDecimal(big)));
+	}
+	
+	@Test
+	public void findByIdWithDecimalPrimaryKey() {
+		Assert.assertTrue(Account.dao.findById(1).get("id") instanceof BigDecimal);
+		
+		DataLoader.run(() -> {
+			DataLoader.load(Account.dao, 2);
+			Account a = Account.dao.findById(1);
+			Assert.assertNotNull(a);
+			Assert.assertEquals("james", a.getStr("name"));
+			Assert.assertEquals("david", Account.dao.findById(2L).getStr("name"));
+			Assert.assertSame(a, Account.dao.findById(new BigDecimal("1")));
+		});
+	}
+	
+	@Test
+	public void belongsToWithMixedKeyTypes() {
+		List<Post> posts = Post.dao.find("select * from post order by id");
+		Account.dao.loadBelongsTo(posts, "account_id", "account");
+		Assert.assertEquals("james", posts.get(0).<Account>get("account").getStr("name"));
+		Assert.assertEquals("david", posts.get(1).<Account>get("account").getStr("name"));
+		Assert.assertEquals("james", posts.get(2).<Account>get("account").getStr("name"));
+	}
+}
@@ -0,0 +1,168 @@
+package com.jfinal.plugin.activerecord;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.plugin.activerecord.dialect.H2Dialect;
+
+public class BatchOptionsTest {
+
+	static ActiveRecordPlugin arp;
+	static DbPro db;
+
+	@BeforeClass
+	public static void init() {
+		JdbcDataSource ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:batchOptionsTest;DB_CLOSE_DELAY=-1");
+
+		arp = new ActiveRecordPlugin("batchOptionsTest", ds);
+		arp.setDialect(new H2Dialect());
+		arp.setContainerFactory(new CaseInsensitiveContainerFactory(true));
+		arp.start();
+		db = Db.use("batchOptionsTest");
+		db.update("create table item(id int primary key, name varchar(50))");
+	}
+
+	@AfterClass
+	public static void exit() {
+		arp.stop();
+	}
+
+	@Before
+	public void clear() {
+		db.update("delete from item");
+	}
+
+	static Object[][] rows(int from, int to) {
+		Object[][] ret = new Object[to - from][];
+		for (int i = from; i < to; i++) {
+			ret[i - from] = new Object[] {i, "name_" + i};
+		}
+		return ret;
+	}
+
+	static int count() {
+		return db.queryLong("select count(*) from item").intValue();
+	}
+
+	@Test
+	public void chunksAndCounts() {
+		for (boolean pipelined : new boolean[] {false, true}) {
+			clear();
+			List<Integer> chunkRows = new ArrayList<>();
+			BatchOptions options = new BatchOptions(3)
+				.setPipelined(pipelined)
+				.setChunkListener((index, rows, prepareNanos, waitNanos, executeNanos) -> {
+					Assert.assertEquals(chunkRows.size(), index);
+					chunkRows.add(rows);
+				});
+
+			// 7 行按每块 3 行分为 3、3、1
+			int[] result = db.batch("insert into item(id, name) values(?, ?)", rows(0, 7), options);
+			Assert.assertEquals(7, result.length);
+			for (int r : result) {
+				Assert.assertEquals(1, r);
+			}
+			Assert.assertEquals(List.of(3, 3, 1), chunkRows);
+			Assert.assertEquals(7, count());
+
+			// update 的结果为每行影响的行数
+			chunkRows.clear();
+			Object[][] paras = {{"a", 0}, {"b", 100}, {"c", 6}};
+			result = db.batch("update item set name = ? where id = ?", paras, options);
+			Assert.assertArrayEquals(new int[] {1, 0, 1}, result);
+			Assert.assertEquals(List.of(3), chunkRows);
+			Assert.assertEquals("c", db.queryStr("select name from item where id = 6"));
+		}
+	}
+
+	@Test
+	public void recordList() {
+		List<Record> list = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			list.add(new Record().set("id", i).set("name", "r" + i));
+		}
+		int[] result = db.batch("insert into item(id, name) values(?, ?)", "id, name", list, new BatchOptions(2).setPipelined(true));
+		Assert.assertArrayEquals(new int[] {1, 1, 1, 1, 1}, result);
+		Assert.assertEquals("r4", db.queryStr("select name from item where id = 4"));
+	}
+
+	@Test
+	public void stopOnErrorPerChunk() {
+		db.update("insert into item values(4, 'dup')");
+		try {
+			db.batch("insert into item(id, name) values(?, ?)", rows(0, 7), new BatchOptions(3));
+			Assert.fail();
+		} catch (ActiveRecordException e) {
+			// 第一块已提交，出错的第二块回滚，不再执行第三块
+		}
+		Assert.assertEquals(4, count());
+		Assert.assertEquals(0, db.queryLong("select count(*) from item where id = 6").intValue());
+	}
+
+	@Test
+	public void stopOnErrorAtEndRollsBack() {
+		db.update("insert into item values(4, 'dup')");
+		try {
+			db.batch("insert into item(id, name) values(?, ?)", rows(0, 7), new BatchOptions(3).setCommitPolicy(BatchOptions.CommitPolicy.AT_END));
+			Assert.fail();
+		} catch (ActiveRecordException e) {
+			// AT_END 出错时全部回滚
+		}
+		Assert.assertEquals(1, count());
+	}
+
+	@Test
+	public void continueOnError() {
+		for (BatchOptions.CommitPolicy policy : BatchOptions.CommitPolicy.values()) {
+			clear();
+			db.update("insert into item values(4, 'dup')");
+			List<Integer> chunkRows = new ArrayList<>();
+			BatchOptions options = new BatchOptions(3)
+				.setCommitPolicy(policy)
+				.setContinueOnError(true)
+				.setChunkListener((index, rows, prepareNanos, waitNanos, executeNanos) -> chunkRows.add(rows));
+
+			int[] result = db.batch("insert into item(id, name) values(?, ?)", rows(0, 7), options);
+			Assert.assertEquals(7, result.length);
+			Assert.assertEquals(List.of(3, 3, 1), chunkRows);
+
+			// 出错分块之外的行全部成功，重复主键的行为 EXECUTE_FAILED
+			for (int i : new int[] {0, 1, 2, 6}) {
+				Assert.assertEquals(1, result[i]);
+			}
+			Assert.assertEquals(Statement.EXECUTE_FAILED, result[4]);
+
+			// 出错分块中驱动报告成功的行已提交
+			int inserted = 0;
+			for (int r : result) {
+				if (r > 0 || r == Statement.SUCCESS_NO_INFO) {
+					inserted++;
+				}
+			}
+			Assert.assertEquals(1 + inserted, count());
+			Assert.assertEquals(1, db.queryLong("select count(*) from item where id = 6").intValue());
+		}
+	}
+
+	@Test
+	public void invalidOptions() {
+		try {
+			new BatchOptions(0);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new BatchOptions(1).setCommitPolicy(null);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+		Assert.assertEquals(0, db.batch("insert into item(id, name) values(?, ?)", new Object[0][], new BatchOptions(1)).length);
+	}
+}
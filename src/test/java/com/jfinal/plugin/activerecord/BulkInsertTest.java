@@ -0,0 +1,129 @@
+package com.jfinal.plugin.activerecord;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.kit.CsvKit;
+import com.jfinal.plugin.activerecord.dialect.H2Dialect;
+import com.jfinal.plugin.activerecord.dialect.MysqlDialect;
+import com.jfinal.plugin.activerecord.dialect.PostgreSqlDialect;
+
+public class BulkInsertTest {
+	
+	static ActiveRecordPlugin arp;
+	static DbPro db;
+	
+	@BeforeClass
+	public static void init() {
+		JdbcDataSource ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:bulkInsertTest;DB_CLOSE_DELAY=-1");
+		
+		arp = new ActiveRecordPlugin("bulkInsertTest", ds);
+		// H2 不支持原生批量导入，退化为多行 insert，每条 insert 最多 3 行以覆盖分块以及余数
+		arp.setDialect(new H2Dialect() {
+			public int getMaxRowsPerInsert() {
+				return 3;
+			}
+		});
+		arp.setContainerFactory(new CaseInsensitiveContainerFactory(true));
+		arp.start();
+		db = Db.use("bulkInsertTest");
+	}
+	
+	@AfterClass
+	public static void exit() {
+		arp.stop();
+	}
+	
+	@Test
+	public void multiRowInsertFallback() {
+		db.update("create table user_a(id int primary key, name varchar(50))");
+		List<Record> list = new ArrayList<>();
+		for (int i = 1; i <= 8; i++) {
+			list.add(new Record().set("id", i).set("name", i % 4 == 0 ? null : "name_" + i));
+		}
+		
+		Assert.assertEquals(8, db.bulkInsert("user_a", list));
+		Assert.assertEquals(8, db.queryLong("select count(*) from user_a").intValue());
+		Assert.assertEquals("name_7", db.queryStr("select name from user_a where id = 7"));
+		Assert.assertNull(db.queryStr("select name from user_a where id = 8"));
+	}
+	
+	@Test
+	public void csvFallback() {
+		db.update("create table user_b(id int primary key, name varchar(50))");
+		String csv = "1,\"NULL\"\r\n2,NULL\r\n3,\"a \"\"b\"\"\nc\"\r\n4,d\n";
+		
+		Assert.assertEquals(4, db.bulkInsertCsv("user_b", "id, name", new StringReader(csv)));
+		Assert.assertEquals("NULL", db.queryStr("select name from user_b where id = 1"));
+		Assert.assertNull(db.queryStr("select name from user_b where id = 2"));
+		Assert.assertEquals("a \"b\"\nc", db.queryStr("select name from user_b where id = 3"));
+		Assert.assertEquals("d", db.queryStr("select name from user_b where id = 4"));
+	}
+	
+	@Test
+	public void csvFallbackConvertsColumnTypes() throws SQLException {
+		db.update("create table user_d(id bigint primary key, age int, score decimal(10, 2), birthday date, created timestamp, active boolean, name varchar(50))");
+		String csv = "1,20,9.50,2000-01-02,2023-01-02 03:04:05,true,a\n2,,NULL,NULL,2023-01-02T03:04,0, \n";
+		
+		try (Connection conn = arp.getConfig().getDataSource().getConnection()) {
+			Iterator<Object[]> rows = db.convertCsv(arp.getConfig(), conn, "user_d", "id, age, score, birthday, created, active, name".split(","), CsvKit.parse(new StringReader(csv)));
+			Object[] row = rows.next();
+			Assert.assertEquals(Long.valueOf(1), row[0]);
+			Assert.assertEquals(Integer.valueOf(20), row[1]);
+			Assert.assertEquals(new BigDecimal("9.50"), row[2]);
+			Assert.assertEquals(java.sql.Date.valueOf("2000-01-02"), row[3]);
+			Assert.assertEquals(Timestamp.valueOf("2023-01-02 03:04:05"), row[4]);
+			Assert.assertEquals(Boolean.TRUE, row[5]);
+			Assert.assertEquals("a", row[6]);
+			
+			row = rows.next();
+			Assert.assertNull(row[1]);
+			Assert.assertNull(row[2]);
+			Assert.assertNull(row[3]);
+			Assert.assertEquals(Timestamp.valueOf("2023-01-02 03:04:00"), row[4]);
+			Assert.assertEquals(Boolean.FALSE, row[5]);
+			Assert.assertEquals(" ", row[6]);
+			Assert.assertFalse(rows.hasNext());
+		}
+		
+		Assert.assertEquals(2, db.bulkInsertCsv("user_d", "id, age, score, birthday, created, active, name", new StringReader(csv)));
+		Assert.assertEquals(20, db.queryInt("select age from user_d where id = 1").intValue());
+		Assert.assertNull(db.queryInt("select age from user_d where id = 2"));
+	}
+	
+	@Test
+	public void multiRowInsertQuotesNames() {
+		String[] columns = {"id", " order "};
+		Assert.assertEquals("insert into `user`(`id`, `order`) values(?, ?), (?, ?)", new MysqlDialect().forMultiRowInsert("user", columns, 2));
+		Assert.assertEquals("insert into \"user\"(\"id\", \"order\") values(?, ?)", new PostgreSqlDialect().forMultiRowInsert(" user ", columns, 1));
+	}
+	
+	@Test
+	public void nativeLoadUnavailable() throws SQLException {
+		// 非 mysql、postgresql 驱动的 Connection 上返回 -1，并且不得读取 csv
+		Reader csv = new Reader() {
+			public int read(char[] cbuf, int off, int len) {
+				throw new AssertionError("csv must not be read");
+			}
+			public void close() {
+			}
+		};
+		String[] columns = {"id", "name"};
+		try (Connection conn = arp.getConfig().getDataSource().getConnection()) {
+			Assert.assertEquals(-1, new MysqlDialect().bulkLoad(conn, "user_c", columns, csv));
+			Assert.assertEquals(-1, new PostgreSqlDialect().bulkLoad(conn, "user_c", columns, csv));
+		}
+	}
+}
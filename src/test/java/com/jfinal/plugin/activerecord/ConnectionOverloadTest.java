@@ -0,0 +1,215 @@
+package com.jfinal.plugin.activerecord;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.plugin.activerecord.dialect.H2Dialect;
+
+public class ConnectionOverloadTest {
+	
+	static ActiveRecordPlugin arp;
+	static Config config;
+	static BlockingDataSource ds;
+	
+	ExecutorService executor = Executors.newCachedThreadPool();
+	
+	/**
+	 * 模拟连接池：block 不为 null 时在 getConnection() 中等待，timeout 为 true 时模拟获取超时
+	 */
+	static class BlockingDataSource implements DataSource {
+		final JdbcDataSource ds = new JdbcDataSource();
+		volatile CountDownLatch block;
+		volatile boolean timeout;
+		
+		BlockingDataSource() {
+			ds.setURL("jdbc:h2:mem:connectionOverloadTest;DB_CLOSE_DELAY=-1");
+		}
+		
+		public Connection getConnection() throws SQLException {
+			if (timeout) {
+				throw new SQLTransientConnectionException("Connection is not available, request timed out");
+			}
+			CountDownLatch latch = block;
+			if (latch != null) {
+				try {
+					latch.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new SQLException(e);
+				}
+			}
+			return ds.getConnection();
+		}
+		
+		public Connection getConnection(String username, String password) throws SQLException {
+			return getConnection();
+		}
+		
+		public PrintWriter getLogWriter() throws SQLException {
+			return ds.getLogWriter();
+		}
+		
+		public void setLogWriter(PrintWriter out) throws SQLException {
+			ds.setLogWriter(out);
+		}
+		
+		public void setLoginTimeout(int seconds) throws SQLException {
+			ds.setLoginTimeout(seconds);
+		}
+		
+		public int getLoginTimeout() throws SQLException {
+			return ds.getLoginTimeout();
+		}
+		
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			return ds.getParentLogger();
+		}
+		
+		public <T> T unwrap(Class<T> iface) throws SQLException {
+			return ds.unwrap(iface);
+		}
+		
+		public boolean isWrapperFor(Class<?> iface) throws SQLException {
+			return ds.isWrapperFor(iface);
+		}
+	}
+	
+	static PoolMetrics poolMetrics(int active, int idle, int max) {
+		return new PoolMetrics() {
+			public int getActive() {
+				return active;
+			}
+			public int getIdle() {
+				return idle;
+			}
+			public int getPending() {
+				return 0;
+			}
+			public int getMax() {
+				return max;
+			}
+		};
+	}
+	
+	@BeforeClass
+	public static void init() {
+		ds = new BlockingDataSource();
+		arp = new ActiveRecordPlugin("connectionOverloadTest", ds);
+		arp.setDialect(new H2Dialect());
+		arp.setMaxPendingConnections(1);
+		arp.start();
+		config = arp.getConfig();
+	}
+	
+	@AfterClass
+	public static void exit() {
+		arp.stop();
+	}
+	
+	@After
+	public void reset() {
+		executor.shutdownNow();
+		ds.block = null;
+		ds.timeout = false;
+		config.poolMetrics = null;
+	}
+	
+	static Integer query() {
+		return Db.use("connectionOverloadTest").queryInt("select 1");
+	}
+	
+	static void waitForPending(int expected) throws InterruptedException {
+		for (int i = 0; i < 500 && config.getPendingConnections() != expected; i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(expected, config.getPendingConnections());
+	}
+	
+	@Test
+	public void rejectWhenTooManyWaiting() throws Exception {
+		long waits = config.getConnectionWaitStat().getCount();
+		long fails = config.getConnectionWaitFailStat().getCount();
+		
+		CountDownLatch latch = new CountDownLatch(1);
+		ds.block = latch;
+		Future<Integer> waiting = executor.submit(ConnectionOverloadTest::query);
+		waitForPending(1);
+		
+		try {
+			query();
+			Assert.fail();
+		} catch (ActiveRecordException e) {
+			Assert.assertTrue(e.getCause() instanceof ConnectionOverloadException);
+		}
+		Assert.assertEquals(fails + 1, config.getConnectionWaitFailStat().getCount());
+		Assert.assertEquals(waits + 1, config.getConnectionWaitStat().getCount());
+		
+		latch.countDown();
+		Assert.assertEquals(Integer.valueOf(1), waiting.get(5, TimeUnit.SECONDS));
+		waitForPending(0);
+		Assert.assertEquals(waits + 2, config.getConnectionWaitStat().getCount());
+		Assert.assertEquals(fails + 1, config.getConnectionWaitFailStat().getCount());
+	}
+	
+	@Test
+	public void notCountedWhenPoolHasIdleConnection() throws Exception {
+		config.poolMetrics = poolMetrics(0, 1, 1);
+		CountDownLatch latch = new CountDownLatch(1);
+		ds.block = latch;
+		Future<Integer> first = executor.submit(ConnectionOverloadTest::query);
+		Future<Integer> second = executor.submit(ConnectionOverloadTest::query);
+		Thread.sleep(100);
+		Assert.assertEquals(0, config.getPendingConnections());
+		
+		latch.countDown();
+		Assert.assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS));
+		Assert.assertEquals(Integer.valueOf(1), second.get(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void countedWhenPoolIsExhausted() throws Exception {
+		config.poolMetrics = poolMetrics(1, 0, 1);
+		CountDownLatch latch = new CountDownLatch(1);
+		ds.block = latch;
+		Future<Integer> waiting = executor.submit(ConnectionOverloadTest::query);
+		waitForPending(1);
+		try {
+			query();
+			Assert.fail();
+		} catch (ActiveRecordException e) {
+			Assert.assertTrue(e.getCause() instanceof ConnectionOverloadException);
+		}
+		latch.countDown();
+		Assert.assertEquals(Integer.valueOf(1), waiting.get(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void poolTimeoutRecorded() {
+		long waits = config.getConnectionWaitStat().getCount();
+		long fails = config.getConnectionWaitFailStat().getCount();
+		ds.timeout = true;
+		try {
+			query();
+			Assert.fail();
+		} catch (ActiveRecordException e) {
+			Assert.assertTrue(e.getCause() instanceof SQLTransientConnectionException);
+		}
+		Assert.assertEquals(waits + 1, config.getConnectionWaitStat().getCount());
+		Assert.assertEquals(fails + 1, config.getConnectionWaitFailStat().getCount());
+		Assert.assertEquals(0, config.getPendingConnections());
+	}
+}
@@ -0,0 +1,176 @@
+package com.jfinal.plugin.activerecord;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.aop.Interceptor;
+import com.jfinal.aop.Invocation;
+import com.jfinal.plugin.activerecord.cache.ICache;
+import com.jfinal.plugin.activerecord.dialect.H2Dialect;
+import com.jfinal.plugin.activerecord.tx.Tx;
+import com.jfinal.plugin.activerecord.tx.TxConfig;
+import com.jfinal.plugin.activerecord.tx.TxFun;
+
+public class EntityCacheTest {
+	
+	static ActiveRecordPlugin arp;
+	
+	public static class Article extends Model<Article> {
+		private static final long serialVersionUID = 1L;
+		static final Article dao = new Article().dao();
+	}
+	
+	static JdbcDataSource createDataSource(String name, String title) throws SQLException {
+		JdbcDataSource ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+		try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+			st.execute("create table article(id bigint primary key, title varchar(50))");
+			st.execute("insert into article values (1, '" + title + "'), (2, '" + title + "')");
+		}
+		return ds;
+	}
+	
+	@BeforeClass
+	public static void init() throws SQLException {
+		// 从库中为复制延迟期间的旧数据
+		arp = new ActiveRecordPlugin("entityCacheTest", createDataSource("entityCachePrimary", "new"));
+		arp.addReplica(createDataSource("entityCacheReplica", "old"));
+		arp.setDialect(new H2Dialect());
+		arp.setContainerFactory(new CaseInsensitiveContainerFactory(true));
+		arp.addMapping("article", Article.class);
+		arp.addEntityCache(Article.class);
+		arp.start();
+		ReplicaRouter.clearSticky();
+	}
+	
+	@AfterClass
+	public static void exit() {
+		arp.stop();
+	}
+	
+	@After
+	public void clearSticky() {
+		ReplicaRouter.clearSticky();
+	}
+	
+	@Test
+	public void fillFromPrimary() {
+		Assert.assertEquals("old", Db.use("entityCacheTest").findById("article", 1).getStr("title"));
+		
+		Assert.assertEquals("new", Article.dao.findById(1).getStr("title"));
+		// 命中缓存
+		Assert.assertEquals("new", Article.dao.findById(1).getStr("title"));
+		
+		// 明确指定从库时读到从库数据，但不写入缓存
+		Assert.assertEquals("old", Db.useReplica(() -> Article.dao.findById(2)).getStr("title"));
+		Assert.assertEquals("new", Article.dao.findById(2).getStr("title"));
+	}
+	
+	@Test
+	public void putAfterConcurrentRemove() {
+		Map<Object, Object> store = new ConcurrentHashMap<>();
+		EntityCache[] holder = new EntityCache[1];
+		// 模拟另一线程的失效发生在 version 检查之后、写入缓存之前
+		ICache cache = new ICache() {
+			@SuppressWarnings("unchecked")
+			public <T> T get(String cacheName, Object key) {
+				return (T)store.get(key);
+			}
+			public void put(String cacheName, Object key, Object value) {
+				if (value instanceof Object[]) {
+					holder[0].remove(arp.getConfig(), Article.dao._getTable(), key);
+				}
+				store.put(key, value);
+			}
+			public void remove(String cacheName, Object key) {
+				store.remove(key);
+			}
+			public void removeAll(String cacheName) {
+				store.clear();
+			}
+		};
+		EntityCache ec = new EntityCache(cache);
+		holder[0] = ec;
+		Table table = Article.dao._getTable();
+		ec.addTable(table);
+		
+		Article a = Article.dao.findById(1);
+		ec.put(table, new Object[]{1L}, a._getAttrs(), ec.version(table));
+		Assert.assertNull(ec.get(table, new Object[]{1L}, Article.class));
+	}
+	
+	@Test
+	public void putAfterRemoveOnOtherNode() {
+		// 两个进程的 EntityCache 共享同一个缓存，例如 RedisCache
+		Map<Object, Object> store = new ConcurrentHashMap<>();
+		ICache shared = new ICache() {
+			@SuppressWarnings("unchecked")
+			public <T> T get(String cacheName, Object key) {
+				return (T)store.get(key);
+			}
+			public void put(String cacheName, Object key, Object value) {
+				store.put(key, value);
+			}
+			public void remove(String cacheName, Object key) {
+				store.remove(key);
+			}
+			public void removeAll(String cacheName) {
+				store.clear();
+			}
+		};
+		EntityCache nodeA = new EntityCache(shared);
+		EntityCache nodeB = new EntityCache(shared);
+		Table table = Article.dao._getTable();
+		nodeA.addTable(table);
+		nodeB.addTable(table);
+		
+		Article a = Article.dao.findById(1);
+		Object version = nodeB.version(table);
+		nodeA.remove(arp.getConfig(), table, 1L);		// B 查询期间 A 更新并失效
+		nodeB.put(table, new Object[]{1L}, a._getAttrs(), version);
+		Assert.assertNull(nodeB.get(table, new Object[]{1L}, Article.class));
+		
+		nodeB.put(table, new Object[]{1L}, a._getAttrs(), nodeB.version(table));
+		Assert.assertNotNull(nodeA.get(table, new Object[]{1L}, Article.class));
+	}
+	
+	public static class ArticleService {
+		@TxConfig("entityCacheTest")
+		public boolean rename(long id, String title) {
+			return Db.use("entityCacheTest").update("update article set title = ? where id = ?", title, id) == 1
+				&& Article.dao.findById(id).set("title", title).update();
+		}
+	}
+	
+	@Test
+	public void invalidateAfterTxFunCommit() throws Exception {
+		Article.dao.findById(3);
+		Db.use("entityCacheTest").update("insert into article values (3, 'a')");
+		Assert.assertEquals("a", Article.dao.findById(3).getStr("title"));		// 写入缓存
+		
+		TxFun prev = Tx.getTxFun();
+		Tx.setTxFun((inv, conn) -> {
+			inv.invoke();
+			conn.commit();
+		});
+		try {
+			ArticleService service = new ArticleService();
+			Method method = ArticleService.class.getMethod("rename", long.class, String.class);
+			Invocation inv = new Invocation(service, method, new Interceptor[]{new Tx()}, args -> service.rename((Long)args[0], (String)args[1]), new Object[]{3L, "b"});
+			inv.invoke();
+		} finally {
+			Tx.setTxFun(prev);
+		}
+		
+		Assert.assertEquals("b", Article.dao.findById(3).getStr("title"));
+	}
+}
@@ -0,0 +1,110 @@
+package com.jfinal.plugin.activerecord;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.function.Supplier;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.plugin.activerecord.dialect.H2Dialect;
+
+public class ModelFactoryTest {
+	
+	static ActiveRecordPlugin arp;
+	
+	// 通过 addMapping(..., Blog::new) 传入创建函数
+	public static class Blog extends Model<Blog> {
+		private static final long serialVersionUID = 1L;
+		static final Blog dao = new Blog().dao();
+	}
+	
+	// 使用 MethodHandle 调用 public 构造方法
+	public static class Post extends Model<Post> {
+		private static final long serialVersionUID = 1L;
+		static final Post dao = new Post().dao();
+	}
+	
+	// 非 public 的类与构造方法使用反射
+	static class Tag extends Model<Tag> {
+		private static final long serialVersionUID = 1L;
+		static final Tag dao = new Tag().dao();
+		
+		Tag() {
+		}
+	}
+	
+	@BeforeClass
+	public static void init() throws Exception {
+		JdbcDataSource ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:modelFactoryTest;DB_CLOSE_DELAY=-1");
+		try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+			for (String table : new String[] {"blog", "post", "tag"}) {
+				st.execute("create table " + table + "(id bigint primary key, title varchar(50))");
+				st.execute("insert into " + table + " values (1, 'first')");
+			}
+		}
+		arp = new ActiveRecordPlugin("modelFactoryTest", ds);
+		arp.setDialect(new H2Dialect());
+		arp.setContainerFactory(new CaseInsensitiveContainerFactory(true));
+		arp.addMapping("blog", "id", Blog.class, Blog::new);
+		arp.addMapping("post", Post.class);
+		arp.addMapping("tag", Tag.class);
+		arp.start();
+	}
+	
+	@AfterClass
+	public static void exit() {
+		arp.stop();
+	}
+	
+	/**
+	 * 工厂创建的对象与 new 创建的对象拥有相同的 attrs、modifyFlag 容器，行为一致
+	 */
+	static <M extends Model<M>> void assertSameAsNew(Supplier<M> factory, M byNew) {
+		M created = factory.get();
+		Assert.assertNotSame(created, factory.get());
+		Assert.assertSame(byNew.getClass(), created.getClass());
+		Assert.assertSame(byNew._getAttrs().getClass(), created._getAttrs().getClass());
+		Assert.assertTrue(created._getAttrs() instanceof CaseInsensitiveContainerFactory.CaseInsensitiveMap);
+		Assert.assertTrue(created._getAttrs().isEmpty());
+		Assert.assertTrue(created._getModifyFlag().isEmpty());
+		
+		created.set("TITLE", "t");
+		byNew.set("TITLE", "t");
+		Assert.assertEquals("t", created.getStr("title"));
+		Assert.assertArrayEquals(byNew._getAttrNames(), created._getAttrNames());
+		Assert.assertArrayEquals(new String[] {"title"}, created._getAttrNames());
+		Assert.assertSame(byNew._getModifyFlag().getClass(), created._getModifyFlag().getClass());
+		Assert.assertTrue(created._getModifyFlag() instanceof ModifyFlagSet);
+		Assert.assertTrue(created._getModifyFlag().contains("Title"));
+		Assert.assertEquals(byNew._getModifyFlag(), created._getModifyFlag());
+	}
+	
+	@Test
+	public void createdLikeNew() {
+		assertSameAsNew(ModelFactory.get(Blog.class), new Blog());
+		assertSameAsNew(ModelFactory.get(Post.class), new Post());
+		assertSameAsNew(ModelFactory.get(Tag.class), new Tag());
+		
+		Assert.assertTrue(ModelFactory.create(Blog.class) instanceof Blog);
+	}
+	
+	@Test
+	public void builtByFindLikeNew() {
+		for (Model<?> dao : new Model<?>[] {Blog.dao, Post.dao, Tag.dao}) {
+			Model<?> m = dao.findById(1);
+			Assert.assertTrue(m._getAttrs() instanceof CaseInsensitiveContainerFactory.CaseInsensitiveMap);
+			Assert.assertEquals("first", m.getStr("TITLE"));
+			Assert.assertTrue(m._getModifyFlag().isEmpty());
+			
+			m.set("Title", "changed");
+			Assert.assertTrue(m._getModifyFlag() instanceof ModifyFlagSet);
+			Assert.assertTrue(m.update());
+			Assert.assertTrue(m._getModifyFlag().isEmpty());
+			Assert.assertEquals("changed", dao.findById(1).getStr("title"));
+			m.set("title", "first").update();
+		}
+	}
+}
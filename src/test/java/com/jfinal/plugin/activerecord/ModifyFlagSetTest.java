@@ -0,0 +1,108 @@
+package com.jfinal.plugin.activerecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.plugin.activerecord.dialect.H2Dialect;
+
+public class ModifyFlagSetTest {
+	
+	static ActiveRecordPlugin arp;
+	
+	public static class Article extends Model<Article> {
+		private static final long serialVersionUID = 1L;
+	}
+	
+	public static class Unmapped extends Model<Unmapped> {
+		private static final long serialVersionUID = 1L;
+	}
+	
+	@BeforeClass
+	public static void init() throws Exception {
+		JdbcDataSource ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:modifyFlagSetTest;DB_CLOSE_DELAY=-1");
+		try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+			st.execute("create table article(id bigint primary key, title varchar(50), content varchar(200))");
+		}
+		arp = new ActiveRecordPlugin("modifyFlagSetTest", ds);
+		arp.setDialect(new H2Dialect());
+		arp.setContainerFactory(new CaseInsensitiveContainerFactory(true));
+		arp.addMapping("article", Article.class);
+		arp.start();
+	}
+	
+	@AfterClass
+	public static void exit() {
+		arp.stop();
+	}
+	
+	@SuppressWarnings("unchecked")
+	static Set<String> roundTrip(Set<String> set) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			oos.writeObject(set);
+		}
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+			return (Set<String>)ois.readObject();
+		}
+	}
+	
+	static Table unmappedTable(Map<String, Class<?>> columnTypeMap) {
+		columnTypeMap.put("id", Long.class);
+		columnTypeMap.put("title", String.class);
+		Table table = new Table("unmapped", "id", Unmapped.class);
+		table.setColumnTypeMap(columnTypeMap);
+		return table;
+	}
+	
+	@Test
+	public void mappedModelRestoresModifyFlagSet() throws Exception {
+		ModifyFlagSet set = new ModifyFlagSet(TableMapping.me().getTable(Article.class), false);
+		set.add("Title");
+		set.add("extra_attr");
+		
+		Set<String> ret = roundTrip(set);
+		Assert.assertTrue(ret instanceof ModifyFlagSet);
+		Assert.assertEquals(2, ret.size());
+		Assert.assertTrue(ret.contains("TITLE"));
+		Assert.assertTrue(ret.contains("title"));
+		Assert.assertTrue(ret.contains("extra_attr"));
+		Assert.assertFalse(ret.contains("content"));
+	}
+	
+	@Test
+	public void unmappedCaseInsensitiveRestoresTreeSet() throws Exception {
+		ModifyFlagSet set = new ModifyFlagSet(unmappedTable(new TreeMap<>(String.CASE_INSENSITIVE_ORDER)), false);
+		set.add("title");
+		
+		Set<String> ret = roundTrip(set);
+		Assert.assertTrue(ret instanceof TreeSet);
+		Assert.assertTrue(ret.contains("TITLE"));
+		Assert.assertTrue(ret.contains("Title"));
+	}
+	
+	@Test
+	public void unmappedCaseSensitiveRestoresHashSet() throws Exception {
+		ModifyFlagSet set = new ModifyFlagSet(unmappedTable(new HashMap<>()), false);
+		set.add("title");
+		
+		Set<String> ret = roundTrip(set);
+		Assert.assertEquals(HashSet.class, ret.getClass());
+		Assert.assertTrue(ret.contains("title"));
+		Assert.assertFalse(ret.contains("TITLE"));
+	}
+}
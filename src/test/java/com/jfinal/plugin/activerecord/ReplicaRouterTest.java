@@ -0,0 +1,228 @@
+package com.jfinal.plugin.activerecord;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.plugin.activerecord.dialect.H2Dialect;
+
+public class ReplicaRouterTest {
+
+	static ActiveRecordPlugin arp;
+	static ReplicaRouter router;
+	static FailingDataSource replica1;
+	static FailingDataSource replica2;
+	static DbPro db;
+
+	static class FailingDataSource implements DataSource {
+		final JdbcDataSource ds = new JdbcDataSource();
+		volatile boolean fail;
+
+		FailingDataSource(String name) throws SQLException {
+			ds.setURL("jdbc:h2:mem:replicaRouter_" + name + ";DB_CLOSE_DELAY=-1");
+			try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+				st.execute("create table node(id bigint primary key, name varchar(50))");
+				st.execute("insert into node values (1, '" + name + "')");
+			}
+		}
+
+		public Connection getConnection() throws SQLException {
+			if (fail) {
+				throw new SQLException("replica down");
+			}
+			return ds.getConnection();
+		}
+
+		public Connection getConnection(String username, String password) throws SQLException {
+			return getConnection();
+		}
+
+		public PrintWriter getLogWriter() throws SQLException {
+			return ds.getLogWriter();
+		}
+
+		public void setLogWriter(PrintWriter out) throws SQLException {
+			ds.setLogWriter(out);
+		}
+
+		public void setLoginTimeout(int seconds) throws SQLException {
+			ds.setLoginTimeout(seconds);
+		}
+
+		public int getLoginTimeout() throws SQLException {
+			return ds.getLoginTimeout();
+		}
+
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			return ds.getParentLogger();
+		}
+
+		public <T> T unwrap(Class<T> iface) throws SQLException {
+			return ds.unwrap(iface);
+		}
+
+		public boolean isWrapperFor(Class<?> iface) throws SQLException {
+			return ds.isWrapperFor(iface);
+		}
+	}
+
+	@BeforeClass
+	public static void init() throws SQLException {
+		replica1 = new FailingDataSource("replica1");
+		replica2 = new FailingDataSource("replica2");
+		arp = new ActiveRecordPlugin("replicaRouterTest", new FailingDataSource("primary"));
+		arp.addReplica(replica1);
+		arp.addReplica(replica2, 3);
+		arp.setDialect(new H2Dialect());
+		arp.start();
+		router = arp.getReplicaRouter();
+		db = Db.use("replicaRouterTest");
+	}
+
+	@AfterClass
+	public static void exit() {
+		arp.stop();
+	}
+
+	@After
+	public void reset() {
+		ReplicaRouter.clearSticky();
+		replica1.fail = false;
+		replica2.fail = false;
+		router.setPolicy(ReplicaRouter.Policy.ROUND_ROBIN).setStickyMillis(1000).setLagChecker(null, Long.MAX_VALUE, 5000).setCheckExecutor(null);
+		for (ReplicaRouter.Replica r : router.getReplicas()) {
+			r.available = true;
+			r.lastCheckTime.set(0);
+		}
+	}
+
+	static String node() {
+		return db.queryStr("select name from node where id = 1");
+	}
+
+	@Test
+	public void roundRobin() {
+		Set<String> names = new HashSet<>();
+		for (int i = 0; i < 4; i++) {
+			names.add(node());
+		}
+		Assert.assertEquals(2, names.size());
+		Assert.assertFalse(names.contains("primary"));
+		Assert.assertEquals("primary", Db.usePrimary(() -> node()));
+	}
+
+	@Test
+	public void weightedOnlyPicksAvailable() {
+		router.setPolicy(ReplicaRouter.Policy.WEIGHTED);
+		router.getReplicas().get(1).available = false;
+		router.getReplicas().get(1).lastCheckTime.set(System.currentTimeMillis());
+		for (int i = 0; i < 20; i++) {
+			Assert.assertEquals("replica1", node());
+		}
+	}
+
+	@Test
+	public void leastInFlight() {
+		router.setPolicy(ReplicaRouter.Policy.LEAST_IN_FLIGHT);
+		router.getReplicas().get(0).inFlight.addAndGet(5);
+		try {
+			Assert.assertEquals("replica2", node());
+		} finally {
+			router.getReplicas().get(0).inFlight.addAndGet(-5);
+		}
+	}
+
+	@Test
+	public void stickyAfterWriteOutsideScope() {
+		Assert.assertNotEquals("primary", node());
+		db.update("update node set name = name where id = 1");
+		Assert.assertEquals("primary", node());
+		ReplicaRouter.clearSticky();
+		Assert.assertNotEquals("primary", node());
+
+		// stickyMillis 为 0 时作用域之外不保持主库
+		router.setStickyMillis(0);
+		db.update("update node set name = name where id = 1");
+		Assert.assertNotEquals("primary", node());
+	}
+
+	@Test
+	public void stickyUntilScopeEnds() {
+		router.setStickyMillis(1);
+		List<String> names = new ArrayList<>();
+		ReplicaRouter.runInScope(() -> {
+			names.add(node());
+			db.update("update node set name = name where id = 1");
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			// 超过 stickyMillis 以后仍在作用域之内
+			names.add(node());
+			ReplicaRouter.runInScope(() -> names.add(node()));
+			names.add(node());
+		});
+		names.add(node());
+
+		Assert.assertNotEquals("primary", names.get(0));
+		Assert.assertEquals("primary", names.get(1));
+		Assert.assertEquals("primary", names.get(2));
+		Assert.assertEquals("primary", names.get(3));
+		Assert.assertNotEquals("primary", names.get(4));
+	}
+
+	@Test
+	public void failoverToOtherReplicaAndPrimary() {
+		replica1.fail = true;
+		Set<String> names = new HashSet<>();
+		for (int i = 0; i < 4; i++) {
+			names.add(node());
+		}
+		// replica1 获取 Connection 失败时本次回退主库，之后被跳过
+		Assert.assertTrue(names.contains("replica2"));
+		Assert.assertFalse(names.contains("replica1"));
+		Assert.assertFalse(router.getReplicas().get(0).isAvailable());
+
+		replica2.fail = true;
+		Assert.assertEquals("primary", node());
+		Assert.assertEquals("primary", node());
+		Assert.assertFalse(router.getReplicas().get(1).isAvailable());
+	}
+
+	@Test
+	public void lagCheckRunsInBackground() {
+		List<Runnable> tasks = new ArrayList<>();
+		router.setLagChecker(conn -> conn.getMetaData().getURL().contains("replica1") ? 10000 : 0, 3000, 0);
+		router.setCheckExecutor(tasks::add);
+
+		// 检测任务提交到 executor，查询线程不执行检测
+		Set<String> names = new HashSet<>();
+		for (int i = 0; i < 4; i++) {
+			names.add(node());
+		}
+		Assert.assertTrue(names.contains("replica1"));
+		Assert.assertFalse(tasks.isEmpty());
+
+		new ArrayList<>(tasks).forEach(Runnable::run);
+		Assert.assertEquals(10000, router.getReplicas().get(0).getLagMillis());
+		Assert.assertFalse(router.getReplicas().get(0).isAvailable());
+		router.setCheckExecutor(task -> {});
+		for (int i = 0; i < 4; i++) {
+			Assert.assertEquals("replica2", node());
+		}
+	}
+}
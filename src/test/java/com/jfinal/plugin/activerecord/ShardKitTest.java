@@ -0,0 +1,146 @@
+package com.jfinal.plugin.activerecord;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.plugin.activerecord.dialect.H2Dialect;
+
+public class ShardKitTest {
+	
+	static final String[] SHARDS = {"shard_0", "shard_1"};
+	static List<ActiveRecordPlugin> arps = new ArrayList<>();
+	
+	public static class Orders extends Model<Orders> {
+		private static final long serialVersionUID = 1L;
+		static final Orders dao = new Orders().dao();
+		
+		public Long getId() {
+			return getLong("id");
+		}
+	}
+	
+	@BeforeClass
+	public static void init() throws SQLException {
+		for (String name : SHARDS) {
+			JdbcDataSource ds = new JdbcDataSource();
+			ds.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+			try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+				st.execute("create table orders(id bigint primary key, tenant_id int, amount int)");
+			}
+			
+			ActiveRecordPlugin arp = new ActiveRecordPlugin(name, ds);
+			arp.setDialect(new H2Dialect());
+			arp.setContainerFactory(new CaseInsensitiveContainerFactory(true));
+			arp.addMapping("orders", Orders.class);
+			arp.start();
+			arps.add(arp);
+		}
+		ShardKit.addShardTable(Orders.class, new ShardTable("orders", "tenant_id", SHARDS));
+		
+		for (int i=1; i<=6; i++) {
+			Assert.assertTrue(new Orders().set("id", i).set("amount", i * 10).set("tenant_id", i).save());
+		}
+	}
+	
+	@AfterClass
+	public static void exit() {
+		ShardKit.setExecutor(null);
+		for (ActiveRecordPlugin arp : arps) {
+			arp.stop();
+		}
+	}
+	
+	@Test
+	public void routeByShardKey() {
+		// 奇数 tenant_id 位于 shard_1，偶数位于 shard_0
+		Assert.assertEquals(3, Db.use("shard_0").queryLong("select count(*) from orders where mod(tenant_id, 2) = 0").intValue());
+		Assert.assertEquals(3, Db.use("shard_1").queryLong("select count(*) from orders where mod(tenant_id, 2) = 1").intValue());
+		Assert.assertEquals(0, Db.use("shard_1").queryLong("select count(*) from orders where mod(tenant_id, 2) = 0").intValue());
+		
+		Orders o = ShardKit.use(Orders.dao, 3).findById(3);
+		Assert.assertEquals(30, o.getInt("amount").intValue());
+		Assert.assertNull(ShardKit.use(Orders.dao, 4).findById(3));
+	}
+	
+	@Test
+	public void missingShardKey() {
+		try {
+			new Orders().set("id", 100).set("amount", 1).save();
+			Assert.fail("save without shard key must fail");
+		} catch (ActiveRecordException e) {
+			Assert.assertTrue(e.getMessage().contains("tenant_id"));
+		}
+		Assert.assertNull(ShardKit.findById(Orders.dao, 100));
+	}
+	
+	@Test
+	public void daoWithoutShard() {
+		// 未绑定分片的 dao 不能回退到最后映射的分片
+		try {
+			Orders.dao.findById(1);
+			Assert.fail("dao without shard must fail");
+		} catch (ActiveRecordException e) {
+			Assert.assertTrue(e.getMessage().contains("ShardKit.use"));
+		}
+		try {
+			Orders.dao.find("select * from orders");
+			Assert.fail("dao without shard must fail");
+		} catch (ActiveRecordException e) {
+			Assert.assertTrue(e.getMessage().contains(Orders.class.getName()));
+		}
+		Assert.assertEquals(10, ShardKit.use(Orders.dao, 1).findById(1).getInt("amount").intValue());
+	}
+	
+	@Test
+	public void fanOutAndMerge() {
+		Orders o = ShardKit.findById(Orders.dao, 5);
+		Assert.assertEquals(50, o.getInt("amount").intValue());
+		
+		// findById 得到的 model 记住所在分片，无需分片键即可更新
+		o.remove("tenant_id").set("amount", 55);
+		Assert.assertTrue(o.update());
+		Assert.assertEquals(55, Db.use("shard_1").queryInt("select amount from orders where id = 5").intValue());
+		Db.use("shard_1").update("update orders set amount = 50 where id = 5");
+		
+		Comparator<Orders> desc = Comparator.comparing(Orders::getId).reversed();
+		List<Orders> list = ShardKit.find(Orders.dao, desc, "select * from orders order by id desc");
+		Assert.assertEquals(6, list.size());
+		for (int i=0; i<list.size(); i++) {
+			Assert.assertEquals(6 - i, list.get(i).getId().intValue());
+		}
+		
+		Page<Orders> page = ShardKit.paginate(Orders.dao, desc, 2, 4, "select *", "from orders order by id desc");
+		Assert.assertEquals(6, page.getTotalRow());
+		Assert.assertEquals(2, page.getTotalPage());
+		Assert.assertEquals(2, page.getList().size());
+		Assert.assertEquals(2, page.getList().get(0).getId().intValue());
+		Assert.assertEquals(1, page.getList().get(1).getId().intValue());
+	}
+	
+	@Test(timeout = 10000)
+	public void nestedFanOutOnBoundedExecutor() {
+		// 单线程的线程池中嵌套发起跨分片查询，嵌套调用须在当前线程中执行而不能相互等待
+		ExecutorService es = Executors.newFixedThreadPool(1);
+		ShardKit.setExecutor(es);
+		try {
+			Config[] configs = ShardKit.getShardTable(Orders.class).getConfigs();
+			List<Integer> counts = ShardKit.fanOut(configs, c -> ShardKit.find(Orders.dao, "select * from orders").size());
+			Assert.assertEquals(2, counts.size());
+			Assert.assertEquals(6, counts.get(0).intValue());
+			Assert.assertEquals(6, counts.get(1).intValue());
+		} finally {
+			ShardKit.setExecutor(null);
+			es.shutdown();
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package com.jfinal.plugin.activerecord;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.plugin.activerecord.dialect.H2Dialect;
+
+public class SqlCacheTest {
+	
+	static ActiveRecordPlugin arp;
+	static ActiveRecordPlugin cachedArp;
+	static CountingDbPro cachedDb;
+	
+	public static class Blog extends Model<Blog> {
+		private static final long serialVersionUID = 1L;
+		static final Blog dao = new Blog().dao();
+		static int findCount;
+		
+		protected List<Blog> find(Config config, Connection conn, String sql, Object... paras) throws Exception {
+			findCount++;
+			return super.find(config, conn, sql, paras);
+		}
+	}
+	
+	public static class Post extends Model<Post> {
+		private static final long serialVersionUID = 1L;
+		static final Post dao = new Post().dao();
+		static int findCount;
+		
+		protected List<Post> find(Config config, Connection conn, String sql, Object... paras) throws Exception {
+			findCount++;
+			return super.find(config, conn, sql, paras);
+		}
+	}
+	
+	static class CountingDbPro extends DbPro {
+		int findCount;
+		int updateCount;
+		String lastSql;
+		Object[] lastParas;
+		
+		CountingDbPro() {
+			this("sqlCacheTest");
+		}
+		
+		CountingDbPro(String configName) {
+			super(configName);
+		}
+		
+		protected List<Record> find(Config config, Connection conn, String sql, Object... paras) throws SQLException {
+			findCount++;
+			return super.find(config, conn, sql, paras);
+		}
+		
+		protected int update(Config config, Connection conn, String sql, Object... paras) throws SQLException {
+			updateCount++;
+			lastSql = sql;
+			lastParas = paras;
+			return super.update(config, conn, sql, paras);
+		}
+	}
+	
+	@BeforeClass
+	public static void init() throws SQLException {
+		JdbcDataSource ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:sqlCacheTest;DB_CLOSE_DELAY=-1");
+		try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+			st.execute("create table blog(id bigint primary key, title varchar(50))");
+			st.execute("insert into blog values (1, 'a'), (2, 'b'), (3, 'c')");
+		}
+		
+		arp = new ActiveRecordPlugin("sqlCacheTest", ds);
+		arp.setDialect(new H2Dialect());
+		arp.setContainerFactory(new CaseInsensitiveContainerFactory(true));
+		arp.addMapping("blog", Blog.class);
+		arp.start();
+		
+		JdbcDataSource cachedDs = new JdbcDataSource();
+		cachedDs.setURL("jdbc:h2:mem:sqlCacheOnTest;DB_CLOSE_DELAY=-1");
+		try (Connection conn = cachedDs.getConnection(); Statement st = conn.createStatement()) {
+			st.execute("create table post(id bigint primary key, title varchar(50), author varchar(50))");
+			st.execute("insert into post values (1, 'a', 'x'), (2, 'b', 'y'), (3, 'c', 'z')");
+		}
+		
+		cachedArp = new ActiveRecordPlugin("sqlCacheOnTest", cachedDs);
+		cachedArp.setDialect(new H2Dialect());
+		cachedArp.setContainerFactory(new CaseInsensitiveContainerFactory(true));
+		cachedArp.setSqlCache(true);
+		cachedArp.setDbProFactory(configName -> new CountingDbPro(configName));
+		cachedArp.addMapping("post", Post.class);
+		cachedArp.start();
+		cachedDb = (CountingDbPro)Db.use("sqlCacheOnTest");
+	}
+	
+	@AfterClass
+	public static void exit() {
+		arp.stop();
+		cachedArp.stop();
+	}
+	
+	@Test
+	public void hooksUsedWithoutSqlCache() {
+		CountingDbPro db = new CountingDbPro();
+		Assert.assertEquals("a", db.findByIds("blog", "id", 1).getStr("title"));
+		Assert.assertEquals(1, db.findCount);
+		
+		Assert.assertTrue(db.deleteByIds("blog", "id", 3));
+		Assert.assertEquals(1, db.updateCount);
+		
+		int before = Blog.findCount;
+		Assert.assertEquals("b", Blog.dao.findById(2).getStr("title"));
+		Assert.assertEquals(before + 1, Blog.findCount);
+	}
+	
+	@Test
+	public void hooksUsedWithSqlCache() {
+		CountingDbPro db = cachedDb;
+		int findCount = db.findCount;
+		Assert.assertEquals("a", db.findByIds("post", "id", 1).getStr("title"));
+		Assert.assertEquals(findCount + 1, db.findCount);
+		
+		// 缓存的 sql 中参数次序为 set 子句中的字段在前，主键在后
+		Record r = new Record().set("id", 1).set("author", "x2").set("title", "a2");
+		int updateCount = db.updateCount;
+		Assert.assertTrue(db.update("post", "id", r));
+		Assert.assertEquals(updateCount + 1, db.updateCount);
+		String sql = db.lastSql;
+		Assert.assertTrue(sql.indexOf("author") < sql.indexOf("title"));
+		Assert.assertTrue(sql.indexOf("title") < sql.indexOf("where"));
+		Assert.assertArrayEquals(new Object[] {"x2", "a2", 1}, db.lastParas);
+		
+		// 第二次命中 SqlCache，经由同一 hook 且 sql 不变
+		Record r2 = new Record().set("id", 2).set("author", "y2").set("title", "b2");
+		Assert.assertTrue(db.update("post", "id", r2));
+		Assert.assertSame(sql, db.lastSql);
+		Assert.assertArrayEquals(new Object[] {"y2", "b2", 2}, db.lastParas);
+		Record loaded = db.findByIds("post", "id", 2);
+		Assert.assertEquals("y2", loaded.getStr("author"));
+		Assert.assertEquals("b2", loaded.getStr("title"));
+		
+		Assert.assertTrue(db.deleteByIds("post", "id", 3));
+		Assert.assertEquals(updateCount + 3, db.updateCount);
+		Assert.assertArrayEquals(new Object[] {3}, db.lastParas);
+		
+		// Model 的 findById、update 同样经由 hook，并使用缓存的 sql
+		int before = Post.findCount;
+		Post post = Post.dao.findById(1);
+		Assert.assertEquals(before + 1, Post.findCount);
+		post.set("title", "a3").update();
+		Assert.assertEquals("a3", Post.dao.findById(1).getStr("title"));
+		Assert.assertEquals(before + 2, Post.findCount);
+		Assert.assertTrue(cachedArp.getConfig().getSqlCache().size() > 0);
+	}
+}
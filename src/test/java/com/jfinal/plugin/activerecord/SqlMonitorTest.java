@@ -0,0 +1,63 @@
+package com.jfinal.plugin.activerecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.plugin.activerecord.dialect.H2Dialect;
+
+public class SqlMonitorTest {
+	
+	static ActiveRecordPlugin arp;
+	static SqlMonitor monitor = new SqlMonitor();
+	static List<String> executed = new ArrayList<>();
+	
+	@BeforeClass
+	public static void init() {
+		JdbcDataSource ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:sqlMonitorTest;DB_CLOSE_DELAY=-1");
+		
+		// 第一个 Listener 抛出异常，不影响 sql 执行结果以及后续 Listener
+		monitor.addListener(new SqlMonitor.Listener() {
+			public void onExecute(String configName, String sql, Object[] paras, long nanos, int rows, int batchSize) {
+				throw new RuntimeException("listener error");
+			}
+		});
+		monitor.addListener(new SqlMonitor.Listener() {
+			public void onExecute(String configName, String sql, Object[] paras, long nanos, int rows, int batchSize) {
+				executed.add(sql);
+			}
+		});
+		
+		arp = new ActiveRecordPlugin("sqlMonitorTest", ds);
+		arp.setDialect(new H2Dialect());
+		arp.setSqlMonitor(monitor);
+		arp.start();
+	}
+	
+	@AfterClass
+	public static void exit() {
+		arp.stop();
+	}
+	
+	@Test
+	public void listenerErrorIsolated() {
+		DbPro db = Db.use("sqlMonitorTest");
+		db.update("create table t(id int primary key, v int)");
+		
+		String insert = "insert into t values (?, ?)";
+		Assert.assertEquals(1, db.update(insert, 1, 10));
+		int[] r = db.batch(insert, new Object[][] {{2, 20}, {3, 30}}, 10);
+		Assert.assertEquals(2, r.length);
+		Assert.assertEquals(3, db.queryLong("select count(*) from t").intValue());
+		
+		SqlMonitor.Stat stat = monitor.getStat(insert);
+		Assert.assertEquals(2, stat.getCount());
+		Assert.assertEquals(3, stat.getRows());
+		Assert.assertEquals(1, stat.getBatchCount());
+		Assert.assertTrue(executed.contains("select count(*) from t"));
+	}
+}
@@ -0,0 +1,166 @@
+package com.jfinal.plugin.activerecord;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.aop.Interceptor;
+import com.jfinal.aop.Invocation;
+import com.jfinal.plugin.activerecord.cache.ICache;
+import com.jfinal.plugin.activerecord.dialect.H2Dialect;
+import com.jfinal.plugin.activerecord.tx.Tx;
+import com.jfinal.plugin.activerecord.tx.TxConfig;
+import com.jfinal.plugin.activerecord.tx.TxFun;
+
+public class TableTagCacheTest {
+	
+	static ActiveRecordPlugin arp;
+	static TableTagCache tagCache;
+	
+	static class MapCache implements ICache {
+		final Map<String, Object> map = new ConcurrentHashMap<>();
+		
+		@SuppressWarnings("unchecked")
+		public <T> T get(String cacheName, Object key) {
+			return (T)map.get(cacheName + ":" + key);
+		}
+		
+		public void put(String cacheName, Object key, Object value) {
+			map.put(cacheName + ":" + key, value);
+		}
+		
+		public void remove(String cacheName, Object key) {
+			map.remove(cacheName + ":" + key);
+		}
+		
+		public void removeAll(String cacheName) {
+			map.keySet().removeIf(k -> k.startsWith(cacheName + ":"));
+		}
+	}
+	
+	@BeforeClass
+	public static void init() throws SQLException {
+		JdbcDataSource ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:tableTagCacheTest;DB_CLOSE_DELAY=-1");
+		try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+			st.execute("create table blog(id bigint primary key, title varchar(50))");
+			st.execute("insert into blog values (1, 'a')");
+		}
+		
+		arp = new ActiveRecordPlugin("tableTagCacheTest", ds);
+		arp.setDialect(new H2Dialect());
+		arp.setContainerFactory(new CaseInsensitiveContainerFactory(true));
+		arp.setCache(new MapCache());
+		arp.setTableTagCache(true);
+		arp.start();
+		tagCache = arp.getConfig().getTableTagCache();
+	}
+	
+	@AfterClass
+	public static void exit() {
+		arp.stop();
+	}
+	
+	static void assertTables(String sql, String... expected) {
+		Assert.assertArrayEquals(sql, expected, TableTagCache.parseTables(sql));
+	}
+	
+	@Test
+	public void parseAliases() {
+		assertTables("select * from blog", "blog");
+		assertTables("select b.* from blog b where b.id = ?", "blog");
+		assertTables("select b.* from blog as b order by b.id", "blog");
+		assertTables("SELECT * FROM Blog WHERE title = 'from user'", "blog");
+	}
+	
+	@Test
+	public void parseCommaFromList() {
+		assertTables("select * from blog b, user u, tag where b.user_id = u.id", "blog", "user", "tag");
+		assertTables("select * from blog as b, user as u", "blog", "user");
+	}
+	
+	@Test
+	public void parseJoin() {
+		assertTables("select * from blog b join user u on b.user_id = u.id left join tag t on t.blog_id = b.id", "blog", "user", "tag");
+		assertTables("select * from blog b inner join user u using (user_id)", "blog", "user");
+	}
+	
+	@Test
+	public void parseSubquery() {
+		assertTables("select * from (select * from blog where id > 1) t join user u on t.user_id = u.id", "blog", "user");
+		assertTables("select * from blog where user_id in (select id from user)", "blog", "user");
+		assertTables("select * from blog b, (select id from user) u where b.user_id = u.id", "blog", "user");
+	}
+	
+	@Test
+	public void parseQuotedAndSchemaQualified() {
+		assertTables("select * from `blog` b join \"User\" u on b.user_id = u.id", "blog", "user");
+		assertTables("select * from [my blog] b", "my blog");
+		assertTables("select * from app.blog b join `app`.`user` u on b.user_id = u.id", "blog", "user");
+		assertTables("update app.blog set title = ? where id = ?", "blog");
+		assertTables("insert into \"app\".\"blog\" (id, title) values (?, ?)", "blog");
+		assertTables("delete from app.blog where id = ?", "blog");
+	}
+	
+	@Test
+	public void bumpAfterTxCommit() {
+		DbPro db = Db.use("tableTagCacheTest");
+		long version = tagCache.getVersion("blog");
+		db.tx(() -> {
+			db.update("update blog set title = ? where id = ?", "b", 1);
+			Assert.assertEquals(version, tagCache.getVersion("blog"));
+			return true;
+		});
+		Assert.assertEquals(version + 1, tagCache.getVersion("blog"));
+		
+		// 回滚时不递增
+		db.tx(() -> {
+			db.update("update blog set title = ? where id = ?", "c", 1);
+			return false;
+		});
+		Assert.assertEquals(version + 1, tagCache.getVersion("blog"));
+	}
+	
+	public static class BlogService {
+		@TxConfig("tableTagCacheTest")
+		public void rename(long id, String title) {
+			Db.use("tableTagCacheTest").update("update blog set title = ? where id = ?", title, id);
+			Assert.assertEquals(1, Db.use("tableTagCacheTest").findByCache("blog", "title", "select title from blog where id = 1").size());
+		}
+	}
+	
+	@Test
+	public void bumpAfterTxFunCommit() throws Exception {
+		DbPro db = Db.use("tableTagCacheTest");
+		db.update("update blog set title = ? where id = ?", "b", 1);
+		Assert.assertEquals("b", db.findByCache("blog", "title", "select title from blog where id = 1").get(0).getStr("title"));
+		long version = tagCache.getVersion("blog");
+		
+		TxFun prev = Tx.getTxFun();
+		Tx.setTxFun((inv, conn) -> {
+			inv.invoke();
+			conn.commit();
+		});
+		try {
+			BlogService service = new BlogService();
+			Method method = BlogService.class.getMethod("rename", long.class, String.class);
+			Invocation inv = new Invocation(service, method, new Interceptor[]{new Tx()}, args -> {
+				service.rename((Long)args[0], (String)args[1]);
+				return null;
+			}, new Object[]{1L, "d"});
+			inv.invoke();
+		} finally {
+			Tx.setTxFun(prev);
+		}
+		
+		Assert.assertEquals(version + 1, tagCache.getVersion("blog"));
+		Assert.assertEquals("d", db.findByCache("blog", "title", "select title from blog where id = 1").get(0).getStr("title"));
+	}
+}
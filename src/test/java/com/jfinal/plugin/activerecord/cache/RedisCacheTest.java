@@ -0,0 +1,79 @@
+package com.jfinal.plugin.activerecord.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.jfinal.plugin.redis.ClusterCache;
+import com.jfinal.plugin.redis.FakeRedisCluster;
+import com.jfinal.plugin.redis.IKeyNamingPolicy;
+import com.jfinal.plugin.redis.serializer.SchemaSerializer;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.util.JedisClusterCRC16;
+
+public class RedisCacheTest {
+	
+	FakeRedisCluster cluster;
+	RedisCache cache;
+	
+	@Before
+	public void init() throws IOException {
+		cluster = new FakeRedisCluster(3);
+		ClusterCache redis = new ClusterCache("test", Arrays.asList(cluster.address(0)), new JedisPoolConfig(), 2000, null, null, new SchemaSerializer(), IKeyNamingPolicy.defaultKeyNamingPolicy);
+		cache = new RedisCache(redis).setVersionCheckMillis(0);
+	}
+	
+	@After
+	public void destroy() throws IOException {
+		cluster.close();
+	}
+	
+	@Test
+	public void namespaceSpreadsOverSlots() {
+		List<Object> keys = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			keys.add(i);
+			cache.put("user", i, "u" + i);
+		}
+		
+		Set<Integer> slots = new HashSet<>();
+		for (FakeRedisCluster.FakeNode n : cluster.nodes) {
+			Assert.assertFalse("every node holds part of the namespace", n.data.isEmpty());
+			for (String k : n.data.keySet()) {
+				slots.add(JedisClusterCRC16.getSlot(k));
+			}
+		}
+		Assert.assertTrue(slots.size() > 3);
+		
+		// getAll 跨 slot 读取，结果按参数顺序组装
+		keys.add("missing");
+		List<Object> values = cache.getAll("user", keys);
+		Assert.assertEquals(keys.size(), values.size());
+		for (int i = 0; i < 30; i++) {
+			Assert.assertEquals("u" + i, values.get(i));
+		}
+		Assert.assertNull(values.get(30));
+	}
+	
+	@Test
+	public void removeAll() {
+		cache.put("user", 1, "u1");
+		cache.put("user", 2, "u2");
+		Assert.assertEquals("u1", cache.get("user", 1));
+		
+		cache.removeAll("user");
+		Assert.assertNull(cache.get("user", 1));
+		Assert.assertEquals(Arrays.asList(null, null), cache.getAll("user", Arrays.asList(1, 2)));
+		
+		cache.put("user", 1, "v1");
+		Assert.assertEquals("v1", cache.get("user", 1));
+		cache.remove("user", 1);
+		Assert.assertNull(cache.get("user", 1));
+	}
+}
@@ -0,0 +1,114 @@
+package com.jfinal.plugin.activerecord.cache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SingleFlightTest {
+	
+	ExecutorService executor = Executors.newCachedThreadPool();
+	
+	@After
+	public void exit() {
+		executor.shutdownNow();
+		SingleFlight.setWaitTimeoutMillis(10000);
+	}
+	
+	@Test
+	public void concurrentLoadSharesResult() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Future<String> first = executor.submit(() -> SingleFlight.load("c", "k", () -> {
+			loads.incrementAndGet();
+			started.countDown();
+			await(release);
+			return "v";
+		}));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		
+		Future<String> second = executor.submit(() -> SingleFlight.load("c", "k", () -> {
+			loads.incrementAndGet();
+			return "other";
+		}));
+		Thread.sleep(50);
+		release.countDown();
+		
+		Assert.assertEquals("v", first.get(5, TimeUnit.SECONDS));
+		Assert.assertEquals("v", second.get(5, TimeUnit.SECONDS));
+		Assert.assertEquals(1, loads.get());
+	}
+	
+	@Test
+	public void reentrantLoadDoesNotDeadlock() throws Exception {
+		Future<String> f = executor.submit(() -> SingleFlight.load("c", "reentrant", () -> {
+			return "outer:" + SingleFlight.load("c", "reentrant", () -> "inner");
+		}));
+		Assert.assertEquals("outer:inner", f.get(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void waitIsBounded() throws Exception {
+		SingleFlight.setWaitTimeoutMillis(100);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Future<String> slow = executor.submit(() -> SingleFlight.load("c", "slow", () -> {
+			started.countDown();
+			await(release);
+			return "slow";
+		}));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		
+		// 等待超时以后直接执行 loader
+		long start = System.currentTimeMillis();
+		Assert.assertEquals("direct", SingleFlight.load("c", "slow", () -> "direct"));
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+		
+		release.countDown();
+		Assert.assertEquals("slow", slow.get(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void waiterReceivesLoaderException() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Future<String> first = executor.submit(() -> SingleFlight.load("c", "error", () -> {
+			started.countDown();
+			await(release);
+			throw new IllegalStateException("load failed");
+		}));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		
+		Future<String> second = executor.submit(() -> SingleFlight.load("c", "error", () -> "other"));
+		Thread.sleep(50);
+		release.countDown();
+		
+		try {
+			second.get(5, TimeUnit.SECONDS);
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		try {
+			first.get(5, TimeUnit.SECONDS);
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+	
+	static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package com.jfinal.plugin.activerecord.sql;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.kit.Kv;
+import com.jfinal.plugin.activerecord.SqlPara;
+import com.jfinal.template.source.StringSource;
+
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class CompiledSqlTest {
+	
+	static SqlKit sqlKit;
+	
+	@BeforeClass
+	public static void init() {
+		sqlKit = new SqlKit("compiledSqlTest");
+		sqlKit.addSqlTemplate(new StringSource(
+			"#sql(\"byName\")\n" +
+			"  select * from blog where id = #para(id) and title like #para(title, \"like\") and author like #para(author, \"%like\")\n" +
+			"#end\n" +
+			"#sql(\"byIndex\")\n" +
+			"  select * from blog where id = #para(0) or id = #para(1) and title like #para(2, \"like%\")\n" +
+			"#end\n" +
+			"#sql(\"noPara\")\n" +
+			"  select count(*) from blog\n" +
+			"#end\n" +
+			"#sql(\"dynamic\")\n" +
+			"  select * from blog where 1 = 1 #if(id) and id = #para(id) #end\n" +
+			"#end\n", false));
+		sqlKit.parseSqlTemplate();
+	}
+	
+	/**
+	 * 不经由 CompiledSql，直接渲染模板
+	 */
+	static SqlPara render(String key, Map data) {
+		SqlPara ret = new SqlPara();
+		data.put(SqlKit.SQL_PARA_KEY, ret);
+		ret.setSql(sqlKit.getSqlTemplate(key).renderToString(data));
+		return ret;
+	}
+	
+	static void assertSame(SqlPara expected, SqlPara actual) {
+		Assert.assertEquals(expected.getSql(), actual.getSql());
+		Assert.assertArrayEquals(expected.getPara(), actual.getPara());
+	}
+	
+	@Test
+	public void staticSqlMatchesRendering() {
+		Assert.assertTrue(sqlKit.isStaticSql("byName"));
+		Assert.assertTrue(sqlKit.isStaticSql("byIndex"));
+		Assert.assertTrue(sqlKit.isStaticSql("noPara"));
+		Assert.assertFalse(sqlKit.isStaticSql("dynamic"));
+		
+		Kv cond = Kv.of("id", 1).set("title", "jfinal").set("author", "james");
+		assertSame(render("byName", new HashMap(cond)), sqlKit.getSqlPara("byName", cond));
+		
+		Map data = new HashMap();
+		data.put(SqlKit.PARA_ARRAY_KEY, new Object[] {1, 2, "jf"});
+		assertSame(render("byIndex", data), sqlKit.getSqlPara("byIndex", 1, 2, "jf"));
+		
+		assertSame(render("noPara", new HashMap()), sqlKit.getSqlPara("noPara", Kv.create()));
+		assertSame(render("noPara", new HashMap()), sqlKit.getSqlPara("noPara"));
+	}
+	
+	@Test
+	public void nullValueMatchesRendering() {
+		Kv cond = Kv.of("id", null).set("title", null).set("author", "james");
+		assertSame(render("byName", new HashMap(cond)), sqlKit.getSqlPara("byName", cond));
+	}
+	
+	@Test
+	public void dynamicSqlRenders() {
+		Assert.assertEquals(1, sqlKit.getSqlPara("dynamic", Kv.of("id", 1)).getPara().length);
+		Assert.assertEquals(0, sqlKit.getSqlPara("dynamic", Kv.create()).getPara().length);
+	}
+}
@@ -0,0 +1,179 @@
+package com.jfinal.plugin.redis;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.jfinal.plugin.redis.serializer.ISerializer;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.util.JedisClusterCRC16;
+
+public class ClusterCacheTest {
+	
+	static final ISerializer stringSerializer = new ISerializer() {
+		public byte[] keyToBytes(String key) {return key.getBytes(StandardCharsets.UTF_8);}
+		public String keyFromBytes(byte[] bytes) {return FakeRedisCluster.str(bytes);}
+		public byte[] fieldToBytes(Object field) {return valueToBytes(field);}
+		public Object fieldFromBytes(byte[] bytes) {return valueFromBytes(bytes);}
+		public byte[] valueToBytes(Object value) {return value.toString().getBytes(StandardCharsets.UTF_8);}
+		public Object valueFromBytes(byte[] bytes) {return bytes != null ? FakeRedisCluster.str(bytes) : null;}
+	};
+	
+	// ---------
+	
+	FakeRedisCluster cluster;
+	ClusterCache cache;
+	
+	@Before
+	public void init() throws IOException {
+		cluster = new FakeRedisCluster(3);
+		cache = new ClusterCache("test", Arrays.asList(cluster.address(0)), new JedisPoolConfig(), 2000, null, null, stringSerializer, IKeyNamingPolicy.defaultKeyNamingPolicy);
+		cache.setRefreshIntervalMillis(Long.MAX_VALUE);
+	}
+	
+	@After
+	public void destroy() throws IOException {
+		cache.destroy();
+		cluster.close();
+	}
+	
+	static Object[] keys(int n) {
+		Object[] ret = new Object[n];
+		for (int i = 0; i < n; i++) {
+			ret[i] = "k" + i;
+		}
+		return ret;
+	}
+	
+	@Test
+	public void mgetAndDelAcrossSlots() {
+		Object[] keys = keys(50);
+		List<Object> kv = new ArrayList<>();
+		for (Object k : keys) {
+			kv.add(k);
+			kv.add("v:" + k);
+		}
+		cache.mset(kv.toArray());
+		for (FakeRedisCluster.FakeNode n : cluster.nodes) {
+			Assert.assertFalse("every node holds part of the keys", n.data.isEmpty());
+		}
+		
+		Object[] query = Arrays.copyOf(keys, keys.length + 1);
+		query[keys.length] = "missing";
+		List<?> values = cache.mget(query);
+		Assert.assertEquals(query.length, values.size());
+		for (int i = 0; i < keys.length; i++) {
+			Assert.assertEquals("v:" + keys[i], values.get(i));
+		}
+		Assert.assertNull(values.get(keys.length));
+		
+		Assert.assertEquals(Long.valueOf(keys.length), cache.del(query));
+		for (FakeRedisCluster.FakeNode n : cluster.nodes) {
+			Assert.assertTrue(n.data.isEmpty());
+		}
+	}
+	
+	@Test
+	public void movedRefreshesSlotsAndRetries() {
+		cache.set("a", "1");
+		int slot = JedisClusterCRC16.getSlot("a");
+		int from = cluster.owners[slot];
+		int to = (from + 1) % cluster.nodes.size();
+		
+		// 整体 reshard：from 上的全部 slot 与数据迁移到 to，客户端的 slot 分布未刷新
+		for (int s = 0; s < cluster.owners.length; s++) {
+			if (cluster.owners[s] == from) {
+				cluster.owners[s] = to;
+			}
+		}
+		cluster.nodes.get(to).data.putAll(cluster.nodes.get(from).data);
+		cluster.nodes.get(from).data.clear();
+		int queries = cluster.slotsQuery.get();
+		
+		Assert.assertEquals("1", cache.get("a"));
+		Assert.assertEquals(queries + 1, cluster.slotsQuery.get());
+		Assert.assertEquals(cluster.address(to), cache.nodeOf(slot));
+		
+		Object[] keys = keys(30);
+		for (int s = 0; s < cluster.owners.length; s++) {
+			cluster.owners[s] = 0;
+		}
+		cache.mset("k0", "x", "k1", "y");		// 跨 slot 命令遇到 MOVED 时整体重试
+		List<?> values = cache.mget(keys[0], keys[1]);
+		Assert.assertEquals(Arrays.asList("x", "y"), values);
+	}
+	
+	@Test
+	public void askRetriesOnTargetWithoutRefresh() {
+		int slot = JedisClusterCRC16.getSlot("b");
+		int from = cluster.owners[slot];
+		int to = (from + 1) % cluster.nodes.size();
+		cluster.migrating.put(slot, to);
+		int queries = cluster.slotsQuery.get();
+		
+		cache.set("b", "2");
+		Assert.assertEquals("2", FakeRedisCluster.str(cluster.nodes.get(to).data.get("b")));
+		Assert.assertEquals("2", cache.get("b"));
+		Assert.assertEquals(queries, cluster.slotsQuery.get());
+		Assert.assertEquals(cluster.address(from), cache.nodeOf(slot));
+	}
+	
+	@Test
+	public void giveUpAfterMaxAttempts() {
+		int slot = JedisClusterCRC16.getSlot("c");
+		int from = cluster.owners[slot];
+		// ASK 指回自身，模拟迁移始终无法完成
+		cluster.migrating.put(slot, from);
+		cache.setMaxAttempts(3);
+		try {
+			cache.get("c");
+			Assert.fail("ASK loop must fail after maxAttempts");
+		} catch (redis.clients.jedis.exceptions.JedisAskDataException e) {
+		}
+	}
+	
+	@Test
+	public void connectionLostRetriesOnlyReads() {
+		// incr 已执行但连接断开，重试会导致重复递增，只能抛出异常
+		cluster.dropAfterExecute.set(1);
+		try {
+			cache.incr("counter");
+			Assert.fail("write must not be retried after connection lost");
+		} catch (redis.clients.jedis.exceptions.JedisConnectionException e) {
+		}
+		int slot = JedisClusterCRC16.getSlot("counter");
+		Assert.assertEquals("1", FakeRedisCluster.str(cluster.nodes.get(cluster.owners[slot]).data.get("counter")));
+		
+		// 只读命令刷新 slot 分布后重试
+		int queries = cluster.slotsQuery.get();
+		cluster.dropAfterExecute.set(1);
+		Assert.assertEquals("1", cache.get("counter"));
+		Assert.assertTrue(cluster.slotsQuery.get() > queries);
+		
+		Object[] keys = keys(20);
+		List<Object> kv = new ArrayList<>();
+		for (Object k : keys) {
+			kv.add(k);
+			kv.add("v:" + k);
+		}
+		cache.mset(kv.toArray());
+		cluster.dropAfterExecute.set(1);
+		List<?> values = cache.mget(keys);
+		for (int i = 0; i < keys.length; i++) {
+			Assert.assertEquals("v:" + keys[i], values.get(i));
+		}
+		
+		cluster.dropAfterExecute.set(1);
+		try {
+			cache.del(keys);
+			Assert.fail("cross slot del must not be retried after connection lost");
+		} catch (redis.clients.jedis.exceptions.JedisConnectionException e) {
+		}
+		Assert.assertEquals(Long.valueOf(2), cache.incr("counter"));
+	}
+}
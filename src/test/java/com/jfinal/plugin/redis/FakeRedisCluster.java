@@ -0,0 +1,337 @@
+package com.jfinal.plugin.redis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import redis.clients.jedis.util.JedisClusterCRC16;
+
+/**
+ * 在 jvm 中模拟 redis cluster 的节点，支持 CLUSTER SLOTS、ASKING、GET、SET、SETEX、MGET、MSET、DEL、UNLINK、INCR、SCAN，
+ * key 不属于本节点时返回 MOVED，slot 处于迁移状态时返回 ASK，多 key 命令跨 slot 时返回 CROSSSLOT，
+ * dropAfterExecute 用于模拟命令已执行但回复之前连接断开，handlers 用于扩展其它命令
+ */
+public class FakeRedisCluster {
+	
+	public final List<FakeNode> nodes = new ArrayList<>();
+	public final int[] owners = new int[ClusterCache.SLOT_COUNT];		// slot -> 节点下标
+	public final Map<Integer, Integer> migrating = new ConcurrentHashMap<>();	// slot -> ASK 目标节点下标
+	public final AtomicInteger slotsQuery = new AtomicInteger();
+	public final AtomicInteger dropAfterExecute = new AtomicInteger();	// 大于 0 时执行命令之后不回复直接断开连接
+	// 按命令名称扩展其它命令，例如 EVALSHA，返回完整的 RESP 回复
+	public final Map<String, Function<List<byte[]>, byte[]>> handlers = new ConcurrentHashMap<>();
+	// 收到的 SCAN 命令，格式为 "节点下标 参数..."，例如 "0 SCAN 0 MATCH a:* COUNT 10"
+	public final List<String> scans = Collections.synchronizedList(new ArrayList<>());
+	
+	public FakeRedisCluster(int nodeCount) throws IOException {
+		for (int i = 0; i < nodeCount; i++) {
+			nodes.add(new FakeNode(this, i));
+		}
+		for (int slot = 0; slot < owners.length; slot++) {
+			owners[slot] = slot * nodeCount / owners.length;
+		}
+	}
+	
+	public String address(int index) {
+		return "127.0.0.1:" + nodes.get(index).server.getLocalPort();
+	}
+	
+	public void close() throws IOException {
+		for (FakeNode n : nodes) {
+			n.server.close();
+		}
+	}
+	
+	public static class FakeNode implements Runnable {
+		final FakeRedisCluster cluster;
+		final int index;
+		final ServerSocket server;
+		public final Map<String, byte[]> data = new ConcurrentHashMap<>();
+		// SCAN 遍历的次序，key 被删除后仍保留位置，使游标在遍历期间删除 key 时保持有效
+		final List<String> scanOrder = new CopyOnWriteArrayList<>();
+		final AtomicInteger commands = new AtomicInteger();
+		
+		FakeNode(FakeRedisCluster cluster, int index) throws IOException {
+			this.cluster = cluster;
+			this.index = index;
+			this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			Thread t = new Thread(this, "fake-redis-" + index);
+			t.setDaemon(true);
+			t.start();
+		}
+		
+		public void run() {
+			while (!server.isClosed()) {
+				try {
+					Socket socket = server.accept();
+					Thread t = new Thread(() -> serve(socket));
+					t.setDaemon(true);
+					t.start();
+				} catch (IOException e) {
+					return ;
+				}
+			}
+		}
+		
+		void serve(Socket socket) {
+			try (Socket s = socket) {
+				InputStream in = new BufferedInputStream(s.getInputStream());
+				OutputStream out = new BufferedOutputStream(s.getOutputStream());
+				boolean asking = false;
+				List<byte[]> cmd;
+				while ((cmd = readCommand(in)) != null) {
+					String name = str(cmd.get(0)).toUpperCase();
+					if (name.equals("ASKING")) {
+						asking = true;
+						out.write("+OK\r\n".getBytes(StandardCharsets.UTF_8));
+					} else {
+						int executed = commands.get();
+						byte[] reply = execute(name, cmd, asking);
+						if (commands.get() != executed && cluster.dropAfterExecute.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+							return ;
+						}
+						out.write(reply);
+						asking = false;
+					}
+					if (in.available() == 0) {
+						out.flush();
+					}
+				}
+			} catch (IOException e) {
+				// 连接关闭
+			}
+		}
+		
+		byte[] execute(String name, List<byte[]> cmd, boolean asking) {
+			if (name.equals("CLUSTER")) {
+				cluster.slotsQuery.incrementAndGet();
+				return slots();
+			}
+			Function<List<byte[]>, byte[]> handler = cluster.handlers.get(name);
+			if (handler != null) {
+				return handler.apply(cmd);
+			}
+			if (name.equals("SCAN")) {
+				return scan(cmd);
+			}
+			if (!Arrays.asList("GET", "SET", "SETEX", "MGET", "MSET", "DEL", "UNLINK", "INCR").contains(name)) {
+				return "+OK\r\n".getBytes(StandardCharsets.UTF_8);
+			}
+			
+			int slot = JedisClusterCRC16.getSlot(cmd.get(1));
+			// 只有一个节点时与单机 redis 相同，不检查 CROSSSLOT
+			if (cluster.nodes.size() > 1 && (name.equals("MGET") || name.equals("MSET") || name.equals("DEL") || name.equals("UNLINK"))) {
+				for (int i = 1; i < cmd.size(); i += name.equals("MSET") ? 2 : 1) {
+					if (JedisClusterCRC16.getSlot(cmd.get(i)) != slot) {
+						return "-CROSSSLOT Keys in request don't hash to the same slot\r\n".getBytes(StandardCharsets.UTF_8);
+					}
+				}
+			}
+			Integer askTarget = cluster.migrating.get(slot);
+			boolean own = cluster.owners[slot] == index;
+			if (own && askTarget != null) {
+				return ("-ASK " + slot + " " + cluster.address(askTarget) + "\r\n").getBytes(StandardCharsets.UTF_8);
+			}
+			if (!own && !(asking && askTarget != null && askTarget == index)) {
+				return ("-MOVED " + slot + " " + cluster.address(cluster.owners[slot]) + "\r\n").getBytes(StandardCharsets.UTF_8);
+			}
+			
+			commands.incrementAndGet();
+			switch (name) {
+			case "GET":
+				return bulk(data.get(str(cmd.get(1))));
+			case "SET":
+				data.put(str(cmd.get(1)), cmd.get(2));
+				return "+OK\r\n".getBytes(StandardCharsets.UTF_8);
+			case "SETEX":
+				data.put(str(cmd.get(1)), cmd.get(3));
+				return "+OK\r\n".getBytes(StandardCharsets.UTF_8);
+			case "INCR":
+				byte[] old = data.get(str(cmd.get(1)));
+				long value = (old != null ? Long.parseLong(str(old)) : 0) + 1;
+				data.put(str(cmd.get(1)), String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+				return (":" + value + "\r\n").getBytes(StandardCharsets.UTF_8);
+			case "MSET":
+				for (int i = 1; i < cmd.size(); i += 2) {
+					data.put(str(cmd.get(i)), cmd.get(i + 1));
+				}
+				return "+OK\r\n".getBytes(StandardCharsets.UTF_8);
+			case "DEL":
+			case "UNLINK":
+				int n = 0;
+				for (int i = 1; i < cmd.size(); i++) {
+					n += data.remove(str(cmd.get(i))) != null ? 1 : 0;
+				}
+				return (":" + n + "\r\n").getBytes(StandardCharsets.UTF_8);
+			default:	// MGET
+				List<byte[]> parts = new ArrayList<>();
+				parts.add(("*" + (cmd.size() - 1) + "\r\n").getBytes(StandardCharsets.UTF_8));
+				for (int i = 1; i < cmd.size(); i++) {
+					parts.add(bulk(data.get(str(cmd.get(i)))));
+				}
+				return concat(parts);
+			}
+		}
+		
+		/**
+		 * 游标为 scanOrder 中的位置，每次返回 COUNT 个位置中仍然存在且匹配 MATCH、TYPE 的 key，
+		 * 所有 value 均视为 string 类型
+		 */
+		byte[] scan(List<byte[]> cmd) {
+			StringBuilder sb = new StringBuilder().append(index);
+			for (byte[] b : cmd) {
+				sb.append(' ').append(str(b));
+			}
+			cluster.scans.add(sb.toString());
+			
+			int cursor = Integer.parseInt(str(cmd.get(1)));
+			String match = null;
+			String type = null;
+			int count = 10;
+			for (int i = 2; i + 1 < cmd.size(); i += 2) {
+				String option = str(cmd.get(i)).toUpperCase();
+				String value = str(cmd.get(i + 1));
+				if (option.equals("MATCH")) {
+					match = value;
+				} else if (option.equals("COUNT")) {
+					count = Integer.parseInt(value);
+				} else if (option.equals("TYPE")) {
+					type = value;
+				}
+			}
+			
+			for (String key : new TreeSet<>(data.keySet())) {
+				if (!scanOrder.contains(key)) {
+					scanOrder.add(key);
+				}
+			}
+			int end = Math.min(cursor + count, scanOrder.size());
+			List<byte[]> keys = new ArrayList<>();
+			for (int i = cursor; i < end; i++) {
+				String key = scanOrder.get(i);
+				if (data.containsKey(key) && (match == null || key.matches(globToRegex(match))) && (type == null || type.equalsIgnoreCase("string"))) {
+					keys.add(bulk(key.getBytes(StandardCharsets.UTF_8)));
+				}
+			}
+			
+			List<byte[]> parts = new ArrayList<>();
+			parts.add("*2\r\n".getBytes(StandardCharsets.UTF_8));
+			parts.add(bulk((end >= scanOrder.size() ? "0" : String.valueOf(end)).getBytes(StandardCharsets.UTF_8)));
+			parts.add(("*" + keys.size() + "\r\n").getBytes(StandardCharsets.UTF_8));
+			parts.addAll(keys);
+			return concat(parts);
+		}
+		
+		byte[] slots() {
+			List<byte[]> parts = new ArrayList<>();
+			int count = 0;
+			int[] owners = cluster.owners;
+			for (int start = 0; start < owners.length; ) {
+				int end = start;
+				while (end + 1 < owners.length && owners[end + 1] == owners[start]) {
+					end++;
+				}
+				int port = cluster.nodes.get(owners[start]).server.getLocalPort();
+				parts.add(("*3\r\n:" + start + "\r\n:" + end + "\r\n*2\r\n$9\r\n127.0.0.1\r\n:" + port + "\r\n").getBytes(StandardCharsets.UTF_8));
+				count++;
+				start = end + 1;
+			}
+			parts.add(0, ("*" + count + "\r\n").getBytes(StandardCharsets.UTF_8));
+			return concat(parts);
+		}
+	}
+	
+	static List<byte[]> readCommand(InputStream in) throws IOException {
+		String line = readLine(in);
+		if (line == null) {
+			return null;
+		}
+		int n = Integer.parseInt(line.substring(1));
+		List<byte[]> ret = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			int len = Integer.parseInt(readLine(in).substring(1));
+			byte[] b = new byte[len];
+			for (int off = 0; off < len; ) {
+				int r = in.read(b, off, len - off);
+				if (r < 0) {
+					return null;
+				}
+				off += r;
+			}
+			readLine(in);
+			ret.add(b);
+		}
+		return ret;
+	}
+	
+	static String readLine(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '\r') {
+				in.read();
+				return sb.toString();
+			}
+			sb.append((char)c);
+		}
+		return null;
+	}
+	
+	/**
+	 * 仅支持 * 与 ? 两种通配符
+	 */
+	static String globToRegex(String glob) {
+		StringBuilder ret = new StringBuilder();
+		for (char c : glob.toCharArray()) {
+			if (c == '*') {
+				ret.append(".*");
+			} else if (c == '?') {
+				ret.append('.');
+			} else {
+				ret.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return ret.toString();
+	}
+	
+	static byte[] bulk(byte[] value) {
+		if (value == null) {
+			return "$-1\r\n".getBytes(StandardCharsets.UTF_8);
+		}
+		return concat(Arrays.asList(("$" + value.length + "\r\n").getBytes(StandardCharsets.UTF_8), value, "\r\n".getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	static byte[] concat(List<byte[]> parts) {
+		int len = 0;
+		for (byte[] p : parts) {
+			len += p.length;
+		}
+		byte[] ret = new byte[len];
+		int off = 0;
+		for (byte[] p : parts) {
+			System.arraycopy(p, 0, ret, off, p.length);
+			off += p.length;
+		}
+		return ret;
+	}
+	
+	public static String str(byte[] b) {
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,115 @@
+package com.jfinal.plugin.redis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MgetBatcherTest {
+	
+	/**
+	 * 不连接 redis，mget 返回 "v:" + key，并记录每个线程发送 MGET 的次数
+	 */
+	static class MockCache extends Cache {
+		final Map<Thread, AtomicInteger> mgetCount = new ConcurrentHashMap<>();
+		volatile CountDownLatch blockFirst;
+		
+		@SuppressWarnings("rawtypes")
+		public List mget(Object... keys) {
+			mgetCount.computeIfAbsent(Thread.currentThread(), k -> new AtomicInteger()).incrementAndGet();
+			CountDownLatch latch = blockFirst;
+			if (latch != null) {
+				blockFirst = null;
+				try {
+					latch.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			List<Object> ret = new ArrayList<>();
+			for (Object key : keys) {
+				ret.add("v:" + key);
+			}
+			return ret;
+		}
+	}
+	
+	@Test
+	public void get() {
+		MgetBatcher batcher = new MgetBatcher(new MockCache());
+		Assert.assertEquals("v:a", batcher.get("a"));
+		Assert.assertEquals("v:b", batcher.getAsync("b").join());
+	}
+	
+	@Test(timeout = 10000)
+	public void leaderReturnsAfterOneExtraRound() throws Exception {
+		MockCache cache = new MockCache();
+		MgetBatcher batcher = new MgetBatcher(cache, 2);
+		CountDownLatch latch = new CountDownLatch(1);
+		cache.blockFirst = latch;
+		
+		ExecutorService es = Executors.newSingleThreadExecutor();
+		try {
+			Thread[] leader = new Thread[1];
+			Future<Object> f = es.submit(() -> {
+				leader[0] = Thread.currentThread();
+				return batcher.get("leader");
+			});
+			while (cache.mgetCount.isEmpty()) {
+				Thread.sleep(1);
+			}
+			
+			// leader 阻塞在第一次 MGET 时到达的请求全部进入队列
+			List<CompletableFuture<Object>> futures = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				futures.add(batcher.getAsync("k" + i));
+			}
+			latch.countDown();
+			
+			Assert.assertEquals("v:leader", f.get());
+			for (int i = 0; i < futures.size(); i++) {
+				Assert.assertEquals("v:k" + i, futures.get(i).get(5, TimeUnit.SECONDS));
+			}
+			// 自己的一轮加上额外的一轮，剩余请求由其它线程发送
+			Assert.assertEquals(2, cache.mgetCount.get(leader[0]).get());
+		} finally {
+			es.shutdown();
+		}
+	}
+	
+	@Test(timeout = 20000)
+	public void concurrentGet() throws Exception {
+		MockCache cache = new MockCache();
+		MgetBatcher batcher = new MgetBatcher(cache, 8);
+		ExecutorService es = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<Boolean>> list = new ArrayList<>();
+			for (int t = 0; t < 16; t++) {
+				int base = t * 1000;
+				list.add(es.submit(() -> {
+					for (int i = 0; i < 500; i++) {
+						String key = String.valueOf(base + i);
+						if (!("v:" + key).equals(batcher.get(key))) {
+							return false;
+						}
+					}
+					return true;
+				}));
+			}
+			for (Future<Boolean> f : list) {
+				Assert.assertTrue(f.get());
+			}
+		} finally {
+			es.shutdown();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.jfinal.plugin.redis;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NearCacheTest {
+	
+	/**
+	 * 不连接 redis，数据存放在 map 中，版本 key 存放在 versions 中
+	 */
+	static class MockNearCache extends NearCache {
+		final Map<Object, Object> store = new ConcurrentHashMap<>();
+		final Map<String, String> redisVersions = new ConcurrentHashMap<>();
+		volatile Consumer<Object> duringLoad;
+		int loadCount;
+		
+		MockNearCache() {
+			super(new Cache("test", null, null, IKeyNamingPolicy.defaultKeyNamingPolicy), 100, 60 * 1000);
+			subscribed = true;
+			versionCheckMillis = 0;
+		}
+		
+		@SuppressWarnings("unchecked")
+		protected <T> T load(Object key) {
+			loadCount++;
+			T ret = (T)store.get(key);
+			Consumer<Object> c = duringLoad;
+			if (c != null) {
+				duringLoad = null;
+				c.accept(key);
+			}
+			return ret;
+		}
+		
+		protected Map<String, String> readVersions() {
+			return new HashMap<>(redisVersions);
+		}
+		
+		protected void incrVersions(Set<String> buckets) {
+			for (String bucket : buckets) {
+				redisVersions.merge(bucket, "1", (a, b) -> String.valueOf(Long.parseLong(a) + 1));
+			}
+		}
+	}
+	
+	@Test
+	public void cacheAndInvalidate() {
+		MockNearCache nc = new MockNearCache();
+		nc.store.put("a", "v1");
+		Assert.assertEquals("v1", nc.get("a"));
+		Assert.assertEquals("v1", nc.get("a"));
+		Assert.assertEquals(1, nc.loadCount);
+		Assert.assertEquals(1, nc.getHitCount());
+		
+		// null 值同样被缓存
+		Assert.assertNull(nc.get("none"));
+		Assert.assertNull(nc.get("none"));
+		Assert.assertEquals(2, nc.loadCount);
+		
+		nc.store.put("a", "v2");
+		nc.invalidate("a");
+		Assert.assertEquals("v2", nc.get("a"));
+		Assert.assertEquals(3, nc.loadCount);
+	}
+	
+	@Test
+	public void invalidateDuringLoad() {
+		MockNearCache nc = new MockNearCache();
+		nc.store.put("a", "v1");
+		
+		// 加载期间 key 被修改，本次加载的旧值不可写入本地缓存
+		nc.duringLoad = key -> {
+			nc.store.put("a", "v2");
+			nc.invalidate("a");
+		};
+		Assert.assertEquals("v1", nc.get("a"));
+		Assert.assertEquals(0, nc.size());
+		Assert.assertEquals("v2", nc.get("a"));
+		
+		// 加载期间其它 key 失效，不影响本次加载
+		nc.store.put("b", "v1");
+		nc.duringLoad = key -> nc.invalidate("other");
+		Assert.assertEquals("v1", nc.get("b"));
+		int loadCount = nc.loadCount;
+		Assert.assertEquals("v1", nc.get("b"));
+		Assert.assertEquals(loadCount, nc.loadCount);
+	}
+	
+	@Test
+	public void versionBuckets() {
+		MockNearCache nc = new MockNearCache();
+		String a = "a";
+		String b = "b";
+		Assert.assertNotEquals(NearCache.bucketOf(a), NearCache.bucketOf(b));
+		nc.store.put(a, "a1");
+		nc.store.put(b, "b1");
+		
+		nc.applyVersions(nc.readVersions());
+		nc.get(a);
+		nc.get(b);
+		Assert.assertEquals(2, nc.size());
+		
+		// 其它进程写入 a，只失效 a 所在的 field
+		nc.store.put(a, "a2");
+		nc.incrVersions(Collections.singleton(NearCache.bucketOf(a)));
+		nc.applyVersions(nc.readVersions());
+		Assert.assertEquals(1, nc.size());
+		Assert.assertEquals("a2", nc.get(a));
+		Assert.assertEquals("b1", nc.get(b));
+		
+		// 版本 key 被删除时失效原有 field 对应的 key
+		nc.redisVersions.clear();
+		nc.applyVersions(nc.readVersions());
+		Assert.assertEquals(1, nc.size());
+	}
+}
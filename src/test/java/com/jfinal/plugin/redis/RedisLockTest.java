@@ -0,0 +1,131 @@
+package com.jfinal.plugin.redis;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RedisLockTest {
+	
+	/**
+	 * 不连接 redis，在 jvm 中模拟 ACQUIRE、RELEASE、RENEW 脚本，key 过期后视为不存在
+	 */
+	static class MockRedisLock extends RedisLock {
+		final Map<String, Object[]> keys = new ConcurrentHashMap<>();		// name -> {owner, expireAtMillis}
+		final AtomicLong fence = new AtomicLong();
+		
+		MockRedisLock() {
+			super(new Cache("test", null, null, IKeyNamingPolicy.defaultKeyNamingPolicy));
+		}
+		
+		@SuppressWarnings("unchecked")
+		protected synchronized <T> T eval(String script, List<String> keyList, List<String> args) {
+			String name = keyList.get(0);
+			long now = System.currentTimeMillis();
+			Object[] v = keys.get(name);
+			if (v != null && (Long)v[1] <= now) {
+				keys.remove(name);
+				v = null;
+			}
+			
+			if (script == ACQUIRE_SCRIPT) {
+				if (v == null) {
+					keys.put(name, new Object[]{args.get(0), now + Long.parseLong(args.get(1))});
+					return (T)Arrays.asList(1L, fence.incrementAndGet());
+				}
+				return (T)Arrays.asList(0L, (Long)v[1] - now);
+			}
+			if (script == RENEW_SCRIPT) {
+				if (v != null && v[0].equals(args.get(0))) {
+					v[1] = now + Long.parseLong(args.get(1));
+					return (T)Long.valueOf(1);
+				}
+				return (T)Long.valueOf(0);
+			}
+			if (script == RELEASE_SCRIPT) {
+				if (v != null && v[0].equals(args.get(0))) {
+					keys.remove(name);
+					return (T)Long.valueOf(1);
+				}
+				return (T)Long.valueOf(0);
+			}
+			throw new IllegalArgumentException(script);
+		}
+	}
+	
+	@Test
+	public void reentrant() {
+		MockRedisLock rl = new MockRedisLock();
+		RedisLock.Lease lease = rl.lock("a", 10000, 0);
+		Assert.assertSame(lease, rl.lock("a", 10000, 0));
+		Assert.assertEquals(2, lease.getHoldCount());
+		lease.unlock();
+		Assert.assertTrue(rl.keys.containsKey("a"));
+		lease.unlock();
+		Assert.assertFalse(rl.keys.containsKey("a"));
+		
+		try {
+			lease.unlock();
+			Assert.fail("unlock twice must fail");
+		} catch (IllegalStateException e) {
+		}
+	}
+	
+	@Test
+	public void reentrantAfterExpireAndTakenByOthers() throws Exception {
+		MockRedisLock rl = new MockRedisLock();
+		RedisLock.Lease lease = rl.lock("a", 50, 0);
+		Assert.assertTrue(lease.isHeld());
+		Thread.sleep(80);
+		Assert.assertFalse(lease.isHeld());
+		
+		// 锁过期后被其它线程获取，重入不能再直接 holdCount++
+		ExecutorService es = Executors.newSingleThreadExecutor();
+		try {
+			Assert.assertNotNull(es.submit(() -> rl.lock("a", 10000, 0)).get());
+		} finally {
+			es.shutdown();
+		}
+		Assert.assertNull(rl.lock("a", 50, 0));
+		Assert.assertEquals(1, rl.getLostCount());
+		lease.unlock();		// 已丢失的锁 unlock 不抛异常，也不释放他人的锁
+		Assert.assertTrue(rl.keys.containsKey("a"));
+	}
+	
+	@Test
+	public void reentrantAfterExpire() throws Exception {
+		MockRedisLock rl = new MockRedisLock();
+		RedisLock.Lease lease = rl.lock("a", 50, 0);
+		Thread.sleep(80);
+		
+		// 锁已过期但无人获取，重新获取得到新的 Lease 与更大的 fencing token
+		RedisLock.Lease again = rl.lock("a", 10000, 0);
+		Assert.assertNotNull(again);
+		Assert.assertNotSame(lease, again);
+		Assert.assertTrue(again.getToken() > lease.getToken());
+		Assert.assertEquals(1, again.getHoldCount());
+		
+		lease.unlock();
+		Assert.assertTrue(rl.keys.containsKey("a"));
+		again.unlock();
+		Assert.assertFalse(rl.keys.containsKey("a"));
+	}
+	
+	@Test
+	public void reentrantBeforeRedisExpire() throws Exception {
+		MockRedisLock rl = new MockRedisLock();
+		RedisLock.Lease lease = rl.lock("a", 50, 0);
+		// 本地估计已过期而 redis 中仍属于自己时，通过续期确认后重入
+		rl.keys.get("a")[1] = System.currentTimeMillis() + 10000;
+		Thread.sleep(80);
+		Assert.assertSame(lease, rl.lock("a", 50, 0));
+		Assert.assertEquals(2, lease.getHoldCount());
+		Assert.assertTrue(lease.isHeld());
+		Assert.assertEquals(1, rl.getRenewCount());
+	}
+}
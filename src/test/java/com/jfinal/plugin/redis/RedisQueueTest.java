@@ -0,0 +1,198 @@
+package com.jfinal.plugin.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RedisQueueTest {
+	
+	/**
+	 * 不连接 redis，在内存中模拟 stream 与消费组的 pending 列表
+	 */
+	static class MemoryQueue extends RedisQueue {
+		final Map<String, List<Object[]>> streams = new LinkedHashMap<>();		// key -> {id, fields}
+		final Map<String, Object[]> pending = new LinkedHashMap<>();			// id -> {fields, deliveredTimes, lastDeliveryTime}
+		int delivered = 0;
+		long seq = 0;
+		
+		MemoryQueue() {
+			super(new Cache("test", null, null, IKeyNamingPolicy.defaultKeyNamingPolicy), "q", "g");
+		}
+		
+		protected void createGroup() {
+		}
+		
+		protected synchronized String add(String key, Map<String, String> fields) {
+			String id = (++seq) + "-0";
+			streams.computeIfAbsent(key, k -> new ArrayList<>()).add(new Object[]{id, fields});
+			notifyAll();
+			return id;
+		}
+		
+		@SuppressWarnings("unchecked")
+		protected synchronized List<Message> read(int count, long blockMillis) {
+			List<Object[]> list = streams.getOrDefault(stream, Collections.emptyList());
+			if (delivered >= list.size()) {
+				try {
+					wait(blockMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				list = streams.getOrDefault(stream, Collections.emptyList());
+			}
+			
+			List<Message> ret = new ArrayList<>();
+			while (ret.size() < count && delivered < list.size()) {
+				Object[] e = list.get(delivered++);
+				pending.put((String)e[0], new Object[]{e[1], 1, System.currentTimeMillis()});
+				ret.add(new Message((String)e[0], (Map<String, String>)e[1], 1));
+			}
+			return ret;
+		}
+		
+		@SuppressWarnings("unchecked")
+		protected synchronized List<Message> claim(int count) {
+			List<Message> ret = new ArrayList<>();
+			long now = System.currentTimeMillis();
+			for (Map.Entry<String, Object[]> e : pending.entrySet()) {
+				Object[] p = e.getValue();
+				if (ret.size() < count && now - (Long)p[2] >= claimIdleMillis) {
+					p[1] = (Integer)p[1] + 1;
+					p[2] = now;
+					ret.add(new Message(e.getKey(), (Map<String, String>)p[0], (Integer)p[1]));
+				}
+			}
+			claimCount.add(ret.size());
+			return ret;
+		}
+		
+		protected synchronized void ack(String id) {
+			pending.remove(id);
+		}
+		
+		synchronized int pendingSize() {
+			return pending.size();
+		}
+		
+		synchronized List<Object[]> entries(String key) {
+			return new ArrayList<>(streams.getOrDefault(key, Collections.emptyList()));
+		}
+	}
+	
+	MemoryQueue queue = new MemoryQueue();
+	ExecutorService executor = Executors.newCachedThreadPool();
+	
+	@After
+	public void destroy() {
+		queue.stop(1, TimeUnit.SECONDS);
+		executor.shutdownNow();
+	}
+	
+	static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline) {
+				Assert.fail("condition not met in 5 seconds");
+			}
+			Thread.sleep(10);
+		}
+	}
+	
+	static Map<String, String> fields(String value) {
+		return Collections.singletonMap("k", value);
+	}
+	
+	@Test
+	public void readAndAck() throws Exception {
+		List<String> handled = new CopyOnWriteArrayList<>();
+		queue.setBlockMillis(50).setExecutor(executor);
+		queue.start(msg -> handled.add(msg.get("k")));
+		for (int i = 0; i < 10; i++) {
+			queue.send(fields("m" + i));
+		}
+		
+		await(() -> queue.getAckCount() == 10);
+		Assert.assertEquals(10, handled.size());
+		Assert.assertEquals(0, queue.pendingSize());
+		Assert.assertEquals(0, queue.getFailCount());
+	}
+	
+	@Test
+	public void readStopsWhenConcurrencyIsFull() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger started = new AtomicInteger();
+		queue.setBlockMillis(50).setConcurrency(2).setExecutor(executor);
+		queue.start(msg -> {
+			started.incrementAndGet();
+			release.await();
+		});
+		for (int i = 0; i < 5; i++) {
+			queue.send(fields("m" + i));
+		}
+		
+		await(() -> started.get() == 2);
+		Thread.sleep(200);
+		// 处理名额已满，其余消息留在 stream 中未被拉取
+		Assert.assertEquals(2, started.get());
+		Assert.assertEquals(2, queue.pendingSize());
+		Assert.assertEquals(2, queue.getInFlight());
+		
+		release.countDown();
+		await(() -> queue.getAckCount() == 5);
+		Assert.assertEquals(0, queue.pendingSize());
+	}
+	
+	@Test
+	public void failedMessageIsClaimedAndRetried() throws Exception {
+		List<Integer> deliveries = new CopyOnWriteArrayList<>();
+		queue.setBlockMillis(20).setClaim(50, 20, 5).setExecutor(executor);
+		queue.start(msg -> {
+			deliveries.add(msg.getDeliveryCount());
+			if (msg.getDeliveryCount() == 1) {
+				throw new IllegalStateException("first delivery fails");
+			}
+		});
+		queue.send(fields("m"));
+		
+		await(() -> queue.getAckCount() == 1);
+		Assert.assertEquals(Arrays.asList(1, 2), deliveries);
+		Assert.assertEquals(1, queue.getFailCount());
+		Assert.assertTrue(queue.getClaimCount() >= 1);
+		Assert.assertEquals(0, queue.pendingSize());
+	}
+	
+	@Test
+	public void deadLetterAfterMaxDeliveries() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		queue.setBlockMillis(20).setClaim(50, 20, 2).setExecutor(executor);
+		queue.start(msg -> {
+			calls.incrementAndGet();
+			throw new IllegalStateException("always fails");
+		});
+		String id = queue.send(fields("poison"));
+		
+		await(() -> queue.getDeadCount() == 1);
+		Assert.assertEquals(2, calls.get());
+		Assert.assertEquals(2, queue.getFailCount());
+		Assert.assertEquals(0, queue.getAckCount());
+		Assert.assertEquals(0, queue.pendingSize());
+		
+		List<Object[]> dead = queue.entries("q:dead");
+		Assert.assertEquals(1, dead.size());
+		Assert.assertEquals(fields("poison"), dead.get(0)[1]);
+		Assert.assertNotEquals(id, dead.get(0)[0]);
+	}
+}
@@ -0,0 +1,352 @@
+package com.jfinal.plugin.redis;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.aop.Interceptor;
+import com.jfinal.aop.Invocation;
+import com.jfinal.config.Constants;
+import com.jfinal.core.Action;
+import com.jfinal.core.ActionException;
+import com.jfinal.core.CPI;
+import com.jfinal.core.Controller;
+import com.jfinal.plugin.redis.RedisRateLimiter.Algorithm;
+import com.jfinal.plugin.redis.RedisRateLimiter.Result;
+import com.jfinal.render.RenderFactory;
+import com.jfinal.render.RenderManager;
+import com.jfinal.template.Engine;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+public class RedisRateLimiterTest {
+	
+	FakeRedisCluster server;
+	Cache cache;
+	
+	// 模拟限流脚本：不考虑时间，key 的已用额度只增不减，规则与脚本相同
+	final Map<String, Integer> used = new ConcurrentHashMap<>();
+	final AtomicInteger evalCount = new AtomicInteger();
+	final AtomicInteger evalshaCount = new AtomicInteger();
+	volatile String loadedSha = "sha-1";
+	
+	@BeforeClass
+	public static void initRender() {
+		if (RenderManager.me().getRenderFactory() == null) {
+			RenderFactory renderFactory = new RenderFactory();
+			renderFactory.init(new Engine(), new Constants(), null);
+			RenderManager.me().setRenderFactory(renderFactory);
+		}
+	}
+	
+	@Before
+	public void init() throws IOException {
+		server = new FakeRedisCluster(1);
+		server.handlers.put("SCRIPT", cmd -> bulk(loadedSha));
+		server.handlers.put("EVALSHA", cmd -> {
+			evalshaCount.incrementAndGet();
+			if (!FakeRedisCluster.str(cmd.get(1)).equals(loadedSha)) {
+				return "-NOSCRIPT No matching script. Please use EVAL.\r\n".getBytes(StandardCharsets.UTF_8);
+			}
+			return runScript(cmd);
+		});
+		server.handlers.put("EVAL", cmd -> {
+			evalCount.incrementAndGet();
+			return runScript(cmd);
+		});
+		cache = new Cache("rateLimiterTest", new JedisPool(new JedisPoolConfig(), "127.0.0.1", server.nodes.get(0).server.getLocalPort()), ClusterCacheTest.stringSerializer, IKeyNamingPolicy.defaultKeyNamingPolicy);
+	}
+	
+	@After
+	public void destroy() throws IOException {
+		cache.destroy();
+		server.close();
+	}
+	
+	static byte[] bulk(String s) {
+		return FakeRedisCluster.bulk(s.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * cmd：EVALSHA sha 1 key limit window min max
+	 */
+	byte[] runScript(List<byte[]> cmd) {
+		String key = FakeRedisCluster.str(cmd.get(3));
+		int limit = Integer.parseInt(FakeRedisCluster.str(cmd.get(4)));
+		int min = Integer.parseInt(FakeRedisCluster.str(cmd.get(6)));
+		int max = Integer.parseInt(FakeRedisCluster.str(cmd.get(7)));
+		int[] ret = new int[3];
+		used.compute(key, (k, v) -> {
+			int c = v != null ? v : 0;
+			int avail = limit - c;
+			int g = avail >= max * 2 ? max : (avail >= min ? min : 0);
+			ret[0] = g;
+			ret[1] = avail - g;
+			ret[2] = g == 0 ? 1000 : 0;
+			return c + g;
+		});
+		return ("*3\r\n:" + ret[0] + "\r\n:" + ret[1] + "\r\n:" + ret[2] + "\r\n").getBytes(StandardCharsets.UTF_8);
+	}
+	
+	@Test
+	public void permitsOutOfRange() {
+		RedisRateLimiter limiter = new RedisRateLimiter(cache, Algorithm.SLIDING_WINDOW, 10, 1000);
+		for (int permits : new int[] {0, 11}) {
+			try {
+				limiter.acquire("k", permits);
+				Assert.fail("permits " + permits + " must be rejected");
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		Assert.assertTrue(limiter.tryAcquire("k", 10));
+	}
+	
+	@Test
+	public void localLeaseKeepsPartlyUsedLease() {
+		RedisRateLimiter limiter = new RedisRateLimiter(cache, Algorithm.SLIDING_WINDOW, 100, 60000).setLocalBatch(10);
+		
+		// 预留 10 个，使用 1 个
+		Assert.assertTrue(limiter.tryAcquire("k", 1));
+		Assert.assertEquals(1, limiter.getRemoteCount());
+		Assert.assertEquals(9, limiter.acquire("k", 5).getRemaining() + 5);
+		Assert.assertEquals(5, limiter.getLocalHitCount());
+		
+		// 剩余 4 个不足 6 个，访问 redis，剩余的 4 个并入新预留的额度
+		Assert.assertTrue(limiter.tryAcquire("k", 6));
+		Assert.assertEquals(2, limiter.getRemoteCount());
+		Result r = limiter.acquire("k", 8);
+		Assert.assertTrue(r.isAllowed());
+		Assert.assertEquals(0, r.getRemaining());
+		Assert.assertEquals(2, limiter.getRemoteCount());
+		Assert.assertEquals(13, limiter.getLocalHitCount());
+		
+		// redis 中计数的额度全部被使用
+		Assert.assertEquals(1 + 5 + 6 + 8, used.get("_rate_limit_:k").intValue());
+	}
+	
+	@Test
+	public void localLeaseNeverExceedsLimit() throws Exception {
+		int limit = 50;
+		RedisRateLimiter limiter = new RedisRateLimiter(cache, Algorithm.TOKEN_BUCKET, limit, 60000).setLocalBatch(5);
+		AtomicInteger allowed = new AtomicInteger();
+		int threads = 8;
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService es = Executors.newFixedThreadPool(threads);
+		try {
+			for (int t = 0; t < threads; t++) {
+				es.execute(() -> {
+					try {
+						start.await();
+						for (int i = 0; i < 40; i++) {
+							if (limiter.tryAcquire("k", 1 + i % 3)) {
+								allowed.addAndGet(1 + i % 3);
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			}
+			start.countDown();
+			es.shutdown();
+			Assert.assertTrue(es.awaitTermination(10, TimeUnit.SECONDS));
+		} finally {
+			es.shutdownNow();
+		}
+		
+		int reserved = used.get("_rate_limit_:k");
+		int leftover = 0;
+		for (Object lease : limiter.leaseMap.values().toArray()) {
+			leftover += Math.max(0, ((RedisRateLimiter.Lease)lease).remaining.get());
+		}
+		Assert.assertTrue(reserved <= limit);
+		Assert.assertEquals(reserved, allowed.get() + leftover);
+		Assert.assertTrue(limiter.getLocalHitCount() > 0);
+	}
+	
+	@Test
+	public void noScriptFallbackInBatch() {
+		RedisRateLimiter limiter = new RedisRateLimiter(cache, Algorithm.SLIDING_WINDOW, 10, 1000);
+		// 第一次执行时加载脚本并使用 eval
+		Assert.assertTrue(limiter.tryAcquire("a"));
+		Assert.assertEquals(1, evalCount.get());
+		
+		// redis 重启后脚本丢失
+		loadedSha = "sha-2";
+		List<Result> results = limiter.tryAcquire(Arrays.asList("a", "b", "c"));
+		Assert.assertEquals(3, results.size());
+		for (Result r : results) {
+			Assert.assertTrue(r.isAllowed());
+		}
+		Assert.assertEquals(2, evalCount.get());
+		Assert.assertEquals("sha-2", limiter.shaMap.get(limiter.script));
+		Assert.assertEquals(2, used.get("_rate_limit_:a").intValue());
+		Assert.assertEquals(1, used.get("_rate_limit_:b").intValue());
+		Assert.assertEquals(1, used.get("_rate_limit_:c").intValue());
+		
+		// 重新加载之后 pipeline 中的 evalsha 直接成功
+		int evalsha = evalshaCount.get();
+		limiter.tryAcquire(Arrays.asList("a", "b"));
+		Assert.assertEquals(evalsha + 2, evalshaCount.get());
+		Assert.assertEquals(2, evalCount.get());
+	}
+	
+	// ---------
+	
+	public static class LimitedController extends Controller {
+		static final AtomicInteger calls = new AtomicInteger();
+		
+		@RateLimit(value = 1, windowMillis = 60000)
+		public void search() {
+			calls.incrementAndGet();
+		}
+	}
+	
+	@Test
+	public void interceptorRespondsWith429() throws Exception {
+		RateLimitInterceptor interceptor = new RateLimitInterceptor() {
+			protected RedisRateLimiter createRateLimiter(RateLimit rateLimit) {
+				return new RedisRateLimiter(cache, rateLimit.algorithm(), rateLimit.value(), rateLimit.windowMillis());
+			}
+		};
+		Action action = new Action("/limited", "/limited/search", LimitedController.class, LimitedController.class.getMethod("search"), "search", new Interceptor[] {interceptor}, "/");
+		Map<String, String> headers = new HashMap<>();
+		LimitedController.calls.set(0);
+		
+		invoke(action, headers);
+		Assert.assertEquals(1, LimitedController.calls.get());
+		Assert.assertNull(headers.get("Retry-After"));
+		
+		try {
+			invoke(action, headers);
+			Assert.fail("second request must be rejected");
+		} catch (ActionException e) {
+			Assert.assertEquals(429, e.getErrorCode());
+		}
+		Assert.assertEquals(1, LimitedController.calls.get());
+		Assert.assertEquals("1", headers.get("Retry-After"));
+	}
+	
+	static void invoke(Action action, Map<String, String> headers) {
+		HttpServletRequest request = (HttpServletRequest)Proxy.newProxyInstance(RedisRateLimiterTest.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> {
+			return method.getName().equals("getRemoteAddr") ? "127.0.0.1" : null;
+		});
+		HttpServletResponse response = (HttpServletResponse)Proxy.newProxyInstance(RedisRateLimiterTest.class.getClassLoader(), new Class<?>[] {HttpServletResponse.class}, (proxy, method, args) -> {
+			if (method.getName().equals("setHeader")) {
+				headers.put((String)args[0], (String)args[1]);
+			}
+			return null;
+		});
+		LimitedController controller = new LimitedController();
+		CPI._init_(controller, action, request, response, null);
+		new Invocation(action, controller).invoke();
+	}
+	
+	// ---------
+	
+	/**
+	 * 以下测试在真实的 redis 上执行 Lua 脚本，未找到 redis 时跳过，通过 -Dredis.host=... 指定地址
+	 */
+	static JedisPool realRedis() {
+		String host = System.getProperty("redis.host", "127.0.0.1");
+		JedisPool pool = new JedisPool(new JedisPoolConfig(), host, 6379, 500);
+		try (Jedis jedis = pool.getResource()) {
+			jedis.ping();
+			return pool;
+		} catch (Exception e) {
+			pool.close();
+			Assume.assumeTrue("redis not available at " + host + ":6379", false);
+			return null;
+		}
+	}
+	
+	/**
+	 * 等待直到 redis 时间位于窗口起始之后 offset 毫秒处
+	 */
+	static void alignToWindow(Jedis jedis, long window, long offset) throws InterruptedException {
+		List<String> t = jedis.time();
+		long now = Long.parseLong(t.get(0)) * 1000 + Long.parseLong(t.get(1)) / 1000;
+		long elapsed = now % window;
+		Thread.sleep(elapsed <= offset ? offset - elapsed : window - elapsed + offset);
+	}
+	
+	static Cache realCache(JedisPool pool) {
+		return new Cache("rateLimiterRealTest", pool, ClusterCacheTest.stringSerializer, IKeyNamingPolicy.defaultKeyNamingPolicy);
+	}
+	
+	@Test
+	public void slidingWindowScriptAtWindowBoundary() throws Exception {
+		JedisPool pool = realRedis();
+		Cache real = realCache(pool);
+		try (Jedis jedis = pool.getResource()) {
+			long window = 1000;
+			RedisRateLimiter limiter = new RedisRateLimiter(real, Algorithm.SLIDING_WINDOW, 10, window).setPrefix("_rate_limit_test_:");
+			limiter.reset("k");
+			
+			alignToWindow(jedis, window, 50);
+			Assert.assertTrue(limiter.tryAcquire("k", 10));
+			Result r = limiter.acquire("k", 1);
+			Assert.assertFalse(r.isAllowed());
+			Assert.assertTrue(r.getRetryAfterMillis() > 0 && r.getRetryAfterMillis() <= window);
+			
+			// 刚进入下一个窗口时上一窗口的计数几乎全部计入，不会出现窗口切换处的突发
+			alignToWindow(jedis, window, 20);
+			Assert.assertFalse(limiter.tryAcquire("k", 1));
+			
+			// 窗口中点上一窗口的计数只计入一半
+			alignToWindow(jedis, window, 550);
+			Assert.assertTrue(limiter.tryAcquire("k", 4));
+			Assert.assertFalse(limiter.tryAcquire("k", 2));
+			limiter.reset("k");
+		} finally {
+			real.destroy();
+		}
+	}
+	
+	@Test
+	public void tokenBucketScriptRefill() throws Exception {
+		JedisPool pool = realRedis();
+		Cache real = realCache(pool);
+		try {
+			long window = 1000;
+			RedisRateLimiter limiter = new RedisRateLimiter(real, Algorithm.TOKEN_BUCKET, 10, window).setPrefix("_rate_limit_test_:");
+			limiter.reset("k");
+			
+			Assert.assertTrue(limiter.tryAcquire("k", 10));
+			Result r = limiter.acquire("k", 1);
+			Assert.assertFalse(r.isAllowed());
+			Assert.assertTrue(r.getRetryAfterMillis() > 0 && r.getRetryAfterMillis() <= 100);
+			
+			Thread.sleep(150);
+			Assert.assertTrue(limiter.tryAcquire("k", 1));
+			
+			// 补充的令牌不超过容量
+			Thread.sleep(window * 2);
+			Assert.assertTrue(limiter.tryAcquire("k", 10));
+			Assert.assertFalse(limiter.tryAcquire("k", 1));
+			limiter.reset("k");
+		} finally {
+			real.destroy();
+		}
+	}
+}
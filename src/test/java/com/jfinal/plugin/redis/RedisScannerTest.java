@@ -0,0 +1,173 @@
+package com.jfinal.plugin.redis;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+public class RedisScannerTest {
+
+	FakeRedisCluster server;
+	Cache cache;
+
+	@After
+	public void destroy() throws IOException {
+		cache.destroy();
+		server.close();
+	}
+
+	void initSingle() throws IOException {
+		server = new FakeRedisCluster(1);
+		cache = new Cache("scannerTest", new JedisPool(new JedisPoolConfig(), "127.0.0.1", server.nodes.get(0).server.getLocalPort()), ClusterCacheTest.stringSerializer, IKeyNamingPolicy.defaultKeyNamingPolicy);
+	}
+
+	void initCluster() throws IOException {
+		server = new FakeRedisCluster(3);
+		ClusterCache cc = new ClusterCache("scannerClusterTest", Arrays.asList(server.address(0)), new JedisPoolConfig(), 2000, null, null, ClusterCacheTest.stringSerializer, IKeyNamingPolicy.defaultKeyNamingPolicy);
+		cc.setRefreshIntervalMillis(Long.MAX_VALUE);
+		cache = cc;
+	}
+
+	void put(String key, String value) {
+		server.nodes.get(0).data.put(key, value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void cursorCompletion() throws IOException {
+		initSingle();
+		for (int i = 0; i < 25; i++) {
+			put("s:" + i, "v" + i);
+		}
+		for (int i = 0; i < 5; i++) {
+			put("o:" + i, "v" + i);
+		}
+
+		List<Integer> batchSizes = new ArrayList<>();
+		Set<String> keys = new HashSet<>();
+		RedisScanner scanner = cache.scanner("s:*").setCount(4).setBatchSize(10);
+		long n = scanner.forEachKey(list -> {
+			batchSizes.add(list.size());
+			keys.addAll(list);
+			return true;
+		});
+
+		// 30 个 key 每次 SCAN 4 个位置，游标回到 0 时结束，最后不足一批的 key 也被处理
+		Assert.assertEquals(25, n);
+		Assert.assertEquals(25, keys.size());
+		Assert.assertTrue(keys.contains("s:24"));
+		Assert.assertEquals(Arrays.asList(10, 10, 5), batchSizes);
+		Assert.assertEquals(25, scanner.getScannedCount());
+		Assert.assertEquals(25, scanner.getProcessedCount());
+		Assert.assertTrue(scanner.isDone());
+
+		Assert.assertEquals(8, server.scans.size());
+		Assert.assertEquals("0 SCAN 0 MATCH s:* COUNT 4", server.scans.get(0));
+		Assert.assertEquals("0 SCAN 4 MATCH s:* COUNT 4", server.scans.get(1));
+		Assert.assertEquals("0 SCAN 28 MATCH s:* COUNT 4", server.scans.get(7));
+
+		try {
+			scanner.forEachKey(list -> true);
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// 只能执行一次
+		}
+	}
+
+	@Test
+	public void matchCountAndType() throws IOException {
+		initSingle();
+		for (int i = 0; i < 6; i++) {
+			put("t:" + i, "v" + i);
+		}
+
+		// pattern 为 null 时不发送 MATCH，COUNT 默认 1000
+		Assert.assertEquals(6, cache.scanner(null).forEachKey(list -> true));
+		Assert.assertEquals("0 SCAN 0 COUNT 1000", server.scans.get(0));
+
+		server.scans.clear();
+		Map<String, Object> values = new HashMap<>();
+		long n = cache.scanner("t:?").setType("string").forEachValue((keys, list) -> {
+			for (int i = 0; i < keys.size(); i++) {
+				values.put(keys.get(i), list.get(i));
+			}
+			return true;
+		});
+		Assert.assertEquals(6, n);
+		Assert.assertEquals("v3", values.get("t:3"));
+		Assert.assertEquals("0 SCAN 0 MATCH t:? COUNT 1000 TYPE string", server.scans.get(0));
+
+		Assert.assertEquals(0, cache.scanner("t:*").setType("hash").forEachKey(list -> true));
+	}
+
+	@Test
+	public void stopWhenCallbackReturnsFalse() throws IOException {
+		initSingle();
+		for (int i = 0; i < 20; i++) {
+			put("k:" + i, "v");
+		}
+
+		List<RedisScanner> progress = new ArrayList<>();
+		RedisScanner scanner = cache.scanner("k:*").setCount(2).setBatchSize(3).setProgressListener(progress::add);
+		AtomicInteger batches = new AtomicInteger();
+		Assert.assertEquals(6, scanner.forEachKey(list -> batches.incrementAndGet() < 2));
+		Assert.assertEquals(2, progress.size());
+		Assert.assertTrue(scanner.getScannedCount() < 20);
+
+		scanner = cache.scanner("k:*").setCount(2).setBatchSize(3);
+		scanner.cancel();
+		Assert.assertEquals(0, scanner.forEachKey(list -> true));
+		Assert.assertTrue(server.scans.size() < 20);
+	}
+
+	@Test
+	public void clusterScansAllNodes() throws IOException {
+		initCluster();
+		for (int i = 0; i < 60; i++) {
+			cache.set("c:" + i, "v" + i);
+		}
+		cache.set("other", "x");
+		for (FakeRedisCluster.FakeNode node : server.nodes) {
+			Assert.assertFalse(node.data.isEmpty());
+		}
+
+		// 每个节点上的 key 按 slot 分组后 MGET，不会出现 CROSSSLOT
+		Map<String, Object> values = new HashMap<>();
+		long n = cache.scanner("c:*").setCount(5).setBatchSize(7).forEachValue((keys, list) -> {
+			for (int i = 0; i < keys.size(); i++) {
+				values.put(keys.get(i), list.get(i));
+			}
+			return true;
+		});
+		Assert.assertEquals(60, n);
+		Assert.assertEquals(60, values.size());
+		Assert.assertEquals("v42", values.get("c:42"));
+
+		Set<Character> scannedNodes = new HashSet<>();
+		for (String scan : server.scans) {
+			scannedNodes.add(scan.charAt(0));
+		}
+		Assert.assertEquals(3, scannedNodes.size());
+
+		// 遍历期间 UNLINK 已返回的 key 不影响后续游标
+		RedisScanner scanner = cache.scanner("c:*").setCount(5).setBatchSize(7);
+		Assert.assertEquals(60, scanner.delete());
+		Assert.assertEquals(60, scanner.getDeletedCount());
+		int left = 0;
+		for (FakeRedisCluster.FakeNode node : server.nodes) {
+			left += node.data.size();
+		}
+		Assert.assertEquals(1, left);
+		Assert.assertEquals("x", cache.get("other"));
+	}
+}
@@ -0,0 +1,279 @@
+package com.jfinal.plugin.redis;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+public class RedisSubscriberTest {
+	
+	/**
+	 * 模拟 redis 的 pub/sub，支持 SUBSCRIBE、PSUBSCRIBE、UNSUBSCRIBE、PUNSUBSCRIBE，其它命令回复 +OK
+	 */
+	static class FakePubSubServer implements Runnable {
+		final ServerSocket server;
+		final List<Client> clients = new CopyOnWriteArrayList<>();
+		final AtomicInteger connections = new AtomicInteger();
+		
+		static class Client {
+			final Socket socket;
+			final OutputStream out;
+			final Set<String> channels = ConcurrentHashMap.newKeySet();
+			final Set<String> patterns = ConcurrentHashMap.newKeySet();
+			
+			Client(Socket socket) throws IOException {
+				this.socket = socket;
+				this.out = socket.getOutputStream();
+			}
+			
+			synchronized void write(String... parts) throws IOException {
+				StringBuilder sb = new StringBuilder();
+				sb.append('*').append(parts.length).append("\r\n");
+				for (String p : parts) {
+					if (p.startsWith(":")) {
+						sb.append(p).append("\r\n");
+					} else {
+						sb.append('$').append(p.getBytes(StandardCharsets.UTF_8).length).append("\r\n").append(p).append("\r\n");
+					}
+				}
+				out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+				out.flush();
+			}
+			
+			int count() {
+				return channels.size() + patterns.size();
+			}
+		}
+		
+		FakePubSubServer() throws IOException {
+			server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			Thread t = new Thread(this, "fake-redis-pubsub");
+			t.setDaemon(true);
+			t.start();
+		}
+		
+		public void run() {
+			while (!server.isClosed()) {
+				try {
+					Socket socket = server.accept();
+					connections.incrementAndGet();
+					Thread t = new Thread(() -> serve(socket));
+					t.setDaemon(true);
+					t.start();
+				} catch (IOException e) {
+					return ;
+				}
+			}
+		}
+		
+		void serve(Socket socket) {
+			Client client = null;
+			try (Socket s = socket) {
+				client = new Client(s);
+				clients.add(client);
+				InputStream in = new BufferedInputStream(s.getInputStream());
+				List<byte[]> cmd;
+				while ((cmd = FakeRedisCluster.readCommand(in)) != null) {
+					String name = FakeRedisCluster.str(cmd.get(0)).toUpperCase();
+					switch (name) {
+					case "SUBSCRIBE":
+					case "PSUBSCRIBE":
+						for (int i = 1; i < cmd.size(); i++) {
+							String ch = FakeRedisCluster.str(cmd.get(i));
+							(name.equals("SUBSCRIBE") ? client.channels : client.patterns).add(ch);
+							client.write(name.toLowerCase(), ch, ":" + client.count());
+						}
+						break;
+					case "UNSUBSCRIBE":
+					case "PUNSUBSCRIBE":
+						Set<String> set = name.equals("UNSUBSCRIBE") ? client.channels : client.patterns;
+						List<String> names = new CopyOnWriteArrayList<>();
+						for (int i = 1; i < cmd.size(); i++) {
+							names.add(FakeRedisCluster.str(cmd.get(i)));
+						}
+						if (names.isEmpty()) {
+							names.addAll(set);
+						}
+						for (String ch : names) {
+							set.remove(ch);
+							client.write(name.toLowerCase(), ch, ":" + client.count());
+						}
+						break;
+					default:
+						synchronized (client) {
+							client.out.write("+OK\r\n".getBytes(StandardCharsets.UTF_8));
+							client.out.flush();
+						}
+					}
+				}
+			} catch (IOException e) {
+				// 连接关闭
+			} finally {
+				clients.remove(client);
+			}
+		}
+		
+		boolean isSubscribed(String channel) {
+			for (Client c : clients) {
+				if (c.channels.contains(channel) || c.patterns.contains(channel)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		void publish(String channel, String message) throws IOException {
+			for (Client c : clients) {
+				if (c.channels.contains(channel)) {
+					c.write("message", channel, message);
+				}
+				for (String p : c.patterns) {
+					if (p.endsWith("*") && channel.startsWith(p.substring(0, p.length() - 1))) {
+						c.write("pmessage", p, channel, message);
+					}
+				}
+			}
+		}
+		
+		void dropClients() throws IOException {
+			for (Client c : clients) {
+				c.socket.close();
+			}
+		}
+		
+		void close() throws IOException {
+			dropClients();
+			server.close();
+		}
+	}
+	
+	// ---------
+	
+	FakePubSubServer server;
+	Cache cache;
+	RedisSubscriber subscriber;
+	BlockingQueue<String> received = new LinkedBlockingQueue<>();
+	
+	@Before
+	public void init() throws IOException {
+		server = new FakePubSubServer();
+		cache = new Cache("subscriberTest", new JedisPool(new JedisPoolConfig(), "127.0.0.1", server.server.getLocalPort()), ClusterCacheTest.stringSerializer, IKeyNamingPolicy.defaultKeyNamingPolicy);
+		subscriber = new RedisSubscriber(cache).setExecutor(Runnable::run).setRetryMillis(20);
+	}
+	
+	@After
+	public void destroy() throws IOException {
+		subscriber.stop();
+		cache.destroy();
+		server.close();
+	}
+	
+	static void await(BooleanSupplier condition) throws InterruptedException {
+		for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(condition.getAsBoolean());
+	}
+	
+	void assertReceived(String expected) throws InterruptedException {
+		Assert.assertEquals(expected, received.poll(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void dispatchToListeners() throws Exception {
+		subscriber.subscribe("order", (channel, message) -> received.add(channel + ":" + message));
+		subscriber.psubscribe("user.*", (channel, message) -> received.add("p:" + channel + ":" + message));
+		await(() -> subscriber.isSubscribed() && server.isSubscribed("order") && server.isSubscribed("user.*"));
+		Assert.assertEquals(1, server.connections.get());
+		
+		server.publish("order", "1");
+		assertReceived("order:1");
+		server.publish("user.login", "2");
+		assertReceived("p:user.login:2");
+		
+		// 连接建立之后新增的频道在同一连接上订阅
+		subscriber.subscribe("stock", (channel, message) -> received.add(channel + ":" + message));
+		await(() -> server.isSubscribed("stock"));
+		server.publish("stock", "3");
+		assertReceived("stock:3");
+		Assert.assertEquals(1, server.connections.get());
+	}
+	
+	@Test
+	public void unsubscribeLastListener() throws Exception {
+		RedisSubscriber.Listener first = (channel, message) -> received.add("first");
+		RedisSubscriber.Listener second = (channel, message) -> received.add("second");
+		subscriber.subscribe("order", first);
+		subscriber.subscribe("order", second);
+		await(() -> server.isSubscribed("order"));
+		
+		subscriber.unsubscribe("order", first);
+		Assert.assertTrue(server.isSubscribed("order"));
+		server.publish("order", "1");
+		assertReceived("second");
+		
+		subscriber.unsubscribe("order", second);
+		await(() -> !server.isSubscribed("order"));
+	}
+	
+	@Test
+	public void reconnectAndResubscribe() throws Exception {
+		subscriber.subscribe("order", (channel, message) -> received.add(channel + ":" + message));
+		subscriber.psubscribe("user.*", (channel, message) -> received.add("p:" + channel + ":" + message));
+		await(() -> server.isSubscribed("order") && server.isSubscribed("user.*"));
+		
+		server.dropClients();
+		await(() -> server.connections.get() == 2 && server.isSubscribed("order") && server.isSubscribed("user.*"));
+		await(subscriber::isSubscribed);
+		
+		server.publish("order", "1");
+		assertReceived("order:1");
+		server.publish("user.logout", "2");
+		assertReceived("p:user.logout:2");
+		
+		// 断开期间新增的频道在重连后订阅
+		server.dropClients();
+		subscriber.subscribe("stock", (channel, message) -> received.add(channel + ":" + message));
+		await(() -> server.isSubscribed("stock") && server.isSubscribed("order"));
+		server.publish("stock", "3");
+		assertReceived("stock:3");
+	}
+	
+	@Test
+	public void blockingPoolConfigCopiesJedisPoolConfig() {
+		RedisPlugin rp = new RedisPlugin("blockingPoolConfigTest", "127.0.0.1");
+		rp.config(c -> {
+			c.setTestOnBorrow(true);
+			c.setMaxWait(java.time.Duration.ofMillis(1234));
+			c.setMaxTotal(64);
+		});
+		rp.setBlockingPoolSize(4);
+		
+		JedisPoolConfig config = rp.createBlockingPoolConfig();
+		Assert.assertTrue(config.getTestOnBorrow());
+		Assert.assertEquals(1234, config.getMaxWaitDuration().toMillis());
+		Assert.assertEquals(4, config.getMaxTotal());
+		Assert.assertEquals(4, config.getMaxIdle());
+		Assert.assertTrue(config.getBlockWhenExhausted());
+		Assert.assertEquals(64, rp.getJedisPoolConfig().getMaxTotal());
+	}
+}
@@ -0,0 +1,213 @@
+package com.jfinal.plugin.redis.serializer;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import com.jfinal.kit.Kv;
+import com.jfinal.kit.Ret;
+import com.jfinal.plugin.activerecord.ActiveRecordPlugin;
+import com.jfinal.plugin.activerecord.CPI;
+import com.jfinal.plugin.activerecord.CaseInsensitiveContainerFactory;
+import com.jfinal.plugin.activerecord.Model;
+import com.jfinal.plugin.activerecord.Page;
+import com.jfinal.plugin.activerecord.Record;
+import com.jfinal.plugin.activerecord.dialect.H2Dialect;
+
+public class SchemaSerializerTest {
+	
+	static ActiveRecordPlugin arp;
+	
+	public static class Blog extends Model<Blog> {
+		private static final long serialVersionUID = 1L;
+	}
+	
+	@BeforeClass
+	public static void init() throws SQLException {
+		JdbcDataSource ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:schemaSerializerTest;DB_CLOSE_DELAY=-1");
+		try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+			st.execute("create table blog(id bigint primary key, title varchar(50))");
+		}
+		arp = new ActiveRecordPlugin("schemaSerializerTest", ds);
+		arp.setDialect(new H2Dialect());
+		arp.setContainerFactory(new CaseInsensitiveContainerFactory(true));
+		arp.addMapping("blog", Blog.class);
+		arp.start();
+	}
+	
+	@AfterClass
+	public static void exit() {
+		arp.stop();
+	}
+	
+	@SuppressWarnings("unchecked")
+	static <T> T roundTrip(SchemaSerializer s, Object value) {
+		return (T)s.valueFromBytes(s.valueToBytes(value));
+	}
+	
+	@Test
+	public void varIntAndZigZagBoundaries() {
+		int[] ints = {0, 1, -1, 63, -64, 64, 127, 128, 16383, 16384, 2097151, 2097152, Integer.MAX_VALUE, Integer.MIN_VALUE};
+		long[] longs = {0, -1, 1L << 35, -(1L << 35), (1L << 56) - 1, 1L << 56, Long.MAX_VALUE, Long.MIN_VALUE};
+		
+		BytesBuffer out = new BytesBuffer(16);
+		for (int v : ints) {
+			out.writeVarInt(v);
+			out.writeZigZagInt(v);
+		}
+		for (long v : longs) {
+			out.writeVarLong(v);
+			out.writeZigZagLong(v);
+		}
+		
+		BytesBuffer in = new BytesBuffer(out.array(), 0, out.position());
+		for (int v : ints) {
+			Assert.assertEquals(v, in.readVarInt());
+			Assert.assertEquals(v, in.readZigZagInt());
+		}
+		for (long v : longs) {
+			Assert.assertEquals(v, in.readVarLong());
+			Assert.assertEquals(v, in.readZigZagLong());
+		}
+		Assert.assertEquals(out.position(), in.position());
+	}
+	
+	@Test
+	public void utf8SurrogatePairs() {
+		String[] strs = {"", "a", "中文", "😀 emoji 🎉", "é߿ࠀ￿", "lone \uD83D high", "lone \uDE00 low"};
+		for (String s : strs) {
+			BytesBuffer out = new BytesBuffer(4);
+			out.writeString(s);
+			BytesBuffer in = new BytesBuffer(out.array(), 0, out.position());
+			Assert.assertEquals(new String(s.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), in.readString());
+			
+			// 与 String.getBytes(UTF_8) 的编码结果一致
+			in = new BytesBuffer(out.array(), 0, out.position());
+			Assert.assertArrayEquals(s.getBytes(StandardCharsets.UTF_8), in.readBytes(in.readVarInt()));
+		}
+	}
+	
+	@Test
+	public void deflate() {
+		SchemaSerializer s = new SchemaSerializer();
+		s.setCompressThreshold(64);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append("jfinal ");
+		}
+		List<Object> list = new ArrayList<>();
+		list.add(sb.toString());
+		list.add(123);
+		
+		byte[] bytes = s.valueToBytes(list);
+		Assert.assertEquals(PooledSerializer.DEFLATE, bytes[0]);
+		Assert.assertTrue(bytes.length < sb.length() / 10);
+		Assert.assertEquals(list, s.valueFromBytes(bytes));
+		
+		// 未超过阈值时不压缩
+		bytes = s.valueToBytes("short");
+		Assert.assertEquals(PooledSerializer.RAW, bytes[0]);
+		Assert.assertEquals("short", s.valueFromBytes(bytes));
+	}
+	
+	@Test
+	public void nullAndNestedValues() {
+		SchemaSerializer s = new SchemaSerializer();
+		Assert.assertNull(roundTrip(s, null));
+		
+		Map<Object, Object> map = new HashMap<>();
+		map.put("null", null);
+		map.put("list", new ArrayList<>(Arrays.asList(1, 2L, null, "x", new BigDecimal("-12.345"), new BigInteger("-98765432109876543210"))));
+		map.put("kv", Kv.of("a", Kv.of("b", new ArrayList<>(Arrays.asList(true, false)))));
+		map.put("time", LocalDateTime.of(2024, 2, 29, 23, 59, 59, 123456789));
+		map.put("date", LocalDate.of(-5, 12, 31));
+		map.put(7, (short)-3);
+		map.put((byte)-1, 1.5F);
+		
+		Map<Object, Object> ret = roundTrip(s, map);
+		Assert.assertEquals(map, ret);
+		Assert.assertTrue(ret.get("kv") instanceof Kv);
+		
+		Object[] array = roundTrip(s, new Object[] {null, new Object[] {"nested", null}, Ret.ok("msg", "ok")});
+		Assert.assertNull(array[0]);
+		Assert.assertArrayEquals(new Object[] {"nested", null}, (Object[])array[1]);
+		Assert.assertTrue(array[2] instanceof Ret);
+		Assert.assertEquals("ok", ((Ret)array[2]).getStr("msg"));
+		
+		java.sql.Timestamp ts = new java.sql.Timestamp(1700000000123L);
+		ts.setNanos(123456789);
+		Assert.assertEquals(ts, roundTrip(s, ts));
+		Assert.assertArrayEquals(new byte[] {-128, 0, 127}, (byte[])roundTrip(s, new byte[] {-128, 0, 127}));
+	}
+	
+	@Test
+	public void recordKeepsContainer() {
+		SchemaSerializer s = new SchemaSerializer();
+		
+		Record r = new Record();
+		CPI.setColumnsMap(r, new CaseInsensitiveContainerFactory(true).getColumnsMap());
+		r.set("ID", 1L).set("Title", "jfinal").set("Remark", null);
+		Record ret = roundTrip(s, r);
+		Assert.assertTrue(ret.getColumns() instanceof CaseInsensitiveContainerFactory.CaseInsensitiveMap);
+		Assert.assertEquals(Boolean.TRUE, ((CaseInsensitiveContainerFactory.CaseInsensitiveMap<?>)ret.getColumns()).getContainerFactory().getToLowerCase());
+		Assert.assertEquals(Long.valueOf(1), ret.getLong("id"));
+		Assert.assertEquals("jfinal", ret.getStr("TITLE"));
+		Assert.assertTrue(ret.getColumns().containsKey("remark"));
+		ret.set("NEW_COLUMN", 1);
+		Assert.assertTrue(ret.getColumns().containsKey("new_column"));
+		
+		Record ordered = new Record();
+		CPI.setColumnsMap(ordered, new LinkedHashMap<>());
+		ordered.set("z", 1).set("a", 2).set("m", 3);
+		Record orderedRet = roundTrip(s, ordered);
+		Assert.assertEquals(LinkedHashMap.class, orderedRet.getColumns().getClass());
+		Assert.assertEquals(Arrays.asList("z", "a", "m"), new ArrayList<>(orderedRet.getColumns().keySet()));
+		
+		Record plain = new Record();
+		CPI.setColumnsMap(plain, new HashMap<>());
+		plain.set("Name", "x");
+		Record plainRet = roundTrip(s, plain);
+		Assert.assertEquals(HashMap.class, plainRet.getColumns().getClass());
+		Assert.assertNull(plainRet.getStr("name"));
+	}
+	
+	@Test
+	public void modelAndPage() {
+		SchemaSerializer s = new SchemaSerializer();
+		List<Blog> list = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			list.add(new Blog().set("id", (long)i).set("Title", "t" + i));
+		}
+		Page<Blog> page = new Page<>(list, 2, 3, 4, 11);
+		
+		Page<Blog> ret = roundTrip(s, page);
+		Assert.assertEquals(2, ret.getPageNumber());
+		Assert.assertEquals(3, ret.getPageSize());
+		Assert.assertEquals(4, ret.getTotalPage());
+		Assert.assertEquals(11, ret.getTotalRow());
+		Assert.assertEquals(3, ret.getList().size());
+		for (int i = 0; i < 3; i++) {
+			Blog b = ret.getList().get(i);
+			Assert.assertEquals(Blog.class, b.getClass());
+			Assert.assertEquals(Long.valueOf(i), b.getLong("ID"));
+			Assert.assertEquals("t" + i, b.getStr("title"));
+			Assert.assertTrue(CPI.getAttrs(b) instanceof CaseInsensitiveContainerFactory.CaseInsensitiveMap);
+		}
+	}
+}